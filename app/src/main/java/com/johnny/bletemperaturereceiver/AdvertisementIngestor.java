@@ -0,0 +1,186 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Connectionless ("broadcast mode") readings: decodes the temperature from each advertisement a
+ * {@link LeScanner} reports, drops repeats of an advertisement already seen, and hands the rest
+ * to a {@link Listener}. No GATT connection is made, so the number of sensors is only limited by
+ * how many advertisements the scanner hears.
+ * <p>
+ * Supported payloads:
+ * <ul>
+ * <li>Service data of 0x1809 holding a Temperature Measurement (0x2A1C) value, optionally followed
+ * by a 1 byte packet counter.</li>
+ * <li>Manufacturer specific data described by a {@link ManufacturerDataLayout}.</li>
+ * </ul>
+ * Repeats are recognised by packet counter when there is one, by payload hash otherwise. An
+ * unchanged payload is still passed on every {@link #setRepeatIntervalMillis(long) repeat interval}
+ * so a steady temperature keeps being recorded.
+ */
+public class AdvertisementIngestor implements LeScanner.Callback {
+	public static final int SERVICE_TEMPERATURE_UUID16 = 0x1809;
+	public static final long DEFAULT_REPEAT_INTERVAL_MS = 60 * 1000;
+
+	public interface Listener {
+		/**
+		 * Called on the scanning thread.
+		 *
+		 * @param measurement only valid during the call.
+		 */
+		void onBroadcastMeasurement(String address, String name, int rssi, TemperatureMeasurement measurement);
+	}
+
+	private static class Source {
+		long lastKey;
+		long lastAcceptedNanos;
+	}
+
+	private final Listener mListener;
+	private final List<ManufacturerDataLayout> mLayouts = new ArrayList<>();
+	private final HashMap<String, Source> mSources = new HashMap<>();
+	private final TemperatureMeasurement mMeasurement = new TemperatureMeasurement();
+	private long mRepeatIntervalNanos = DEFAULT_REPEAT_INTERVAL_MS * 1000000L;
+
+	private long mResults;
+	private long mAccepted;
+	private long mDuplicates;
+	private long mUnparsed;
+
+	public AdvertisementIngestor(Listener listener) {
+		mListener = listener;
+	}
+
+	public synchronized AdvertisementIngestor addManufacturerLayout(ManufacturerDataLayout layout) {
+		mLayouts.add(layout);
+		return this;
+	}
+
+	public synchronized List<ManufacturerDataLayout> getManufacturerLayouts() {
+		return new ArrayList<>(mLayouts);
+	}
+
+	public synchronized void setRepeatIntervalMillis(long repeatIntervalMillis) {
+		mRepeatIntervalNanos = repeatIntervalMillis * 1000000L;
+	}
+
+	public synchronized long getResultCount() {
+		return mResults;
+	}
+
+	public synchronized long getAcceptedCount() {
+		return mAccepted;
+	}
+
+	public synchronized long getDuplicateCount() {
+		return mDuplicates;
+	}
+
+	/**
+	 * Advertisements without a recognised temperature payload.
+	 */
+	public synchronized long getUnparsedCount() {
+		return mUnparsed;
+	}
+
+	public synchronized int getSourceCount() {
+		return mSources.size();
+	}
+
+	public synchronized void reset() {
+		mSources.clear();
+	}
+
+	@Override
+	public void onScanResult(LeScanResult result) {
+		ingest(result);
+	}
+
+	@Override
+	public void onBatchScanResults(List<LeScanResult> results) {
+		for (int i = 0, size = results.size(); i < size; i++) {
+			ingest(results.get(i));
+		}
+	}
+
+	@Override
+	public void onScanFailed(int errorCode) {
+	}
+
+	/**
+	 * @return true if the advertisement produced a new reading.
+	 */
+	public boolean ingest(LeScanResult result) {
+		synchronized (this) {
+			mResults++;
+			final byte[] record = result.scanRecord;
+			final long key = decode(record);
+			if (key == NO_READING) {
+				mUnparsed++;
+				return false;
+			}
+			Source source = mSources.get(result.address);
+			if (source == null) {
+				source = new Source();
+				mSources.put(result.address, source);
+			} else if (source.lastKey == key
+					&& result.timestampNanos - source.lastAcceptedNanos < mRepeatIntervalNanos) {
+				mDuplicates++;
+				return false;
+			}
+			source.lastKey = key;
+			source.lastAcceptedNanos = result.timestampNanos;
+			mAccepted++;
+			mListener.onBroadcastMeasurement(result.address, result.name, result.rssi, mMeasurement);
+		}
+		return true;
+	}
+
+	private static final long NO_READING = -1;
+	// Dedupe keys: packet counters as is, payload hashes tagged above the counter range.
+	private static final long HASH_KEY = 1L << 32;
+
+	/**
+	 * Decodes into mMeasurement.
+	 *
+	 * @return the dedupe key (packet counter or payload hash), NO_READING if there is no temperature.
+	 */
+	private long decode(byte[] record) {
+		int field = AdvertisementParser.findServiceData16(record, SERVICE_TEMPERATURE_UUID16);
+		if (field >= 0) {
+			final int offset = AdvertisementParser.valueOffset(field) + 2;
+			final int length = AdvertisementParser.valueLength(record, field) - 2;
+			if (length > 0) {
+				final int size = TemperatureMeasurementCodec.lengthOf(record[offset] & 0xFF);
+				if (TemperatureMeasurementCodec.decode(record, offset, Math.min(length, size), mMeasurement)) {
+					return length > size ? record[offset + size] & 0xFF : hash(record, offset, size);
+				}
+			}
+		}
+		for (int i = 0, count = mLayouts.size(); i < count; i++) {
+			final ManufacturerDataLayout layout = mLayouts.get(i);
+			field = AdvertisementParser.findManufacturerData(record, layout.getCompanyId());
+			if (field < 0) {
+				continue;
+			}
+			final int offset = AdvertisementParser.valueOffset(field) + 2;
+			final int length = AdvertisementParser.valueLength(record, field) - 2;
+			if (layout.decode(record, offset, length, mMeasurement)) {
+				final int sequence = layout.sequence(record, offset, length);
+				return sequence >= 0 ? sequence : hash(record, offset, length);
+			}
+		}
+		return NO_READING;
+	}
+
+	// FNV-1a
+	private static long hash(byte[] data, int offset, int length) {
+		int hash = 0x811C9DC5;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = (hash ^ (data[i] & 0xFF)) * 0x01000193;
+		}
+		return HASH_KEY | (hash & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,133 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Allocation-free lookups in raw advertisement / scan response payloads (a sequence of
+ * length-type-value AD structures, Core Specification Supplement part A).
+ * <p>
+ * The {@code find*} methods return the offset of the AD structure's length byte, or -1; the value
+ * starts at {@link #valueOffset(int)} and has {@link #valueLength(byte[], int)} bytes.
+ */
+public final class AdvertisementParser {
+	public static final int TYPE_FLAGS = 0x01;
+	public static final int TYPE_INCOMPLETE_UUID16 = 0x02;
+	public static final int TYPE_COMPLETE_UUID16 = 0x03;
+	public static final int TYPE_SHORT_NAME = 0x08;
+	public static final int TYPE_COMPLETE_NAME = 0x09;
+	public static final int TYPE_SERVICE_DATA_UUID16 = 0x16;
+	public static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+	private static final int[] UUID16_TYPES = {TYPE_COMPLETE_UUID16, TYPE_INCOMPLETE_UUID16};
+
+	private AdvertisementParser() {
+	}
+
+	/**
+	 * Offset of the first AD structure of {@code type}, -1 if there is none or the record is malformed.
+	 */
+	public static int findField(byte[] record, int type) {
+		return findField(record, type, 0);
+	}
+
+	public static int findField(byte[] record, int type, int fromOffset) {
+		if (record == null) {
+			return -1;
+		}
+		int offset = fromOffset;
+		while (offset < record.length) {
+			final int length = record[offset] & 0xFF;
+			if (length == 0) {
+				// Zero padding ends the significant part.
+				return -1;
+			}
+			if (offset + 1 + length > record.length) {
+				return -1;
+			}
+			if ((record[offset + 1] & 0xFF) == type) {
+				return offset;
+			}
+			offset += 1 + length;
+		}
+		return -1;
+	}
+
+	public static int valueOffset(int fieldOffset) {
+		return fieldOffset + 2;
+	}
+
+	public static int valueLength(byte[] record, int fieldOffset) {
+		return (record[fieldOffset] & 0xFF) - 1;
+	}
+
+	/**
+	 * True if {@code uuid16} is listed as a (complete or incomplete) 16-bit service UUID or carries
+	 * service data.
+	 */
+	public static boolean hasServiceUuid16(byte[] record, int uuid16) {
+		for (int type : UUID16_TYPES) {
+			int field = findField(record, type);
+			while (field >= 0) {
+				final int start = valueOffset(field);
+				final int end = start + valueLength(record, field);
+				for (int i = start; i + 1 < end; i += 2) {
+					if (uint16(record, i) == uuid16) {
+						return true;
+					}
+				}
+				field = findField(record, type, end);
+			}
+		}
+		return findServiceData16(record, uuid16) >= 0;
+	}
+
+	/**
+	 * Service data field of {@code uuid16}. Its payload (after the UUID) starts at
+	 * {@code valueOffset(field) + 2} and has {@code valueLength(record, field) - 2} bytes.
+	 */
+	public static int findServiceData16(byte[] record, int uuid16) {
+		int field = findField(record, TYPE_SERVICE_DATA_UUID16);
+		while (field >= 0) {
+			if (valueLength(record, field) >= 2 && uint16(record, valueOffset(field)) == uuid16) {
+				return field;
+			}
+			field = findField(record, TYPE_SERVICE_DATA_UUID16, valueOffset(field) + valueLength(record, field));
+		}
+		return -1;
+	}
+
+	/**
+	 * Manufacturer specific data of {@code companyId}. Its payload (after the company id) starts at
+	 * {@code valueOffset(field) + 2} and has {@code valueLength(record, field) - 2} bytes.
+	 */
+	public static int findManufacturerData(byte[] record, int companyId) {
+		int field = findField(record, TYPE_MANUFACTURER_DATA);
+		while (field >= 0) {
+			if (valueLength(record, field) >= 2 && uint16(record, valueOffset(field)) == companyId) {
+				return field;
+			}
+			field = findField(record, TYPE_MANUFACTURER_DATA, valueOffset(field) + valueLength(record, field));
+		}
+		return -1;
+	}
+
+	/**
+	 * Complete or short local name, null if absent. Allocates the string.
+	 */
+	public static String getLocalName(byte[] record) {
+		int field = findField(record, TYPE_COMPLETE_NAME);
+		if (field < 0) {
+			field = findField(record, TYPE_SHORT_NAME);
+		}
+		if (field < 0) {
+			return null;
+		}
+		try {
+			return new String(record, valueOffset(field), valueLength(record, field), "UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	static int uint16(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+	}
+}
@@ -0,0 +1,260 @@
+package com.johnny.bletemperaturereceiver;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GattTransport} on top of {@link BluetoothAdapter}. All sessions share one
+ * {@link BluetoothGattCallback}, events are routed to the owning session by device address.
+ */
+public class AndroidGattTransport implements GattTransport {
+	private final static String TAG = AndroidGattTransport.class.getSimpleName();
+
+	private final Context mContext;
+	private final BluetoothAdapter mBluetoothAdapter;
+
+	private final ConcurrentHashMap<String, AndroidGattSession> mSessions = new ConcurrentHashMap<>();
+
+	public AndroidGattTransport(Context context, BluetoothAdapter bluetoothAdapter) {
+		mContext = context;
+		mBluetoothAdapter = bluetoothAdapter;
+	}
+
+	@Override
+	public GattSession connect(String address, boolean autoConnect, GattSession.Callback callback) {
+		final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+		if (device == null) {
+			Log.w(TAG, "Device not found.  Unable to connect.");
+			return null;
+		}
+		final AndroidGattSession session = new AndroidGattSession(device, callback);
+		// Registered before connectGatt() so early callbacks can be routed.
+		mSessions.put(address, session);
+		final BluetoothGatt gatt = device.connectGatt(mContext, autoConnect, mGattCallback);
+		if (gatt == null) {
+			mSessions.remove(address, session);
+			return null;
+		}
+		session.mGatt = gatt;
+		return session;
+	}
+
+	private AndroidGattSession sessionFor(BluetoothGatt gatt) {
+		final AndroidGattSession session = mSessions.get(gatt.getDevice().getAddress());
+		if (session == null) {
+			Log.w(TAG, "No session for " + gatt.getDevice().getAddress());
+			return null;
+		}
+		if (session.mGatt == null) {
+			session.mGatt = gatt;
+		}
+		return session;
+	}
+
+	private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+		@Override
+		public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onConnectionStateChange(session, status, newState);
+			}
+		}
+
+		@Override
+		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onServicesDiscovered(session, status);
+			}
+		}
+
+		@Override
+		public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onCharacteristicRead(session, characteristic.getUuid(), characteristic.getValue(), status);
+			}
+		}
+
+		@Override
+		public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onCharacteristicChanged(session, characteristic.getUuid(), characteristic.getValue());
+			}
+		}
+
+		@Override
+		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onCharacteristicWrite(session, characteristic.getUuid(), status);
+			}
+		}
+
+		@Override
+		public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onMtuChanged(session, mtu, status);
+			}
+		}
+
+		@Override
+		public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+			final AndroidGattSession session = sessionFor(gatt);
+			if (session != null) {
+				session.mCallback.onDescriptorWrite(session, descriptor.getCharacteristic().getUuid(),
+						descriptor.getUuid(), status);
+			}
+		}
+	};
+
+	private class AndroidGattSession implements GattSession {
+		private final BluetoothDevice mDevice;
+		private final GattSession.Callback mCallback;
+		private volatile BluetoothGatt mGatt;
+
+		AndroidGattSession(BluetoothDevice device, GattSession.Callback callback) {
+			mDevice = device;
+			mCallback = callback;
+		}
+
+		@Override
+		public String getAddress() {
+			return mDevice.getAddress();
+		}
+
+		@Override
+		public String getName() {
+			return mDevice.getName();
+		}
+
+		@Override
+		public boolean connect() {
+			return mGatt.connect();
+		}
+
+		@Override
+		public void disconnect() {
+			mGatt.disconnect();
+		}
+
+		@Override
+		public void close() {
+			mSessions.remove(mDevice.getAddress(), this);
+			mGatt.close();
+		}
+
+		@Override
+		public boolean discoverServices() {
+			return mGatt.discoverServices();
+		}
+
+		@Override
+		public GattLayout getLayout() {
+			final List<BluetoothGattService> services = mGatt.getServices();
+			if (services == null || services.isEmpty()) {
+				return null;
+			}
+			final GattLayout layout = new GattLayout();
+			for (BluetoothGattService s : services) {
+				for (BluetoothGattCharacteristic c : s.getCharacteristics()) {
+					final List<BluetoothGattDescriptor> descriptors = c.getDescriptors();
+					final UUID[] uuids = new UUID[descriptors.size()];
+					for (int i = 0; i < uuids.length; i++) {
+						uuids[i] = descriptors.get(i).getUuid();
+					}
+					layout.add(s.getUuid(), s.getInstanceId(), c.getUuid(), c.getInstanceId(), c.getProperties(), uuids);
+				}
+			}
+			return layout;
+		}
+
+		/**
+		 * BluetoothGatt has no public way to load attributes into a new handle, so only a reused
+		 * handle that still holds the same services (same instance ids) can skip discovery.
+		 */
+		@Override
+		public boolean restoreLayout(GattLayout layout) {
+			if (layout.size() == 0) {
+				return false;
+			}
+			for (int i = 0; i < layout.size(); i++) {
+				final GattLayout.Characteristic cached = layout.get(i);
+				final BluetoothGattCharacteristic c = findCharacteristic(cached.service, cached.uuid);
+				if (c == null || c.getInstanceId() != cached.instanceId) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean hasCharacteristic(UUID service, UUID characteristic) {
+			return findCharacteristic(service, characteristic) != null;
+		}
+
+		@Override
+		public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+			final BluetoothGattCharacteristic c = findCharacteristic(service, characteristic);
+			return c != null && mGatt.setCharacteristicNotification(c, enable);
+		}
+
+		@Override
+		public boolean readCharacteristic(UUID service, UUID characteristic) {
+			final BluetoothGattCharacteristic c = findCharacteristic(service, characteristic);
+			return c != null && mGatt.readCharacteristic(c);
+		}
+
+		@Override
+		public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+			final BluetoothGattCharacteristic c = findCharacteristic(service, characteristic);
+			if (c == null) {
+				return false;
+			}
+			c.setValue(value);
+			return mGatt.writeCharacteristic(c);
+		}
+
+		@Override
+		public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+			final BluetoothGattCharacteristic c = findCharacteristic(service, characteristic);
+			if (c == null) {
+				return false;
+			}
+			final BluetoothGattDescriptor d = c.getDescriptor(descriptor);
+			if (d == null) {
+				return false;
+			}
+			d.setValue(value);
+			return mGatt.writeDescriptor(d);
+		}
+
+		@Override
+		public boolean requestMtu(int mtu) {
+			return mGatt.requestMtu(mtu);
+		}
+
+		@Override
+		public boolean requestConnectionPriority(int priority) {
+			return mGatt.requestConnectionPriority(priority);
+		}
+
+		private BluetoothGattCharacteristic findCharacteristic(UUID service, UUID characteristic) {
+			final BluetoothGattService s = mGatt.getService(service);
+			return s != null ? s.getCharacteristic(characteristic) : null;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.johnny.bletemperaturereceiver;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link LeScanner} on {@link BluetoothLeScanner}. Each service UUID becomes two hardware
+ * {@link ScanFilter}s (listed UUID, service data), so devices advertising other services never wake
+ * the app. The report delay is only used if the controller supports batching.
+ */
+public class AndroidLeScanner implements LeScanner {
+	private final static String TAG = AndroidLeScanner.class.getSimpleName();
+
+	private final BluetoothAdapter mBluetoothAdapter;
+	private final List<ScanFilter> mFilters = new ArrayList<>();
+
+	private BluetoothLeScanner mScanner;
+	private Callback mCallback;
+
+	public AndroidLeScanner(BluetoothAdapter bluetoothAdapter) {
+		this(bluetoothAdapter, TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID);
+	}
+
+	public AndroidLeScanner(BluetoothAdapter bluetoothAdapter, UUID... serviceUuids) {
+		mBluetoothAdapter = bluetoothAdapter;
+		for (UUID uuid : serviceUuids) {
+			final ParcelUuid parcelUuid = new ParcelUuid(uuid);
+			mFilters.add(new ScanFilter.Builder().setServiceUuid(parcelUuid).build());
+			mFilters.add(new ScanFilter.Builder().setServiceData(parcelUuid, new byte[0]).build());
+		}
+	}
+
+	/**
+	 * Also reports advertisements with manufacturer specific data of {@code companyId}. Takes
+	 * effect on the next {@link #start}.
+	 */
+	public synchronized void addManufacturerFilter(int companyId) {
+		mFilters.add(new ScanFilter.Builder().setManufacturerData(companyId, new byte[0]).build());
+	}
+
+	@Override
+	public synchronized boolean start(ScanProfile profile, Callback callback) {
+		if (mScanner != null || !mBluetoothAdapter.isEnabled()) {
+			return false;
+		}
+		final BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+		if (scanner == null) {
+			return false;
+		}
+		if (profile.reportDelayMillis > 0 && !mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+			Log.i(TAG, "Scan batching not supported, reporting every result");
+			profile = profile.withoutBatching();
+		}
+		final ScanSettings settings = new ScanSettings.Builder()
+				.setScanMode(profile.scanMode)
+				.setReportDelay(profile.reportDelayMillis)
+				.build();
+		mCallback = callback;
+		mScanner = scanner;
+		scanner.startScan(mFilters, settings, mScanCallback);
+		return true;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (mScanner == null) {
+			return;
+		}
+		try {
+			mScanner.flushPendingScanResults(mScanCallback);
+			mScanner.stopScan(mScanCallback);
+		} catch (IllegalStateException e) {
+			// Bluetooth turned off meanwhile.
+			Log.w(TAG, "stopScan: " + e);
+		}
+		mScanner = null;
+	}
+
+	@Override
+	public synchronized boolean isScanning() {
+		return mScanner != null;
+	}
+
+	private synchronized Callback getCallback() {
+		return mCallback;
+	}
+
+	private final ScanCallback mScanCallback = new ScanCallback() {
+		@Override
+		public void onScanResult(int callbackType, ScanResult result) {
+			final Callback callback = getCallback();
+			if (callback != null) {
+				callback.onScanResult(convert(result));
+			}
+		}
+
+		@Override
+		public void onBatchScanResults(List<ScanResult> results) {
+			final Callback callback = getCallback();
+			if (callback == null || results.isEmpty()) {
+				return;
+			}
+			final List<LeScanResult> converted = new ArrayList<>(results.size());
+			for (ScanResult result : results) {
+				converted.add(convert(result));
+			}
+			callback.onBatchScanResults(converted);
+		}
+
+		@Override
+		public void onScanFailed(int errorCode) {
+			Log.w(TAG, "Scan failed: " + errorCode);
+			synchronized (AndroidLeScanner.this) {
+				mScanner = null;
+			}
+			final Callback callback = getCallback();
+			if (callback != null) {
+				callback.onScanFailed(errorCode);
+			}
+		}
+	};
+
+	private static LeScanResult convert(ScanResult result) {
+		final ScanRecord record = result.getScanRecord();
+		// The advertised name, BluetoothDevice.getName() would be a binder call.
+		return new LeScanResult(result.getDevice().getAddress(),
+				record != null ? record.getDeviceName() : null,
+				result.getRssi(),
+				record != null ? record.getBytes() : null,
+				result.getTimestampNanos());
+	}
+}
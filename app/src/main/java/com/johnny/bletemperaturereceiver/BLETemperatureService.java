@@ -1,32 +1,38 @@
 package com.johnny.bletemperaturereceiver;
 
+import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
-import android.support.v4.app.NotificationCompat;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
-import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
- * Service for managing connection and data communication with a GATT server hosted on a
- * given Bluetooth LE device.
+ * Service for managing connection and data communication with GATT servers hosted on
+ * Bluetooth LE thermometers. Several devices can be connected at once, see
+ * {@link SensorConnectionManager}.
  */
 public class BLETemperatureService extends Service {
 	private final static String TAG = BLETemperatureService.class.getSimpleName();
@@ -36,19 +42,99 @@ public class BLETemperatureService extends Service {
 	private BluetoothManager mBluetoothManager;
 	private BluetoothAdapter mBluetoothAdapter;
 
-	private String mBluetoothDeviceAddress;
-	private BluetoothGatt mBluetoothGatt;
+	private GattTransport mGattTransport;
+	private SensorConnectionManager mConnectionManager;
+	// GATT operation timeouts and retries, monitoring wakeups. Its clock counts deep sleep like the
+	// ELAPSED_REALTIME_WAKEUP alarm of the poll scheduler, its timer does not.
+	private final ExecutorScheduler mScheduler = new ExecutorScheduler("BLETemperatureService-timer") {
+		@Override
+		public long nowMillis() {
+			return SystemClock.elapsedRealtime();
+		}
+	};
+
+	// Broadcast mode: readings decoded from advertisements, no connection.
+	private LeScanner mLeScanner;
+	private final AdvertisementIngestor mAdvertisementIngestor = new AdvertisementIngestor(
+			new AdvertisementIngestor.Listener() {
+				@Override
+				public void onBroadcastMeasurement(String address, String name, int rssi,
+				                                   TemperatureMeasurement measurement) {
+					// No connection to keep the metrics for, looked up once per advertisement.
+					final PipelineMetrics.Sensor metrics = mPipelineMetrics.sensor(address);
+					if (metrics != null) {
+						metrics.onNotification(System.nanoTime());
+						metrics.onSamples(1);
+					}
+					publishReading(address, name, measurement, broadcastHistoryWriter(address), metrics);
+				}
+			});
+	private volatile boolean mBroadcastMode;
+	// Sensors that only advertise are persisted only when asked for, in a store sized for many small
+	// histories: a day at one reading per 10 s and a day of rollups, about 190 KB of files each.
+	public static final int BROADCAST_HISTORY_CAPACITY = 24 * 60 * 6;
+	public static final int MAX_BROADCAST_HISTORIES = 128;
+	private static final int BROADCAST_HISTORY_QUEUE = 16;
+	private TemperatureHistoryStore mBroadcastHistoryStore;
+	private volatile HistoryWriter mBroadcastHistoryWriter;
+
+	// Monitoring mode: sensors read on a schedule, disconnected in between.
+	private PollScheduler mPollScheduler;
+	private final SensorPoller.Listener mPollListener = new SensorPoller.Listener() {
+		@Override
+		public void onReading(String address, String name, TemperatureMeasurement measurement, byte[] rawValue) {
+			// Looked up once per poll, the link only lives for the read.
+			final PipelineMetrics.Sensor metrics = mPipelineMetrics.sensor(address);
+			if (metrics != null) {
+				metrics.onNotification(System.nanoTime());
+				metrics.onSamples(1);
+			}
+			publishReading(address, name, measurement, mHistoryWriter, metrics);
+		}
+	};
+	// The executor's timer does not run while the CPU sleeps, an alarm wakes it for each wakeup and
+	// a wake lock keeps it awake until the polls of the wakeup are done.
+	private final PollScheduler.Listener mWakeupListener = new PollScheduler.Listener() {
+		@Override
+		public void onWakeupScheduled(long atMillis) {
+			setPollAlarm(atMillis);
+		}
+
+		@Override
+		public void onPollingChanged(boolean polling) {
+			if (polling) {
+				acquirePollWakeLock();
+			} else {
+				releasePollWakeLock();
+			}
+		}
+	};
+	// Safety net, a wakeup normally ends within a few poll timeouts.
+	private static final long POLL_WAKE_LOCK_TIMEOUT_MS = 10 * 60 * 1000;
+	private PowerManager.WakeLock mPollWakeLock;
+
+	// Devices reconnected after a link loss and at service start.
+	private final ReconnectPolicy mReconnectPolicy = new ReconnectPolicy();
+	private static final String PREFS_NAME = "connections";
+	private static final String PREF_RECENT_DEVICES = "recent_devices";
+	private SharedPreferences mPreferences;
+	private RecentDevices mRecentDevices;
+	private GattLayoutCache mLayoutCache;
+	private volatile ConnectionProfile mConnectionProfile = ConnectionProfile.BALANCED;
+	private volatile boolean mBulkDownload = true;
+
+	// Device of the last connect(address), reported by the single-device getters.
+	private volatile String mBluetoothDeviceAddress;
 
 	public static class ConnectState {
-		public static final int Disconnected = 0;
-		public static final int Connecting = 1;
-		public static final int Connected = 2;
-		public static final int ConnectedRunning = 3;
+		public static final int Disconnected = SensorConnection.State.Disconnected;
+		public static final int Connecting = SensorConnection.State.Connecting;
+		public static final int Connected = SensorConnection.State.Connected;
+		public static final int ConnectedRunning = SensorConnection.State.ConnectedRunning;
 	}
 
-	private int mConnectionState = ConnectState.Disconnected;
-
 	public final static String ACTION_CLOSE = "blereceiver.ACTION_CLOSE";
+	public final static String ACTION_POLL = "blereceiver.ACTION_POLL";
 
 	public final static String ACTION_GATT_CONNECTED = "blereceiver.ACTION_GATT_CONNECTED";
 	public final static String ACTION_GATT_DISCONNECTED = "blereceiver.ACTION_GATT_DISCONNECTED";
@@ -58,155 +144,221 @@ public class BLETemperatureService extends Service {
 
 	public final static String ACTION_MESSAGE_SERVICE_ONLINE = "blereceiver.ACTION_MESSAGE_SERVICE_ONLINE";
 
+	public final static String ACTION_TEMPERATURE_ALARM = "blereceiver.ACTION_TEMPERATURE_ALARM";
+	public final static String EXTRA_ALARM_NAME = "blereceiver.EXTRA_ALARM_NAME";
+	public final static String EXTRA_ALARM_ACTIVE = "blereceiver.EXTRA_ALARM_ACTIVE";
+	public final static String EXTRA_TEMPERATURE_RATE = "blereceiver.EXTRA_TEMPERATURE_RATE";
+
 	public final static String EXTRA_TEMPERATURERE_DATA = "blereceiver.EXTRA_TEMPERATURERE_DATA";
+	public final static String EXTRA_TEMPERATURE_UNIT = "blereceiver.EXTRA_TEMPERATURE_UNIT";
+	public final static String EXTRA_DEVICE_ADDRESS = "blereceiver.EXTRA_DEVICE_ADDRESS";
 
 	public final static String NOT_SUPPORT_TEMPERATURE_SERVICE = "blereceiver.NOT_SUPPORT_TEMPERATURE_SERVICE";
 
-	public static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+	public static final UUID CCCD = TemperatureGattAttributes.CCCD;
 
-	public static final UUID SERVICE_TEMPERATURE_UUID = UUID.fromString("00001809-0000-1000-8000-00805F9B34FB");
-	public static final UUID CHAR_TEMPERATURE_UUID = UUID.fromString("00002A1C-0000-1000-8000-00805F9B34FB");
+	public static final UUID SERVICE_TEMPERATURE_UUID = TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID;
+	public static final UUID CHAR_TEMPERATURE_UUID = TemperatureGattAttributes.CHAR_TEMPERATURE_UUID;
 
 	// http://stackoverflow.com/questions/17910322/android-ble-api-gatt-notification-not-received
 
-	protected String mConnectedDeviceName = null;
+	// Per-notification logging is only formatted when verbose logging is enabled for TAG
+	// (adb shell setprop log.tag.BLETemperatureService VERBOSE), checked once in onCreate().
+	private boolean mVerboseLogging;
+	private char[] mHexBuffer = new char[HexUtils.displayHexLength(TemperatureMeasurementCodec.MAX_SIZE)];
+
+	private ForegroundNotificationUpdater mNotificationUpdater;
+
+	// Temperature history per device, one ring file each under files/history, written behind
+	// the GATT callbacks by mHistoryWriter.
+	private TemperatureHistoryStore mHistoryStore;
+	private volatile ReadingServer mReadingServer;
+	private HistoryWriter mHistoryWriter;
+
+	private final TemperatureListenerBus mTemperatureListeners = new TemperatureListenerBus();
+	// ACTION_TEMPERATURERE_UPDATE costs an Intent per reading, only sent when asked for.
+	private volatile boolean mBroadcastReadings = false;
+
+	// Smoothing, outlier rejection and alarms per device, between decoding and fan-out. History
+	// keeps the raw values.
+	private volatile SignalChain mSignalChain = new SignalChain();
+	private final ConcurrentHashMap<String, SignalProcessor> mSignalProcessors = new ConcurrentHashMap<>();
+
+	// Stage latencies from the GATT callback to the UI, dumped periodically when asked for.
+	private final PipelineMetrics mPipelineMetrics = new PipelineMetrics();
+	private PipelineMetricsReporter mMetricsReporter;
 
 	public int getConnectionState() {
-		return mConnectionState;
+		return getConnectionState(mBluetoothDeviceAddress);
+	}
+
+	public int getConnectionState(String address) {
+		return mConnectionManager != null ? mConnectionManager.getState(address) : ConnectState.Disconnected;
 	}
 
 	public String getBluetoothDeviceAddress() {
 		return mBluetoothDeviceAddress;
 	}
 
-	// Implements callback methods for GATT events that the app cares about.  For example,
-	// connection change and services discovered.
-	private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-		@Override
-		public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-			String intentAction;
-
-			if (newState == BluetoothProfile.STATE_CONNECTED) {
-				intentAction = ACTION_GATT_CONNECTED;
-				mConnectionState = ConnectState.Connected;
-
-				BluetoothDevice mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(mBluetoothDeviceAddress);
-				mConnectedDeviceName = mDevice.getName();
-
-				broadcastUpdate(intentAction);
-
-				// TODO: Bug fix
-				if (mBluetoothGatt == null) {
-					mBluetoothGatt = gatt;
-				}
+	public List<SensorConnection> getConnections() {
+		return mConnectionManager.getConnections();
+	}
 
-				Log.i(TAG, "Connected to GATT server.");
-				// Attempts to discover services after successful connection.
-				Log.i(TAG, "Attempting to start service discovery:" +
-						mBluetoothGatt.discoverServices());
+	/**
+	 * Maximum number of simultaneous connections, further connect() calls fail.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		mConnectionManager.setMaxConnections(maxConnections);
+	}
 
-				Log.v(TAG, "ACTION_START_SERVER");
+	// Called on the GATT callback thread of the device concerned.
+	private final SensorConnectionManager.Listener mConnectionListener = new SensorConnectionManager.Listener() {
+		@Override
+		public void onConnectionStateChanged(SensorConnection connection, int previousState, int newState) {
+			if (newState == ConnectState.Connected && previousState == ConnectState.Connecting) {
+				Log.i(TAG, "Connected to GATT server " + connection.getAddress());
+				broadcastUpdate(ACTION_GATT_CONNECTED, connection.getAddress());
 
 				Intent selfIntent = new Intent(BLETemperatureService.this, BLETemperatureService.class);
 				startService(selfIntent);
 
-				startNotificationForeground(0);
-
-			} else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-				intentAction = ACTION_GATT_DISCONNECTED;
-				mConnectionState = ConnectState.Disconnected;
-				Log.i(TAG, "Disconnected from GATT server.");
-				broadcastUpdate(intentAction);
-
-				close();
-				stopNotificationForeground();
+				if (!mNotificationUpdater.isForeground()) {
+					startNotificationForeground(connection.getName(), 0, TemperatureMeasurement.Unit.Celsius);
+				}
+			} else if (newState == ConnectState.ConnectedRunning) {
+				broadcastActionOnline(connection.getAddress());
+				if (connection.isAutoReconnect()) {
+					mRecentDevices.touch(connection.getAddress(), connection.getName(), System.currentTimeMillis());
+					saveRecentDevices();
+				}
+			} else if (newState == ConnectState.Disconnected) {
+				Log.i(TAG, "Disconnected from GATT server " + connection.getAddress() + ", profile "
+						+ connection.getConnectionProfile() + ", MTU " + connection.getMtu() + ", "
+						+ String.format("%.1f", connection.getNotificationRate()) + " notifications/s");
+				broadcastUpdate(ACTION_GATT_DISCONNECTED, connection.getAddress());
+
+				// Keep the service in the foreground while a lost link is being reconnected.
+				if (mConnectionManager.getActiveCount() == 0 && !mBroadcastMode
+						&& !mConnectionManager.hasPendingReconnects()) {
+					stopNotificationForeground();
+				}
 			}
 		}
 
 		@Override
-		public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-			if (status == BluetoothGatt.GATT_SUCCESS) {
-				Log.w(TAG, "mBluetoothGatt = " + gatt);
-
-				broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+		public void onServicesDiscovered(SensorConnection connection) {
+			broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED, connection.getAddress());
+		}
 
-				enableTXNotification();
-			} else {
-				Log.w(TAG, "onServicesDiscovered received: " + status);
-			}
+		@Override
+		public void onTemperatureServiceNotSupported(SensorConnection connection) {
+			Log.e(TAG, "temperatureService not found on " + connection.getAddress());
+			broadcastUpdate(NOT_SUPPORT_TEMPERATURE_SERVICE, connection.getAddress());
 		}
 
 		@Override
-		public void onCharacteristicRead(BluetoothGatt gatt,
-		                                 BluetoothGattCharacteristic characteristic,
-		                                 int status) {
-			Log.v(TAG, "onCharacteristicRead");
-			if (status == BluetoothGatt.GATT_SUCCESS) {
-				broadcastDataUpdate(characteristic);
+		public void onMeasurement(SensorConnection connection, TemperatureMeasurement measurement, byte[] rawValue) {
+			if (mVerboseLogging) {
+				logReceived(rawValue);
 			}
-
+			publishReading(connection.getAddress(), connection.getName(), measurement, mHistoryWriter,
+					connection.getPipelineMetrics());
 		}
 
 		@Override
-		public void onCharacteristicChanged(BluetoothGatt gatt,
-		                                    BluetoothGattCharacteristic characteristic) {
-			Log.v(TAG, "onCharacteristicChanged");
-			broadcastDataUpdate(characteristic);
+		public void onBatch(SensorConnection connection, TemperatureBatch batch) {
+			// Stored records only fill the history, the newest live sample is also shown.
+			final String address = connection.getAddress();
+			final SignalProcessor processor = getSignalProcessor(address);
+			final PipelineMetrics.Sensor metrics = connection.getPipelineMetrics();
+			long start = metrics != null ? System.nanoTime() : 0;
+			final TemperatureMeasurement sample = batch.scratch;
+			double value = Double.NaN;
+			for (int i = 0; i < batch.count; i++) {
+				batch.get(i, sample);
+				appendHistory(mHistoryWriter, address, batch.timestamps[i], sample);
+				value = processor.process(batch.timestamps[i], sample.value);
+			}
+			if (metrics != null) {
+				final long filtered = System.nanoTime();
+				metrics.record(PipelineMetrics.Stage.Filter, start, filtered);
+				start = filtered;
+			}
+			if (!batch.stored && batch.count > 0) {
+				notifyReading(address, connection.getName(), value, batch.unit, batch.getLastTimestamp());
+				if (metrics != null) {
+					mPipelineMetrics.onPublished(metrics, start);
+				}
+			}
 		}
 
 		@Override
-		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-			if (status == BluetoothGatt.GATT_SUCCESS) {
-				Log.d(TAG, "Callback: Wrote GATT Characteristic successfully.  Characteristic: " + characteristic.getUuid());
-			} else {
-				Log.d(TAG, "Callback: Error writing GATT Characteristic: " + status + "  Characteristic: " + characteristic.getUuid());
-			}
+		public void onTransferComplete(SensorConnection connection, int responseCode) {
+			Log.i(TAG, "Stored records of " + connection.getAddress() + ": " + connection.getLastTransferSamples()
+					+ " samples, " + String.format("%.0f", connection.getLastTransferRate()) + " samples/s, response "
+					+ responseCode);
 		}
 
 		@Override
-		public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-			if (status == BluetoothGatt.GATT_SUCCESS) {
-				Log.d(TAG, "Callback: Wrote GATT Descriptor successfully.  Characteristic: " + descriptor.getCharacteristic().getUuid());
-				if (CHAR_TEMPERATURE_UUID.equals(descriptor.getCharacteristic().getUuid())) {
-					broadcastActionOnline();
-				}
-			} else {
-				Log.d(TAG, "Callback: Error writing GATT Descriptor: " + status + "  Characteristic: " + descriptor.getCharacteristic()
-						.getUuid());
-				disconnect();
+		public void onCharacteristicValue(SensorConnection connection, UUID characteristic, byte[] value) {
+			if (mVerboseLogging) {
+				logReceived(value);
+				String currentDateTimeString = DateFormat.getTimeInstance().format(new Date());
+				Log.v(TAG, "[" + currentDateTimeString + "] UUID: " + characteristic.toString());
 			}
 		}
 	};
 
-	private void broadcastActionOnline() {
-		mConnectionState = ConnectState.ConnectedRunning;
-		final Intent intent = new Intent(ACTION_MESSAGE_SERVICE_ONLINE);
-		LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+	private void broadcastActionOnline(String address) {
+		broadcastUpdate(ACTION_MESSAGE_SERVICE_ONLINE, address);
 	}
 
-	private void broadcastUpdate(final String action) {
+	private void broadcastUpdate(final String action, String address) {
 		final Intent intent = new Intent(action);
+		intent.putExtra(EXTRA_DEVICE_ADDRESS, address);
 		LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
 	}
 
-	private void broadcastDataUpdate(
-			final BluetoothGattCharacteristic characteristic) {
-		final UUID uuid = characteristic.getUuid();
-		Log.d(TAG, String.format("Received TX: %s", HexUtils.displayHex(characteristic.getValue())));
+	// Readings of connected sensors and of broadcast mode, history is null for readings not persisted,
+	// metrics null while disabled.
+	private void publishReading(String address, String name, TemperatureMeasurement measurement,
+	                            HistoryWriter history, PipelineMetrics.Sensor metrics) {
+		final long now = System.currentTimeMillis();
+		if (history != null) {
+			appendHistory(history, address, now, measurement);
+		}
+		long start = metrics != null ? System.nanoTime() : 0;
+		final double value = getSignalProcessor(address).process(now, measurement.value);
+		if (metrics != null) {
+			final long filtered = System.nanoTime();
+			metrics.record(PipelineMetrics.Stage.Filter, start, filtered);
+			start = filtered;
+		}
+		notifyReading(address, name, value, measurement.unit, now);
+		if (metrics != null) {
+			mPipelineMetrics.onPublished(metrics, start);
+		}
+	}
 
+	// Notification, listeners and broadcast of a filtered value, without history.
+	private void notifyReading(String address, String name, double value, int unit, long timestampMillis) {
 		try {
-			String currentDateTimeString = DateFormat.getTimeInstance().format(new Date());
-			if (BLETemperatureService.CHAR_TEMPERATURE_UUID.equals(uuid)) {
-				double value = characteristic.getFloatValue(BluetoothGattCharacteristic.FORMAT_FLOAT,
-															/* offset */ 1);
-				startNotificationForeground(value);
+			startNotificationForeground(name, value, unit);
+
+			mTemperatureListeners.publish(address, value, unit, timestampMillis);
 
+			final ReadingServer readingServer = mReadingServer;
+			if (readingServer != null) {
+				readingServer.publish(address, value, unit, timestampMillis);
+			}
+
+			if (mBroadcastReadings) {
 				final Intent intent = new Intent(ACTION_TEMPERATURERE_UPDATE);
-				intent.putExtra("UUID", uuid);
+				intent.putExtra("UUID", CHAR_TEMPERATURE_UUID);
+				intent.putExtra(EXTRA_DEVICE_ADDRESS, address);
 				intent.putExtra(EXTRA_TEMPERATURERE_DATA, value);
+				intent.putExtra(EXTRA_TEMPERATURE_UNIT, unit);
 				LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-			} else {
-				Log.v(TAG, "[" + currentDateTimeString + "] UUID: " + uuid.toString());
 			}
 		} catch (Exception e) {
 			Log.e(TAG, e.toString());
@@ -214,135 +366,628 @@ public class BLETemperatureService extends Service {
 	}
 
 	/**
-	 * Initializes a reference to the local Bluetooth adapter.
+	 * Filters and alarms of {@code address}, created from the current {@link SignalChain} on first use.
+	 */
+	public SignalProcessor getSignalProcessor(String address) {
+		SignalProcessor processor = mSignalProcessors.get(address);
+		if (processor == null) {
+			processor = mSignalChain.create(address, mAlarmListener);
+			final SignalProcessor existing = mSignalProcessors.putIfAbsent(address, processor);
+			if (existing != null) {
+				processor = existing;
+			}
+		}
+		return processor;
+	}
+
+	/**
+	 * Replaces the filter and alarm configuration, all devices start over with fresh filters.
+	 */
+	public void setSignalChain(SignalChain chain) {
+		mSignalChain = chain;
+		mSignalProcessors.clear();
+	}
+
+	public SignalChain getSignalChain() {
+		return mSignalChain;
+	}
+
+	/**
+	 * Per-device stage latencies and rates; UI listeners report their render through
+	 * {@link PipelineMetrics#onRendered(String, long)}.
+	 */
+	public PipelineMetrics getPipelineMetrics() {
+		return mPipelineMetrics;
+	}
+
+	/**
+	 * Logs a metrics snapshot per device every {@code periodMillis}, also appended to
+	 * files/pipeline-metrics.log with {@code toFile}.
+	 */
+	public synchronized void startMetricsDump(long periodMillis, boolean toFile) {
+		stopMetricsDump();
+		final PipelineMetricsReporter.Sink log = new PipelineMetricsReporter.Sink() {
+			@Override
+			public void write(String line) {
+				Log.i(TAG, line);
+			}
+		};
+		mMetricsReporter = toFile
+				? new PipelineMetricsReporter(mPipelineMetrics, mScheduler, log,
+				new PipelineMetricsReporter.FileSink(new File(getFilesDir(), "pipeline-metrics.log")))
+				: new PipelineMetricsReporter(mPipelineMetrics, mScheduler, log);
+		mMetricsReporter.start(periodMillis);
+	}
+
+	public synchronized void stopMetricsDump() {
+		if (mMetricsReporter != null) {
+			mMetricsReporter.stop();
+			mMetricsReporter = null;
+		}
+	}
+
+	private final SignalProcessor.Listener mAlarmListener = new SignalProcessor.Listener() {
+		@Override
+		public void onAlarmChanged(SignalProcessor processor, TemperatureAlarm alarm, boolean active,
+		                           long timestampMillis, double value, double rate) {
+			Log.w(TAG, "Alarm " + alarm + (active ? " raised" : " cleared") + " on " + processor.getAddress()
+					+ ": " + String.format("%.2f", value) + ", " + String.format("%.2f", rate) + "/min");
+			final Intent intent = new Intent(ACTION_TEMPERATURE_ALARM);
+			intent.putExtra(EXTRA_DEVICE_ADDRESS, processor.getAddress());
+			intent.putExtra(EXTRA_ALARM_NAME, alarm.name);
+			intent.putExtra(EXTRA_ALARM_ACTIVE, active);
+			intent.putExtra(EXTRA_TEMPERATURERE_DATA, value);
+			intent.putExtra(EXTRA_TEMPERATURE_RATE, rate);
+			LocalBroadcastManager.getInstance(BLETemperatureService.this).sendBroadcast(intent);
+		}
+	};
+
+	private void appendHistory(HistoryWriter history, String address, long timestampMillis,
+	                           TemperatureMeasurement measurement) {
+		history.offer(address, timestampMillis, (float) measurement.value,
+				TemperatureRingFile.packFlags(measurement.unit, measurement.valueKind));
+	}
+
+	// Sensors with a history of their own (connected or monitored before) keep it, the others go
+	// to the broadcast history if enabled and not full.
+	private HistoryWriter broadcastHistoryWriter(String address) {
+		if (mHistoryStore.hasHistory(address)) {
+			return mHistoryWriter;
+		}
+		final HistoryWriter writer = mBroadcastHistoryWriter;
+		if (writer == null || !mBroadcastHistoryStore.canOpen(address)) {
+			return null;
+		}
+		return writer;
+	}
+
+	// Store holding the history of address, null if none does.
+	private TemperatureHistoryStore historyStoreFor(String address) {
+		if (mHistoryStore.hasHistory(address)) {
+			return mHistoryStore;
+		}
+		final TemperatureHistoryStore broadcastStore = mBroadcastHistoryStore;
+		if (broadcastStore != null && broadcastStore.hasHistory(address)) {
+			return broadcastStore;
+		}
+		return null;
+	}
+
+	private String[] getHistoryAddresses() {
+		final String[] addresses = mHistoryStore.getAddresses();
+		final TemperatureHistoryStore broadcastStore = mBroadcastHistoryStore;
+		if (broadcastStore == null) {
+			return addresses;
+		}
+		final String[] broadcastAddresses = broadcastStore.getAddresses();
+		final String[] all = Arrays.copyOf(addresses, addresses.length + broadcastAddresses.length);
+		System.arraycopy(broadcastAddresses, 0, all, addresses.length, broadcastAddresses.length);
+		return all;
+	}
+
+	public TemperatureHistoryStore getHistoryStore() {
+		return mHistoryStore;
+	}
+
+	public HistoryWriter getHistoryWriter() {
+		return mHistoryWriter;
+	}
+
+	/**
+	 * Writes the stored history of {@code address} to {@code file} in the compressed
+	 * {@link HistoryExport} format, after writing out the readings still queued for the store.
+	 *
+	 * @return number of records written, -1 if there is no history of {@code address}.
+	 */
+	public int exportHistory(String address, File file) throws IOException {
+		mHistoryWriter.flush();
+		final HistoryWriter broadcastWriter = mBroadcastHistoryWriter;
+		if (broadcastWriter != null) {
+			broadcastWriter.flush();
+		}
+		final TemperatureHistoryStore store = historyStoreFor(address);
+		if (store == null) {
+			return -1;
+		}
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			return HistoryExport.write(store.get(address), address, Long.MIN_VALUE, Long.MAX_VALUE,
+					out.getChannel());
+		} finally {
+			out.close();
+		}
+	}
+
+	// === Reading server ===
+
+	/**
+	 * Serves the latest readings, the history and a stream of readings over HTTP, see
+	 * {@link ReadingServer}. Restarts the server if it is running.
+	 *
+	 * @param address e.g. the loopback address for local dashboards only, the wildcard address for
+	 *                the LAN.
+	 * @return the port listened on.
+	 */
+	public synchronized int startReadingServer(InetSocketAddress address) throws IOException {
+		stopReadingServer();
+		final ReadingServer server = new ReadingServer(new ReadingServer.History() {
+			@Override
+			public String[] getAddresses() {
+				return getHistoryAddresses();
+			}
+
+			@Override
+			public void query(String address, long fromMillis, long toMillis, int maxPoints, RollupSeries out)
+					throws IOException {
+				final TemperatureHistoryStore store = historyStoreFor(address);
+				if (store == null) {
+					throw new IOException("No history of " + address);
+				}
+				store.query(address, fromMillis, toMillis, maxPoints, out);
+			}
+		});
+		final int port = server.start(address);
+		mReadingServer = server;
+		Log.i(TAG, "Reading server listening on port " + port);
+		return port;
+	}
+
+	public synchronized void stopReadingServer() {
+		if (mReadingServer != null) {
+			mReadingServer.close();
+			mReadingServer = null;
+		}
+	}
+
+	/**
+	 * The running server, null if none.
+	 */
+	public ReadingServer getReadingServer() {
+		return mReadingServer;
+	}
+
+	// Verbose only. Callbacks of different devices may run concurrently.
+	private synchronized void logReceived(byte[] value) {
+		if (value == null) {
+			return;
+		}
+		final int length = HexUtils.displayHexLength(value.length);
+		if (mHexBuffer.length < length) {
+			mHexBuffer = new char[length];
+		}
+		HexUtils.displayHex(value, 0, value.length, mHexBuffer, 0);
+		Log.v(TAG, "Received TX: " + new String(mHexBuffer, 0, length));
+	}
+
+	/**
+	 * Initializes a reference to the local Bluetooth adapter, unless another {@link GattTransport}
+	 * was set through {@link #setGattTransport(GattTransport)}.
 	 *
 	 * @return Return true if the initialization is successful.
 	 */
 	public boolean initialize() {
-		// For API level 18 and above, get a reference to BluetoothAdapter through
-		// BluetoothManager.
-		if (mBluetoothManager == null) {
-			mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+		if (mGattTransport == null) {
+			// For API level 18 and above, get a reference to BluetoothAdapter through
+			// BluetoothManager.
 			if (mBluetoothManager == null) {
-				Log.e(TAG, "Unable to initialize BluetoothManager.");
+				mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+				if (mBluetoothManager == null) {
+					Log.e(TAG, "Unable to initialize BluetoothManager.");
+					return false;
+				}
+			}
+
+			mBluetoothAdapter = mBluetoothManager.getAdapter();
+			if (mBluetoothAdapter == null) {
+				Log.e(TAG, "Unable to obtain a BluetoothAdapter.");
 				return false;
 			}
+			mGattTransport = new AndroidGattTransport(this, mBluetoothAdapter);
+		}
+
+		if (mConnectionManager == null) {
+			mConnectionManager = new SensorConnectionManager(mGattTransport, mScheduler, mConnectionListener);
+			mConnectionManager.setReconnectPolicy(mReconnectPolicy);
+			mConnectionManager.setLayoutCache(mLayoutCache);
+			mConnectionManager.setConnectionProfile(mConnectionProfile);
+			mConnectionManager.setBulkDownload(mBulkDownload);
+			mConnectionManager.setPipelineMetrics(mPipelineMetrics);
 		}
+		return true;
+	}
 
-		mBluetoothAdapter = mBluetoothManager.getAdapter();
-		if (mBluetoothAdapter == null) {
-			Log.e(TAG, "Unable to obtain a BluetoothAdapter.");
+	/**
+	 * Replaces the Bluetooth layer, e.g. with a {@link SimulatedGattTransport}. Existing
+	 * connections are closed.
+	 */
+	public void setGattTransport(GattTransport transport) {
+		stopMonitoring();
+		if (mConnectionManager != null) {
+			mConnectionManager.closeAll();
+			mConnectionManager = null;
+		}
+		mGattTransport = transport;
+		initialize();
+	}
+
+	// === Broadcast mode ===
+
+	/**
+	 * Replaces the scanner used by broadcast mode, e.g. with a {@link SimulatedLeScanner}.
+	 */
+	public synchronized void setLeScanner(LeScanner scanner) {
+		stopBroadcastMode();
+		mLeScanner = scanner;
+	}
+
+	/**
+	 * Decoders of vendor advertisements, add layouts before {@link #startBroadcastMode(ScanProfile)}.
+	 */
+	public AdvertisementIngestor getAdvertisementIngestor() {
+		return mAdvertisementIngestor;
+	}
+
+	/**
+	 * Starts collecting readings from advertisements (0x1809 service data or known manufacturer
+	 * layouts) without connecting. Readings go through the same path as those of connected sensors.
+	 */
+	public synchronized boolean startBroadcastMode(ScanProfile profile) {
+		if (mBroadcastMode) {
+			return true;
+		}
+		if (mLeScanner == null) {
+			if (mBluetoothAdapter == null) {
+				Log.w(TAG, "BluetoothAdapter not initialized.");
+				return false;
+			}
+			final AndroidLeScanner scanner = new AndroidLeScanner(mBluetoothAdapter);
+			for (ManufacturerDataLayout layout : mAdvertisementIngestor.getManufacturerLayouts()) {
+				scanner.addManufacturerFilter(layout.getCompanyId());
+			}
+			mLeScanner = scanner;
+		}
+		if (!mLeScanner.start(profile, mAdvertisementIngestor)) {
+			Log.w(TAG, "Unable to start broadcast mode scan.");
 			return false;
 		}
+		mBroadcastMode = true;
+		startService(new Intent(this, BLETemperatureService.class));
+		return true;
+	}
 
+	public synchronized void stopBroadcastMode() {
+		if (!mBroadcastMode) {
+			return;
+		}
+		mBroadcastMode = false;
+		mLeScanner.stop();
+		mAdvertisementIngestor.reset();
+		if (mConnectionManager == null || mConnectionManager.getActiveCount() == 0) {
+			stopNotificationForeground();
+		}
+	}
+
+	public boolean isBroadcastMode() {
+		return mBroadcastMode;
+	}
+
+	/**
+	 * Persists the readings of sensors only seen in broadcast mode, at most
+	 * {@link #MAX_BROADCAST_HISTORIES} of them with {@link #BROADCAST_HISTORY_CAPACITY} records each.
+	 * Off by default: their readings are published but not stored. Sensors with a history of their
+	 * own keep it either way.
+	 */
+	public synchronized void setBroadcastHistory(boolean enabled) {
+		if (enabled && mBroadcastHistoryWriter == null) {
+			mBroadcastHistoryStore = new TemperatureHistoryStore(new File(getFilesDir(), "broadcast-history"),
+					BROADCAST_HISTORY_CAPACITY).setMaxOpen(MAX_BROADCAST_HISTORIES)
+					.setRollupRetention(TemperatureRollups.DAY);
+			mBroadcastHistoryWriter = new HistoryWriter(mBroadcastHistoryStore, BROADCAST_HISTORY_QUEUE,
+					SpscSampleRing.Policy.DropOldest, HistoryWriter.DEFAULT_BATCH_SIZE, HistoryWriter.DEFAULT_MAX_DELAY_MS);
+		} else if (!enabled && mBroadcastHistoryWriter != null) {
+			closeBroadcastHistory();
+		}
+	}
+
+	public boolean isBroadcastHistory() {
+		return mBroadcastHistoryWriter != null;
+	}
+
+	private synchronized void closeBroadcastHistory() {
+		if (mBroadcastHistoryWriter == null) {
+			return;
+		}
+		final HistoryWriter writer = mBroadcastHistoryWriter;
+		mBroadcastHistoryWriter = null;
+		try {
+			writer.close();
+			mBroadcastHistoryStore.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to close broadcast history: " + e);
+		}
+		mBroadcastHistoryStore = null;
+	}
+
+	// === Monitoring mode ===
+
+	/**
+	 * Reads each of {@code addresses} every {@code periodMillis} without staying connected: connect,
+	 * read the temperature, disconnect. Sensors whose reads are due within {@code flexMillis} of each
+	 * other share one wakeup. Restarts monitoring if it is running.
+	 */
+	public synchronized boolean startMonitoring(Collection<String> addresses, long periodMillis, long flexMillis) {
+		stopMonitoring();
+		if (mGattTransport == null) {
+			Log.w(TAG, "BluetoothAdapter not initialized.");
+			return false;
+		}
+		final SensorPoller poller = new SensorPoller(mGattTransport, mScheduler, mPollListener)
+				.setConnectionManager(mConnectionManager);
+		mPollScheduler = new PollScheduler(mScheduler, poller).setListener(mWakeupListener);
+		for (String address : addresses) {
+			mPollScheduler.addSensor(address, periodMillis, flexMillis);
+		}
+		mPollScheduler.start();
+		startService(new Intent(this, BLETemperatureService.class));
 		return true;
 	}
 
+	public synchronized void stopMonitoring() {
+		if (mPollScheduler == null) {
+			return;
+		}
+		mPollScheduler.stop();
+		mPollScheduler = null;
+	}
+
+	public synchronized boolean isMonitoring() {
+		return mPollScheduler != null;
+	}
+
 	/**
-	 * Connects to the GATT server hosted on the Bluetooth LE device.
+	 * Poll statistics of the running monitoring, null when not monitoring.
+	 */
+	public synchronized PollScheduler getPollScheduler() {
+		return mPollScheduler;
+	}
+
+	private void setPollAlarm(long atMillis) {
+		final AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+		if (alarmManager == null) {
+			return;
+		}
+		final PendingIntent intent = PendingIntent.getService(this, 0,
+				new Intent(this, BLETemperatureService.class).setAction(ACTION_POLL),
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		if (atMillis < 0) {
+			alarmManager.cancel(intent);
+			return;
+		}
+		// Scheduler time is elapsedRealtime().
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, atMillis, intent);
+		} else {
+			alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, atMillis, intent);
+		}
+	}
+
+	// A PendingIntent.getService() alarm holds no wake lock past its delivery, the polls hold this one.
+	private void acquirePollWakeLock() {
+		if (mPollWakeLock != null) {
+			mPollWakeLock.acquire(POLL_WAKE_LOCK_TIMEOUT_MS);
+		}
+	}
+
+	private void releasePollWakeLock() {
+		if (mPollWakeLock != null && mPollWakeLock.isHeld()) {
+			mPollWakeLock.release();
+		}
+	}
+
+	/**
+	 * Connects to the GATT server hosted on the Bluetooth LE device. Other connected devices stay
+	 * connected.
 	 *
 	 * @param address The device address of the destination device.
 	 * @return Return true if the connection is initiated successfully. The connection result
-	 * is reported asynchronously through the
-	 * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-	 * callback.
+	 * is reported asynchronously through the {@link #ACTION_GATT_CONNECTED} broadcast.
 	 */
 	public boolean connect(final String address) {
-		if (mBluetoothAdapter == null || address == null) {
+		if (mConnectionManager == null || address == null) {
 			Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
 			return false;
 		}
-
-		// Previously connected device.  Try to reconnect.
-		if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-				&& mBluetoothGatt != null) {
-			Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-			if (mBluetoothGatt.connect()) {
-				mConnectionState = ConnectState.Connecting;
-				return true;
-			} else {
-				return false;
-			}
-		}
-
-		final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-		if (device == null) {
-			Log.w(TAG, "Device not found.  Unable to connect.");
+		if (!mConnectionManager.connect(address)) {
+			Log.w(TAG, "Unable to connect to " + address + ", " + mConnectionManager.getActiveCount()
+					+ "/" + mConnectionManager.getMaxConnections() + " connections in use");
 			return false;
 		}
-		// We want to directly connect to the device, so we are setting the autoConnect
-		// parameter to false.
-		mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
 		Log.d(TAG, "Trying to create a new connection.");
 		mBluetoothDeviceAddress = address;
-		mConnectionState = ConnectState.Connecting;
 		return true;
 	}
 
 	/**
-	 * Disconnects an existing connection or cancel a pending connection. The disconnection result
-	 * is reported asynchronously through the
-	 * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-	 * callback.
+	 * Disconnects all existing connections or cancels pending connections. The disconnection result
+	 * is reported asynchronously through the {@link #ACTION_GATT_DISCONNECTED} broadcast.
 	 */
 	public void disconnect() {
-		if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+		if (mConnectionManager == null) {
 			Log.w(TAG, "BluetoothAdapter not initialized");
 			return;
 		}
-		mBluetoothGatt.disconnect();
+		mConnectionManager.disconnectAll();
+		for (String address : mRecentDevices.getAutoReconnectAddresses()) {
+			mRecentDevices.setAutoReconnect(address, false);
+		}
+		saveRecentDevices();
 	}
 
 	/**
-	 * After using a given BLE device, the app must call this method to ensure resources are
-	 * released properly.
+	 * Disconnects {@code address}, it is no longer reconnected automatically.
 	 */
-	public void close() {
-		if (mBluetoothGatt == null) {
-			return;
+	public void disconnect(String address) {
+		if (mConnectionManager != null) {
+			mConnectionManager.disconnect(address);
+		}
+		if (mRecentDevices.setAutoReconnect(address, false)) {
+			saveRecentDevices();
 		}
-		Log.w(TAG, "mBluetoothGatt closed");
-		mBluetoothDeviceAddress = null;
-		mBluetoothGatt.close();
-		mBluetoothGatt = null;
 	}
 
 	/**
-	 * Enable TXNotification
-	 *
-	 * @return
+	 * True while {@code address} lost its link and waits for the next reconnect attempt.
 	 */
-	public void enableTXNotification() {
+	public boolean isReconnectPending(String address) {
+		return mConnectionManager != null && mConnectionManager.isReconnectPending(address);
+	}
 
-		BluetoothGattService temperatureService = mBluetoothGatt.getService(SERVICE_TEMPERATURE_UUID);
-		if (temperatureService == null) {
-			Log.e(TAG, "temperatureService service not found!");
-			broadcastUpdate(NOT_SUPPORT_TEMPERATURE_SERVICE);
-			disconnect();
-			return;
+	public ReconnectPolicy getReconnectPolicy() {
+		return mReconnectPolicy;
+	}
+
+	/**
+	 * Connection priority and MTU requested for devices without their own profile.
+	 */
+	public void setConnectionProfile(ConnectionProfile profile) {
+		mConnectionProfile = profile;
+		if (mConnectionManager != null) {
+			mConnectionManager.setConnectionProfile(profile);
+		}
+	}
+
+	public ConnectionProfile getConnectionProfile() {
+		return mConnectionProfile;
+	}
+
+	/**
+	 * Profile of one device, e.g. {@link ConnectionProfile#HIGH_THROUGHPUT} for a fast probe.
+	 * Applied right away if the device is connected.
+	 */
+	public void setConnectionProfile(String address, ConnectionProfile profile) {
+		if (mConnectionManager != null) {
+			mConnectionManager.setConnectionProfile(address, profile);
+		}
+	}
+
+	/**
+	 * Download the samples a batching sensor stored while it was disconnected, on by default.
+	 */
+	public void setBulkDownload(boolean enabled) {
+		mBulkDownload = enabled;
+		if (mConnectionManager != null) {
+			mConnectionManager.setBulkDownload(enabled);
+		}
+	}
+
+	public boolean isBulkDownload() {
+		return mBulkDownload;
+	}
+
+	/**
+	 * Samples per second received from {@code address}, live batches and single readings alike.
+	 */
+	public double getSampleRate(String address) {
+		final SensorConnection connection = mConnectionManager != null ? mConnectionManager.get(address) : null;
+		return connection != null ? connection.getSampleRate() : 0;
+	}
+
+	/**
+	 * Samples per second over all completed stored record downloads.
+	 */
+	public double getTransferThroughput() {
+		return mConnectionManager != null ? mConnectionManager.getTransferThroughput() : 0;
+	}
+
+	/**
+	 * Effective temperature notifications per second of {@code address}, to check its profile.
+	 */
+	public double getNotificationRate(String address) {
+		final SensorConnection connection = mConnectionManager != null ? mConnectionManager.get(address) : null;
+		return connection != null ? connection.getNotificationRate() : 0;
+	}
+
+	/**
+	 * Service layouts of known devices, with hit/miss counts.
+	 */
+	public GattLayoutCache getLayoutCache() {
+		return mLayoutCache;
+	}
+
+	public RecentDevices getRecentDevices() {
+		return mRecentDevices;
+	}
+
+	private void saveRecentDevices() {
+		mPreferences.edit().putString(PREF_RECENT_DEVICES, mRecentDevices.encode()).apply();
+	}
+
+	// Reconnects the devices that were connected when the service last went away.
+	private void restoreConnections() {
+		for (String address : mRecentDevices.getAutoReconnectAddresses()) {
+			Log.i(TAG, "Reconnecting " + address);
+			connect(address);
 		}
-		final BluetoothGattCharacteristic temperatureServiceCharacteristic = temperatureService.getCharacteristic(CHAR_TEMPERATURE_UUID);
-		if (temperatureServiceCharacteristic == null) {
-			Log.e(TAG, "temperatureServiceCharacteristic not found!");
-			broadcastUpdate(NOT_SUPPORT_TEMPERATURE_SERVICE);
-			disconnect();
+	}
+
+	/**
+	 * After using the BLE devices, the app must call this method to ensure resources are
+	 * released properly.
+	 */
+	public void close() {
+		if (mConnectionManager == null) {
 			return;
 		}
-		registerUpdateForCharacteristic(temperatureServiceCharacteristic, true);
+		Log.w(TAG, "connections closed");
+		mConnectionManager.closeAll();
 	}
 
-	private void registerUpdateForCharacteristic(BluetoothGattCharacteristic valChar, boolean enable) {
-		mBluetoothGatt.setCharacteristicNotification(valChar, enable);
-		final BluetoothGattDescriptor descriptor = valChar.getDescriptor(CCCD);
-		descriptor.setValue(enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor
-				.DISABLE_NOTIFICATION_VALUE);
-		mBluetoothGatt.writeDescriptor(descriptor);
+	public void close(String address) {
+		if (mConnectionManager != null) {
+			mConnectionManager.close(address);
+		}
 	}
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
-		initialize();
+		mVerboseLogging = Log.isLoggable(TAG, Log.VERBOSE);
+		mNotificationUpdater = new ForegroundNotificationUpdater(this, NOTIFICATION_ID);
+		mHistoryStore = new TemperatureHistoryStore(new File(getFilesDir(), "history"),
+				TemperatureHistoryStore.DEFAULT_CAPACITY);
+		mHistoryWriter = new HistoryWriter(mHistoryStore);
+		mLayoutCache = new GattLayoutCache(new File(getFilesDir(), "gatt"));
+		final PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+		if (powerManager != null) {
+			mPollWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG + ":poll");
+			mPollWakeLock.setReferenceCounted(false);
+		}
+		mPreferences = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+		mRecentDevices = RecentDevices.decode(mPreferences.getString(PREF_RECENT_DEVICES, null),
+				RecentDevices.DEFAULT_CAPACITY);
+		if (initialize()) {
+			restoreConnections();
+		}
 	}
 
 	@Override
@@ -353,6 +998,16 @@ public class BLETemperatureService extends Service {
 				if (action.equals(ACTION_CLOSE)) {
 					disconnect();
 					stopSelf();
+				} else if (action.equals(ACTION_POLL)) {
+					final PollScheduler pollScheduler = getPollScheduler();
+					if (pollScheduler != null) {
+						// Held from the alarm on, released when the wakeup's polls are done.
+						acquirePollWakeLock();
+						pollScheduler.runDue();
+						if (!pollScheduler.isPolling()) {
+							releasePollWakeLock();
+						}
+					}
 				}
 			}
 		}
@@ -361,7 +1016,12 @@ public class BLETemperatureService extends Service {
 
 	@Override
 	public void onDestroy() {
+		stopBroadcastMode();
+		stopMonitoring();
+		stopReadingServer();
+		stopMetricsDump();
 		try {
+			// Not a user disconnect: the devices stay marked for reconnection at the next start.
 			close();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -371,51 +1031,75 @@ public class BLETemperatureService extends Service {
 		} catch (Exception e) {
 
 		}
+		closeBroadcastHistory();
+		try {
+			mHistoryWriter.close();
+			mHistoryStore.close();
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to close history: " + e);
+		}
+		mScheduler.shutdown();
 		super.onDestroy();
 	}
 
 	public void startNotificationForeground(double temperatureValue) {
-		// Notification
-		NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(this);
-		mBuilder.setSmallIcon(R.drawable.ic_notification);
-
-		if (!TextUtils.isEmpty(mConnectedDeviceName)) {
-			mBuilder.setContentTitle(mConnectedDeviceName);
-		} else {
-			mBuilder.setContentTitle(getString(R.string.app_name) + getString(R.string.connected));
-		}
-		mBuilder.setContentText(getString(R.string.notification_temperature) + " " +
-				String.format(getString(R.string.temperature_template), temperatureValue));
-
-		Intent intent = new Intent(this, MainActivity.class);
-		PendingIntent pendingIntent = PendingIntent.getActivity(BLETemperatureService.this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
-		mBuilder.setContentIntent(pendingIntent);
-
-		Intent iClose = new Intent(this, BLETemperatureService.class);
-		iClose.setAction(ACTION_CLOSE);
-		PendingIntent piClose = PendingIntent.getService(this, 0,
-				iClose, PendingIntent.FLAG_UPDATE_CURRENT);
-		mBuilder.addAction(R.drawable.ic_close, this.getResources().getString(R.string.disconnect), piClose);
-
-		mBuilder.setOngoing(true);
+		startNotificationForeground(null, temperatureValue, TemperatureMeasurement.Unit.Celsius);
+	}
 
-		startForeground(NOTIFICATION_ID, mBuilder.build());
+	public void startNotificationForeground(String deviceName, double temperatureValue, int unit) {
+		mNotificationUpdater.setTitle(deviceName);
+		mNotificationUpdater.update(temperatureValue, unit);
 	}
 
 	public void stopNotificationForeground() {
 		try {
-			stopForeground(true);
+			mNotificationUpdater.stop();
 		} catch (Exception e) {
 
 		}
 	}
 
+	/**
+	 * Limits how often the foreground notification is refreshed, e.g. 1000 ms for 1 Hz.
+	 */
+	public void setNotificationUpdateInterval(long minIntervalMillis) {
+		mNotificationUpdater.setMinIntervalMillis(minIntervalMillis);
+	}
+
+	/**
+	 * Enables the legacy {@link #ACTION_TEMPERATURERE_UPDATE} local broadcast for every reading.
+	 * Prefer {@link LocalBinder#addTemperatureListener(TemperatureListener, Executor)}.
+	 */
+	public void setBroadcastReadings(boolean enabled) {
+		mBroadcastReadings = enabled;
+	}
+
+	public long getNotificationUpdatesRequested() {
+		return mNotificationUpdater.getUpdatesRequested();
+	}
+
+	public long getNotificationUpdatesPosted() {
+		return mNotificationUpdater.getUpdatesPosted();
+	}
+
 	// === Binder ===
 
 	public class LocalBinder extends Binder {
 		public BLETemperatureService getService() {
 			return BLETemperatureService.this;
 		}
+
+		/**
+		 * Registers a listener for temperature readings, called on {@code executor}. Readings are
+		 * delivered in order; a listener that cannot keep up only receives the latest one.
+		 */
+		public void addTemperatureListener(TemperatureListener listener, Executor executor) {
+			mTemperatureListeners.addListener(listener, executor);
+		}
+
+		public void removeTemperatureListener(TemperatureListener listener) {
+			mTemperatureListeners.removeListener(listener);
+		}
 	}
 
 	@Override
@@ -0,0 +1,65 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Decides when a stream of "latest value wins" updates may be published so that at most one
+ * update goes out per {@code minIntervalMillis}. Pure Java, the caller supplies the clock and does
+ * the actual scheduling. Not thread safe.
+ */
+public class CoalescingThrottle {
+	public static final long POST_NOW = 0;
+	public static final long ALREADY_SCHEDULED = -1;
+
+	private long mMinIntervalMillis;
+	private long mLastPostMillis;
+	private boolean mHasPosted;
+	private boolean mScheduled;
+
+	public CoalescingThrottle(long minIntervalMillis) {
+		setMinIntervalMillis(minIntervalMillis);
+	}
+
+	public void setMinIntervalMillis(long minIntervalMillis) {
+		if (minIntervalMillis < 0) {
+			throw new IllegalArgumentException("minIntervalMillis < 0");
+		}
+		mMinIntervalMillis = minIntervalMillis;
+	}
+
+	public long getMinIntervalMillis() {
+		return mMinIntervalMillis;
+	}
+
+	/**
+	 * Registers a new pending value.
+	 *
+	 * @return {@link #POST_NOW} if the caller should publish immediately, {@link #ALREADY_SCHEDULED}
+	 * if a deferred publish is already pending (it will pick up the latest value), otherwise the
+	 * delay in milliseconds after which the caller must publish.
+	 */
+	public long onRequest(long nowMillis) {
+		if (mScheduled) {
+			return ALREADY_SCHEDULED;
+		}
+		final long elapsed = nowMillis - mLastPostMillis;
+		if (!mHasPosted || elapsed >= mMinIntervalMillis) {
+			return POST_NOW;
+		}
+		mScheduled = true;
+		return mMinIntervalMillis - elapsed;
+	}
+
+	/**
+	 * Must be called whenever the caller publishes, immediately or deferred.
+	 */
+	public void onPosted(long nowMillis) {
+		mScheduled = false;
+		mHasPosted = true;
+		mLastPostMillis = nowMillis;
+	}
+
+	public void reset() {
+		mScheduled = false;
+		mHasPosted = false;
+		mLastPostMillis = 0;
+	}
+}
@@ -0,0 +1,63 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Link settings requested right after a sensor connects: the connection priority (which selects
+ * the connection interval) and the ATT MTU. Fast-sampling probes need a short interval, one
+ * notification per connection event is common on small peripherals.
+ */
+public final class ConnectionProfile {
+	// Values of BluetoothGatt.CONNECTION_PRIORITY_*.
+	public static final int PRIORITY_BALANCED = 0;
+	public static final int PRIORITY_HIGH = 1;
+	public static final int PRIORITY_LOW_POWER = 2;
+
+	/**
+	 * Default ATT MTU, nothing is requested.
+	 */
+	public static final int DEFAULT_MTU = 23;
+
+	/**
+	 * Slow room sensors: 100-125 ms interval, default MTU.
+	 */
+	public static final ConnectionProfile LOW_POWER = new ConnectionProfile("low-power", PRIORITY_LOW_POWER, DEFAULT_MTU);
+	/**
+	 * 30-50 ms interval, an MTU large enough for a few readings per packet.
+	 */
+	public static final ConnectionProfile BALANCED = new ConnectionProfile("balanced", PRIORITY_BALANCED, 185);
+	/**
+	 * 7.5-15 ms interval and the largest MTU a single LE data packet carries with data length extension.
+	 */
+	public static final ConnectionProfile HIGH_THROUGHPUT = new ConnectionProfile("high-throughput", PRIORITY_HIGH, 247);
+
+	public final String name;
+	public final int priority;
+	public final int mtu;
+
+	public ConnectionProfile(String name, int priority, int mtu) {
+		if (mtu < DEFAULT_MTU || mtu > 517) {
+			throw new IllegalArgumentException("mtu " + mtu);
+		}
+		this.name = name;
+		this.priority = priority;
+		this.mtu = mtu;
+	}
+
+	/**
+	 * Shortest connection interval the priority allows, in microseconds, as used by the Android stack.
+	 */
+	public static long minIntervalMicros(int priority) {
+		switch (priority) {
+			case PRIORITY_HIGH:
+				return 7500;
+			case PRIORITY_LOW_POWER:
+				return 100000;
+			default:
+				return 30000;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -26,7 +26,10 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -34,33 +37,46 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
-import android.widget.BaseAdapter;
 import android.widget.Button;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 public class DeviceListActivity extends AppCompatActivity {
 	private static final String TAG = DeviceListActivity.class.getSimpleName();
 
+	/**
+	 * Optional String[] of sensor addresses, for callers looking for known sensors only: the first
+	 * scan stops as soon as all of them were found. Without it, and when the user scans again, the
+	 * scan runs to its timeout so sensors never seen before show up too.
+	 */
+	public static final String EXTRA_TARGET_ADDRESSES = "com.johnny.bletemperaturereceiver.EXTRA_TARGET_ADDRESSES";
+
 	private BluetoothAdapter mBluetoothAdapter;
 
 	private TextView labelEmptyMessage;
 	private Button buttonCancel;
 
-	List<BluetoothDevice> mDeviceList;
+	private RecyclerView mDevicesListView;
+	// Filled by scan callbacks, published to the adapter once per frame.
+	private final ScanResultModel<LeScanResult> mScanResults = new ScanResultModel<>();
+	private final ScanResultModel.Update mScanUpdate = new ScanResultModel.Update();
 	private DeviceAdapter mDeviceAdapter;
-	Map<String, Integer> mDevRssiValues;
-	private static final long SCAN_PERIOD = 10000; //10 seconds
+	// Looked up once per scan, getBondState() is a binder call.
+	private final Set<String> mBondedAddresses = new HashSet<>();
+	// Only thermometers (0x1809) are reported, batched by the controller for up to a second.
+	private static final ScanProfile SCAN_PROFILE = ScanProfile.BALANCED;
+	private LeScanner mScanner;
+	// Duty-cycled windows, ends after 30 s or once the target sensors are found.
+	private ScanScheduler mScanScheduler;
+	private static final long FRAME_INTERVAL_MS = 100;
 	private Handler mHandler;
-	private boolean mScanning;
+	private boolean mFrameScheduled;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -95,11 +111,17 @@ public class DeviceListActivity extends AppCompatActivity {
 			finish();
 			return;
 		}
+		mScanner = new AndroidLeScanner(mBluetoothAdapter);
+		mScanScheduler = new ScanScheduler(mScanner, new HandlerScheduler(mHandler)).setProfile(SCAN_PROFILE);
+		final String[] targets = getIntent().getStringArrayExtra(EXTRA_TARGET_ADDRESSES);
+		mScanScheduler.setTargets(targets != null ? Arrays.asList(targets) : Collections.<String>emptyList());
 		populateList();
 		buttonCancel.setOnClickListener(new OnClickListener() {
 			@Override
 			public void onClick(View v) {
-				if (mScanning == false) {
+				if (!mScanScheduler.isActive()) {
+					// Scanning again means the targets were not what the user is after.
+					mScanScheduler.setTargets(Collections.<String>emptyList());
 					scanLeDevice(true);
 				} else {
 					finish();
@@ -111,13 +133,12 @@ public class DeviceListActivity extends AppCompatActivity {
 	private void populateList() {
 	    /* Initialize device list container */
 		Log.d(TAG, "populateList");
-		mDeviceList = new ArrayList<>();
-		mDeviceAdapter = new DeviceAdapter(this, mDeviceList);
-		mDevRssiValues = new HashMap<>();
+		mDeviceAdapter = new DeviceAdapter(this, mScanResults);
 
-		ListView newDevicesListView = (ListView) findViewById(R.id.new_devices);
-		newDevicesListView.setAdapter(mDeviceAdapter);
-		newDevicesListView.setOnItemClickListener(mDeviceClickListener);
+		mDevicesListView = (RecyclerView) findViewById(R.id.new_devices);
+		mDevicesListView.setLayoutManager(new LinearLayoutManager(this));
+		mDevicesListView.setHasFixedSize(true);
+		mDevicesListView.setAdapter(mDeviceAdapter);
 
 		scanLeDevice(true);
 
@@ -125,67 +146,108 @@ public class DeviceListActivity extends AppCompatActivity {
 
 	private void scanLeDevice(final boolean enable) {
 		if (enable) {
-			// Stops scanning after a pre-defined scan period.
-			mHandler.postDelayed(new Runnable() {
-				@Override
-				public void run() {
-					mScanning = false;
-					mBluetoothAdapter.stopLeScan(mLeScanCallback);
-					buttonCancel.setText(R.string.scan);
+			mBondedAddresses.clear();
+			final Set<BluetoothDevice> bonded = mBluetoothAdapter.getBondedDevices();
+			if (bonded != null) {
+				for (BluetoothDevice device : bonded) {
+					mBondedAddresses.add(device.getAddress());
 				}
-			}, SCAN_PERIOD);
-
-			mScanning = true;
-			mBluetoothAdapter.startLeScan(mLeScanCallback);
+			}
+			// Restarting cancels the pending windows and timeout of the previous scan.
+			mScanScheduler.start(mScanCallback, mScanFinished);
 			buttonCancel.setText(R.string.cancel);
+			scheduleFrame();
 		} else {
-			mScanning = false;
-			mBluetoothAdapter.stopLeScan(mLeScanCallback);
+			if (mScanScheduler != null && mScanScheduler.isActive()) {
+				mScanScheduler.stop();
+				logScanStats("stopped");
+			}
 			buttonCancel.setText(R.string.scan);
 		}
 
 	}
 
-	private BluetoothAdapter.LeScanCallback mLeScanCallback =
-			new BluetoothAdapter.LeScanCallback() {
-
-				@Override
-				public void onLeScan(final BluetoothDevice device, final int rssi, byte[] scanRecord) {
-					runOnUiThread(new Runnable() {
-						@Override
-						public void run() {
-
-							runOnUiThread(new Runnable() {
-								@Override
-								public void run() {
-									addDevice(device, rssi);
-								}
-							});
+	private final ScanScheduler.Listener mScanFinished = new ScanScheduler.Listener() {
+		@Override
+		public void onScanFinished(int reason) {
+			logScanStats(reason == ScanScheduler.Reason.TargetsFound ? "targets found"
+					: reason == ScanScheduler.Reason.TimedOut ? "timed out" : "failed");
+			buttonCancel.setText(R.string.scan);
+		}
+	};
 
-						}
-					});
-				}
-			};
+	private void logScanStats(String outcome) {
+		Log.i(TAG, "Scan " + outcome + ": " + mScanScheduler.getDiscoveredCount() + " devices in "
+				+ mScanScheduler.getElapsedMillis() + " ms, mean time to discover "
+				+ mScanScheduler.getMeanTimeToDiscover() + " ms, targets after "
+				+ mScanScheduler.getTimeToTargets() + " ms, radio on " + mScanScheduler.getRadioOnMillis()
+				+ " ms in " + mScanScheduler.getWindowCount() + " windows");
+	}
 
-	private void addDevice(BluetoothDevice device, int rssi) {
-		boolean deviceFound = false;
+	private void scheduleFrame() {
+		if (!mFrameScheduled) {
+			mFrameScheduled = true;
+			mHandler.postDelayed(mFrame, FRAME_INTERVAL_MS);
+		}
+	}
 
-		for (BluetoothDevice listDev : mDeviceList) {
-			if (listDev.getAddress().equals(device.getAddress())) {
-				deviceFound = true;
-				break;
+	// Publishes what the scan callbacks collected since the last frame.
+	private final Runnable mFrame = new Runnable() {
+		@Override
+		public void run() {
+			mFrameScheduled = false;
+			if (mScanResults.drainUpdate(mScanUpdate)) {
+				applyUpdate(mScanUpdate);
+			}
+			if (mScanScheduler.isActive() || mScanResults.hasPendingUpdate()) {
+				scheduleFrame();
 			}
 		}
+	};
 
-		mDevRssiValues.put(device.getAddress(), rssi);
-		if (!deviceFound) {
-			mDeviceList.add(device);
+	// Replays the model's steps in order; an RSSI change only rebinds the RSSI label of its row.
+	private void applyUpdate(ScanResultModel.Update update) {
+		if (update.insertedCount > 0) {
 			labelEmptyMessage.setVisibility(View.GONE);
-
-			mDeviceAdapter.notifyDataSetChanged();
+		}
+		for (int i = 0; i < update.count; i++) {
+			final int position = update.positions[i];
+			switch (update.ops[i]) {
+				case ScanResultModel.Update.Op.Insert:
+					mDeviceAdapter.notifyItemInserted(position);
+					break;
+				case ScanResultModel.Update.Op.Move:
+					mDeviceAdapter.notifyItemMoved(position, update.targets[i]);
+					break;
+				case ScanResultModel.Update.Op.Change:
+					mDeviceAdapter.notifyItemChanged(position, DeviceAdapter.PAYLOAD_RSSI);
+					break;
+			}
 		}
 	}
 
+	// Binder thread, picked up by the next frame.
+	private final LeScanner.Callback mScanCallback = new LeScanner.Callback() {
+		@Override
+		public void onScanResult(LeScanResult result) {
+			mScanResults.onScanResult(result.address, result, result.rssi, SystemClock.elapsedRealtime());
+		}
+
+		@Override
+		public void onBatchScanResults(List<LeScanResult> results) {
+			final long now = SystemClock.elapsedRealtime();
+			for (int i = 0, size = results.size(); i < size; i++) {
+				final LeScanResult result = results.get(i);
+				mScanResults.onScanResult(result.address, result, result.rssi, now);
+			}
+		}
+
+		@Override
+		public void onScanFailed(int errorCode) {
+			Log.w(TAG, "Scan failed: " + errorCode);
+		}
+	};
+
 	@Override
 	public void onStart() {
 		super.onStart();
@@ -198,101 +260,155 @@ public class DeviceListActivity extends AppCompatActivity {
 	@Override
 	public void onStop() {
 		super.onStop();
-		mBluetoothAdapter.stopLeScan(mLeScanCallback);
+		if (mScanScheduler != null) {
+			mScanScheduler.stop();
+		}
 
 	}
 
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		mBluetoothAdapter.stopLeScan(mLeScanCallback);
+		if (mScanScheduler != null) {
+			mScanScheduler.stop();
+		}
 
 	}
 
-	private OnItemClickListener mDeviceClickListener = new OnItemClickListener() {
-
-		@Override
-		public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-			mBluetoothAdapter.stopLeScan(mLeScanCallback);
+	private void onDeviceClick(int position) {
+		mScanScheduler.stop();
 
-			Bundle b = new Bundle();
-			b.putString(BluetoothDevice.EXTRA_DEVICE, mDeviceList.get(position).getAddress());
+		Bundle b = new Bundle();
+		b.putString(BluetoothDevice.EXTRA_DEVICE, mScanResults.getAddress(position));
 
-			Intent result = new Intent();
-			result.putExtras(b);
-			setResult(Activity.RESULT_OK, result);
-			finish();
-		}
-	};
+		Intent result = new Intent();
+		result.putExtras(b);
+		setResult(Activity.RESULT_OK, result);
+		finish();
+	}
 
 	protected void onPause() {
 		super.onPause();
 		scanLeDevice(false);
+		mHandler.removeCallbacks(mFrame);
+		mFrameScheduled = false;
 	}
 
-	class DeviceAdapter extends BaseAdapter {
-		Context context;
-		List<BluetoothDevice> devices;
-		LayoutInflater inflater;
+	class DeviceViewHolder extends RecyclerView.ViewHolder implements OnClickListener {
+		final TextView labelAddress;
+		final TextView labelName;
+		final TextView labelPaired;
+		final TextView labelRssi;
+		// "Rssi = " followed by the value, rewritten in place by bindRssi().
+		private final char[] mRssiText;
+		private final int mRssiPrefixLength;
+		private int mBoundRssi;
+
+		DeviceViewHolder(View row, String rssiPrefix) {
+			super(row);
+			labelAddress = (TextView) row.findViewById(R.id.label_address);
+			labelName = (TextView) row.findViewById(R.id.label_name);
+			labelPaired = (TextView) row.findViewById(R.id.label_paired);
+			labelRssi = (TextView) row.findViewById(R.id.label_rssi);
+			mRssiPrefixLength = rssiPrefix.length();
+			mRssiText = new char[mRssiPrefixLength + 4];
+			rssiPrefix.getChars(0, mRssiPrefixLength, mRssiText, 0);
+			row.setOnClickListener(this);
+		}
+
+		void bindRssi(int rssi) {
+			if (rssi == mBoundRssi) {
+				return;
+			}
+			mBoundRssi = rssi;
+			if (rssi == 0) {
+				// Unknown, do not leave the RSSI of the row this holder showed before.
+				labelRssi.setText("");
+				return;
+			}
+			int length = mRssiPrefixLength;
+			int value = rssi;
+			if (value < 0) {
+				mRssiText[length++] = '-';
+				value = -value;
+			}
+			final int digits = value >= 100 ? 3 : value >= 10 ? 2 : 1;
+			for (int i = length + digits - 1; i >= length; i--) {
+				mRssiText[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+			labelRssi.setText(mRssiText, 0, length + digits);
+		}
 
-		public DeviceAdapter(Context context, List<BluetoothDevice> devices) {
-			this.context = context;
+		@Override
+		public void onClick(View v) {
+			final int position = getAdapterPosition();
+			if (position != RecyclerView.NO_POSITION) {
+				onDeviceClick(position);
+			}
+		}
+	}
+
+	class DeviceAdapter extends RecyclerView.Adapter<DeviceViewHolder> {
+		/**
+		 * Only the smoothed RSSI of the row changed.
+		 */
+		static final String PAYLOAD_RSSI = "rssi";
+
+		final ScanResultModel<LeScanResult> devices;
+		final LayoutInflater inflater;
+		final String rssiPrefix;
+		final String noName;
+
+		public DeviceAdapter(Context context, ScanResultModel<LeScanResult> devices) {
 			inflater = LayoutInflater.from(context);
 			this.devices = devices;
+			rssiPrefix = context.getString(R.string.rssi_value);
+			noName = context.getString(R.string.no_name_device);
 		}
 
 		@Override
-		public int getCount() {
+		public int getItemCount() {
 			return devices.size();
 		}
 
 		@Override
-		public Object getItem(int position) {
-			return devices.get(position);
+		public DeviceViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+			return new DeviceViewHolder(inflater.inflate(R.layout.device_element, parent, false), rssiPrefix);
 		}
 
 		@Override
-		public long getItemId(int position) {
-			return position;
+		public void onBindViewHolder(DeviceViewHolder holder, int position, List<Object> payloads) {
+			if (isRssiOnly(payloads)) {
+				holder.bindRssi(devices.getSmoothedRssi(position));
+			} else {
+				onBindViewHolder(holder, position);
+			}
 		}
 
 		@Override
-		public View getView(int position, View convertView, ViewGroup parent) {
-			ViewGroup vg;
-
-			if (convertView != null) {
-				vg = (ViewGroup) convertView;
+		public void onBindViewHolder(DeviceViewHolder holder, int position) {
+			final LeScanResult result = devices.getDevice(position);
+			holder.labelName.setText(TextUtils.isEmpty(result.name) ? noName : result.name);
+			holder.labelAddress.setText(result.address);
+			if (mBondedAddresses.contains(result.address)) {
+				holder.labelPaired.setVisibility(View.VISIBLE);
 			} else {
-				vg = (ViewGroup) inflater.inflate(R.layout.device_element, null);
-			}
-
-			BluetoothDevice device = devices.get(position);
-			final TextView labelAdd = ((TextView) vg.findViewById(R.id.label_address));
-			final TextView labelName = ((TextView) vg.findViewById(R.id.label_name));
-			final TextView labelPaired = (TextView) vg.findViewById(R.id.label_paired);
-			final TextView labelRssi = (TextView) vg.findViewById(R.id.label_rssi);
-
-			labelRssi.setVisibility(View.VISIBLE);
-			byte rssival = (byte) mDevRssiValues.get(device.getAddress()).intValue();
-			if (rssival != 0) {
-				labelRssi.setText(getString(R.string.rssi_value) + String.valueOf(rssival));
+				holder.labelPaired.setVisibility(View.GONE);
 			}
+			holder.bindRssi(devices.getSmoothedRssi(position));
+		}
 
-			String deviceName = device.getName();
-			if (TextUtils.isEmpty(deviceName)) {
-				deviceName = getString(R.string.no_name_device);
+		private boolean isRssiOnly(List<Object> payloads) {
+			if (payloads.isEmpty()) {
+				return false;
 			}
-			labelName.setText(deviceName);
-			labelAdd.setText(device.getAddress());
-			if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
-				Log.i(TAG, "device::" + device.getName());
-				labelPaired.setVisibility(View.VISIBLE);
-				labelPaired.setText(R.string.paired);
-			} else {
-				labelPaired.setVisibility(View.GONE);
-				labelRssi.setVisibility(View.VISIBLE);
+			for (int i = 0, size = payloads.size(); i < size; i++) {
+				if (payloads.get(i) != PAYLOAD_RSSI) {
+					return false;
+				}
 			}
-			return vg;
+			return true;
 		}
 	}
 
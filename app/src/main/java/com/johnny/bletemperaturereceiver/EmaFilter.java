@@ -0,0 +1,38 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Exponential moving average with a time constant, so irregular sample spacing (dropped
+ * notifications, batches) weighs samples by the time they cover rather than by count.
+ */
+public class EmaFilter implements SampleFilter {
+	private final double mTimeConstantMillis;
+	private boolean mPrimed;
+	private long mLastMillis;
+	private double mValue;
+
+	public EmaFilter(long timeConstantMillis) {
+		if (timeConstantMillis <= 0) {
+			throw new IllegalArgumentException("timeConstantMillis " + timeConstantMillis);
+		}
+		mTimeConstantMillis = timeConstantMillis;
+	}
+
+	@Override
+	public double apply(long timestampMillis, double value) {
+		if (!mPrimed) {
+			mPrimed = true;
+		} else {
+			final long dt = Math.max(1, timestampMillis - mLastMillis);
+			final double alpha = 1 - Math.exp(-dt / mTimeConstantMillis);
+			value = mValue + alpha * (value - mValue);
+		}
+		mLastMillis = timestampMillis;
+		mValue = value;
+		return value;
+	}
+
+	@Override
+	public void reset() {
+		mPrimed = false;
+	}
+}
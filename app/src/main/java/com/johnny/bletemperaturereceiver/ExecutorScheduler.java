@@ -0,0 +1,45 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Scheduler} backed by a single daemon thread.
+ */
+public class ExecutorScheduler implements Scheduler {
+	private final ScheduledExecutorService mExecutor;
+
+	public ExecutorScheduler(final String threadName) {
+		mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public long nowMillis() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	@Override
+	public Cancellable schedule(Runnable task, long delayMillis) {
+		final ScheduledFuture<?> future = mExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+		return new Cancellable() {
+			@Override
+			public void cancel() {
+				future.cancel(false);
+			}
+		};
+	}
+
+	public void shutdown() {
+		mExecutor.shutdownNow();
+	}
+}
@@ -0,0 +1,162 @@
+package com.johnny.bletemperaturereceiver;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.text.TextUtils;
+
+/**
+ * Keeps the foreground notification of {@link BLETemperatureService} up to date without posting
+ * it for every sample: the builder and PendingIntents are created once, updates are coalesced to
+ * at most one per {@link #setMinIntervalMillis(long) interval} (latest value wins) and skipped when
+ * the displayed text would not change.
+ */
+public class ForegroundNotificationUpdater {
+	public static final long DEFAULT_MIN_INTERVAL_MS = 1000;
+
+	private final Service mService;
+	private final int mNotificationId;
+	private final NotificationManager mNotificationManager;
+	private final Handler mHandler;
+	private final CoalescingThrottle mThrottle;
+
+	private final NotificationCompat.Builder mBuilder;
+	private final String mTemperaturePrefix;
+	private final String mTemplateCelsius;
+	private final String mTemplateFahrenheit;
+	private final String mDefaultTitle;
+
+	private String mTitle;
+	private String mPostedTitle;
+	private String mPostedText;
+	private boolean mForeground;
+
+	private double mPendingValue;
+	private int mPendingUnit;
+
+	private long mUpdatesRequested;
+	private long mUpdatesPosted;
+
+	private final Runnable mDeferredPost = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ForegroundNotificationUpdater.this) {
+				post();
+			}
+		}
+	};
+
+	public ForegroundNotificationUpdater(Service service, int notificationId) {
+		mService = service;
+		mNotificationId = notificationId;
+		mNotificationManager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+		mHandler = new Handler(Looper.getMainLooper());
+		mThrottle = new CoalescingThrottle(DEFAULT_MIN_INTERVAL_MS);
+
+		mTemperaturePrefix = service.getString(R.string.notification_temperature) + " ";
+		mTemplateCelsius = service.getString(R.string.temperature_template);
+		mTemplateFahrenheit = service.getString(R.string.temperature_template_fahrenheit);
+		mDefaultTitle = service.getString(R.string.app_name) + service.getString(R.string.connected);
+		mTitle = mDefaultTitle;
+
+		Intent intent = new Intent(service, MainActivity.class);
+		PendingIntent pendingIntent = PendingIntent.getActivity(service, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+		Intent iClose = new Intent(service, BLETemperatureService.class);
+		iClose.setAction(BLETemperatureService.ACTION_CLOSE);
+		PendingIntent piClose = PendingIntent.getService(service, 0,
+				iClose, PendingIntent.FLAG_UPDATE_CURRENT);
+
+		mBuilder = new NotificationCompat.Builder(service);
+		mBuilder.setSmallIcon(R.drawable.ic_notification);
+		mBuilder.setContentIntent(pendingIntent);
+		mBuilder.addAction(R.drawable.ic_close, service.getString(R.string.disconnect), piClose);
+		mBuilder.setOngoing(true);
+		mBuilder.setOnlyAlertOnce(true);
+		mBuilder.setShowWhen(false);
+	}
+
+	/**
+	 * Maximum update rate, e.g. 1000 ms for 1 Hz. 0 disables throttling (unchanged text is still skipped).
+	 */
+	public synchronized void setMinIntervalMillis(long minIntervalMillis) {
+		mThrottle.setMinIntervalMillis(minIntervalMillis);
+	}
+
+	public synchronized long getMinIntervalMillis() {
+		return mThrottle.getMinIntervalMillis();
+	}
+
+	/**
+	 * Sets the title (device name), falls back to "app name + connected" when empty.
+	 */
+	public synchronized void setTitle(String deviceName) {
+		mTitle = !TextUtils.isEmpty(deviceName) ? deviceName : mDefaultTitle;
+	}
+
+	public synchronized void update(double temperatureValue, int unit) {
+		mUpdatesRequested++;
+		mPendingValue = temperatureValue;
+		mPendingUnit = unit;
+
+		final long now = SystemClock.uptimeMillis();
+		final long delay = mThrottle.onRequest(now);
+		if (delay == CoalescingThrottle.POST_NOW) {
+			post();
+		} else if (delay > 0) {
+			mHandler.postDelayed(mDeferredPost, delay);
+		}
+	}
+
+	public synchronized void stop() {
+		mHandler.removeCallbacks(mDeferredPost);
+		mThrottle.reset();
+		mPostedText = null;
+		mPostedTitle = null;
+		if (mForeground) {
+			mForeground = false;
+			mService.stopForeground(true);
+		}
+	}
+
+	public synchronized boolean isForeground() {
+		return mForeground;
+	}
+
+	public synchronized long getUpdatesRequested() {
+		return mUpdatesRequested;
+	}
+
+	public synchronized long getUpdatesPosted() {
+		return mUpdatesPosted;
+	}
+
+	private void post() {
+		mThrottle.onPosted(SystemClock.uptimeMillis());
+
+		final String text = mTemperaturePrefix + String.format(
+				mPendingUnit == TemperatureMeasurement.Unit.Fahrenheit ? mTemplateFahrenheit : mTemplateCelsius,
+				mPendingValue);
+		if (mForeground && text.equals(mPostedText) && TextUtils.equals(mTitle, mPostedTitle)) {
+			return;
+		}
+		mBuilder.setContentTitle(mTitle);
+		mBuilder.setContentText(text);
+		mPostedText = text;
+		mPostedTitle = mTitle;
+		mUpdatesPosted++;
+
+		if (mForeground) {
+			mNotificationManager.notify(mNotificationId, mBuilder.build());
+		} else {
+			mForeground = true;
+			mService.startForeground(mNotificationId, mBuilder.build());
+		}
+	}
+}
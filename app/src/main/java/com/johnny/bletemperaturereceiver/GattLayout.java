@@ -0,0 +1,137 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Service, characteristic and descriptor layout of a remote GATT server as found by service
+ * discovery. Characteristics carry their attribute handles (instance ids), so a changed database
+ * on the device shows up as a lookup failure. Encoded as text for {@link GattLayoutCache}.
+ */
+public class GattLayout {
+
+	public static class Characteristic {
+		public final UUID service;
+		public final int serviceInstanceId;
+		public final UUID uuid;
+		public final int instanceId;
+		public final int properties;
+		public final UUID[] descriptors;
+
+		public Characteristic(UUID service, int serviceInstanceId, UUID uuid, int instanceId, int properties,
+		                      UUID[] descriptors) {
+			this.service = service;
+			this.serviceInstanceId = serviceInstanceId;
+			this.uuid = uuid;
+			this.instanceId = instanceId;
+			this.properties = properties;
+			this.descriptors = descriptors;
+		}
+
+		public boolean hasDescriptor(UUID descriptor) {
+			for (UUID d : descriptors) {
+				if (d.equals(descriptor)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final List<Characteristic> mCharacteristics = new ArrayList<>();
+
+	public GattLayout add(Characteristic characteristic) {
+		mCharacteristics.add(characteristic);
+		return this;
+	}
+
+	public GattLayout add(UUID service, int serviceInstanceId, UUID uuid, int instanceId, int properties,
+	                      UUID... descriptors) {
+		return add(new Characteristic(service, serviceInstanceId, uuid, instanceId, properties, descriptors));
+	}
+
+	public int size() {
+		return mCharacteristics.size();
+	}
+
+	public Characteristic get(int index) {
+		return mCharacteristics.get(index);
+	}
+
+	/**
+	 * First characteristic {@code uuid} of {@code service}, or null.
+	 */
+	public Characteristic find(UUID service, UUID uuid) {
+		for (Characteristic c : mCharacteristics) {
+			if (c.service.equals(service) && c.uuid.equals(uuid)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	public boolean has(UUID service, UUID uuid) {
+		return find(service, uuid) != null;
+	}
+
+	/**
+	 * One line per characteristic: service, service instance, characteristic, instance, properties,
+	 * comma separated descriptors; tab separated.
+	 */
+	public String encode() {
+		final StringBuilder sb = new StringBuilder();
+		for (Characteristic c : mCharacteristics) {
+			sb.append(c.service).append('\t').append(c.serviceInstanceId).append('\t')
+					.append(c.uuid).append('\t').append(c.instanceId).append('\t')
+					.append(c.properties).append('\t');
+			for (int i = 0; i < c.descriptors.length; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append(c.descriptors[i]);
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses {@link #encode()} output.
+	 *
+	 * @return null if {@code encoded} is empty or malformed, a partial layout is never returned.
+	 */
+	public static GattLayout decode(String encoded) {
+		if (encoded == null) {
+			return null;
+		}
+		final GattLayout layout = new GattLayout();
+		try {
+			for (String line : encoded.split("\n")) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				final String[] fields = line.split("\t", -1);
+				if (fields.length != 6) {
+					return null;
+				}
+				final UUID[] descriptors;
+				if (fields[5].isEmpty()) {
+					descriptors = new UUID[0];
+				} else {
+					final String[] d = fields[5].split(",");
+					descriptors = new UUID[d.length];
+					for (int i = 0; i < d.length; i++) {
+						descriptors[i] = UUID.fromString(d[i]);
+					}
+				}
+				layout.add(UUID.fromString(fields[0]), Integer.parseInt(fields[1]), UUID.fromString(fields[2]),
+						Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), descriptors);
+			}
+		} catch (IllegalArgumentException e) {
+			// Also covers NumberFormatException.
+			return null;
+		}
+		return layout.size() > 0 ? layout : null;
+	}
+}
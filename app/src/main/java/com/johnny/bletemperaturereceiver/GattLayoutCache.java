@@ -0,0 +1,149 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Discovered {@link GattLayout}s by device address, so a reconnect can subscribe without waiting
+ * for service discovery. With a directory each layout is also kept in a small file and survives the
+ * process. An entry is dropped when the device indicates Service Changed or when a request made
+ * with the cached layout fails.
+ */
+public class GattLayoutCache {
+	private static final String SUFFIX = ".gatt";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File mDirectory;
+	private final HashMap<String, GattLayout> mLayouts = new HashMap<>();
+
+	private long mHits;
+	private long mMisses;
+	private long mInvalidations;
+	private long mWriteErrors;
+
+	/**
+	 * In memory only.
+	 */
+	public GattLayoutCache() {
+		this(null);
+	}
+
+	public GattLayoutCache(File directory) {
+		mDirectory = directory;
+	}
+
+	/**
+	 * Layout of {@code address}, loaded from its file on first use, or null. Counted as a hit or a miss.
+	 */
+	public synchronized GattLayout lookup(String address) {
+		GattLayout layout = mLayouts.get(address);
+		if (layout == null && mDirectory != null) {
+			layout = load(address);
+			if (layout != null) {
+				mLayouts.put(address, layout);
+			}
+		}
+		if (layout != null) {
+			mHits++;
+		} else {
+			mMisses++;
+		}
+		return layout;
+	}
+
+	public synchronized void put(String address, GattLayout layout) {
+		mLayouts.put(address, layout);
+		if (mDirectory != null) {
+			store(address, layout);
+		}
+	}
+
+	/**
+	 * Forgets the layout of {@code address}, the next connection discovers services again.
+	 */
+	public synchronized void invalidate(String address) {
+		final boolean removed = mLayouts.remove(address) != null;
+		final boolean deleted = mDirectory != null && new File(mDirectory, fileNameFor(address)).delete();
+		if (removed || deleted) {
+			mInvalidations++;
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return mHits;
+	}
+
+	public synchronized long getMissCount() {
+		return mMisses;
+	}
+
+	public synchronized double getHitRate() {
+		final long lookups = mHits + mMisses;
+		return lookups > 0 ? (double) mHits / lookups : 0;
+	}
+
+	public synchronized long getInvalidationCount() {
+		return mInvalidations;
+	}
+
+	public synchronized long getWriteErrorCount() {
+		return mWriteErrors;
+	}
+
+	private GattLayout load(String address) {
+		final File file = new File(mDirectory, fileNameFor(address));
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final InputStream in = new FileInputStream(file);
+			try {
+				final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+				final byte[] buffer = new byte[1024];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					out.write(buffer, 0, read);
+				}
+				return GattLayout.decode(new String(out.toByteArray(), UTF_8));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Written next to the old file and renamed, a crash never leaves half a layout behind.
+	private void store(String address, GattLayout layout) {
+		final File file = new File(mDirectory, fileNameFor(address));
+		final File temp = new File(mDirectory, fileNameFor(address) + ".tmp");
+		try {
+			if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+				throw new IOException("Unable to create " + mDirectory);
+			}
+			final OutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(layout.encode().getBytes(UTF_8));
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("Unable to rename " + temp);
+			}
+		} catch (IOException e) {
+			mWriteErrors++;
+			temp.delete();
+		}
+	}
+
+	static String fileNameFor(String address) {
+		return address.replace(':', '_') + SUFFIX;
+	}
+}
@@ -0,0 +1,206 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One GATT request queued on a {@link GattOperationQueue}. Also the completion future: the result
+ * is the GATT status ({@link GattSession#GATT_SUCCESS} on success), read values are available
+ * from {@link #getValue()}.
+ */
+public class GattOperation implements Future<Integer> {
+
+	public static class Type {
+		public static final int ReadCharacteristic = 0;
+		public static final int WriteCharacteristic = 1;
+		public static final int WriteDescriptor = 2;
+		/**
+		 * Local {@code setCharacteristicNotification}, completes without a radio round trip.
+		 */
+		public static final int SetNotification = 3;
+		public static final int RequestMtu = 4;
+		/**
+		 * Local {@code requestConnectionPriority}, the stack renegotiates the interval on its own.
+		 */
+		public static final int ConnectionPriority = 5;
+
+		public static final int COUNT = 6;
+	}
+
+	public static class Priority {
+		public static final int Normal = 0;
+		public static final int High = 1;
+	}
+
+	public static final int STATUS_TIMEOUT = -1;
+	public static final int STATUS_CANCELLED = -2;
+	public static final int STATUS_NOT_STARTED = -3;
+
+	public static final long DEFAULT_TIMEOUT_MS = 3000;
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	public interface Listener {
+		/**
+		 * Called once, on the thread that completed the operation (usually a GATT callback thread).
+		 */
+		void onComplete(GattOperation operation);
+	}
+
+	final int type;
+	final UUID service;
+	final UUID characteristic;
+	final UUID descriptor;
+	final byte[] payload;
+	final boolean enable;
+	// MTU or connection priority.
+	final int argument;
+
+	int priority = Priority.Normal;
+	long timeoutMillis = DEFAULT_TIMEOUT_MS;
+	int maxRetries = DEFAULT_MAX_RETRIES;
+	Listener listener;
+
+	// Maintained by GattOperationQueue under its lock.
+	int attempts;
+	long startNanos;
+	long enqueueNanos;
+	Scheduler.Cancellable timeout;
+	int pendingStatus;
+
+	private final CountDownLatch mDone = new CountDownLatch(1);
+	private volatile int mStatus = STATUS_NOT_STARTED;
+	private volatile byte[] mValue;
+
+	private GattOperation(int type, UUID service, UUID characteristic, UUID descriptor, byte[] payload, boolean enable) {
+		this(type, service, characteristic, descriptor, payload, enable, 0);
+	}
+
+	private GattOperation(int type, UUID service, UUID characteristic, UUID descriptor, byte[] payload, boolean enable,
+	                      int argument) {
+		this.type = type;
+		this.service = service;
+		this.characteristic = characteristic;
+		this.descriptor = descriptor;
+		this.payload = payload;
+		this.enable = enable;
+		this.argument = argument;
+	}
+
+	public static GattOperation read(UUID service, UUID characteristic) {
+		return new GattOperation(Type.ReadCharacteristic, service, characteristic, null, null, false);
+	}
+
+	public static GattOperation write(UUID service, UUID characteristic, byte[] value) {
+		return new GattOperation(Type.WriteCharacteristic, service, characteristic, null, value, false);
+	}
+
+	public static GattOperation writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+		return new GattOperation(Type.WriteDescriptor, service, characteristic, descriptor, value, false);
+	}
+
+	public static GattOperation setNotification(UUID service, UUID characteristic, boolean enable) {
+		return new GattOperation(Type.SetNotification, service, characteristic, null, null, enable);
+	}
+
+	public static GattOperation requestMtu(int mtu) {
+		return new GattOperation(Type.RequestMtu, null, null, null, null, false, mtu);
+	}
+
+	/**
+	 * @param connectionPriority one of the {@link ConnectionProfile} priorities.
+	 */
+	public static GattOperation requestConnectionPriority(int connectionPriority) {
+		return new GattOperation(Type.ConnectionPriority, null, null, null, null, false, connectionPriority);
+	}
+
+	public GattOperation setPriority(int priority) {
+		this.priority = priority;
+		return this;
+	}
+
+	public GattOperation setTimeout(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	public GattOperation setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public GattOperation setListener(Listener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public UUID getCharacteristic() {
+		return characteristic;
+	}
+
+	public int getStatus() {
+		return mStatus;
+	}
+
+	public boolean isSuccess() {
+		return mStatus == GattSession.GATT_SUCCESS;
+	}
+
+	public byte[] getValue() {
+		return mValue;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	void complete(int status, byte[] value) {
+		if (mDone.getCount() == 0) {
+			return;
+		}
+		mValue = value;
+		mStatus = status;
+		mDone.countDown();
+		if (listener != null) {
+			listener.onComplete(this);
+		}
+	}
+
+	/**
+	 * Operations can only be cancelled through {@link GattOperationQueue#close()}.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return mStatus == STATUS_CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return mDone.getCount() == 0;
+	}
+
+	@Override
+	public Integer get() throws InterruptedException {
+		mDone.await();
+		return mStatus;
+	}
+
+	@Override
+	public Integer get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!mDone.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return mStatus;
+	}
+}
@@ -0,0 +1,292 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Serializes GATT requests on one {@link GattSession}. Android drops a request issued while another
+ * one is still outstanding, so only one operation is in flight at a time; the next one starts as
+ * soon as the previous one completes, times out or fails. High priority operations go before
+ * normal ones. Local operations ({@link GattOperation.Type#SetNotification}) complete immediately.
+ */
+public class GattOperationQueue {
+	static final long BUSY_RETRY_DELAY_MS = 50;
+
+	private final GattSession mSession;
+	private final Scheduler mScheduler;
+	private final LatencyHistogram[] mLatency;
+
+	private final ArrayDeque<GattOperation> mHigh = new ArrayDeque<>();
+	private final ArrayDeque<GattOperation> mNormal = new ArrayDeque<>();
+	private GattOperation mInFlight;
+	private boolean mClosed;
+
+	private long mTimeouts;
+	private long mRetries;
+
+	/**
+	 * @param latency per {@link GattOperation.Type} histograms of enqueue-to-completion time in
+	 *                microseconds, may be shared between queues.
+	 */
+	public GattOperationQueue(GattSession session, Scheduler scheduler, LatencyHistogram[] latency) {
+		mSession = session;
+		mScheduler = scheduler;
+		mLatency = latency;
+	}
+
+	public static LatencyHistogram[] newLatencyHistograms() {
+		final LatencyHistogram[] histograms = new LatencyHistogram[GattOperation.Type.COUNT];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	}
+
+	public GattOperation enqueue(GattOperation operation) {
+		final List<GattOperation> completed = new ArrayList<>(1);
+		synchronized (this) {
+			if (mClosed) {
+				operation.pendingStatus = GattOperation.STATUS_CANCELLED;
+				completed.add(operation);
+			} else {
+				operation.enqueueNanos = System.nanoTime();
+				if (operation.priority == GattOperation.Priority.High) {
+					mHigh.add(operation);
+				} else {
+					mNormal.add(operation);
+				}
+				if (mInFlight == null) {
+					startNext(completed);
+				}
+			}
+		}
+		finish(completed);
+		return operation;
+	}
+
+	public synchronized int size() {
+		return mHigh.size() + mNormal.size() + (mInFlight != null ? 1 : 0);
+	}
+
+	public synchronized long getTimeoutCount() {
+		return mTimeouts;
+	}
+
+	public synchronized long getRetryCount() {
+		return mRetries;
+	}
+
+	/**
+	 * Cancels the in-flight and all queued operations and rejects new ones.
+	 */
+	public void close() {
+		final List<GattOperation> cancelled = new ArrayList<>();
+		synchronized (this) {
+			mClosed = true;
+			if (mInFlight != null) {
+				cancelTimeout(mInFlight);
+				cancelled.add(mInFlight);
+				mInFlight = null;
+			}
+			cancelled.addAll(mHigh);
+			cancelled.addAll(mNormal);
+			mHigh.clear();
+			mNormal.clear();
+		}
+		for (GattOperation operation : cancelled) {
+			operation.complete(GattOperation.STATUS_CANCELLED, null);
+		}
+	}
+
+	// === GATT callbacks, return true when the event completed the in-flight operation ===
+
+	public boolean onCharacteristicRead(UUID characteristic, byte[] value, int status) {
+		return onResult(GattOperation.Type.ReadCharacteristic, characteristic, null, status, value);
+	}
+
+	public boolean onCharacteristicWrite(UUID characteristic, int status) {
+		return onResult(GattOperation.Type.WriteCharacteristic, characteristic, null, status, null);
+	}
+
+	public boolean onDescriptorWrite(UUID characteristic, UUID descriptor, int status) {
+		return onResult(GattOperation.Type.WriteDescriptor, characteristic, descriptor, status, null);
+	}
+
+	public boolean onMtuChanged(int mtu, int status) {
+		return onResult(GattOperation.Type.RequestMtu, null, null, status, null);
+	}
+
+	private boolean onResult(int type, UUID characteristic, UUID descriptor, int status, byte[] value) {
+		final GattOperation operation;
+		final List<GattOperation> completed = new ArrayList<>(1);
+		synchronized (this) {
+			operation = mInFlight;
+			if (operation == null || operation.type != type
+					|| (characteristic != null && !characteristic.equals(operation.characteristic))
+					|| (descriptor != null && !descriptor.equals(operation.descriptor))) {
+				return false;
+			}
+			cancelTimeout(operation);
+			mInFlight = null;
+			recordLatency(operation);
+			startNext(completed);
+		}
+		operation.complete(status, value);
+		finish(completed);
+		return true;
+	}
+
+	// === Internals, called with the lock held ===
+
+	/**
+	 * Starts queued operations until one is in flight. Operations that completed locally or could
+	 * not be issued are added to {@code completed} and must be finished outside the lock.
+	 */
+	private void startNext(List<GattOperation> completed) {
+		while (mInFlight == null && !mClosed) {
+			GattOperation operation = mHigh.poll();
+			if (operation == null) {
+				operation = mNormal.poll();
+			}
+			if (operation == null) {
+				return;
+			}
+			mInFlight = operation;
+			if (!issue(operation, completed)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the queue may move on to the next operation.
+	 */
+	private boolean issue(final GattOperation operation, List<GattOperation> completed) {
+		operation.attempts++;
+		operation.startNanos = System.nanoTime();
+		final boolean started;
+		switch (operation.type) {
+			case GattOperation.Type.SetNotification:
+				started = mSession.setCharacteristicNotification(operation.service, operation.characteristic,
+						operation.enable);
+				mInFlight = null;
+				recordLatency(operation);
+				operation.pendingStatus = started ? GattSession.GATT_SUCCESS : GattSession.GATT_FAILURE;
+				completed.add(operation);
+				return true;
+			case GattOperation.Type.ConnectionPriority:
+				started = mSession.requestConnectionPriority(operation.argument);
+				mInFlight = null;
+				recordLatency(operation);
+				operation.pendingStatus = started ? GattSession.GATT_SUCCESS : GattSession.GATT_FAILURE;
+				completed.add(operation);
+				return true;
+			case GattOperation.Type.RequestMtu:
+				started = mSession.requestMtu(operation.argument);
+				break;
+			case GattOperation.Type.ReadCharacteristic:
+				started = mSession.readCharacteristic(operation.service, operation.characteristic);
+				break;
+			case GattOperation.Type.WriteCharacteristic:
+				started = mSession.writeCharacteristic(operation.service, operation.characteristic, operation.payload);
+				break;
+			case GattOperation.Type.WriteDescriptor:
+				started = mSession.writeDescriptor(operation.service, operation.characteristic,
+						operation.descriptor, operation.payload);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation type " + operation.type);
+		}
+
+		if (started) {
+			final int attempt = operation.attempts;
+			operation.timeout = mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					onTimeout(operation, attempt);
+				}
+			}, operation.timeoutMillis);
+			return false;
+		}
+
+		// The stack refused the request, usually because it is still busy. Retry shortly.
+		if (operation.attempts <= operation.maxRetries) {
+			mRetries++;
+			final int attempt = operation.attempts;
+			operation.timeout = mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					onRetry(operation, attempt);
+				}
+			}, BUSY_RETRY_DELAY_MS);
+			return false;
+		}
+		mInFlight = null;
+		operation.pendingStatus = GattSession.GATT_FAILURE;
+		completed.add(operation);
+		return true;
+	}
+
+	private void onTimeout(GattOperation operation, int attempt) {
+		final List<GattOperation> completed = new ArrayList<>(1);
+		boolean timedOut = false;
+		synchronized (this) {
+			if (mInFlight != operation || operation.attempts != attempt) {
+				return;
+			}
+			mTimeouts++;
+			if (operation.attempts <= operation.maxRetries) {
+				mRetries++;
+				if (issue(operation, completed)) {
+					startNext(completed);
+				}
+			} else {
+				mInFlight = null;
+				recordLatency(operation);
+				timedOut = true;
+				startNext(completed);
+			}
+		}
+		if (timedOut) {
+			operation.complete(GattOperation.STATUS_TIMEOUT, null);
+		}
+		finish(completed);
+	}
+
+	private void onRetry(GattOperation operation, int attempt) {
+		final List<GattOperation> completed = new ArrayList<>(1);
+		synchronized (this) {
+			if (mInFlight != operation || operation.attempts != attempt) {
+				return;
+			}
+			if (issue(operation, completed)) {
+				startNext(completed);
+			}
+		}
+		finish(completed);
+	}
+
+	private void cancelTimeout(GattOperation operation) {
+		if (operation.timeout != null) {
+			operation.timeout.cancel();
+			operation.timeout = null;
+		}
+	}
+
+	private void recordLatency(GattOperation operation) {
+		if (mLatency != null) {
+			mLatency[operation.type].record((System.nanoTime() - operation.enqueueNanos) / 1000);
+		}
+	}
+
+	/**
+	 * Completes operations collected under the lock with their {@code pendingStatus}.
+	 */
+	private static void finish(List<GattOperation> completed) {
+		for (GattOperation operation : completed) {
+			operation.complete(operation.pendingStatus, null);
+		}
+	}
+}
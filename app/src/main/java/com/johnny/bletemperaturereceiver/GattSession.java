@@ -0,0 +1,86 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.UUID;
+
+/**
+ * One GATT client connection to a remote device, the part of {@code BluetoothGatt} this app uses.
+ * Attributes are addressed by UUID so implementations other than Android's (e.g. a JVM fake) do
+ * not need framework types.
+ */
+public interface GattSession {
+	// Same values as BluetoothGatt / BluetoothProfile.
+	int GATT_SUCCESS = 0;
+	int GATT_READ_NOT_PERMITTED = 2;
+	int GATT_FAILURE = 257;
+
+	int STATE_DISCONNECTED = 0;
+	int STATE_CONNECTING = 1;
+	int STATE_CONNECTED = 2;
+	int STATE_DISCONNECTING = 3;
+
+	String getAddress();
+
+	String getName();
+
+	/**
+	 * Reconnects a session that was disconnected but not closed.
+	 */
+	boolean connect();
+
+	void disconnect();
+
+	void close();
+
+	boolean discoverServices();
+
+	/**
+	 * Layout found by the last service discovery, null until one completed.
+	 */
+	GattLayout getLayout();
+
+	/**
+	 * Makes the attributes of a cached layout usable without discovering services.
+	 *
+	 * @return false if this session cannot use it, services have to be discovered.
+	 */
+	boolean restoreLayout(GattLayout layout);
+
+	boolean hasCharacteristic(UUID service, UUID characteristic);
+
+	boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+	boolean readCharacteristic(UUID service, UUID characteristic);
+
+	boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value);
+
+	boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+	/**
+	 * Answered by {@link Callback#onMtuChanged}.
+	 */
+	boolean requestMtu(int mtu);
+
+	/**
+	 * @param priority one of the {@link ConnectionProfile} priorities.
+	 */
+	boolean requestConnectionPriority(int priority);
+
+	/**
+	 * GATT events for one session. Calls for the same session are never concurrent.
+	 */
+	interface Callback {
+		void onConnectionStateChange(GattSession session, int status, int newState);
+
+		void onServicesDiscovered(GattSession session, int status);
+
+		void onCharacteristicRead(GattSession session, UUID characteristic, byte[] value, int status);
+
+		void onCharacteristicChanged(GattSession session, UUID characteristic, byte[] value);
+
+		void onCharacteristicWrite(GattSession session, UUID characteristic, int status);
+
+		void onDescriptorWrite(GattSession session, UUID characteristic, UUID descriptor, int status);
+
+		void onMtuChanged(GattSession session, int mtu, int status);
+	}
+}
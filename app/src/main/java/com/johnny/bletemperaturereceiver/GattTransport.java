@@ -0,0 +1,14 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Creates {@link GattSession}s. The Android implementation is {@link AndroidGattTransport}.
+ */
+public interface GattTransport {
+	/**
+	 * Starts connecting to {@code address}. The outcome is reported through
+	 * {@link GattSession.Callback#onConnectionStateChange(GattSession, int, int)}.
+	 *
+	 * @return the new session, or null if the connection could not be initiated.
+	 */
+	GattSession connect(String address, boolean autoConnect, GattSession.Callback callback);
+}
@@ -0,0 +1,57 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Hampel outlier filter over the last {@code size} samples: a sample further than {@code k}
+ * scaled median absolute deviations from the window median is replaced by the median, others pass
+ * unchanged. Causal, the window trails the sample instead of being centered on it. Outliers stay in
+ * the window, so a real step passes once it fills half of it.
+ */
+public class HampelFilter implements SampleFilter {
+	// MAD to standard deviation for normally distributed samples.
+	private static final double MAD_SCALE = 1.4826;
+
+	private final SortedWindow mWindow;
+	private final double mK;
+	private final double mMinDeviation;
+	private final double[] mScratch;
+	private long mOutliers;
+
+	/**
+	 * @param minDeviation smallest deviation ever treated as an outlier, for flat signals where the
+	 *                     MAD is 0, e.g. one quantization step of the sensor.
+	 */
+	public HampelFilter(int size, double k, double minDeviation) {
+		if (size < 3 || k <= 0) {
+			throw new IllegalArgumentException("size " + size + ", k " + k);
+		}
+		mWindow = new SortedWindow(size);
+		mK = k;
+		mMinDeviation = minDeviation;
+		mScratch = new double[size];
+	}
+
+	@Override
+	public double apply(long timestampMillis, double value) {
+		mWindow.add(value);
+		if (!mWindow.isFull()) {
+			return value;
+		}
+		final double median = mWindow.median();
+		final double deviation = Math.abs(value - median);
+		final double limit = Math.max(mMinDeviation, mK * MAD_SCALE * mWindow.medianAbsoluteDeviation(median, mScratch));
+		if (deviation > limit) {
+			mOutliers++;
+			return median;
+		}
+		return value;
+	}
+
+	@Override
+	public void reset() {
+		mWindow.clear();
+	}
+
+	public long getOutlierCount() {
+		return mOutliers;
+	}
+}
@@ -0,0 +1,29 @@
+package com.johnny.bletemperaturereceiver;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link Executor} that runs tasks on a {@link Handler}'s thread, the main thread by default.
+ */
+public class HandlerExecutor implements Executor {
+	private final Handler mHandler;
+
+	public HandlerExecutor() {
+		this(new Handler(Looper.getMainLooper()));
+	}
+
+	public HandlerExecutor(Handler handler) {
+		mHandler = handler;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (!mHandler.post(command)) {
+			throw new RejectedExecutionException(mHandler + " is shutting down");
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.johnny.bletemperaturereceiver;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * {@link Scheduler} on a {@link Handler}'s thread, e.g. the main thread of an activity.
+ */
+public class HandlerScheduler implements Scheduler {
+	private final Handler mHandler;
+
+	public HandlerScheduler(Handler handler) {
+		mHandler = handler;
+	}
+
+	@Override
+	public long nowMillis() {
+		return SystemClock.uptimeMillis();
+	}
+
+	@Override
+	public Cancellable schedule(final Runnable task, long delayMillis) {
+		// Wrapped, so cancelling one post does not remove other posts of the same runnable.
+		final Runnable posted = new Runnable() {
+			@Override
+			public void run() {
+				task.run();
+			}
+		};
+		mHandler.postDelayed(posted, delayMillis);
+		return new Cancellable() {
+			@Override
+			public void cancel() {
+				mHandler.removeCallbacks(posted);
+			}
+		};
+	}
+}
@@ -4,11 +4,41 @@ package com.johnny.bletemperaturereceiver;
  * Created by johnnysung on 2015/04/12.
  */
 public class HexUtils {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Number of chars {@link #displayHex(byte[], int, int, char[], int)} writes for {@code byteCount} bytes.
+     */
+    public static int displayHexLength(int byteCount) {
+        return byteCount * 3;
+    }
+
+    /**
+     * Formats bytes as "0A 1B 2C " (upper case, each byte followed by a space).
+     */
     public static String displayHex(byte[] data) {
-        final StringBuilder stringBuilder = new StringBuilder(data.length);
-        for (byte byteChar : data)
-            stringBuilder.append(String.format("%02X ", byteChar));
-        return stringBuilder.toString();
+        if (data == null) {
+            return "";
+        }
+        final char[] chars = new char[displayHexLength(data.length)];
+        displayHex(data, 0, data.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Same format as {@link #displayHex(byte[])}, written into a caller supplied buffer.
+     *
+     * @return number of chars written.
+     */
+    public static int displayHex(byte[] data, int offset, int length, char[] out, int outOffset) {
+        int pos = outOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int v = data[i] & 0xFF;
+            out[pos++] = HEX_DIGITS[v >>> 4];
+            out[pos++] = HEX_DIGITS[v & 0x0F];
+            out[pos++] = ' ';
+        }
+        return pos - outOffset;
     }
 
 }
@@ -0,0 +1,450 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compressed blocks of one sensor's history (timestamp, float value, flags), after Facebook's
+ * Gorilla: timestamps as delta of delta, values as the change in 0.01 degree steps, the resolution
+ * of the thermometers' SFLOAT/FLOAT readings, falling back to an XOR with the previous float for
+ * values off that grid, flags only when they change. A one-per-second series of a thermometer
+ * with 0.05 degree noise takes about 10 bits per sample when it arrives on time, 13x smaller than
+ * the {@link TemperatureRingFile#RECORD_SIZE} byte ring records, and about 15 bits with 5 ms of
+ * interval jitter, 8.5x smaller.
+ * <p>
+ * Block layout, little endian: payload length in bytes (int32), sample count (uint16), the first
+ * sample as is (int64 timestamp, int32 float bits, int32 flags), then a bit stream, most
+ * significant bit first, padded to a byte. Per following sample:
+ * <ul>
+ * <li>timestamp, delta of delta: {@code 0} for 0, {@code 10} + 5 bits, {@code 110} + 7 bits,
+ * {@code 1110} + 9 bits, {@code 11110} + 12 bits, {@code 111110} + 32 bits, {@code 111111} + 64 bits
+ * (two's complement);</li>
+ * <li>value: {@code 0} for the same float bits; {@code 10} when this and the previous value are
+ * whole 0.01 steps, then the change in steps as {@code 0} + 4 bits, {@code 10} + 7 bits,
+ * {@code 110} + 12 bits or {@code 111} + 32 bits; otherwise {@code 11} and the XOR with the
+ * previous float bits, {@code 0} + the meaningful bits when they fit the previous leading/trailing
+ * zero window, {@code 1} + 5 bits leading zeros + 5 bits length - 1 + the meaningful bits;</li>
+ * <li>flags: {@code 0} unchanged, {@code 1} + 32 bits.</li>
+ * </ul>
+ * Blocks are independent, a reader can skip one by its length. Encoder and decoder work on a
+ * caller's {@link ByteBuffer} and are reused block after block, nothing is allocated per sample.
+ */
+public final class HistoryBlockCodec {
+
+	public static final int HEADER_SIZE = 4 + 2 + 8 + 4 + 4;
+	public static final int MAX_BLOCK_SAMPLES = 4096;
+	/**
+	 * Worst case of one sample after the first: 6 + 64 bits of timestamp, 3 + 10 + 32 bits of
+	 * value, 1 + 32 bits of flags, plus up to 7 bits left over from the previous sample.
+	 */
+	public static final int MAX_SAMPLE_SIZE = 19;
+	public static final int MAX_BLOCK_SIZE = HEADER_SIZE + (MAX_BLOCK_SAMPLES - 1) * MAX_SAMPLE_SIZE + 1;
+
+	// Values with a magnitude below this are tried as 0.01 steps, their differences fit 32 bits.
+	private static final float MAX_STEPS_VALUE = 1e7f;
+	private static final long NO_STEPS = Long.MIN_VALUE;
+
+	private HistoryBlockCodec() {
+	}
+
+	/**
+	 * @return the value in 0.01 steps, {@link #NO_STEPS} if {@link #fromSteps} would not restore
+	 * the same float bits.
+	 */
+	static long steps(int valueBits) {
+		final float value = Float.intBitsToFloat(valueBits);
+		if (!(Math.abs(value) < MAX_STEPS_VALUE)) {
+			return NO_STEPS;
+		}
+		final long steps = Math.round(value * 100.0);
+		return Float.floatToRawIntBits(fromSteps(steps)) == valueBits ? steps : NO_STEPS;
+	}
+
+	static float fromSteps(long steps) {
+		return (float) (steps / 100.0);
+	}
+
+	/**
+	 * Writes one block at a time into a buffer:
+	 * {@link #begin(ByteBuffer)}, {@link #append} until it returns false, {@link #finish()}.
+	 */
+	public static final class Encoder {
+		private ByteBuffer mOut;
+		private int mBlockStart;
+		private int mCount;
+
+		private long mTimestamp;
+		private long mDelta;
+		private int mValueBits;
+		private long mSteps;
+		private int mLeading;
+		private int mTrailing;
+		private int mFlags;
+
+		private long mBits;
+		private int mBitCount;
+
+		/**
+		 * Starts a block at the position of {@code out}.
+		 *
+		 * @return false if {@code out} has no room for the first sample.
+		 */
+		public boolean begin(ByteBuffer out) {
+			if (out.remaining() < HEADER_SIZE) {
+				return false;
+			}
+			mOut = out;
+			mBlockStart = out.position();
+			mCount = 0;
+			mBits = 0;
+			mBitCount = 0;
+			out.position(mBlockStart + HEADER_SIZE);
+			return true;
+		}
+
+		/**
+		 * @return false if the block is full or the buffer may not hold the sample; the sample is
+		 * not added, finish the block and begin the next one.
+		 */
+		public boolean append(long timestampMillis, float value, int flags) {
+			final int valueBits = Float.floatToRawIntBits(value);
+			if (mCount == 0) {
+				putLong(mOut, mBlockStart + 6, timestampMillis);
+				putInt(mOut, mBlockStart + 14, valueBits);
+				putInt(mOut, mBlockStart + 18, flags);
+				mTimestamp = timestampMillis;
+				mDelta = 0;
+				mValueBits = valueBits;
+				mSteps = steps(valueBits);
+				mLeading = -1;
+				mFlags = flags;
+				mCount = 1;
+				return true;
+			}
+			// The last byte is kept for the padding of finish().
+			if (mCount == MAX_BLOCK_SAMPLES || mOut.remaining() < MAX_SAMPLE_SIZE + 1) {
+				return false;
+			}
+			appendTimestamp(timestampMillis);
+			appendValue(valueBits);
+			if (flags == mFlags) {
+				writeBits(0, 1);
+			} else {
+				writeBits(1, 1);
+				writeBits(flags, 32);
+				mFlags = flags;
+			}
+			mCount++;
+			return true;
+		}
+
+		/**
+		 * Ends the block, the buffer is positioned after it.
+		 *
+		 * @return size of the block in bytes, 0 if it had no sample and nothing was written.
+		 */
+		public int finish() {
+			if (mCount == 0) {
+				mOut.position(mBlockStart);
+				return 0;
+			}
+			if (mBitCount > 0) {
+				mOut.put((byte) (mBits << (8 - mBitCount)));
+				mBitCount = 0;
+			}
+			final int size = mOut.position() - mBlockStart;
+			putInt(mOut, mBlockStart, size - HEADER_SIZE);
+			mOut.put(mBlockStart + 4, (byte) mCount);
+			mOut.put(mBlockStart + 5, (byte) (mCount >> 8));
+			mCount = 0;
+			return size;
+		}
+
+		public int getCount() {
+			return mCount;
+		}
+
+		private void appendTimestamp(long timestampMillis) {
+			final long delta = timestampMillis - mTimestamp;
+			final long deltaOfDelta = delta - mDelta;
+			mTimestamp = timestampMillis;
+			mDelta = delta;
+			if (deltaOfDelta == 0) {
+				writeBits(0, 1);
+			} else if (deltaOfDelta >= -16 && deltaOfDelta < 16) {
+				writeBits(0x2, 2);
+				writeBits(deltaOfDelta, 5);
+			} else if (deltaOfDelta >= -64 && deltaOfDelta < 64) {
+				writeBits(0x6, 3);
+				writeBits(deltaOfDelta, 7);
+			} else if (deltaOfDelta >= -256 && deltaOfDelta < 256) {
+				writeBits(0xE, 4);
+				writeBits(deltaOfDelta, 9);
+			} else if (deltaOfDelta >= -2048 && deltaOfDelta < 2048) {
+				writeBits(0x1E, 5);
+				writeBits(deltaOfDelta, 12);
+			} else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+				writeBits(0x3E, 6);
+				writeBits(deltaOfDelta, 32);
+			} else {
+				writeBits(0x3F, 6);
+				writeBits(deltaOfDelta, 64);
+			}
+		}
+
+		private void appendValue(int valueBits) {
+			final int xor = valueBits ^ mValueBits;
+			mValueBits = valueBits;
+			if (xor == 0) {
+				writeBits(0, 1);
+				return;
+			}
+			final long steps = steps(valueBits);
+			final long previousSteps = mSteps;
+			mSteps = steps;
+			if (steps != NO_STEPS && previousSteps != NO_STEPS) {
+				final long delta = steps - previousSteps;
+				writeBits(0x2, 2);
+				if (delta >= -8 && delta < 8) {
+					writeBits(0, 1);
+					writeBits(delta, 4);
+				} else if (delta >= -64 && delta < 64) {
+					writeBits(0x2, 2);
+					writeBits(delta, 7);
+				} else if (delta >= -2048 && delta < 2048) {
+					writeBits(0x6, 3);
+					writeBits(delta, 12);
+				} else {
+					writeBits(0x7, 3);
+					writeBits(delta, 32);
+				}
+				return;
+			}
+			writeBits(0x3, 2);
+			final int leading = Integer.numberOfLeadingZeros(xor);
+			final int trailing = Integer.numberOfTrailingZeros(xor);
+			if (mLeading >= 0 && leading >= mLeading && trailing >= mTrailing) {
+				writeBits(0, 1);
+				writeBits(xor >>> mTrailing, 32 - mLeading - mTrailing);
+			} else {
+				final int length = 32 - leading - trailing;
+				writeBits(1, 1);
+				writeBits(leading, 5);
+				writeBits(length - 1, 5);
+				writeBits(xor >>> trailing, length);
+				mLeading = leading;
+				mTrailing = trailing;
+			}
+		}
+
+		// The low n bits of value, 1 <= n <= 64.
+		private void writeBits(long value, int n) {
+			if (n > 32) {
+				writeBits(value >>> 32, n - 32);
+				n = 32;
+			}
+			mBits = (mBits << n) | (value & ((1L << n) - 1));
+			mBitCount += n;
+			while (mBitCount >= 8) {
+				mBitCount -= 8;
+				mOut.put((byte) (mBits >>> mBitCount));
+			}
+		}
+	}
+
+	/**
+	 * Reads the samples of one block at a time: {@link #open(ByteBuffer)}, then {@link #next()}
+	 * until it returns false. The current sample is in the getters.
+	 */
+	public static final class Decoder {
+		private ByteBuffer mIn;
+		private int mPosition;
+		private int mEnd;
+		private int mCount;
+		private int mRead;
+
+		private long mTimestamp;
+		private long mDelta;
+		private int mValueBits;
+		private long mSteps;
+		private int mLeading;
+		private int mTrailing;
+		private int mFlags;
+
+		private long mBits;
+		private int mBitCount;
+
+		/**
+		 * Opens the block at the position of {@code in} and moves the position past it. The block is
+		 * read from {@code in} by {@link #next()}, it has to stay there until then.
+		 *
+		 * @return false if {@code in} does not hold the whole block yet, its position is unchanged.
+		 * @throws IllegalArgumentException if the header is not a valid block.
+		 */
+		public boolean open(ByteBuffer in) {
+			final int start = in.position();
+			if (in.remaining() < HEADER_SIZE) {
+				return false;
+			}
+			final int length = getInt(in, start);
+			final int count = (in.get(start + 4) & 0xFF) | (in.get(start + 5) & 0xFF) << 8;
+			if (length < 0 || length > MAX_BLOCK_SIZE - HEADER_SIZE || count < 1 || count > MAX_BLOCK_SAMPLES) {
+				throw new IllegalArgumentException("Not a history block: length " + length + ", count " + count);
+			}
+			if (in.remaining() < HEADER_SIZE + length) {
+				return false;
+			}
+			mIn = in;
+			mCount = count;
+			mRead = 0;
+			mPosition = start + HEADER_SIZE;
+			mEnd = mPosition + length;
+			mBits = 0;
+			mBitCount = 0;
+			mTimestamp = getLong(in, start + 6);
+			mValueBits = getInt(in, start + 14);
+			mSteps = steps(mValueBits);
+			mFlags = getInt(in, start + 18);
+			mDelta = 0;
+			mLeading = -1;
+			in.position(mEnd);
+			return true;
+		}
+
+		/**
+		 * Samples in the open block.
+		 */
+		public int getCount() {
+			return mCount;
+		}
+
+		/**
+		 * Moves to the next sample of the block.
+		 *
+		 * @return false at the end of the block.
+		 * @throws IllegalArgumentException if the bit stream ends early.
+		 */
+		public boolean next() {
+			if (mRead == mCount) {
+				return false;
+			}
+			if (mRead++ == 0) {
+				return true;
+			}
+			readTimestamp();
+			readValue();
+			if (readBits(1) != 0) {
+				mFlags = (int) readBits(32);
+			}
+			return true;
+		}
+
+		public long getTimestamp() {
+			return mTimestamp;
+		}
+
+		public float getValue() {
+			return Float.intBitsToFloat(mValueBits);
+		}
+
+		public int getFlags() {
+			return mFlags;
+		}
+
+		private void readTimestamp() {
+			final long deltaOfDelta;
+			if (readBits(1) == 0) {
+				deltaOfDelta = 0;
+			} else if (readBits(1) == 0) {
+				deltaOfDelta = signed(readBits(5), 5);
+			} else if (readBits(1) == 0) {
+				deltaOfDelta = signed(readBits(7), 7);
+			} else if (readBits(1) == 0) {
+				deltaOfDelta = signed(readBits(9), 9);
+			} else if (readBits(1) == 0) {
+				deltaOfDelta = signed(readBits(12), 12);
+			} else if (readBits(1) == 0) {
+				deltaOfDelta = signed(readBits(32), 32);
+			} else {
+				deltaOfDelta = readBits(64);
+			}
+			mDelta += deltaOfDelta;
+			mTimestamp += mDelta;
+		}
+
+		private void readValue() {
+			if (readBits(1) == 0) {
+				return;
+			}
+			if (readBits(1) == 0) {
+				if (mSteps == NO_STEPS) {
+					throw new IllegalArgumentException("Corrupt history block");
+				}
+				final long delta;
+				if (readBits(1) == 0) {
+					delta = signed(readBits(4), 4);
+				} else if (readBits(1) == 0) {
+					delta = signed(readBits(7), 7);
+				} else if (readBits(1) == 0) {
+					delta = signed(readBits(12), 12);
+				} else {
+					delta = signed(readBits(32), 32);
+				}
+				mSteps += delta;
+				mValueBits = Float.floatToRawIntBits(fromSteps(mSteps));
+				return;
+			}
+			if (readBits(1) != 0) {
+				mLeading = (int) readBits(5);
+				mTrailing = 32 - mLeading - ((int) readBits(5) + 1);
+				if (mTrailing < 0) {
+					throw new IllegalArgumentException("Corrupt history block");
+				}
+			} else if (mLeading < 0) {
+				throw new IllegalArgumentException("Corrupt history block");
+			}
+			mValueBits ^= (int) readBits(32 - mLeading - mTrailing) << mTrailing;
+			mSteps = steps(mValueBits);
+		}
+
+		private long readBits(int n) {
+			if (n > 32) {
+				final long high = readBits(n - 32);
+				return high << 32 | readBits(32);
+			}
+			while (mBitCount < n) {
+				if (mPosition == mEnd) {
+					throw new IllegalArgumentException("Truncated history block");
+				}
+				mBits = (mBits << 8) | (mIn.get(mPosition++) & 0xFF);
+				mBitCount += 8;
+			}
+			mBitCount -= n;
+			return (mBits >>> mBitCount) & ((1L << n) - 1);
+		}
+
+		private static long signed(long value, int bits) {
+			return value << (64 - bits) >> (64 - bits);
+		}
+	}
+
+	static void putInt(ByteBuffer buffer, int index, int value) {
+		buffer.put(index, (byte) value);
+		buffer.put(index + 1, (byte) (value >> 8));
+		buffer.put(index + 2, (byte) (value >> 16));
+		buffer.put(index + 3, (byte) (value >> 24));
+	}
+
+	static void putLong(ByteBuffer buffer, int index, long value) {
+		putInt(buffer, index, (int) value);
+		putInt(buffer, index + 4, (int) (value >> 32));
+	}
+
+	static int getInt(ByteBuffer buffer, int index) {
+		return (buffer.get(index) & 0xFF) | (buffer.get(index + 1) & 0xFF) << 8
+				| (buffer.get(index + 2) & 0xFF) << 16 | (buffer.get(index + 3) & 0xFF) << 24;
+	}
+
+	static long getLong(ByteBuffer buffer, int index) {
+		return (getInt(buffer, index) & 0xFFFFFFFFL) | (long) getInt(buffer, index + 4) << 32;
+	}
+}
@@ -0,0 +1,168 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Export file of one sensor's history: a header (magic, version, address) followed by
+ * {@link HistoryBlockCodec} blocks to the end of the file. A fraction of the size of a CSV export,
+ * which {@link #main} recreates on any JVM:
+ * {@code ./gradlew :benchmark:historyToCsv -Pin=sensor.tmpb -Pout=sensor.csv}.
+ */
+public final class HistoryExport {
+	static final int MAGIC = 0x544D5042; // "TMPB"
+	static final int VERSION = 1;
+
+	public static final String CSV_HEADER = "address,timestamp_ms,value,unit,kind\n";
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int CHUNK = 1024;
+
+	private HistoryExport() {
+	}
+
+	/**
+	 * Writes the records of {@code ring} with {@code fromMillis <= timestamp < toMillis}.
+	 *
+	 * @return number of records written.
+	 */
+	public static int write(TemperatureRingFile ring, String address, long fromMillis, long toMillis,
+	                        WritableByteChannel out) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		final byte[] name = address.getBytes(ASCII);
+		if (name.length > 255) {
+			throw new IllegalArgumentException("Address too long: " + address);
+		}
+		HistoryBlockCodec.putInt(buffer, 0, MAGIC);
+		buffer.position(4);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) name.length);
+		buffer.put(name);
+
+		final long[] timestamps = new long[CHUNK];
+		final float[] values = new float[CHUNK];
+		final int[] flags = new int[CHUNK];
+		final HistoryBlockCodec.Encoder encoder = new HistoryBlockCodec.Encoder();
+		encoder.begin(buffer);
+		int index = ring.indexOf(fromMillis);
+		int written = 0;
+		int count;
+		chunks:
+		while ((count = ring.readByIndex(index, timestamps, values, flags, 0, CHUNK)) > 0) {
+			index += count;
+			for (int i = 0; i < count; i++) {
+				if (timestamps[i] >= toMillis) {
+					break chunks;
+				}
+				if (!encoder.append(timestamps[i], values[i], flags[i])) {
+					encoder.finish();
+					drain(buffer, out);
+					encoder.begin(buffer);
+					encoder.append(timestamps[i], values[i], flags[i]);
+				}
+				written++;
+			}
+		}
+		encoder.finish();
+		drain(buffer, out);
+		return written;
+	}
+
+	/**
+	 * Converts an export to CSV, one {@link #CSV_HEADER} line then a line per record.
+	 *
+	 * @return number of records.
+	 */
+	public static long toCsv(ReadableByteChannel in, Writer out) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(HistoryBlockCodec.MAX_BLOCK_SIZE);
+		// Header, then blocks.
+		while (buffer.position() < 6) {
+			if (in.read(buffer) < 0) {
+				throw new IOException("Not a history export");
+			}
+		}
+		if (HistoryBlockCodec.getInt(buffer, 0) != MAGIC || buffer.get(4) != VERSION) {
+			throw new IOException("Not a history export");
+		}
+		final int nameLength = buffer.get(5) & 0xFF;
+		while (buffer.position() < 6 + nameLength) {
+			if (in.read(buffer) < 0) {
+				throw new IOException("Truncated history export");
+			}
+		}
+		final String address = new String(buffer.array(), 6, nameLength, ASCII);
+		buffer.flip();
+		buffer.position(6 + nameLength);
+
+		out.write(CSV_HEADER);
+		final HistoryBlockCodec.Decoder decoder = new HistoryBlockCodec.Decoder();
+		final StringBuilder line = new StringBuilder(64);
+		long records = 0;
+		try {
+			while (true) {
+				while (decoder.open(buffer)) {
+					while (decoder.next()) {
+						final int flags = decoder.getFlags();
+						line.setLength(0);
+						line.append(address).append(',').append(decoder.getTimestamp())
+								.append(',').append(decoder.getValue())
+								.append(',').append(flags & TemperatureRingFile.FLAG_UNIT_MASK)
+								.append(',').append(flags >>> TemperatureRingFile.FLAG_KIND_SHIFT).append('\n');
+						out.append(line);
+						records++;
+					}
+				}
+				buffer.compact();
+				if (in.read(buffer) < 0) {
+					if (buffer.position() > 0) {
+						throw new IOException("Truncated history export");
+					}
+					return records;
+				}
+				buffer.flip();
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static void drain(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * {@code HistoryExport <export file> [<csv file>]}, CSV to standard output without a CSV file.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: HistoryExport <export file> [<csv file>]");
+			System.exit(2);
+		}
+		final FileInputStream in = new FileInputStream(args[0]);
+		try {
+			final Writer out = new BufferedWriter(new OutputStreamWriter(
+					args.length > 1 ? new FileOutputStream(args[1]) : System.out, ASCII), BUFFER_SIZE);
+			try {
+				final long records = toCsv(in.getChannel(), out);
+				System.err.println(records + " records");
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
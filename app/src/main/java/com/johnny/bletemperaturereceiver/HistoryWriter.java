@@ -0,0 +1,284 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind persistence for {@link TemperatureHistoryStore}: producers only {@link #offer} into a
+ * per-device {@link SpscSampleRing}, and a single background thread writes them out in batches, when
+ * a ring holds {@code batchSize} samples or its oldest sample waited {@code maxDelayMillis}.
+ * <p>
+ * A device can have several producers at once (its GATT callbacks, the advertisement scan, a
+ * {@link SensorPoller} client), so offers to one ring are serialized by a per-device lock. It is
+ * uncontended while a device has a single source and never held by the writer thread.
+ */
+public class HistoryWriter implements Closeable {
+	public static final int DEFAULT_RING_CAPACITY = 4096;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	public static final long DEFAULT_MAX_DELAY_MS = 1000;
+
+	private final TemperatureHistoryStore mStore;
+	private final int mRingCapacity;
+	private final int mPolicy;
+	private final int mBatchSize;
+	private final long mMaxDelayNanos;
+
+	private final ConcurrentHashMap<String, Channel> mChannels = new ConcurrentHashMap<>();
+	private final Thread mThread;
+	private volatile boolean mRunning = true;
+	private volatile boolean mParked;
+
+	// Flush requests, and the latest one the writer thread completed.
+	private final Object mFlushLock = new Object();
+	private long mFlushRequested;
+	private long mFlushed;
+
+	// Writer thread only.
+	private final long[] mTimestamps;
+	private final float[] mValues;
+	private final int[] mFlags;
+
+	private final LatencyHistogram mBatchSizes = new LatencyHistogram();
+	// Microseconds.
+	private final LatencyHistogram mFlushLatency = new LatencyHistogram();
+	private final AtomicLong mWritten = new AtomicLong();
+	private final AtomicLong mWriteErrors = new AtomicLong();
+	private volatile int mMaxQueueDepth;
+
+	private static class Channel {
+		final String address;
+		// offer() under this channel's monitor, drain() by the writer thread without it.
+		final SpscSampleRing ring;
+		// Writer thread only: when the oldest queued sample was first seen.
+		long pendingSinceNanos = -1;
+
+		Channel(String address, SpscSampleRing ring) {
+			this.address = address;
+			this.ring = ring;
+		}
+	}
+
+	public HistoryWriter(TemperatureHistoryStore store) {
+		this(store, DEFAULT_RING_CAPACITY, SpscSampleRing.Policy.DropOldest, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MS);
+	}
+
+	/**
+	 * @param policy one of {@link SpscSampleRing.Policy}, applied when a device's ring is full.
+	 */
+	public HistoryWriter(TemperatureHistoryStore store, int ringCapacity, int policy, int batchSize,
+	                     long maxDelayMillis) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize < 1");
+		}
+		mStore = store;
+		mRingCapacity = ringCapacity;
+		mPolicy = policy;
+		mBatchSize = batchSize;
+		mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		mTimestamps = new long[batchSize];
+		mValues = new float[batchSize];
+		mFlags = new int[batchSize];
+
+		mThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "HistoryWriter");
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/**
+	 * Queues a sample, never blocks.
+	 *
+	 * @return see {@link SpscSampleRing#offer(long, float, int)}.
+	 */
+	public int offer(String address, long timestampMillis, float value, int flags) {
+		Channel channel = mChannels.get(address);
+		if (channel == null) {
+			final Channel created = new Channel(address, new SpscSampleRing(mRingCapacity, mPolicy));
+			channel = mChannels.putIfAbsent(address, created);
+			if (channel == null) {
+				channel = created;
+			}
+		}
+		final int result;
+		synchronized (channel) {
+			result = channel.ring.offer(timestampMillis, value, flags);
+		}
+		if (mParked && channel.ring.size() >= mBatchSize) {
+			LockSupport.unpark(mThread);
+		}
+		return result;
+	}
+
+	/**
+	 * Blocks until every sample offered before the call is written and the store flushed, e.g.
+	 * before exporting the store. Returns right away once the writer is closed.
+	 */
+	public void flush() {
+		boolean interrupted = false;
+		synchronized (mFlushLock) {
+			final long request = ++mFlushRequested;
+			LockSupport.unpark(mThread);
+			while (mFlushed < request) {
+				try {
+					mFlushLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the writer thread after writing what is queued.
+	 */
+	@Override
+	public void close() throws IOException {
+		mRunning = false;
+		LockSupport.unpark(mThread);
+		try {
+			mThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// === Metrics ===
+
+	/**
+	 * Samples currently queued over all devices.
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Channel channel : mChannels.values()) {
+			depth += channel.ring.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Deepest single device queue seen by the writer.
+	 */
+	public int getMaxQueueDepth() {
+		return mMaxQueueDepth;
+	}
+
+	public LatencyHistogram getBatchSizes() {
+		return mBatchSizes;
+	}
+
+	/**
+	 * Time to write one batch, in microseconds.
+	 */
+	public LatencyHistogram getFlushLatency() {
+		return mFlushLatency;
+	}
+
+	public long getWrittenCount() {
+		return mWritten.get();
+	}
+
+	public long getDroppedCount() {
+		long dropped = 0;
+		for (Channel channel : mChannels.values()) {
+			dropped += channel.ring.getDroppedCount();
+		}
+		return dropped;
+	}
+
+	public long getCoalescedCount() {
+		long coalesced = 0;
+		for (Channel channel : mChannels.values()) {
+			coalesced += channel.ring.getCoalescedCount();
+		}
+		return coalesced;
+	}
+
+	public long getWriteErrorCount() {
+		return mWriteErrors.get();
+	}
+
+	// === Writer thread ===
+
+	private void loop() {
+		while (mRunning) {
+			final long flushRequest;
+			synchronized (mFlushLock) {
+				flushRequest = mFlushRequested > mFlushed ? mFlushRequested : 0;
+			}
+			final long now = System.nanoTime();
+			long sleepNanos = mMaxDelayNanos;
+			for (Channel channel : mChannels.values()) {
+				final int depth = channel.ring.size();
+				if (depth > mMaxQueueDepth) {
+					mMaxQueueDepth = depth;
+				}
+				if (depth == 0) {
+					channel.pendingSinceNanos = -1;
+					continue;
+				}
+				if (channel.pendingSinceNanos < 0) {
+					channel.pendingSinceNanos = now;
+				}
+				final long waited = now - channel.pendingSinceNanos;
+				if (flushRequest != 0 || depth >= mBatchSize || waited >= mMaxDelayNanos) {
+					write(channel);
+				} else {
+					sleepNanos = Math.min(sleepNanos, mMaxDelayNanos - waited);
+				}
+			}
+			if (flushRequest != 0) {
+				mStore.flush();
+				onFlushed(flushRequest);
+				continue;
+			}
+			mParked = true;
+			if (mRunning) {
+				LockSupport.parkNanos(this, sleepNanos);
+			}
+			mParked = false;
+		}
+		for (Channel channel : mChannels.values()) {
+			write(channel);
+		}
+		mStore.flush();
+		onFlushed(Long.MAX_VALUE);
+	}
+
+	private void onFlushed(long request) {
+		synchronized (mFlushLock) {
+			mFlushed = request;
+			mFlushLock.notifyAll();
+		}
+	}
+
+	private void write(Channel channel) {
+		int drained;
+		do {
+			drained = channel.ring.drain(mTimestamps, mValues, mFlags, 0, mBatchSize);
+			if (drained == 0) {
+				break;
+			}
+			final long start = System.nanoTime();
+			try {
+				mStore.append(channel.address, mTimestamps, mValues, mFlags, 0, drained);
+				mWritten.addAndGet(drained);
+			} catch (IOException e) {
+				mWriteErrors.incrementAndGet();
+			}
+			mFlushLatency.record((System.nanoTime() - start) / 1000);
+			mBatchSizes.record(drained);
+		} while (drained == mBatchSize);
+		channel.pendingSinceNanos = -1;
+	}
+}
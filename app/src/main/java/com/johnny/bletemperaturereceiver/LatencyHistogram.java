@@ -0,0 +1,95 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, fixed size latency histogram in the spirit of HdrHistogram: each power of two is
+ * split into {@value #SUB_BUCKETS} linear sub-buckets, so recorded values keep about 6% relative
+ * precision over the whole {@code long} range. Recording never allocates.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mTotalCount = new AtomicLong();
+	private final AtomicLong mTotalValue = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		mCounts.incrementAndGet(indexFor(value));
+		mTotalCount.incrementAndGet();
+		mTotalValue.addAndGet(value);
+		long max;
+		while (value > (max = mMax.get())) {
+			if (mMax.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return mTotalCount.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public double getMean() {
+		final long count = mTotalCount.get();
+		return count == 0 ? 0 : (double) mTotalValue.get() / count;
+	}
+
+	/**
+	 * @param percentile 0..100
+	 * @return upper bound of the bucket holding the requested percentile, 0 when empty.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long count = mTotalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		final long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts.get(i);
+			if (seen >= target) {
+				return Math.min(upperBoundOf(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts.set(i, 0);
+		}
+		mTotalCount.set(0);
+		mTotalValue.set(0);
+		mMax.set(0);
+	}
+
+	static int indexFor(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lower = ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,26 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * One advertisement seen by a {@link LeScanner}.
+ */
+public class LeScanResult {
+	public final String address;
+	/**
+	 * Local name from the advertisement, null if it carries none.
+	 */
+	public final String name;
+	public final int rssi;
+	/**
+	 * Raw advertisement and scan response, see {@link AdvertisementParser}.
+	 */
+	public final byte[] scanRecord;
+	public final long timestampNanos;
+
+	public LeScanResult(String address, String name, int rssi, byte[] scanRecord, long timestampNanos) {
+		this.address = address;
+		this.name = name;
+		this.rssi = rssi;
+		this.scanRecord = scanRecord;
+		this.timestampNanos = timestampNanos;
+	}
+}
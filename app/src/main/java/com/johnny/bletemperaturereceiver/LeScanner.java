@@ -0,0 +1,35 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.List;
+
+/**
+ * BLE scanner for temperature sensors: only advertisements of the configured service UUIDs are
+ * reported, filtered in the controller where possible, and with a {@link ScanProfile} report delay
+ * they come in batches, one wakeup per batch. Implemented by {@link AndroidLeScanner} and
+ * {@link SimulatedLeScanner}.
+ */
+public interface LeScanner {
+	/**
+	 * @return false if scanning could not start (Bluetooth off, already scanning).
+	 */
+	boolean start(ScanProfile profile, Callback callback);
+
+	/**
+	 * Stops scanning and flushes the results batched so far. The flush may be asynchronous, as with
+	 * {@link AndroidLeScanner}: they can still come in shortly after this returns.
+	 */
+	void stop();
+
+	boolean isScanning();
+
+	interface Callback {
+		void onScanResult(LeScanResult result);
+
+		/**
+		 * Results collected over the report delay, oldest first.
+		 */
+		void onBatchScanResults(List<LeScanResult> results);
+
+		void onScanFailed(int errorCode);
+	}
+}
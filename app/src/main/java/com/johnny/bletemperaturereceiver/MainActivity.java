@@ -24,6 +24,8 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.concurrent.Executor;
+
 public class MainActivity extends AppCompatActivity {
 	private static final String TAG = MainActivity.class.getSimpleName();
 
@@ -43,6 +45,8 @@ public class MainActivity extends AppCompatActivity {
 	private Button buttonConnect;
 
 	private BLETemperatureService mService = null;
+	private BLETemperatureService.LocalBinder mBinder = null;
+	private final Executor mUiExecutor = new HandlerExecutor();
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -80,7 +84,7 @@ public class MainActivity extends AppCompatActivity {
 					} else {
 						//Disconnect button pressed
 						if (mDevice != null) {
-							mService.disconnect();
+							mService.disconnect(mDevice.getAddress());
 						}
 					}
 				}
@@ -99,6 +103,10 @@ public class MainActivity extends AppCompatActivity {
 		} catch (Exception ignore) {
 			Log.e(TAG, ignore.toString());
 		}
+		if (mBinder != null) {
+			mBinder.removeTemperatureListener(mTemperatureListener);
+			mBinder = null;
+		}
 		unbindService(mServiceConnection);
 		mService = null;
 	}
@@ -145,7 +153,9 @@ public class MainActivity extends AppCompatActivity {
 
 	private final ServiceConnection mServiceConnection = new ServiceConnection() {
 		public void onServiceConnected(ComponentName className, IBinder rawBinder) {
-			mService = ((BLETemperatureService.LocalBinder) rawBinder).getService();
+			mBinder = (BLETemperatureService.LocalBinder) rawBinder;
+			mBinder.addTemperatureListener(mTemperatureListener, mUiExecutor);
+			mService = mBinder.getService();
 			if (!mService.initialize()) {
 				Log.e(TAG, "Unable to initialize Bluetooth");
 				finish();
@@ -164,6 +174,7 @@ public class MainActivity extends AppCompatActivity {
 		}
 
 		public void onServiceDisconnected(ComponentName classname) {
+			mBinder = null;
 			mService = null;
 		}
 	};
@@ -172,6 +183,11 @@ public class MainActivity extends AppCompatActivity {
 
 		public void onReceive(Context context, final Intent intent) {
 			String action = intent.getAction();
+			final String address = intent.getStringExtra(BLETemperatureService.EXTRA_DEVICE_ADDRESS);
+			if (mDevice != null && address != null && !address.equals(mDevice.getAddress())) {
+				// Another sensor connected through the service, this screen follows mDevice only.
+				return;
+			}
 			if (action.equals(BLETemperatureService.ACTION_GATT_CONNECTED)) {
 				runOnUiThread(new Runnable() {
 					public void run() {
@@ -184,26 +200,38 @@ public class MainActivity extends AppCompatActivity {
 					public void run() {
 						mState = BleConnectionStatus.DISCONNECTED;
 						updateConnectionState();
-						if (mService != null) {
-							mService.close();
+						// A lost link is kept open while the service reconnects it.
+						if (mService != null && !mService.isReconnectPending(address)) {
+							mService.close(address);
 						}
 					}
 				});
 			} else if (action.equals(BLETemperatureService.NOT_SUPPORT_TEMPERATURE_SERVICE)) {
 				Toast.makeText(MainActivity.this, R.string.temperature_service_not_found, Toast.LENGTH_SHORT).show();
-			} else if (action.equals(BLETemperatureService.ACTION_TEMPERATURERE_UPDATE)) {
-				runOnUiThread(new Runnable() {
-					public void run() {
-						double temperature = intent.getDoubleExtra(BLETemperatureService.EXTRA_TEMPERATURERE_DATA, 0);
-						labelTemperature.setText(String.format(getString(R.string.temperature_template), temperature));
-					}
-				});
 			}
 
 		}
 	};
 
+	// Delivered on the main thread through mUiExecutor, no Intent per reading.
+	private final TemperatureListener mTemperatureListener = new TemperatureListener() {
+		@Override
+		public void onTemperatureReading(String address, double value, int unit, long timestampMillis) {
+			if (mDevice != null && !address.equals(mDevice.getAddress())) {
+				return;
+			}
+			final long start = System.nanoTime();
+			labelTemperature.setText(String.format(getString(unit == TemperatureMeasurement.Unit.Fahrenheit
+					? R.string.temperature_template_fahrenheit : R.string.temperature_template), value));
+			if (mService != null) {
+				mService.getPipelineMetrics().onRendered(address, start);
+			}
+		}
+	};
+
 	private void intentSearchDevices() {
+		// No EXTRA_TARGET_ADDRESSES: the user may be looking for a sensor never used before, the scan
+		// runs to its timeout.
 		Intent newIntent = new Intent(MainActivity.this, DeviceListActivity.class);
 		startActivityForResult(newIntent, REQUEST_SELECT_DEVICE);
 	}
@@ -235,7 +263,6 @@ public class MainActivity extends AppCompatActivity {
 		intentFilter.addAction(BLETemperatureService.ACTION_GATT_CONNECTED);
 		intentFilter.addAction(BLETemperatureService.ACTION_GATT_DISCONNECTED);
 		intentFilter.addAction(BLETemperatureService.ACTION_GATT_SERVICES_DISCOVERED);
-		intentFilter.addAction(BLETemperatureService.ACTION_TEMPERATURERE_UPDATE);
 		intentFilter.addAction(BLETemperatureService.NOT_SUPPORT_TEMPERATURE_SERVICE);
 		return intentFilter;
 	}
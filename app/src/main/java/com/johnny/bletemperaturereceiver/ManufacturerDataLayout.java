@@ -0,0 +1,125 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Where a vendor puts the temperature in its manufacturer specific advertisement data. Offsets are
+ * relative to the payload after the 2 byte company id.
+ */
+public class ManufacturerDataLayout {
+	public static class Format {
+		public static final int SInt8 = 0;
+		public static final int SInt16 = 1;
+		public static final int UInt16 = 2;
+		/**
+		 * IEEE-11073 16-bit SFLOAT.
+		 */
+		public static final int SFloat = 3;
+		/**
+		 * IEEE-11073 32-bit FLOAT.
+		 */
+		public static final int Float = 4;
+	}
+
+	private final int mCompanyId;
+	private int mValueOffset;
+	private int mFormat = Format.SInt16;
+	private boolean mBigEndian;
+	private double mScale = 0.01;
+	private int mUnit = TemperatureMeasurement.Unit.Celsius;
+	private int mSequenceOffset = -1;
+	private int mSequenceSize = 1;
+
+	public ManufacturerDataLayout(int companyId) {
+		mCompanyId = companyId;
+	}
+
+	public int getCompanyId() {
+		return mCompanyId;
+	}
+
+	/**
+	 * Default: signed 16-bit little endian hundredths of a degree Celsius at offset 0.
+	 */
+	public ManufacturerDataLayout setValue(int offset, int format, double scale) {
+		mValueOffset = offset;
+		mFormat = format;
+		mScale = scale;
+		return this;
+	}
+
+	public ManufacturerDataLayout setBigEndian(boolean bigEndian) {
+		mBigEndian = bigEndian;
+		return this;
+	}
+
+	public ManufacturerDataLayout setUnit(int unit) {
+		mUnit = unit;
+		return this;
+	}
+
+	/**
+	 * Packet counter used to drop repeated advertisements, 1 or 2 bytes. Without one the payload
+	 * content is compared instead.
+	 */
+	public ManufacturerDataLayout setSequence(int offset, int size) {
+		if (size != 1 && size != 2) {
+			throw new IllegalArgumentException("size " + size);
+		}
+		mSequenceOffset = offset;
+		mSequenceSize = size;
+		return this;
+	}
+
+	public boolean hasSequence() {
+		return mSequenceOffset >= 0;
+	}
+
+	/**
+	 * @return false if the payload is too short.
+	 */
+	public boolean decode(byte[] data, int offset, int length, TemperatureMeasurement out) {
+		final int size = mFormat == Format.SInt8 ? 1 : mFormat == Format.Float ? 4 : 2;
+		if (mValueOffset + size > length) {
+			return false;
+		}
+		out.clear();
+		out.unit = mUnit;
+		final int raw = read(data, offset + mValueOffset, size);
+		switch (mFormat) {
+			case Format.SInt8:
+				out.value = (byte) raw * mScale;
+				break;
+			case Format.SInt16:
+				out.value = (short) raw * mScale;
+				break;
+			case Format.UInt16:
+				out.value = raw * mScale;
+				break;
+			case Format.SFloat:
+				TemperatureMeasurementCodec.decodeSFloat(raw, out);
+				break;
+			default:
+				TemperatureMeasurementCodec.decodeFloat(raw, out);
+				break;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the packet counter, -1 if there is none or the payload is too short.
+	 */
+	public int sequence(byte[] data, int offset, int length) {
+		if (mSequenceOffset < 0 || mSequenceOffset + mSequenceSize > length) {
+			return -1;
+		}
+		return read(data, offset + mSequenceOffset, mSequenceSize);
+	}
+
+	private int read(byte[] data, int offset, int size) {
+		int value = 0;
+		for (int i = 0; i < size; i++) {
+			final int b = data[offset + (mBigEndian ? i : size - 1 - i)] & 0xFF;
+			value = value << 8 | b;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,24 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Median of the last {@code size} samples. Removes single-sample spikes without the lag an average
+ * of the same width has on steps.
+ */
+public class MedianFilter implements SampleFilter {
+	private final SortedWindow mWindow;
+
+	public MedianFilter(int size) {
+		mWindow = new SortedWindow(size);
+	}
+
+	@Override
+	public double apply(long timestampMillis, double value) {
+		mWindow.add(value);
+		return mWindow.median();
+	}
+
+	@Override
+	public void reset() {
+		mWindow.clear();
+	}
+}
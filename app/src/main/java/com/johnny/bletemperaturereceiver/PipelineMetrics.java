@@ -0,0 +1,248 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time goes between the radio and the screen, per device. Stages are timed with
+ * {@link System#nanoTime()} and recorded in microseconds into lock-free {@link LatencyHistogram}s;
+ * counters are atomics. Recording does not allocate once a device has been seen, and is skipped
+ * entirely while disabled.
+ */
+public class PipelineMetrics {
+
+	public static class Stage {
+		/**
+		 * Decoding one notification, single reading or batch.
+		 */
+		public static final int Decode = 0;
+		/**
+		 * The {@link SignalProcessor} of the device, per notification.
+		 */
+		public static final int Filter = 1;
+		/**
+		 * Handing the reading to the notification, the listener bus and the broadcast.
+		 */
+		public static final int FanOut = 2;
+		/**
+		 * From the fan-out to a UI listener starting to run, i.e. the main thread queue.
+		 */
+		public static final int Delivery = 3;
+		/**
+		 * The UI listener updating its views.
+		 */
+		public static final int Render = 4;
+		/**
+		 * From the GATT callback entry to the end of the render.
+		 */
+		public static final int EndToEnd = 5;
+
+		public static final int COUNT = 6;
+
+		private static final String[] NAMES = {"decode", "filter", "fan-out", "delivery", "render", "end-to-end"};
+
+		public static String name(int stage) {
+			return NAMES[stage];
+		}
+	}
+
+	/**
+	 * Counters and stage histograms of one device.
+	 */
+	public static class Sensor {
+		final String address;
+		final LatencyHistogram[] stages = new LatencyHistogram[Stage.COUNT];
+		final AtomicLong notifications = new AtomicLong();
+		final AtomicLong samples = new AtomicLong();
+		final AtomicLong drops = new AtomicLong();
+		// Callback entry of the newest notification and end of its fan-out, for the UI stages.
+		volatile long receivedNanos;
+		volatile long publishedNanos;
+		// Previous snapshot, for the rates.
+		long snapshotNanos;
+		long snapshotNotifications;
+		long snapshotSamples;
+
+		Sensor(String address, long nowNanos) {
+			this.address = address;
+			snapshotNanos = nowNanos;
+			for (int i = 0; i < stages.length; i++) {
+				stages[i] = new LatencyHistogram();
+			}
+		}
+
+		/**
+		 * @param nowNanos {@link System#nanoTime()} at the GATT callback entry.
+		 */
+		public void onNotification(long nowNanos) {
+			notifications.incrementAndGet();
+			receivedNanos = nowNanos;
+		}
+
+		public void onSamples(int count) {
+			samples.addAndGet(count);
+		}
+
+		/**
+		 * Notifications or samples lost: malformed, missing from a batch sequence.
+		 */
+		public void onDrop(long count) {
+			drops.addAndGet(count);
+		}
+
+		public void record(int stage, long startNanos, long endNanos) {
+			stages[stage].record((endNanos - startNanos) / 1000);
+		}
+
+		void onPublished(long nowNanos) {
+			publishedNanos = nowNanos;
+		}
+	}
+
+	public static class StageSnapshot {
+		public final long count;
+		public final long p50Micros;
+		public final long p99Micros;
+		public final long maxMicros;
+
+		StageSnapshot(LatencyHistogram histogram) {
+			count = histogram.getCount();
+			p50Micros = histogram.getValueAtPercentile(50);
+			p99Micros = histogram.getValueAtPercentile(99);
+			maxMicros = histogram.getMax();
+		}
+	}
+
+	public static class SensorSnapshot {
+		public final String address;
+		public final long notifications;
+		public final long samples;
+		public final long drops;
+		/**
+		 * Since the previous snapshot, or since the device was first seen.
+		 */
+		public final double notificationsPerSecond;
+		public final double samplesPerSecond;
+		public final StageSnapshot[] stages = new StageSnapshot[Stage.COUNT];
+
+		SensorSnapshot(Sensor sensor, double notificationsPerSecond, double samplesPerSecond) {
+			address = sensor.address;
+			notifications = sensor.notifications.get();
+			samples = sensor.samples.get();
+			drops = sensor.drops.get();
+			this.notificationsPerSecond = notificationsPerSecond;
+			this.samplesPerSecond = samplesPerSecond;
+			for (int i = 0; i < stages.length; i++) {
+				stages[i] = new StageSnapshot(sensor.stages[i]);
+			}
+		}
+
+		/**
+		 * One line: rates, drops and p50/p99 in microseconds per stage that saw data.
+		 */
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(address).append(": ")
+					.append(String.format(Locale.US, "%.1f notifications/s, %.1f samples/s", notificationsPerSecond,
+							samplesPerSecond))
+					.append(", ").append(notifications).append(" notifications, ").append(drops).append(" dropped");
+			for (int i = 0; i < stages.length; i++) {
+				if (stages[i].count > 0) {
+					sb.append(", ").append(Stage.name(i)).append(" p50 ").append(stages[i].p50Micros)
+							.append(" p99 ").append(stages[i].p99Micros).append(" us");
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private final ConcurrentHashMap<String, Sensor> mSensors = new ConcurrentHashMap<>();
+	private volatile boolean mEnabled = true;
+
+	public void setEnabled(boolean enabled) {
+		mEnabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
+	/**
+	 * Metrics of {@code address}, or null while disabled. Callers keep the result for the life of a
+	 * connection, the lookup is not free.
+	 */
+	public Sensor sensor(String address) {
+		if (!mEnabled) {
+			return null;
+		}
+		Sensor sensor = mSensors.get(address);
+		if (sensor == null) {
+			sensor = new Sensor(address, System.nanoTime());
+			final Sensor existing = mSensors.putIfAbsent(address, sensor);
+			if (existing != null) {
+				sensor = existing;
+			}
+		}
+		return sensor;
+	}
+
+	/**
+	 * Marks the end of the fan-out of the newest reading of {@code sensor}.
+	 */
+	public void onPublished(Sensor sensor, long startNanos) {
+		final long now = System.nanoTime();
+		sensor.record(Stage.FanOut, startNanos, now);
+		sensor.onPublished(now);
+	}
+
+	/**
+	 * Called by a UI listener around its view update. The newest reading is the one rendered, older
+	 * ones may have been coalesced by the listener bus.
+	 */
+	public void onRendered(String address, long renderStartNanos) {
+		final Sensor sensor = mEnabled ? mSensors.get(address) : null;
+		if (sensor == null) {
+			return;
+		}
+		final long now = System.nanoTime();
+		final long published = sensor.publishedNanos;
+		if (published != 0 && published <= renderStartNanos) {
+			sensor.record(Stage.Delivery, published, renderStartNanos);
+		}
+		sensor.record(Stage.Render, renderStartNanos, now);
+		final long received = sensor.receivedNanos;
+		if (received != 0) {
+			sensor.record(Stage.EndToEnd, received, now);
+		}
+	}
+
+	/**
+	 * Copies all counters and percentiles; rates cover the time since the previous snapshot.
+	 */
+	public List<SensorSnapshot> snapshot() {
+		final long now = System.nanoTime();
+		final List<SensorSnapshot> snapshots = new ArrayList<>(mSensors.size());
+		for (Sensor sensor : mSensors.values()) {
+			synchronized (sensor) {
+				final long notifications = sensor.notifications.get();
+				final long samples = sensor.samples.get();
+				final double seconds = (now - sensor.snapshotNanos) / 1e9;
+				final double notificationRate = seconds > 0 ? (notifications - sensor.snapshotNotifications) / seconds : 0;
+				final double sampleRate = seconds > 0 ? (samples - sensor.snapshotSamples) / seconds : 0;
+				sensor.snapshotNanos = now;
+				sensor.snapshotNotifications = notifications;
+				sensor.snapshotSamples = samples;
+				snapshots.add(new SensorSnapshot(sensor, notificationRate, sampleRate));
+			}
+		}
+		return snapshots;
+	}
+
+	public void reset() {
+		mSensors.clear();
+	}
+}
@@ -0,0 +1,115 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a {@link PipelineMetrics} snapshot line per device every period, e.g. to logcat and a file.
+ */
+public class PipelineMetricsReporter {
+
+	public interface Sink {
+		void write(String line);
+	}
+
+	/**
+	 * Appends time stamped lines to a file. Write errors are counted, the next line tries again.
+	 */
+	public static class FileSink implements Sink {
+		private final File mFile;
+		private final SimpleDateFormat mFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+		private long mErrors;
+
+		public FileSink(File file) {
+			mFile = file;
+		}
+
+		@Override
+		public synchronized void write(String line) {
+			try {
+				final Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true), Charset.forName("UTF-8"));
+				try {
+					writer.write(mFormat.format(new Date()));
+					writer.write(' ');
+					writer.write(line);
+					writer.write('\n');
+				} finally {
+					writer.close();
+				}
+			} catch (IOException e) {
+				mErrors++;
+			}
+		}
+
+		public synchronized long getErrorCount() {
+			return mErrors;
+		}
+	}
+
+	private final PipelineMetrics mMetrics;
+	private final Scheduler mScheduler;
+	private final Sink[] mSinks;
+	private long mPeriodMillis;
+	private Scheduler.Cancellable mTask;
+
+	public PipelineMetricsReporter(PipelineMetrics metrics, Scheduler scheduler, Sink... sinks) {
+		mMetrics = metrics;
+		mScheduler = scheduler;
+		mSinks = sinks.clone();
+	}
+
+	public synchronized void start(long periodMillis) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("periodMillis " + periodMillis);
+		}
+		stop();
+		mPeriodMillis = periodMillis;
+		// Starts the rate window now rather than at the last snapshot anyone took.
+		mMetrics.snapshot();
+		mTask = mScheduler.schedule(mReport, periodMillis);
+	}
+
+	public synchronized void stop() {
+		if (mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return mTask != null;
+	}
+
+	/**
+	 * Writes one report now.
+	 */
+	public void report() {
+		final List<PipelineMetrics.SensorSnapshot> snapshots = mMetrics.snapshot();
+		for (PipelineMetrics.SensorSnapshot snapshot : snapshots) {
+			final String line = snapshot.toString();
+			for (Sink sink : mSinks) {
+				sink.write(line);
+			}
+		}
+	}
+
+	private final Runnable mReport = new Runnable() {
+		@Override
+		public void run() {
+			report();
+			synchronized (PipelineMetricsReporter.this) {
+				if (mTask != null) {
+					mTask = mScheduler.schedule(this, mPeriodMillis);
+				}
+			}
+		}
+	};
+}
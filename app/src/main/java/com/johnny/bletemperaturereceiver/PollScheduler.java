@@ -0,0 +1,445 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Reads many sensors periodically with as few wakeups as possible. A sensor is due every period
+ * and may be read up to its flex later; sensors whose windows overlap share one wakeup, like
+ * inexact alarms. The next due time counts from the wakeup that read the sensor, so sensors read
+ * together stay together. A wakeup polls its sensors at the same time (up to a number of
+ * concurrent connections), the radio is on for one window instead of one per sensor.
+ * <p>
+ * What a poll does is up to the {@link Poller}, e.g. {@link SensorPoller}: connect, read,
+ * disconnect. Completions may come from any thread, they are handed over to the scheduler.
+ */
+public class PollScheduler {
+
+	public interface Poller {
+		/**
+		 * Starts polling {@code address}, reported once through {@code completion}.
+		 */
+		void poll(String address, Completion completion);
+
+		/**
+		 * Abandons a poll that timed out or was stopped, a later completion is ignored.
+		 */
+		void cancel(String address);
+	}
+
+	public interface Completion {
+		void onPollComplete(String address, boolean success);
+	}
+
+	public interface Listener {
+		/**
+		 * The next wakeup moved, e.g. to arm an alarm that wakes the CPU at {@code atMillis}
+		 * (scheduler time). -1 when nothing is scheduled.
+		 */
+		void onWakeupScheduled(long atMillis);
+
+		/**
+		 * Polls started, or the last poll of a wakeup ended with none queued, e.g. to hold a wake
+		 * lock while polling.
+		 */
+		void onPollingChanged(boolean polling);
+	}
+
+	public static final long DEFAULT_POLL_TIMEOUT_MS = 15000;
+	public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+	private static class Sensor {
+		final String address;
+		long periodMillis;
+		long flexMillis;
+		long dueMillis;
+		boolean queued;
+		boolean polling;
+		int pollId;
+		Scheduler.Cancellable timeout;
+
+		long polls;
+		long failures;
+		long lastSuccessMillis = -1;
+
+		Sensor(String address) {
+			this.address = address;
+		}
+	}
+
+	private static final Comparator<Sensor> BY_DUE = new Comparator<Sensor>() {
+		@Override
+		public int compare(Sensor a, Sensor b) {
+			return a.dueMillis < b.dueMillis ? -1 : (a.dueMillis == b.dueMillis ? 0 : 1);
+		}
+	};
+
+	private final Scheduler mScheduler;
+	private final Poller mPoller;
+	private Listener mListener;
+	private long mPollTimeoutMillis = DEFAULT_POLL_TIMEOUT_MS;
+	private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT;
+
+	private final LinkedHashMap<String, Sensor> mSensors = new LinkedHashMap<>();
+	private final ArrayDeque<Sensor> mQueue = new ArrayDeque<>();
+	private final List<Sensor> mScratch = new ArrayList<>();
+	private boolean mRunning;
+	private Scheduler.Cancellable mWakeup;
+	private long mWakeupMillis = -1;
+	private int mActive;
+	private boolean mPolling;
+
+	private long mWakeups;
+	private long mPolls;
+	private long mFailures;
+	private long mTimeouts;
+	private long mRadioOnMillis;
+	private long mRadioOnSince;
+
+	public PollScheduler(Scheduler scheduler, Poller poller) {
+		mScheduler = scheduler;
+		mPoller = poller;
+	}
+
+	public synchronized PollScheduler setListener(Listener listener) {
+		mListener = listener;
+		return this;
+	}
+
+	/**
+	 * Connections polled at the same time, the rest of a wakeup waits for a free one.
+	 */
+	public synchronized PollScheduler setMaxConcurrent(int maxConcurrent) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("maxConcurrent " + maxConcurrent);
+		}
+		mMaxConcurrent = maxConcurrent;
+		return this;
+	}
+
+	/**
+	 * Time after which a poll counts as failed and is cancelled.
+	 */
+	public synchronized PollScheduler setPollTimeout(long pollTimeoutMillis) {
+		mPollTimeoutMillis = pollTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Adds {@code address}, or changes its period, due right away.
+	 *
+	 * @param flexMillis how much later than due a read may happen to share a wakeup.
+	 */
+	public synchronized void addSensor(String address, long periodMillis, long flexMillis) {
+		if (periodMillis < 1 || flexMillis < 0) {
+			throw new IllegalArgumentException("period " + periodMillis + ", flex " + flexMillis);
+		}
+		Sensor sensor = mSensors.get(address);
+		if (sensor == null) {
+			sensor = new Sensor(address);
+			sensor.dueMillis = mScheduler.nowMillis();
+			mSensors.put(address, sensor);
+		}
+		sensor.periodMillis = periodMillis;
+		sensor.flexMillis = flexMillis;
+		if (mRunning) {
+			reschedule();
+		}
+	}
+
+	public synchronized void removeSensor(String address) {
+		final Sensor sensor = mSensors.remove(address);
+		if (sensor == null) {
+			return;
+		}
+		if (sensor.queued) {
+			mQueue.remove(sensor);
+		}
+		if (sensor.polling) {
+			endPoll(sensor);
+			mPoller.cancel(address);
+		}
+		if (mRunning) {
+			pump();
+			reschedule();
+		}
+		updatePolling();
+	}
+
+	public synchronized void start() {
+		if (mRunning) {
+			return;
+		}
+		mRunning = true;
+		reschedule();
+	}
+
+	/**
+	 * Cancels the next wakeup and the polls in progress.
+	 */
+	public synchronized void stop() {
+		if (!mRunning) {
+			return;
+		}
+		mRunning = false;
+		cancelWakeup();
+		for (Sensor sensor : mQueue) {
+			sensor.queued = false;
+		}
+		mQueue.clear();
+		for (Sensor sensor : mSensors.values()) {
+			if (sensor.polling) {
+				endPoll(sensor);
+				mPoller.cancel(sensor.address);
+			}
+		}
+		notifyWakeup();
+		updatePolling();
+	}
+
+	public synchronized boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Runs the next wakeup now if it is due, for a CPU alarm that may fire before the scheduler's
+	 * own timer does. The scheduler's clock has to keep counting while the CPU sleeps, like the
+	 * alarm's. A wakeup that is not due yet is reported again, so the alarm is re-armed.
+	 */
+	public synchronized void runDue() {
+		if (!mRunning || mWakeupMillis < 0) {
+			return;
+		}
+		if (mWakeupMillis <= mScheduler.nowMillis()) {
+			cancelWakeup();
+			wakeUp();
+		} else {
+			notifyWakeup();
+		}
+	}
+
+	/**
+	 * A poll is in progress or queued.
+	 */
+	public synchronized boolean isPolling() {
+		return mPolling;
+	}
+
+	/**
+	 * Scheduler time of the next wakeup, -1 if none.
+	 */
+	public synchronized long getNextWakeupMillis() {
+		return mWakeupMillis;
+	}
+
+	public synchronized long getWakeupCount() {
+		return mWakeups;
+	}
+
+	public synchronized long getPollCount() {
+		return mPolls;
+	}
+
+	/**
+	 * Failed polls, timeouts included.
+	 */
+	public synchronized long getFailureCount() {
+		return mFailures;
+	}
+
+	public synchronized long getTimeoutCount() {
+		return mTimeouts;
+	}
+
+	/**
+	 * Time with at least one poll in progress.
+	 */
+	public synchronized long getRadioOnMillis() {
+		return mActive > 0 ? mRadioOnMillis + mScheduler.nowMillis() - mRadioOnSince : mRadioOnMillis;
+	}
+
+	public synchronized long getPollCount(String address) {
+		final Sensor sensor = mSensors.get(address);
+		return sensor != null ? sensor.polls : 0;
+	}
+
+	public synchronized long getFailureCount(String address) {
+		final Sensor sensor = mSensors.get(address);
+		return sensor != null ? sensor.failures : 0;
+	}
+
+	/**
+	 * Scheduler time of the last successful poll of {@code address}, -1 if none.
+	 */
+	public synchronized long getLastSuccessMillis(String address) {
+		final Sensor sensor = mSensors.get(address);
+		return sensor != null ? sensor.lastSuccessMillis : -1;
+	}
+
+	// Sensors by due time; the first one's window is narrowed by every following window that
+	// overlaps it, the wakeup is at the latest due time of that group.
+	private void reschedule() {
+		cancelWakeup();
+		mScratch.clear();
+		for (Sensor sensor : mSensors.values()) {
+			if (!sensor.queued && !sensor.polling) {
+				mScratch.add(sensor);
+			}
+		}
+		if (!mScratch.isEmpty()) {
+			Collections.sort(mScratch, BY_DUE);
+			long start = mScratch.get(0).dueMillis;
+			long end = start + mScratch.get(0).flexMillis;
+			for (int i = 1; i < mScratch.size(); i++) {
+				final Sensor sensor = mScratch.get(i);
+				if (sensor.dueMillis > end) {
+					break;
+				}
+				start = sensor.dueMillis;
+				end = Math.min(end, sensor.dueMillis + sensor.flexMillis);
+			}
+			mScratch.clear();
+			final long now = mScheduler.nowMillis();
+			mWakeupMillis = Math.max(start, now);
+			mWakeup = mScheduler.schedule(mOnWakeup, mWakeupMillis - now);
+		}
+		notifyWakeup();
+	}
+
+	private void cancelWakeup() {
+		if (mWakeup != null) {
+			mWakeup.cancel();
+			mWakeup = null;
+		}
+		mWakeupMillis = -1;
+	}
+
+	private void notifyWakeup() {
+		if (mListener != null) {
+			mListener.onWakeupScheduled(mWakeupMillis);
+		}
+	}
+
+	private void updatePolling() {
+		final boolean polling = mActive > 0 || !mQueue.isEmpty();
+		if (polling != mPolling) {
+			mPolling = polling;
+			if (mListener != null) {
+				mListener.onPollingChanged(polling);
+			}
+		}
+	}
+
+	private final Runnable mOnWakeup = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (PollScheduler.this) {
+				mWakeup = null;
+				if (mRunning) {
+					wakeUp();
+				}
+			}
+		}
+	};
+
+	private void wakeUp() {
+		mWakeups++;
+		final long now = mScheduler.nowMillis();
+		for (Sensor sensor : mSensors.values()) {
+			if (!sensor.queued && !sensor.polling && sensor.dueMillis <= now) {
+				sensor.dueMillis = now + sensor.periodMillis;
+				sensor.queued = true;
+				mQueue.add(sensor);
+			}
+		}
+		pump();
+		reschedule();
+		updatePolling();
+	}
+
+	private void pump() {
+		Sensor sensor;
+		while (mActive < mMaxConcurrent && (sensor = mQueue.poll()) != null) {
+			sensor.queued = false;
+			sensor.polling = true;
+			sensor.polls++;
+			mPolls++;
+			if (mActive++ == 0) {
+				mRadioOnSince = mScheduler.nowMillis();
+			}
+			final PollCompletion completion = new PollCompletion(sensor, ++sensor.pollId);
+			sensor.timeout = mScheduler.schedule(completion.onTimeout, mPollTimeoutMillis);
+			mPoller.poll(sensor.address, completion);
+		}
+	}
+
+	private void endPoll(Sensor sensor) {
+		sensor.polling = false;
+		sensor.pollId++;
+		if (sensor.timeout != null) {
+			sensor.timeout.cancel();
+			sensor.timeout = null;
+		}
+		if (--mActive == 0) {
+			mRadioOnMillis += mScheduler.nowMillis() - mRadioOnSince;
+		}
+	}
+
+	// Scheduler thread.
+	private void onPollComplete(Sensor sensor, int pollId, boolean success, boolean timedOut) {
+		if (!sensor.polling || sensor.pollId != pollId) {
+			return;
+		}
+		endPoll(sensor);
+		if (success) {
+			sensor.lastSuccessMillis = mScheduler.nowMillis();
+		} else {
+			sensor.failures++;
+			mFailures++;
+			if (timedOut) {
+				mTimeouts++;
+				mPoller.cancel(sensor.address);
+			}
+		}
+		if (mRunning) {
+			pump();
+			reschedule();
+		}
+		updatePolling();
+	}
+
+	private class PollCompletion implements Completion {
+		final Sensor sensor;
+		final int pollId;
+
+		PollCompletion(Sensor sensor, int pollId) {
+			this.sensor = sensor;
+			this.pollId = pollId;
+		}
+
+		@Override
+		public void onPollComplete(String address, final boolean success) {
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (PollScheduler.this) {
+						PollScheduler.this.onPollComplete(sensor, pollId, success, false);
+					}
+				}
+			}, 0);
+		}
+
+		final Runnable onTimeout = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (PollScheduler.this) {
+					PollScheduler.this.onPollComplete(sensor, pollId, false, true);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,79 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Event rate over a sliding window of fixed buckets, e.g. notifications per second of one sensor.
+ * Only complete buckets are counted so the rate does not dip while the current one fills up.
+ * Marking does not allocate.
+ */
+public class RateMeter {
+	private final long mBucketMillis;
+	private final long[] mBucketIds;
+	private final long[] mCounts;
+	private long mFirstBucket = -1;
+	private long mTotal;
+
+	/**
+	 * @param buckets window length in buckets, the current (incomplete) one included.
+	 */
+	public RateMeter(long bucketMillis, int buckets) {
+		if (bucketMillis <= 0 || buckets < 2) {
+			throw new IllegalArgumentException("bucketMillis " + bucketMillis + ", buckets " + buckets);
+		}
+		mBucketMillis = bucketMillis;
+		mBucketIds = new long[buckets];
+		mCounts = new long[buckets];
+		reset();
+	}
+
+	public void mark(long nowMillis) {
+		mark(nowMillis, 1);
+	}
+
+	public synchronized void mark(long nowMillis, int events) {
+		final long bucket = nowMillis / mBucketMillis;
+		final int index = (int) (bucket % mCounts.length);
+		if (mBucketIds[index] != bucket) {
+			mBucketIds[index] = bucket;
+			mCounts[index] = 0;
+		}
+		mCounts[index] += events;
+		mTotal += events;
+		if (mFirstBucket < 0) {
+			mFirstBucket = bucket;
+		}
+	}
+
+	/**
+	 * Events per second over the complete buckets of the window, 0 before one bucket completed.
+	 */
+	public synchronized double getRate(long nowMillis) {
+		if (mFirstBucket < 0) {
+			return 0;
+		}
+		final long current = nowMillis / mBucketMillis;
+		final long span = Math.min(mCounts.length - 1, current - mFirstBucket);
+		if (span <= 0) {
+			return 0;
+		}
+		long count = 0;
+		for (int i = 0; i < mCounts.length; i++) {
+			if (mBucketIds[i] < current && mBucketIds[i] >= current - span) {
+				count += mCounts[i];
+			}
+		}
+		return count * 1000.0 / (span * mBucketMillis);
+	}
+
+	public synchronized long getTotal() {
+		return mTotal;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < mBucketIds.length; i++) {
+			mBucketIds[i] = -1;
+			mCounts[i] = 0;
+		}
+		mFirstBucket = -1;
+		mTotal = 0;
+	}
+}
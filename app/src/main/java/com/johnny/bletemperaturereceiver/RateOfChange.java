@@ -0,0 +1,55 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Rate of change (dT/dt) in units per minute, the slope between the newest sample and the oldest
+ * one within {@code windowMillis}. Samples are kept in a fixed ring; the window is the span of the
+ * ring at most, so size it for the fastest sample rate.
+ */
+public class RateOfChange {
+	private final long mWindowMillis;
+	private final long[] mTimes;
+	private final double[] mValues;
+	private int mHead;
+	private int mCount;
+	private double mRate;
+
+	public RateOfChange(long windowMillis, int capacity) {
+		if (windowMillis <= 0 || capacity < 2) {
+			throw new IllegalArgumentException("windowMillis " + windowMillis + ", capacity " + capacity);
+		}
+		mWindowMillis = windowMillis;
+		mTimes = new long[capacity];
+		mValues = new double[capacity];
+	}
+
+	/**
+	 * @return the rate including this sample, 0 until two samples at different times are known.
+	 */
+	public double add(long timestampMillis, double value) {
+		mTimes[mHead] = timestampMillis;
+		mValues[mHead] = value;
+		mHead = (mHead + 1) % mTimes.length;
+		if (mCount < mTimes.length) {
+			mCount++;
+		}
+		// Oldest sample still inside the window; samples older than the window drop out here.
+		int oldest = (mHead - mCount + mTimes.length) % mTimes.length;
+		while (mCount > 2 && timestampMillis - mTimes[(oldest + 1) % mTimes.length] >= mWindowMillis) {
+			oldest = (oldest + 1) % mTimes.length;
+			mCount--;
+		}
+		final long dt = timestampMillis - mTimes[oldest];
+		mRate = dt > 0 ? (value - mValues[oldest]) * 60000.0 / dt : mRate;
+		return mRate;
+	}
+
+	public double getRate() {
+		return mRate;
+	}
+
+	public void reset() {
+		mHead = 0;
+		mCount = 0;
+		mRate = 0;
+	}
+}
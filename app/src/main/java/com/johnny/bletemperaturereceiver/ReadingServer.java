@@ -0,0 +1,692 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small HTTP server for dashboards on the phone or the LAN, all sockets on one selector thread:
+ * <ul>
+ * <li>{@code GET /readings}: latest reading of every sensor,</li>
+ * <li>{@code GET /readings/<address>}: latest reading of one sensor,</li>
+ * <li>{@code GET /history/<address>?from=&to=&points=}: min/max/avg points from the history,</li>
+ * <li>{@code GET /stream[?address=]}: Server-Sent Events, one {@code reading} event per reading.</li>
+ * </ul>
+ * {@link #publish} runs on the ingestion thread and never touches a socket: the event is encoded
+ * once and queued to every stream client. The queue of a client is bounded; a client that does not
+ * read fast enough loses its oldest events and catches up with the newest readings, neither
+ * ingestion nor the other clients wait for it.
+ */
+public class ReadingServer implements Closeable {
+
+	/**
+	 * Stored readings, e.g. a {@link TemperatureHistoryStore}. Queried on the server thread.
+	 */
+	public interface History {
+		String[] getAddresses();
+
+		void query(String address, long fromMillis, long toMillis, int maxPoints, RollupSeries out)
+				throws IOException;
+	}
+
+	public static final int DEFAULT_MAX_CLIENTS = 512;
+	public static final int DEFAULT_MAX_BUFFERED = 64 * 1024;
+	public static final long DEFAULT_HISTORY_MILLIS = TemperatureRollups.DAY;
+	public static final int DEFAULT_HISTORY_POINTS = 500;
+	public static final int MAX_HISTORY_POINTS = 10000;
+
+	private static final int MAX_REQUEST = 4 * 1024;
+	// Queued events written with one gathering write.
+	private static final int MAX_GATHER = 64;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] STREAM_HEADER = ("HTTP/1.1 200 OK\r\n"
+			+ "Content-Type: text/event-stream\r\n"
+			+ "Cache-Control: no-cache\r\n"
+			+ "Access-Control-Allow-Origin: *\r\n"
+			+ "\r\n").getBytes(UTF_8);
+
+	private static class Reading {
+		final String address;
+		final double value;
+		final int unit;
+		final long timestampMillis;
+
+		Reading(String address, double value, int unit, long timestampMillis) {
+			this.address = address;
+			this.value = value;
+			this.unit = unit;
+			this.timestampMillis = timestampMillis;
+		}
+	}
+
+	private final History mHistory;
+	private int mMaxClients = DEFAULT_MAX_CLIENTS;
+	private int mMaxBuffered = DEFAULT_MAX_BUFFERED;
+	private int mSocketSendBuffer;
+
+	private Selector mSelector;
+	private ServerSocketChannel mServerChannel;
+	private Thread mThread;
+	private volatile boolean mRunning;
+	// Clients with new output, armed for writing by the server thread.
+	private final ConcurrentLinkedQueue<Client> mWriteQueue = new ConcurrentLinkedQueue<>();
+
+	// Guarded by mLock, shared by publish and the server thread.
+	private final Object mLock = new Object();
+	private final LinkedHashMap<String, Reading> mLatest = new LinkedHashMap<>();
+	private final ArrayList<Client> mStreamClients = new ArrayList<>();
+	private final StringBuilder mEventBuilder = new StringBuilder(160);
+	private long mSequence;
+
+	// Server thread.
+	private final RollupSeries mSeries = new RollupSeries();
+	private final StringBuilder mBodyBuilder = new StringBuilder(1024);
+	private volatile int mClients;
+	private volatile long mRequests;
+	private volatile long mRejected;
+
+	private final AtomicLong mDropped = new AtomicLong();
+
+	/**
+	 * @param history source of {@code /history}, null to answer 404.
+	 */
+	public ReadingServer(History history) {
+		mHistory = history;
+	}
+
+	/**
+	 * Connections beyond this are closed right after being accepted.
+	 */
+	public ReadingServer setMaxClients(int maxClients) {
+		mMaxClients = maxClients;
+		return this;
+	}
+
+	/**
+	 * Bytes queued per client before its oldest events are dropped.
+	 */
+	public ReadingServer setMaxBuffered(int maxBuffered) {
+		if (maxBuffered < 1) {
+			throw new IllegalArgumentException("maxBuffered " + maxBuffered);
+		}
+		mMaxBuffered = maxBuffered;
+		return this;
+	}
+
+	/**
+	 * Kernel send buffer of each connection, on top of {@link #setMaxBuffered(int)}. 0 for the
+	 * system default, which may grow to megabytes per connection.
+	 */
+	public ReadingServer setSocketSendBuffer(int bytes) {
+		mSocketSendBuffer = bytes;
+		return this;
+	}
+
+	/**
+	 * Listens on {@code address}, e.g. port 0 on the loopback address for a free local port.
+	 *
+	 * @return the port listened on.
+	 */
+	public synchronized int start(InetSocketAddress address) throws IOException {
+		if (mRunning) {
+			throw new IllegalStateException("Already started");
+		}
+		mSelector = Selector.open();
+		try {
+			mServerChannel = ServerSocketChannel.open();
+			mServerChannel.configureBlocking(false);
+			mServerChannel.socket().setReuseAddress(true);
+			mServerChannel.socket().bind(address);
+			mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			closeQuietly(mServerChannel);
+			closeQuietly(mSelector);
+			throw e;
+		}
+		mRunning = true;
+		mThread = new Thread(mLoop, "ReadingServer");
+		mThread.setDaemon(true);
+		mThread.start();
+		return mServerChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Closes every connection and stops listening.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!mRunning) {
+			return;
+		}
+		mRunning = false;
+		mSelector.wakeup();
+		try {
+			mThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		mThread = null;
+	}
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Latest reading of {@code address}, sent to the stream clients. Does not block.
+	 */
+	public void publish(String address, double value, int unit, long timestampMillis) {
+		final Reading reading = new Reading(address, value, unit, timestampMillis);
+		boolean wake = false;
+		synchronized (mLock) {
+			mLatest.put(address, reading);
+			if (mStreamClients.isEmpty()) {
+				return;
+			}
+			final byte[] event = encodeEvent(reading, ++mSequence);
+			for (int i = 0, size = mStreamClients.size(); i < size; i++) {
+				final Client client = mStreamClients.get(i);
+				if (client.filter == null || client.filter.equals(address)) {
+					wake |= offer(client, event, true);
+				}
+			}
+		}
+		if (wake) {
+			mSelector.wakeup();
+		}
+	}
+
+	public int getClientCount() {
+		return mClients;
+	}
+
+	public int getStreamClientCount() {
+		synchronized (mLock) {
+			return mStreamClients.size();
+		}
+	}
+
+	/**
+	 * Stream events dropped because a client's queue was full.
+	 */
+	public long getDroppedCount() {
+		return mDropped.get();
+	}
+
+	/**
+	 * Connections closed because of {@link #setMaxClients(int)}.
+	 */
+	public long getRejectedCount() {
+		return mRejected;
+	}
+
+	public long getRequestCount() {
+		return mRequests;
+	}
+
+	private final Runnable mLoop = new Runnable() {
+		@Override
+		public void run() {
+			while (mRunning) {
+				try {
+					mSelector.select();
+				} catch (IOException e) {
+					break;
+				}
+				armWrites();
+				final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					final Client client = (Client) key.attachment();
+					try {
+						if (key.isReadable()) {
+							read(client);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(client);
+						}
+					} catch (IOException e) {
+						disconnect(client);
+					}
+				}
+			}
+			for (SelectionKey key : mSelector.keys()) {
+				if (key.attachment() instanceof Client) {
+					disconnect((Client) key.attachment());
+				}
+			}
+			closeQuietly(mServerChannel);
+			closeQuietly(mSelector);
+		}
+	};
+
+	private class Client {
+		final SocketChannel channel;
+		final SelectionKey key;
+		ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST);
+		String filter;
+		boolean closeWhenWritten;
+
+		// Guarded by this, output queued by publish and written by the server thread.
+		final ArrayDeque<byte[]> out = new ArrayDeque<>();
+		final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+		int headOffset;
+		int queuedBytes;
+		boolean writeArmed;
+		boolean closed;
+
+		Client(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			key = channel.register(mSelector, SelectionKey.OP_READ, this);
+		}
+	}
+
+	private void accept() {
+		final SocketChannel channel;
+		try {
+			channel = mServerChannel.accept();
+			if (channel == null) {
+				return;
+			}
+		} catch (IOException e) {
+			return;
+		}
+		if (mClients >= mMaxClients) {
+			mRejected++;
+			closeQuietly(channel);
+			return;
+		}
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			if (mSocketSendBuffer > 0) {
+				channel.socket().setSendBufferSize(mSocketSendBuffer);
+			}
+			new Client(channel);
+			mClients++;
+		} catch (IOException e) {
+			closeQuietly(channel);
+		}
+	}
+
+	private void disconnect(Client client) {
+		synchronized (client) {
+			if (client.closed) {
+				return;
+			}
+			client.closed = true;
+			client.out.clear();
+			client.queuedBytes = 0;
+		}
+		synchronized (mLock) {
+			mStreamClients.remove(client);
+		}
+		mClients--;
+		client.key.cancel();
+		closeQuietly(client.channel);
+	}
+
+	private void read(Client client) throws IOException {
+		final ByteBuffer request = client.request;
+		if (request == null) {
+			// Request handled, anything else the client sends is ignored.
+			final int read = client.channel.read(ByteBuffer.allocate(256));
+			if (read < 0) {
+				disconnect(client);
+			}
+			return;
+		}
+		if (client.channel.read(request) < 0) {
+			disconnect(client);
+			return;
+		}
+		final int end = indexOf(request.array(), request.position(), "\r\n\r\n");
+		if (end < 0) {
+			if (!request.hasRemaining()) {
+				client.request = null;
+				respond(client, "431 Request Header Fields Too Large", "text/plain", "Request too large\n");
+			}
+			return;
+		}
+		client.request = null;
+		mRequests++;
+		final int lineEnd = indexOf(request.array(), end + 2, "\r\n");
+		final String[] line = new String(request.array(), 0, lineEnd, UTF_8).split(" ");
+		if (line.length != 3) {
+			respond(client, "400 Bad Request", "text/plain", "Bad request\n");
+		} else if (!line[0].equals("GET")) {
+			respond(client, "405 Method Not Allowed", "text/plain", "Only GET is supported\n");
+		} else {
+			handle(client, line[1]);
+		}
+	}
+
+	private void handle(Client client, String target) {
+		final int queryStart = target.indexOf('?');
+		final String path = decode(queryStart >= 0 ? target.substring(0, queryStart) : target);
+		final String query = queryStart >= 0 ? target.substring(queryStart + 1) : "";
+		if (path == null) {
+			respond(client, "400 Bad Request", "text/plain", "Bad request\n");
+		} else if (path.equals("/stream")) {
+			stream(client, parameter(query, "address"));
+		} else if (path.equals("/readings")) {
+			final StringBuilder body = mBodyBuilder;
+			body.setLength(0);
+			body.append('[');
+			synchronized (mLock) {
+				for (Reading reading : mLatest.values()) {
+					if (body.length() > 1) {
+						body.append(',');
+					}
+					appendReading(body, reading);
+				}
+			}
+			body.append("]\n");
+			respond(client, "200 OK", "application/json", body);
+		} else if (path.startsWith("/readings/")) {
+			final Reading reading;
+			synchronized (mLock) {
+				reading = mLatest.get(path.substring("/readings/".length()));
+			}
+			if (reading == null) {
+				respond(client, "404 Not Found", "text/plain", "Unknown sensor\n");
+				return;
+			}
+			final StringBuilder body = mBodyBuilder;
+			body.setLength(0);
+			appendReading(body, reading);
+			body.append('\n');
+			respond(client, "200 OK", "application/json", body);
+		} else if (path.startsWith("/history/")) {
+			history(client, path.substring("/history/".length()), query);
+		} else {
+			respond(client, "404 Not Found", "text/plain", "Not found\n");
+		}
+	}
+
+	private void stream(Client client, String filter) {
+		client.filter = filter;
+		final ArrayList<byte[]> snapshot = new ArrayList<>();
+		synchronized (mLock) {
+			for (Reading reading : mLatest.values()) {
+				if (filter == null || filter.equals(reading.address)) {
+					snapshot.add(encodeEvent(reading, 0));
+				}
+			}
+			// Under the lock, a reading published from now on comes after the snapshot.
+			offer(client, STREAM_HEADER, false);
+			for (int i = 0; i < snapshot.size(); i++) {
+				offer(client, snapshot.get(i), true);
+			}
+			mStreamClients.add(client);
+		}
+		armWrites();
+	}
+
+	private void history(Client client, String address, String query) {
+		if (mHistory == null || !Arrays.asList(mHistory.getAddresses()).contains(address)) {
+			respond(client, "404 Not Found", "text/plain", "No history\n");
+			return;
+		}
+		final long to;
+		final long from;
+		final int points;
+		try {
+			final String toParameter = parameter(query, "to");
+			final String fromParameter = parameter(query, "from");
+			final String pointsParameter = parameter(query, "points");
+			to = toParameter != null ? Long.parseLong(toParameter) : System.currentTimeMillis();
+			from = fromParameter != null ? Long.parseLong(fromParameter) : to - DEFAULT_HISTORY_MILLIS;
+			points = pointsParameter != null ? Integer.parseInt(pointsParameter) : DEFAULT_HISTORY_POINTS;
+		} catch (NumberFormatException e) {
+			respond(client, "400 Bad Request", "text/plain", "Bad parameter\n");
+			return;
+		}
+		if (from > to || points < 1 || points > MAX_HISTORY_POINTS) {
+			respond(client, "400 Bad Request", "text/plain", "Bad range\n");
+			return;
+		}
+		final RollupSeries series = mSeries;
+		try {
+			mHistory.query(address, from, to, points, series);
+		} catch (IOException e) {
+			respond(client, "500 Internal Server Error", "text/plain", "History unavailable\n");
+			return;
+		}
+		final StringBuilder body = mBodyBuilder;
+		body.setLength(0);
+		body.append("{\"address\":");
+		appendString(body, address);
+		body.append(",\"resolution\":").append(series.resolutionMillis).append(",\"points\":[");
+		for (int i = 0; i < series.size; i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+			body.append("{\"start\":").append(series.startMillis[i]);
+			body.append(",\"min\":");
+			appendNumber(body, series.min[i]);
+			body.append(",\"max\":");
+			appendNumber(body, series.max[i]);
+			body.append(",\"avg\":");
+			appendNumber(body, series.avg[i]);
+			body.append(",\"count\":").append(series.count[i]).append('}');
+		}
+		body.append("]}\n");
+		respond(client, "200 OK", "application/json", body);
+	}
+
+	// One response per connection, closed once written.
+	private void respond(Client client, String status, String contentType, CharSequence body) {
+		final byte[] content = body.toString().getBytes(UTF_8);
+		final String header = "HTTP/1.1 " + status + "\r\n"
+				+ "Content-Type: " + contentType + "; charset=utf-8\r\n"
+				+ "Content-Length: " + content.length + "\r\n"
+				+ "Access-Control-Allow-Origin: *\r\n"
+				+ "Connection: close\r\n"
+				+ "\r\n";
+		client.closeWhenWritten = true;
+		offer(client, header.getBytes(UTF_8), false);
+		offer(client, content, false);
+		armWrites();
+	}
+
+	// Returns true when the client has to be armed for writing by the server thread.
+	private boolean offer(Client client, byte[] data, boolean droppable) {
+		synchronized (client) {
+			if (client.closed) {
+				return false;
+			}
+			if (droppable) {
+				// The head may be partly written, an event is never cut.
+				final int keep = client.headOffset > 0 ? 1 : 0;
+				while (client.queuedBytes + data.length > mMaxBuffered && client.out.size() > keep) {
+					final byte[] head = keep > 0 ? client.out.pollFirst() : null;
+					client.queuedBytes -= client.out.pollFirst().length;
+					if (head != null) {
+						client.out.addFirst(head);
+					}
+					mDropped.incrementAndGet();
+				}
+				if (client.queuedBytes + data.length > mMaxBuffered) {
+					mDropped.incrementAndGet();
+					return false;
+				}
+			}
+			client.out.addLast(data);
+			client.queuedBytes += data.length;
+			if (client.writeArmed) {
+				return false;
+			}
+			client.writeArmed = true;
+		}
+		mWriteQueue.add(client);
+		return true;
+	}
+
+	// Server thread.
+	private void armWrites() {
+		Client armed;
+		while ((armed = mWriteQueue.poll()) != null) {
+			if (armed.key.isValid()) {
+				armed.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	// Server thread. Writes under the client's lock so publish cannot drop what is being written;
+	// the channel does not block. Events queued since the last write go out in one system call.
+	private void write(Client client) throws IOException {
+		boolean close = false;
+		synchronized (client) {
+			final ByteBuffer[] gather = client.gather;
+			while (!client.out.isEmpty()) {
+				int count = 0;
+				long offered = 0;
+				for (byte[] data : client.out) {
+					final int offset = count == 0 ? client.headOffset : 0;
+					gather[count++] = ByteBuffer.wrap(data, offset, data.length - offset);
+					offered += data.length - offset;
+					if (count == gather.length) {
+						break;
+					}
+				}
+				final long written = client.channel.write(gather, 0, count);
+				Arrays.fill(gather, 0, count, null);
+				client.queuedBytes -= written;
+				long consumed = written;
+				while (consumed > 0) {
+					final int remaining = client.out.peekFirst().length - client.headOffset;
+					if (consumed < remaining) {
+						client.headOffset += consumed;
+						break;
+					}
+					consumed -= remaining;
+					client.out.pollFirst();
+					client.headOffset = 0;
+				}
+				if (written < offered) {
+					// Socket buffer full, OP_WRITE stays on.
+					return;
+				}
+			}
+			client.writeArmed = false;
+			if (client.closeWhenWritten) {
+				close = true;
+			} else {
+				client.key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		if (close) {
+			disconnect(client);
+		}
+	}
+
+	// Guarded by mLock.
+	private byte[] encodeEvent(Reading reading, long id) {
+		final StringBuilder event = mEventBuilder;
+		event.setLength(0);
+		if (id > 0) {
+			event.append("id: ").append(id).append('\n');
+		}
+		event.append("event: reading\ndata: ");
+		appendReading(event, reading);
+		event.append("\n\n");
+		return event.toString().getBytes(UTF_8);
+	}
+
+	private static void appendReading(StringBuilder out, Reading reading) {
+		out.append("{\"address\":");
+		appendString(out, reading.address);
+		out.append(",\"value\":");
+		appendNumber(out, reading.value);
+		out.append(",\"unit\":").append(reading.unit);
+		out.append(",\"time\":").append(reading.timestampMillis).append('}');
+	}
+
+	private static void appendNumber(StringBuilder out, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append("null");
+		} else {
+			out.append(value);
+		}
+	}
+
+	private static void appendString(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	private static String parameter(String query, String name) {
+		for (String pair : query.split("&")) {
+			final int equals = pair.indexOf('=');
+			if (equals > 0 && pair.substring(0, equals).equals(name)) {
+				return decode(pair.substring(equals + 1));
+			}
+		}
+		return null;
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static int indexOf(byte[] data, int length, String pattern) {
+		outer:
+		for (int i = 0; i + pattern.length() <= length; i++) {
+			for (int j = 0; j < pattern.length(); j++) {
+				if (data[i + j] != pattern.charAt(j)) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last {@code capacity} devices connected, most recent first, with whether they should be
+ * reconnected automatically. Encoded as text so it can be kept in SharedPreferences and restore
+ * monitoring after the process is restarted.
+ */
+public class RecentDevices {
+	public static final int DEFAULT_CAPACITY = 8;
+
+	public static class Entry {
+		public final String address;
+		public String name;
+		public long lastConnectedMillis;
+		public boolean autoReconnect;
+
+		Entry(String address) {
+			this.address = address;
+		}
+	}
+
+	private final int mCapacity;
+	private final List<Entry> mEntries = new ArrayList<>();
+
+	public RecentDevices(int capacity) {
+		mCapacity = capacity;
+	}
+
+	/**
+	 * Moves {@code address} to the front, marked for automatic reconnection.
+	 */
+	public synchronized void touch(String address, String name, long nowMillis) {
+		Entry entry = remove(address);
+		if (entry == null) {
+			entry = new Entry(address);
+		}
+		if (name != null) {
+			entry.name = name;
+		}
+		entry.lastConnectedMillis = nowMillis;
+		entry.autoReconnect = true;
+		mEntries.add(0, entry);
+		while (mEntries.size() > mCapacity) {
+			mEntries.remove(mEntries.size() - 1);
+		}
+	}
+
+	/**
+	 * @return false if {@code address} is not in the list or already had that value.
+	 */
+	public synchronized boolean setAutoReconnect(String address, boolean autoReconnect) {
+		for (Entry entry : mEntries) {
+			if (entry.address.equals(address)) {
+				if (entry.autoReconnect == autoReconnect) {
+					return false;
+				}
+				entry.autoReconnect = autoReconnect;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(mEntries);
+	}
+
+	public synchronized List<String> getAutoReconnectAddresses() {
+		final List<String> addresses = new ArrayList<>();
+		for (Entry entry : mEntries) {
+			if (entry.autoReconnect) {
+				addresses.add(entry.address);
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 * One line per device: address, auto reconnect flag, last connected time, name; tab separated.
+	 */
+	public synchronized String encode() {
+		final StringBuilder sb = new StringBuilder();
+		for (Entry entry : mEntries) {
+			sb.append(entry.address).append('\t')
+					.append(entry.autoReconnect ? '1' : '0').append('\t')
+					.append(entry.lastConnectedMillis).append('\t');
+			if (entry.name != null) {
+				sb.append(entry.name.replace('\t', ' ').replace('\n', ' '));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses {@link #encode()} output, skipping malformed lines.
+	 */
+	public static RecentDevices decode(String encoded, int capacity) {
+		final RecentDevices devices = new RecentDevices(capacity);
+		if (encoded == null) {
+			return devices;
+		}
+		for (String line : encoded.split("\n")) {
+			final String[] fields = line.split("\t", 4);
+			if (fields.length < 3 || fields[0].isEmpty() || devices.mEntries.size() >= capacity) {
+				continue;
+			}
+			final Entry entry = new Entry(fields[0]);
+			entry.autoReconnect = "1".equals(fields[1]);
+			try {
+				entry.lastConnectedMillis = Long.parseLong(fields[2]);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			entry.name = fields.length > 3 && !fields[3].isEmpty() ? fields[3] : null;
+			devices.mEntries.add(entry);
+		}
+		return devices;
+	}
+
+	private Entry remove(String address) {
+		for (int i = 0; i < mEntries.size(); i++) {
+			if (mEntries.get(i).address.equals(address)) {
+				return mEntries.remove(i);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,85 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.Random;
+
+/**
+ * When and how {@link SensorConnectionManager} retries a lost connection: jittered exponential
+ * backoff, and a choice between direct connects (fast, but the stack gives up after ~30 s) and
+ * autoConnect (waits for the device indefinitely at a low scan duty cycle).
+ */
+public class ReconnectPolicy {
+	public static class Strategy {
+		public static final int Direct = 0;
+		public static final int AutoConnect = 1;
+		/**
+		 * A few direct attempts for a quick recovery from short dropouts, then autoConnect.
+		 */
+		public static final int DirectThenAutoConnect = 2;
+	}
+
+	public static final long DEFAULT_BASE_DELAY_MS = 1000;
+	public static final long DEFAULT_MAX_DELAY_MS = 60 * 1000;
+	public static final int DEFAULT_DIRECT_ATTEMPTS = 3;
+
+	private final Random mRandom;
+	private int mStrategy = Strategy.DirectThenAutoConnect;
+	private long mBaseDelayMillis = DEFAULT_BASE_DELAY_MS;
+	private long mMaxDelayMillis = DEFAULT_MAX_DELAY_MS;
+	private int mDirectAttempts = DEFAULT_DIRECT_ATTEMPTS;
+
+	public ReconnectPolicy() {
+		this(new Random());
+	}
+
+	public ReconnectPolicy(Random random) {
+		mRandom = random;
+	}
+
+	public ReconnectPolicy setStrategy(int strategy) {
+		mStrategy = strategy;
+		return this;
+	}
+
+	public int getStrategy() {
+		return mStrategy;
+	}
+
+	public ReconnectPolicy setBackoff(long baseDelayMillis, long maxDelayMillis) {
+		if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis) {
+			throw new IllegalArgumentException("base " + baseDelayMillis + ", max " + maxDelayMillis);
+		}
+		mBaseDelayMillis = baseDelayMillis;
+		mMaxDelayMillis = maxDelayMillis;
+		return this;
+	}
+
+	/**
+	 * Direct attempts before {@link Strategy#DirectThenAutoConnect} switches to autoConnect.
+	 */
+	public ReconnectPolicy setDirectAttempts(int directAttempts) {
+		mDirectAttempts = directAttempts;
+		return this;
+	}
+
+	/**
+	 * Delay before attempt {@code attempt} (0 based): {@code base * 2^attempt} capped at the
+	 * maximum, of which a random half is taken off so devices lost together do not retry together.
+	 */
+	public synchronized long nextDelayMillis(int attempt) {
+		// Past 2^30 the cap has long been reached, and the shift cannot overflow.
+		final long ceiling = attempt >= 30 ? mMaxDelayMillis : Math.min(mMaxDelayMillis, mBaseDelayMillis << attempt);
+		final long half = ceiling / 2;
+		return ceiling - half + (long) (mRandom.nextDouble() * (half + 1));
+	}
+
+	public boolean useAutoConnect(int attempt) {
+		switch (mStrategy) {
+			case Strategy.Direct:
+				return false;
+			case Strategy.AutoConnect:
+				return true;
+			default:
+				return attempt >= mDirectAttempts;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Requests and responses of the Record Access Control Point (0x2A52) as used by our firmware to
+ * replay stored temperature records: records go out as stored batches on the batched temperature
+ * characteristic, then a Response Code indication ends the transfer. Filters use the batch
+ * sequence number (filter type 0x01).
+ */
+public final class RecordAccessControlPoint {
+
+	public static class OpCode {
+		public static final int ReportStoredRecords = 0x01;
+		public static final int DeleteStoredRecords = 0x02;
+		public static final int Abort = 0x03;
+		public static final int ReportNumberOfRecords = 0x04;
+		public static final int NumberOfRecordsResponse = 0x05;
+		public static final int ResponseCode = 0x06;
+	}
+
+	public static class Operator {
+		public static final int Null = 0x00;
+		public static final int AllRecords = 0x01;
+		public static final int GreaterThanOrEqual = 0x03;
+	}
+
+	public static class ResponseCode {
+		public static final int Success = 0x01;
+		public static final int OpCodeNotSupported = 0x02;
+		public static final int InvalidOperator = 0x03;
+		public static final int OperatorNotSupported = 0x04;
+		public static final int InvalidOperand = 0x05;
+		public static final int NoRecordsFound = 0x06;
+		public static final int AbortUnsuccessful = 0x07;
+		public static final int ProcedureNotCompleted = 0x08;
+		public static final int OperandNotSupported = 0x09;
+	}
+
+	public static final int FILTER_SEQUENCE_NUMBER = 0x01;
+
+	private RecordAccessControlPoint() {
+	}
+
+	public static byte[] reportAllRecords() {
+		return new byte[]{OpCode.ReportStoredRecords, Operator.AllRecords};
+	}
+
+	/**
+	 * Records with a sequence number of at least {@code sequence} (uint16).
+	 */
+	public static byte[] reportRecordsFrom(int sequence) {
+		return new byte[]{OpCode.ReportStoredRecords, Operator.GreaterThanOrEqual, FILTER_SEQUENCE_NUMBER,
+				(byte) sequence, (byte) (sequence >> 8)};
+	}
+
+	public static byte[] abort() {
+		return new byte[]{OpCode.Abort, Operator.Null};
+	}
+
+	/**
+	 * @return the response code value if {@code value} is a Response Code for {@code requestOpCode},
+	 * otherwise -1.
+	 */
+	public static int responseCodeFor(byte[] value, int requestOpCode) {
+		if (value == null || value.length < 4 || (value[0] & 0xFF) != OpCode.ResponseCode
+				|| (value[2] & 0xFF) != requestOpCode) {
+			return -1;
+		}
+		return value[3] & 0xFF;
+	}
+
+	public static byte[] responseCode(int requestOpCode, int responseCode) {
+		return new byte[]{OpCode.ResponseCode, Operator.Null, (byte) requestOpCode, (byte) responseCode};
+	}
+
+	/**
+	 * Start sequence number of a {@link #reportRecordsFrom} request, 0 for all records, -1 if
+	 * {@code request} is neither.
+	 */
+	public static int requestedStart(byte[] request) {
+		if (request == null || request.length < 2 || (request[0] & 0xFF) != OpCode.ReportStoredRecords) {
+			return -1;
+		}
+		final int operator = request[1] & 0xFF;
+		if (operator == Operator.AllRecords) {
+			return 0;
+		}
+		if (operator == Operator.GreaterThanOrEqual && request.length >= 5
+				&& (request[2] & 0xFF) == FILTER_SEQUENCE_NUMBER) {
+			return (request[3] & 0xFF) | ((request[4] & 0xFF) << 8);
+		}
+		return -1;
+	}
+}
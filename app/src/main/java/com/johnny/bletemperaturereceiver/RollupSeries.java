@@ -0,0 +1,43 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Result of a history query: {@link #size} points of min/max/avg/count, reused between queries.
+ */
+public class RollupSeries {
+	/**
+	 * Width of one point in ms, 0 when the points are raw samples.
+	 */
+	public long resolutionMillis;
+	public int size;
+
+	public long[] startMillis = new long[0];
+	public float[] min = new float[0];
+	public float[] max = new float[0];
+	public float[] avg = new float[0];
+	public int[] count = new int[0];
+
+	public void clear() {
+		size = 0;
+		resolutionMillis = 0;
+	}
+
+	void ensureCapacity(int capacity) {
+		if (startMillis.length >= capacity) {
+			return;
+		}
+		startMillis = new long[capacity];
+		min = new float[capacity];
+		max = new float[capacity];
+		avg = new float[capacity];
+		count = new int[capacity];
+	}
+
+	void add(long start, float minValue, float maxValue, float avgValue, int sampleCount) {
+		startMillis[size] = start;
+		min[size] = minValue;
+		max[size] = maxValue;
+		avg[size] = avgValue;
+		count[size] = sampleCount;
+		size++;
+	}
+}
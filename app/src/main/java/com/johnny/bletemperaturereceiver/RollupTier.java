@@ -0,0 +1,280 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Min/max/avg/count buckets of a fixed width, kept in a ring of the most recent {@code capacity}
+ * buckets and updated one sample at a time.
+ * <p>
+ * {@link #open(File, long, int)} keeps the ring in a memory-mapped file with the head/size marker
+ * scheme of {@link TemperatureRingFile}: a new bucket is written before the marker is committed,
+ * and the oldest bucket is dropped from the marker before its slot is reused. A crash while a
+ * sample is folded into the newest bucket can leave that one bucket's aggregates partly updated.
+ */
+public class RollupTier implements Closeable {
+	static final int MAGIC = 0x544D5055; // "TMPU"
+	static final int VERSION = 1;
+
+	static final int RECORD_SIZE = 32;
+	static final int HEADER_SIZE = 72;
+	private static final int SLOT_A = 24;
+	private static final int SLOT_B = 48;
+
+	// Record: bucket start, sum of values, min, max, sample count.
+	private static final int START = 0;
+	private static final int SUM = 8;
+	private static final int MIN = 16;
+	private static final int MAX = 20;
+	private static final int COUNT = 24;
+
+	private final long mBucketMillis;
+	private final int mCapacity;
+	private final ByteBuffer mBuffer;
+	private final RandomAccessFile mRandomAccessFile;
+
+	private long mSequence;
+	// Slot of the newest bucket, number of buckets in use.
+	private int mHead = -1;
+	private int mSize;
+
+	/**
+	 * A tier kept in memory only.
+	 */
+	public RollupTier(long bucketMillis, int capacity) {
+		this(bucketMillis, capacity, null, null);
+	}
+
+	private RollupTier(long bucketMillis, int capacity, ByteBuffer buffer, RandomAccessFile file) {
+		checkArguments(bucketMillis, capacity);
+		mBucketMillis = bucketMillis;
+		mCapacity = capacity;
+		mRandomAccessFile = file;
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(HEADER_SIZE + capacity * RECORD_SIZE);
+		}
+		mBuffer = buffer;
+		mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!loadHeader()) {
+			mBuffer.putInt(0, MAGIC);
+			mBuffer.putInt(4, VERSION);
+			mBuffer.putInt(8, RECORD_SIZE);
+			mBuffer.putInt(12, capacity);
+			mBuffer.putLong(16, bucketMillis);
+			mSequence = 0;
+			mHead = -1;
+			mSize = 0;
+			writeSlot(SLOT_A, 0, -1, 0);
+			writeSlot(SLOT_B, -1, -1, 0);
+		}
+	}
+
+	/**
+	 * Opens or creates a tier stored in {@code file}. A file with a different layout, bucket width or
+	 * capacity is reset.
+	 */
+	public static RollupTier open(File file, long bucketMillis, int capacity) throws IOException {
+		checkArguments(bucketMillis, capacity);
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			final long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+			randomAccessFile.setLength(size);
+			final ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			return new RollupTier(bucketMillis, capacity, buffer, randomAccessFile);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	private static void checkArguments(long bucketMillis, int capacity) {
+		if (bucketMillis <= 0 || capacity < 1 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+			throw new IllegalArgumentException("bucketMillis " + bucketMillis + ", capacity " + capacity);
+		}
+	}
+
+	public long getBucketMillis() {
+		return mBucketMillis;
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Adds a sample. Samples older than the newest bucket are folded into it.
+	 */
+	public void add(long timestampMillis, float value) {
+		final long start = timestampMillis - floorMod(timestampMillis, mBucketMillis);
+		if (mSize == 0 || start > startAt(mHead)) {
+			if (mSize == mCapacity) {
+				// The next slot holds the oldest bucket, drop it before overwriting it.
+				mSize--;
+				commit();
+			}
+			final int head = mHead + 1 == mCapacity ? 0 : mHead + 1;
+			final int position = positionOf(head);
+			mBuffer.putLong(position + START, start);
+			mBuffer.putDouble(position + SUM, value);
+			mBuffer.putFloat(position + MIN, value);
+			mBuffer.putFloat(position + MAX, value);
+			mBuffer.putInt(position + COUNT, 1);
+			mHead = head;
+			mSize++;
+			commit();
+			return;
+		}
+		final int position = positionOf(mHead);
+		if (value < mBuffer.getFloat(position + MIN)) {
+			mBuffer.putFloat(position + MIN, value);
+		}
+		if (value > mBuffer.getFloat(position + MAX)) {
+			mBuffer.putFloat(position + MAX, value);
+		}
+		mBuffer.putDouble(position + SUM, mBuffer.getDouble(position + SUM) + value);
+		mBuffer.putInt(position + COUNT, mBuffer.getInt(position + COUNT) + 1);
+	}
+
+	/**
+	 * Number of buckets overlapping {@code [fromMillis, toMillis)}.
+	 */
+	public int count(long fromMillis, long toMillis) {
+		return indexOf(toMillis) - indexOf(fromMillis - mBucketMillis + 1);
+	}
+
+	/**
+	 * Appends the buckets overlapping {@code [fromMillis, toMillis)} to {@code out}, merging
+	 * {@code mergeFactor} consecutive buckets into one point.
+	 */
+	public void read(long fromMillis, long toMillis, int mergeFactor, RollupSeries out) {
+		final int end = indexOf(toMillis);
+		int index = indexOf(fromMillis - mBucketMillis + 1);
+		while (index < end) {
+			final int last = Math.min(end, index + mergeFactor);
+			int position = positionOf(slotOf(index));
+			final long start = mBuffer.getLong(position + START);
+			float min = mBuffer.getFloat(position + MIN);
+			float max = mBuffer.getFloat(position + MAX);
+			double sum = 0;
+			int count = 0;
+			for (; index < last; index++) {
+				position = positionOf(slotOf(index));
+				min = Math.min(min, mBuffer.getFloat(position + MIN));
+				max = Math.max(max, mBuffer.getFloat(position + MAX));
+				sum += mBuffer.getDouble(position + SUM);
+				count += mBuffer.getInt(position + COUNT);
+			}
+			out.add(start, min, max, (float) (sum / count), count);
+		}
+	}
+
+	public void clear() {
+		mHead = -1;
+		mSize = 0;
+		commit();
+	}
+
+	/**
+	 * Forces a stored tier to the disk.
+	 */
+	public void flush() {
+		if (mBuffer instanceof MappedByteBuffer) {
+			((MappedByteBuffer) mBuffer).force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mRandomAccessFile != null) {
+			flush();
+			mRandomAccessFile.close();
+		}
+	}
+
+	// === Internals ===
+
+	// Logical index (0 = oldest) of the first bucket starting at or after timestampMillis.
+	private int indexOf(long timestampMillis) {
+		int low = 0;
+		int high = mSize;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (startAt(slotOf(mid)) < timestampMillis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int slotOf(int logicalIndex) {
+		int slot = mHead - mSize + 1 + logicalIndex;
+		if (slot < 0) {
+			slot += mCapacity;
+		} else if (slot >= mCapacity) {
+			slot -= mCapacity;
+		}
+		return slot;
+	}
+
+	private static int positionOf(int slot) {
+		return HEADER_SIZE + slot * RECORD_SIZE;
+	}
+
+	private long startAt(int slot) {
+		return mBuffer.getLong(positionOf(slot) + START);
+	}
+
+	private void commit() {
+		mSequence++;
+		writeSlot((mSequence & 1) == 0 ? SLOT_A : SLOT_B, mSequence, mHead, mSize);
+	}
+
+	private void writeSlot(int slot, long sequence, int head, int size) {
+		// Checksum last, like TemperatureRingFile.
+		mBuffer.putLong(slot, sequence);
+		mBuffer.putInt(slot + 8, head);
+		mBuffer.putInt(slot + 12, size);
+		mBuffer.putLong(slot + 16, TemperatureRingFile.checksum(sequence, head, size));
+	}
+
+	private boolean loadHeader() {
+		if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION || mBuffer.getInt(8) != RECORD_SIZE
+				|| mBuffer.getInt(12) != mCapacity || mBuffer.getLong(16) != mBucketMillis) {
+			return false;
+		}
+		boolean found = false;
+		for (int slot : new int[]{SLOT_A, SLOT_B}) {
+			final long sequence = mBuffer.getLong(slot);
+			final int head = mBuffer.getInt(slot + 8);
+			final int size = mBuffer.getInt(slot + 12);
+			if (mBuffer.getLong(slot + 16) != TemperatureRingFile.checksum(sequence, head, size)
+					|| head < -1 || head >= mCapacity || size < 0 || size > mCapacity || (size > 0 && head < 0)) {
+				continue;
+			}
+			if (!found || sequence > mSequence) {
+				found = true;
+				mSequence = sequence;
+				mHead = head;
+				mSize = size;
+			}
+		}
+		return found;
+	}
+
+	private static long floorMod(long x, long y) {
+		final long mod = x % y;
+		return mod < 0 ? mod + y : mod;
+	}
+}
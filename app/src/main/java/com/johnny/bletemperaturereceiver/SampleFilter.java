@@ -0,0 +1,19 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * One stage of a {@link SignalProcessor}: takes a sample of one sensor and returns the value handed
+ * to the next stage. Implementations keep their state in primitive arrays sized at construction and
+ * do not allocate per sample. Not thread safe, the processor serializes calls.
+ */
+public interface SampleFilter {
+	/**
+	 * @param timestampMillis sample time, not decreasing.
+	 * @param value           finite sample value.
+	 */
+	double apply(long timestampMillis, double value);
+
+	/**
+	 * Forgets all samples, e.g. after a gap in the data.
+	 */
+	void reset();
+}
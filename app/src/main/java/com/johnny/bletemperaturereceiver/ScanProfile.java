@@ -0,0 +1,56 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Power / latency trade-off of a scan: the platform scan mode, the batch report delay and the
+ * radio duty cycle that mode implies (used by {@link SimulatedLeScanner}).
+ */
+public final class ScanProfile {
+	// Values of android.bluetooth.le.ScanSettings.SCAN_MODE_*.
+	public static final int SCAN_MODE_LOW_POWER = 0;
+	public static final int SCAN_MODE_BALANCED = 1;
+	public static final int SCAN_MODE_LOW_LATENCY = 2;
+
+	/**
+	 * Background monitoring: about 10% radio duty cycle, results batched for 5 s.
+	 */
+	public static final ScanProfile LOW_POWER = new ScanProfile("low-power", SCAN_MODE_LOW_POWER, 5000, 512, 5120);
+	/**
+	 * Default: about 25% duty cycle, results batched for 1 s.
+	 */
+	public static final ScanProfile BALANCED = new ScanProfile("balanced", SCAN_MODE_BALANCED, 1000, 1024, 4096);
+	/**
+	 * Device picker in the foreground: continuous scan, every result delivered immediately.
+	 */
+	public static final ScanProfile LOW_LATENCY = new ScanProfile("low-latency", SCAN_MODE_LOW_LATENCY, 0, 4096, 4096);
+
+	public final String name;
+	public final int scanMode;
+	/**
+	 * 0 delivers each result as it comes, otherwise results are batched by the controller.
+	 */
+	public final long reportDelayMillis;
+	public final long scanWindowMillis;
+	public final long scanIntervalMillis;
+
+	public ScanProfile(String name, int scanMode, long reportDelayMillis, long scanWindowMillis,
+	                   long scanIntervalMillis) {
+		this.name = name;
+		this.scanMode = scanMode;
+		this.reportDelayMillis = reportDelayMillis;
+		this.scanWindowMillis = scanWindowMillis;
+		this.scanIntervalMillis = scanIntervalMillis;
+	}
+
+	/**
+	 * Same profile without batching, for controllers that cannot batch.
+	 */
+	public ScanProfile withoutBatching() {
+		return reportDelayMillis == 0 ? this
+				: new ScanProfile(name, scanMode, 0, scanWindowMillis, scanIntervalMillis);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,334 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.HashMap;
+
+/**
+ * Devices found by a scan, indexed by address and shown strongest first. Scan callbacks update it
+ * from any thread; the UI picks up what changed once per frame with {@link #drainUpdate(Update)}, so
+ * a burst of advertisements costs one adapter update instead of one per advertisement.
+ * <p>
+ * The order is by smoothed RSSI (an exponential moving average, rounded to whole dBm) so a single
+ * weak advertisement does not make rows jump. It only changes in {@link #drainUpdate(Update)}: new
+ * entries are inserted at their place and entries whose smoothed RSSI changed are moved past their
+ * neighbours, nothing is resorted. The update lists these steps as insert, move and change
+ * operations in the order the adapter has to apply them.
+ * <p>
+ * Entries live in slots that never move; positions map to slots through an order array. RSSI and
+ * last seen time are kept in primitive arrays.
+ *
+ * @param <T> device handle, e.g. {@code BluetoothDevice}.
+ */
+public class ScanResultModel<T> {
+	private static final int INITIAL_CAPACITY = 32;
+
+	/**
+	 * Default weight of a new advertisement in the smoothed RSSI.
+	 */
+	public static final float DEFAULT_SMOOTHING = 0.25f;
+
+	/**
+	 * What changed since the previous {@link #drainUpdate(Update)}: {@code count} operations on
+	 * positions, valid at the time each is applied.
+	 */
+	public static class Update {
+		public static class Op {
+			/**
+			 * New entry at {@code positions[i]}.
+			 */
+			public static final int Insert = 0;
+			/**
+			 * Entry moved from {@code positions[i]} to {@code targets[i]}.
+			 */
+			public static final int Move = 1;
+			/**
+			 * Smoothed RSSI of the entry at {@code positions[i]} changed, nothing else.
+			 */
+			public static final int Change = 2;
+		}
+
+		public int[] ops = new int[INITIAL_CAPACITY];
+		public int[] positions = new int[INITIAL_CAPACITY];
+		public int[] targets = new int[INITIAL_CAPACITY];
+		public int count;
+
+		public int insertedCount;
+		public int movedCount;
+		public int changedCount;
+
+		public boolean isEmpty() {
+			return count == 0;
+		}
+
+		void clear() {
+			count = 0;
+			insertedCount = 0;
+			movedCount = 0;
+			changedCount = 0;
+		}
+
+		void add(int op, int position, int target) {
+			if (count == ops.length) {
+				ops = grow(ops, count * 2);
+				positions = grow(positions, count * 2);
+				targets = grow(targets, count * 2);
+			}
+			ops[count] = op;
+			positions[count] = position;
+			targets[count] = target;
+			count++;
+			switch (op) {
+				case Op.Insert:
+					insertedCount++;
+					break;
+				case Op.Move:
+					movedCount++;
+					break;
+				default:
+					changedCount++;
+					break;
+			}
+		}
+	}
+
+	private final float mSmoothing;
+
+	private final HashMap<String, Integer> mIndex = new HashMap<>();
+	private String[] mAddresses = new String[INITIAL_CAPACITY];
+	private Object[] mDevices = new Object[INITIAL_CAPACITY];
+	private int[] mRssi = new int[INITIAL_CAPACITY];
+	private float[] mSmoothed = new float[INITIAL_CAPACITY];
+	private long[] mLastSeen = new long[INITIAL_CAPACITY];
+	private int mSize;
+
+	// Sort key of each published slot, the smoothed RSSI as of the last drainUpdate().
+	private int[] mKeys = new int[INITIAL_CAPACITY];
+	// Slot at each position, and the position of each published slot.
+	private int[] mOrder = new int[INITIAL_CAPACITY];
+	private int[] mPositions = new int[INITIAL_CAPACITY];
+
+	// Slots visible to the UI, the rest are reported as inserted by the next drainUpdate().
+	private int mPublishedSize;
+	private boolean[] mDirty = new boolean[INITIAL_CAPACITY];
+	private int[] mDirtySlots = new int[INITIAL_CAPACITY];
+	private int mDirtyCount;
+
+	private long mResultCount;
+
+	public ScanResultModel() {
+		this(DEFAULT_SMOOTHING);
+	}
+
+	/**
+	 * @param smoothing weight of a new advertisement in the smoothed RSSI, 1 to sort by the last one.
+	 */
+	public ScanResultModel(float smoothing) {
+		if (!(smoothing > 0 && smoothing <= 1)) {
+			throw new IllegalArgumentException("smoothing " + smoothing);
+		}
+		mSmoothing = smoothing;
+	}
+
+	/**
+	 * Records an advertisement.
+	 *
+	 * @return true if the device was not known yet.
+	 */
+	public synchronized boolean onScanResult(String address, T device, int rssi, long nowMillis) {
+		mResultCount++;
+		final Integer known = mIndex.get(address);
+		if (known != null) {
+			final int slot = known;
+			mLastSeen[slot] = nowMillis;
+			mRssi[slot] = rssi;
+			mSmoothed[slot] += (rssi - mSmoothed[slot]) * mSmoothing;
+			if (slot < mPublishedSize && !mDirty[slot] && Math.round(mSmoothed[slot]) != mKeys[slot]) {
+				mDirty[slot] = true;
+				if (mDirtyCount == mDirtySlots.length) {
+					mDirtySlots = grow(mDirtySlots, mDirtyCount * 2);
+				}
+				mDirtySlots[mDirtyCount++] = slot;
+			}
+			return false;
+		}
+		if (mSize == mAddresses.length) {
+			ensureCapacity(mSize * 2);
+		}
+		final int slot = mSize++;
+		mIndex.put(address, slot);
+		mAddresses[slot] = address;
+		mDevices[slot] = device;
+		mRssi[slot] = rssi;
+		mSmoothed[slot] = rssi;
+		mLastSeen[slot] = nowMillis;
+		return true;
+	}
+
+	/**
+	 * Applies pending changes to the order, lists them in {@code out} and makes new entries visible
+	 * to {@link #size()}. UI thread.
+	 *
+	 * @return false if nothing changed.
+	 */
+	public synchronized boolean drainUpdate(Update out) {
+		out.clear();
+		for (int i = 0; i < mDirtyCount; i++) {
+			final int slot = mDirtySlots[i];
+			mDirty[slot] = false;
+			final int key = Math.round(mSmoothed[slot]);
+			if (key == mKeys[slot]) {
+				// Drifted back since it was marked.
+				continue;
+			}
+			mKeys[slot] = key;
+			final int from = mPositions[slot];
+			final int to = reposition(from);
+			if (to != from) {
+				out.add(Update.Op.Move, from, to);
+			}
+			out.add(Update.Op.Change, to, to);
+		}
+		mDirtyCount = 0;
+		while (mPublishedSize < mSize) {
+			final int slot = mPublishedSize++;
+			final int key = Math.round(mSmoothed[slot]);
+			mKeys[slot] = key;
+			// After entries of the same strength, earlier finds keep their rows.
+			int low = 0;
+			int high = mPublishedSize - 1;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (mKeys[mOrder[mid]] >= key) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			System.arraycopy(mOrder, low, mOrder, low + 1, mPublishedSize - 1 - low);
+			mOrder[low] = slot;
+			renumber(low, mPublishedSize - 1);
+			out.add(Update.Op.Insert, low, low);
+		}
+		return !out.isEmpty();
+	}
+
+	// Moves the entry at position from past the neighbours its new key overtakes, returns its position.
+	private int reposition(int from) {
+		final int slot = mOrder[from];
+		final int key = mKeys[slot];
+		int to = from;
+		while (to > 0 && mKeys[mOrder[to - 1]] < key) {
+			to--;
+		}
+		while (to < mPublishedSize - 1 && mKeys[mOrder[to + 1]] > key) {
+			to++;
+		}
+		if (to < from) {
+			System.arraycopy(mOrder, to, mOrder, to + 1, from - to);
+			mOrder[to] = slot;
+			renumber(to, from);
+		} else if (to > from) {
+			System.arraycopy(mOrder, from + 1, mOrder, from, to - from);
+			mOrder[to] = slot;
+			renumber(from, to);
+		}
+		return to;
+	}
+
+	private void renumber(int first, int last) {
+		for (int position = first; position <= last; position++) {
+			mPositions[mOrder[position]] = position;
+		}
+	}
+
+	public synchronized boolean hasPendingUpdate() {
+		return mDirtyCount > 0 || mSize > mPublishedSize;
+	}
+
+	/**
+	 * Entries published by {@link #drainUpdate(Update)}, i.e. the count the adapter shows.
+	 */
+	public synchronized int size() {
+		return mPublishedSize;
+	}
+
+	/**
+	 * Position of {@code address}, -1 if it is not published yet.
+	 */
+	public synchronized int indexOf(String address) {
+		final Integer slot = mIndex.get(address);
+		return slot != null && slot < mPublishedSize ? mPositions[slot] : -1;
+	}
+
+	public synchronized String getAddress(int position) {
+		return mAddresses[mOrder[position]];
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized T getDevice(int position) {
+		return (T) mDevices[mOrder[position]];
+	}
+
+	/**
+	 * RSSI of the last advertisement.
+	 */
+	public synchronized int getRssi(int position) {
+		return mRssi[mOrder[position]];
+	}
+
+	/**
+	 * Smoothed RSSI the order is based on, as of the last {@link #drainUpdate(Update)}.
+	 */
+	public synchronized int getSmoothedRssi(int position) {
+		return mKeys[mOrder[position]];
+	}
+
+	public synchronized long getLastSeen(int position) {
+		return mLastSeen[mOrder[position]];
+	}
+
+	/**
+	 * Advertisements recorded, including repeats.
+	 */
+	public synchronized long getResultCount() {
+		return mResultCount;
+	}
+
+	public synchronized void clear() {
+		mIndex.clear();
+		for (int i = 0; i < mSize; i++) {
+			mDevices[i] = null;
+			mDirty[i] = false;
+		}
+		mSize = 0;
+		mPublishedSize = 0;
+		mDirtyCount = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		String[] addresses = new String[capacity];
+		System.arraycopy(mAddresses, 0, addresses, 0, mSize);
+		mAddresses = addresses;
+		Object[] devices = new Object[capacity];
+		System.arraycopy(mDevices, 0, devices, 0, mSize);
+		mDevices = devices;
+		mRssi = grow(mRssi, capacity);
+		float[] smoothed = new float[capacity];
+		System.arraycopy(mSmoothed, 0, smoothed, 0, mSize);
+		mSmoothed = smoothed;
+		long[] lastSeen = new long[capacity];
+		System.arraycopy(mLastSeen, 0, lastSeen, 0, mSize);
+		mLastSeen = lastSeen;
+		mKeys = grow(mKeys, capacity);
+		mOrder = grow(mOrder, capacity);
+		mPositions = grow(mPositions, capacity);
+		boolean[] dirty = new boolean[capacity];
+		System.arraycopy(mDirty, 0, dirty, 0, mSize);
+		mDirty = dirty;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
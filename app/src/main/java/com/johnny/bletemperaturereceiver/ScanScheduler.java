@@ -0,0 +1,428 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Duty-cycled scanning on top of a {@link LeScanner}: scan windows alternate with idle gaps until
+ * the targets are found or a timeout expires. The gap adapts to discovery; a window that found a
+ * new device is followed by the shortest gap, a window that found nothing doubles it up to the
+ * maximum. A picker that keeps finding sensors keeps the radio busy, a quiet neighbourhood costs
+ * little.
+ * <p>
+ * Batched results of a window may only arrive after the scanner stopped (see
+ * {@link LeScanner#stop()}), so the rest of the gap is decided once the shortest gap has passed,
+ * with every result of the window in.
+ * <p>
+ * Each scan start counts against the platform limit of 5 starts per 30 s (Android 7+), so a window
+ * plus the shortest gap never takes less than {@link #MIN_CYCLE_MS}.
+ * <p>
+ * {@link #start}, {@link #stop} and the listener run on the scheduler's thread; results are
+ * forwarded on whatever thread the scanner reports them. Records the time each device took to be
+ * found and how long the radio was on.
+ */
+public class ScanScheduler implements LeScanner.Callback {
+	public static class Reason {
+		/**
+		 * Every target address was seen.
+		 */
+		public static final int TargetsFound = 0;
+		public static final int TimedOut = 1;
+		/**
+		 * The scanner did not start or reported a failure.
+		 */
+		public static final int Failed = 2;
+	}
+
+	public interface Listener {
+		/**
+		 * The scan ended by itself, not called after {@link #stop()}.
+		 */
+		void onScanFinished(int reason);
+	}
+
+	public static final long MIN_CYCLE_MS = 6000;
+	public static final long DEFAULT_WINDOW_MS = 3000;
+	public static final long DEFAULT_MIN_IDLE_MS = 3000;
+	public static final long DEFAULT_MAX_IDLE_MS = 12000;
+	public static final long DEFAULT_TIMEOUT_MS = 30000;
+
+	private final LeScanner mScanner;
+	private final Scheduler mScheduler;
+
+	private ScanProfile mProfile = ScanProfile.BALANCED;
+	private long mWindowMillis = DEFAULT_WINDOW_MS;
+	private long mMinIdleMillis = DEFAULT_MIN_IDLE_MS;
+	private long mMaxIdleMillis = DEFAULT_MAX_IDLE_MS;
+	private long mTimeoutMillis = DEFAULT_TIMEOUT_MS;
+	private final HashSet<String> mTargets = new HashSet<>();
+
+	// Written on the scheduler thread, read by scanner callbacks.
+	private volatile LeScanner.Callback mCallback;
+	private volatile int mSession;
+
+	// Scheduler thread.
+	private Listener mListener;
+	private boolean mActive;
+	private Scheduler.Cancellable mPhase;
+	private Scheduler.Cancellable mTimeout;
+	private long mIdleMillis;
+	private int mWindows;
+
+	// Guarded by this, results come in on the scanner's thread.
+	private boolean mInWindow;
+	private long mStartMillis;
+	private long mEndMillis;
+	private long mWindowStartMillis;
+	private long mRadioOnMillis;
+	private int mFoundInWindow;
+	private final HashMap<String, Long> mTimeToDiscover = new HashMap<>();
+	private long mTimeToDiscoverSum;
+	private int mTargetsRemaining;
+	private long mTimeToTargets = -1;
+
+	public ScanScheduler(LeScanner scanner, Scheduler scheduler) {
+		mScanner = scanner;
+		mScheduler = scheduler;
+	}
+
+	public ScanScheduler setProfile(ScanProfile profile) {
+		mProfile = profile;
+		return this;
+	}
+
+	/**
+	 * Scan window and the range of the idle gap between windows, see {@link #MIN_CYCLE_MS}.
+	 */
+	public ScanScheduler setCycle(long windowMillis, long minIdleMillis, long maxIdleMillis) {
+		if (windowMillis < 1 || minIdleMillis < 0 || maxIdleMillis < minIdleMillis
+				|| windowMillis + minIdleMillis < MIN_CYCLE_MS) {
+			throw new IllegalArgumentException("window " + windowMillis + ", idle " + minIdleMillis + ".."
+					+ maxIdleMillis);
+		}
+		mWindowMillis = windowMillis;
+		mMinIdleMillis = minIdleMillis;
+		mMaxIdleMillis = maxIdleMillis;
+		return this;
+	}
+
+	/**
+	 * Gives up after {@code timeoutMillis}, 0 to scan until stopped or the targets are found.
+	 */
+	public ScanScheduler setTimeout(long timeoutMillis) {
+		mTimeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	/**
+	 * Addresses after which the scan ends early, none to run until the timeout. Takes effect on the
+	 * next {@link #start}.
+	 */
+	public ScanScheduler setTargets(Collection<String> addresses) {
+		mTargets.clear();
+		mTargets.addAll(addresses);
+		return this;
+	}
+
+	/**
+	 * Starts a new scan, stopping the current one first. Statistics start over.
+	 *
+	 * @param callback receives every result.
+	 * @param listener told when the scan ends by itself, may be null.
+	 */
+	public void start(LeScanner.Callback callback, Listener listener) {
+		stop();
+		synchronized (this) {
+			mStartMillis = mScheduler.nowMillis();
+			mEndMillis = -1;
+			mRadioOnMillis = 0;
+			mTimeToDiscover.clear();
+			mTimeToDiscoverSum = 0;
+			mTargetsRemaining = mTargets.size();
+			mTimeToTargets = -1;
+		}
+		mSession++;
+		mCallback = callback;
+		mListener = listener;
+		mActive = true;
+		mIdleMillis = mMinIdleMillis;
+		mWindows = 0;
+		if (mTimeoutMillis > 0) {
+			mTimeout = mScheduler.schedule(mOnTimeout, mTimeoutMillis);
+		}
+		openWindow();
+	}
+
+	/**
+	 * Stops scanning and cancels everything scheduled, the listener is not called.
+	 */
+	public void stop() {
+		if (!mActive) {
+			return;
+		}
+		mActive = false;
+		cancel(mPhase);
+		mPhase = null;
+		cancel(mTimeout);
+		mTimeout = null;
+		closeWindow();
+		synchronized (this) {
+			mEndMillis = mScheduler.nowMillis();
+		}
+		mCallback = null;
+	}
+
+	/**
+	 * Between {@link #start} and the end of the scan, also while idle.
+	 */
+	public boolean isActive() {
+		return mActive;
+	}
+
+	/**
+	 * Inside a scan window, i.e. the radio is on.
+	 */
+	public synchronized boolean isScanning() {
+		return mInWindow;
+	}
+
+	/**
+	 * Idle gap that follows the current window, updated from the results of the previous window once
+	 * the shortest gap after it has passed.
+	 */
+	public long getIdleMillis() {
+		return mIdleMillis;
+	}
+
+	public int getWindowCount() {
+		return mWindows;
+	}
+
+	/**
+	 * Time spent inside scan windows since {@link #start}.
+	 */
+	public synchronized long getRadioOnMillis() {
+		return mInWindow ? mRadioOnMillis + mScheduler.nowMillis() - mWindowStartMillis : mRadioOnMillis;
+	}
+
+	/**
+	 * Time since {@link #start}, until the scan ended.
+	 */
+	public synchronized long getElapsedMillis() {
+		return (mEndMillis >= 0 ? mEndMillis : mScheduler.nowMillis()) - mStartMillis;
+	}
+
+	/**
+	 * Fraction of the elapsed time the radio was on.
+	 */
+	public synchronized double getDutyCycle() {
+		final long elapsed = getElapsedMillis();
+		return elapsed > 0 ? (double) getRadioOnMillis() / elapsed : 0;
+	}
+
+	/**
+	 * Time from {@link #start} to the first result of {@code address}, -1 if it was not found.
+	 */
+	public synchronized long getTimeToDiscover(String address) {
+		final Long time = mTimeToDiscover.get(address);
+		return time != null ? time : -1;
+	}
+
+	public synchronized int getDiscoveredCount() {
+		return mTimeToDiscover.size();
+	}
+
+	/**
+	 * Mean time to discover over the devices found, -1 if none was.
+	 */
+	public synchronized long getMeanTimeToDiscover() {
+		return mTimeToDiscover.isEmpty() ? -1 : mTimeToDiscoverSum / mTimeToDiscover.size();
+	}
+
+	/**
+	 * Time until the last target was found, -1 while one is missing or without targets.
+	 */
+	public synchronized long getTimeToTargets() {
+		return mTimeToTargets;
+	}
+
+	@Override
+	public void onScanResult(LeScanResult result) {
+		final LeScanner.Callback callback = mCallback;
+		if (callback == null) {
+			return;
+		}
+		if (record(result.address)) {
+			mScheduler.schedule(mOnTargetsFound, 0);
+		}
+		callback.onScanResult(result);
+	}
+
+	@Override
+	public void onBatchScanResults(List<LeScanResult> results) {
+		final LeScanner.Callback callback = mCallback;
+		if (callback == null) {
+			return;
+		}
+		boolean targetsFound = false;
+		for (int i = 0, size = results.size(); i < size; i++) {
+			targetsFound |= record(results.get(i).address);
+		}
+		if (targetsFound) {
+			mScheduler.schedule(mOnTargetsFound, 0);
+		}
+		callback.onBatchScanResults(results);
+	}
+
+	@Override
+	public void onScanFailed(int errorCode) {
+		final LeScanner.Callback callback = mCallback;
+		if (callback == null) {
+			return;
+		}
+		final int session = mSession;
+		callback.onScanFailed(errorCode);
+		mScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (mActive && mSession == session) {
+					finish(Reason.Failed);
+				}
+			}
+		}, 0);
+	}
+
+	// Returns true when this result completes the targets.
+	private synchronized boolean record(String address) {
+		if (mTimeToDiscover.containsKey(address)) {
+			return false;
+		}
+		final long time = mScheduler.nowMillis() - mStartMillis;
+		mTimeToDiscover.put(address, time);
+		mTimeToDiscoverSum += time;
+		mFoundInWindow++;
+		if (mTargetsRemaining > 0 && mTargets.contains(address) && --mTargetsRemaining == 0) {
+			mTimeToTargets = time;
+			return true;
+		}
+		return false;
+	}
+
+	private void openWindow() {
+		synchronized (this) {
+			mInWindow = true;
+			mWindowStartMillis = mScheduler.nowMillis();
+			mFoundInWindow = 0;
+		}
+		if (!mScanner.start(mProfile, this)) {
+			synchronized (this) {
+				mInWindow = false;
+			}
+			finish(Reason.Failed);
+			return;
+		}
+		mWindows++;
+		mPhase = mScheduler.schedule(mOnWindowEnd, mWindowMillis);
+	}
+
+	// Results batched so far may come in after this returns, they still count to the window until
+	// the next one opens.
+	private void closeWindow() {
+		boolean inWindow;
+		synchronized (this) {
+			inWindow = mInWindow;
+		}
+		if (!inWindow) {
+			return;
+		}
+		mScanner.stop();
+		synchronized (this) {
+			mInWindow = false;
+			mRadioOnMillis += mScheduler.nowMillis() - mWindowStartMillis;
+		}
+	}
+
+	private void finish(int reason) {
+		final Listener listener = mListener;
+		stop();
+		if (listener != null) {
+			listener.onScanFinished(reason);
+		}
+	}
+
+	private final Runnable mOnWindowEnd = new Runnable() {
+		@Override
+		public void run() {
+			mPhase = null;
+			if (!mActive) {
+				return;
+			}
+			closeWindow();
+			mPhase = mScheduler.schedule(mOnMinIdleEnd, mMinIdleMillis);
+		}
+	};
+
+	// The shortest gap is over, the window's flushed results are in: back off or scan again.
+	private final Runnable mOnMinIdleEnd = new Runnable() {
+		@Override
+		public void run() {
+			mPhase = null;
+			if (!mActive) {
+				return;
+			}
+			final boolean found;
+			synchronized (ScanScheduler.this) {
+				found = mFoundInWindow > 0;
+			}
+			mIdleMillis = found ? mMinIdleMillis : Math.min(mIdleMillis * 2, mMaxIdleMillis);
+			if (mIdleMillis > mMinIdleMillis) {
+				mPhase = mScheduler.schedule(mOnIdleEnd, mIdleMillis - mMinIdleMillis);
+			} else {
+				openWindow();
+			}
+		}
+	};
+
+	private final Runnable mOnIdleEnd = new Runnable() {
+		@Override
+		public void run() {
+			mPhase = null;
+			if (mActive) {
+				openWindow();
+			}
+		}
+	};
+
+	private final Runnable mOnTimeout = new Runnable() {
+		@Override
+		public void run() {
+			mTimeout = null;
+			if (mActive) {
+				finish(Reason.TimedOut);
+			}
+		}
+	};
+
+	// Posted from the scanner's thread. A post left over from a stopped scan finds the targets of
+	// the new one incomplete and does nothing.
+	private final Runnable mOnTargetsFound = new Runnable() {
+		@Override
+		public void run() {
+			final boolean found;
+			synchronized (ScanScheduler.this) {
+				found = mTimeToTargets >= 0;
+			}
+			if (mActive && found) {
+				finish(Reason.TargetsFound);
+			}
+		}
+	};
+
+	private static void cancel(Scheduler.Cancellable cancellable) {
+		if (cancellable != null) {
+			cancellable.cancel();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Clock plus delayed execution, so time driven components can run on a virtual clock in tests.
+ */
+public interface Scheduler {
+
+	interface Cancellable {
+		void cancel();
+	}
+
+	/**
+	 * Monotonic time in milliseconds.
+	 */
+	long nowMillis();
+
+	Cancellable schedule(Runnable task, long delayMillis);
+}
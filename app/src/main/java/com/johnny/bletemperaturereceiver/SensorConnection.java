@@ -0,0 +1,599 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection state machine for one thermometer, owned by {@link SensorConnectionManager}.
+ * <p>
+ * Disconnected -> Connecting -> Connected (discovering services) -> ConnectedRunning (notifications
+ * enabled) -> Disconnected. GATT events for this device arrive here directly; there is no lock
+ * shared with other devices.
+ * <p>
+ * With auto reconnect a lost link keeps the session open for an autoConnect reconnect. When the
+ * {@link GattLayoutCache} knows the device and the session accepts the cached layout, services are
+ * not discovered again and notifications are enabled right after the link is up.
+ */
+public class SensorConnection implements GattSession.Callback {
+
+	public static class State {
+		public static final int Disconnected = 0;
+		public static final int Connecting = 1;
+		public static final int Connected = 2;
+		public static final int ConnectedRunning = 3;
+	}
+
+	private final SensorConnectionManager mManager;
+	private final String mAddress;
+
+	// Only touched from this device's GATT callbacks.
+	private final TemperatureMeasurement mMeasurement = new TemperatureMeasurement();
+
+	private volatile int mState = State.Disconnected;
+	private volatile GattSession mSession;
+	private volatile GattOperationQueue mQueue;
+	private volatile String mName;
+	private volatile long mMalformedCount;
+
+	// Reconnect state, see SensorConnectionManager.
+	private volatile boolean mAutoReconnect;
+	int reconnectAttempt;
+	long linkLostAtMillis = -1;
+	Scheduler.Cancellable reconnectTask;
+
+	private volatile boolean mLayoutFromCache;
+	private volatile boolean mSubscribingWithoutDiscovery;
+	private final AtomicLong mDiscoveriesSkipped = new AtomicLong();
+	private volatile long mConnectStartMillis;
+	private volatile boolean mFirstReadingPending;
+
+	private volatile ConnectionProfile mAppliedProfile;
+	private volatile int mMtu = ConnectionProfile.DEFAULT_MTU;
+	private final RateMeter mNotificationRate = new RateMeter(1000, 11);
+
+	// Batched samples and stored record replay, only touched from this device's GATT callbacks
+	// except for the volatile statistics.
+	private final TemperatureBatch mBatch = new TemperatureBatch();
+	// Stage timings of this device, null while pipeline metrics are disabled.
+	private volatile PipelineMetrics.Sensor mMetrics;
+	private final RateMeter mSampleRate = new RateMeter(1000, 11);
+	private int mExpectedSequence = -1;
+	private volatile long mMissedSamples;
+	private volatile long mDuplicateSamples;
+	private volatile boolean mTransferActive;
+	private volatile long mTransferStartMillis;
+	private long mTransferSamples;
+	private volatile long mLastTransferSamples;
+	private volatile double mLastTransferRate;
+
+	SensorConnection(SensorConnectionManager manager, String address) {
+		mManager = manager;
+		mAddress = address;
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public int getState() {
+		return mState;
+	}
+
+	/**
+	 * Number of temperature payloads that could not be decoded.
+	 */
+	public long getMalformedCount() {
+		return mMalformedCount;
+	}
+
+	/**
+	 * Pipeline metrics of this device for the current connection, null while they are disabled.
+	 */
+	public PipelineMetrics.Sensor getPipelineMetrics() {
+		return mMetrics;
+	}
+
+	public boolean isAutoReconnect() {
+		return mAutoReconnect;
+	}
+
+	void setAutoReconnect(boolean autoReconnect) {
+		mAutoReconnect = autoReconnect;
+	}
+
+	/**
+	 * Connects that subscribed with a cached service layout.
+	 */
+	public long getDiscoveriesSkipped() {
+		return mDiscoveriesSkipped.get();
+	}
+
+	/**
+	 * Profile requested on the current link, null if none was.
+	 */
+	public ConnectionProfile getConnectionProfile() {
+		return mAppliedProfile;
+	}
+
+	/**
+	 * ATT MTU of the current link.
+	 */
+	public int getMtu() {
+		return mMtu;
+	}
+
+	/**
+	 * Temperature notifications per second over the last 10 s of the current link.
+	 */
+	public double getNotificationRate() {
+		return mNotificationRate.getRate(mManager.getScheduler().nowMillis());
+	}
+
+	public long getNotificationCount() {
+		return mNotificationRate.getTotal();
+	}
+
+	/**
+	 * Live batched samples per second over the last 10 s.
+	 */
+	public double getSampleRate() {
+		return mSampleRate.getRate(mManager.getScheduler().nowMillis());
+	}
+
+	/**
+	 * Batch samples never received, from gaps in the sequence numbers.
+	 */
+	public long getMissedSamples() {
+		return mMissedSamples;
+	}
+
+	/**
+	 * Batch samples received twice and dropped.
+	 */
+	public long getDuplicateSamples() {
+		return mDuplicateSamples;
+	}
+
+	/**
+	 * A stored record transfer was requested and has not ended yet.
+	 */
+	public boolean isTransferActive() {
+		return mTransferActive;
+	}
+
+	public long getLastTransferSamples() {
+		return mLastTransferSamples;
+	}
+
+	/**
+	 * Stored samples per second of the last completed transfer.
+	 */
+	public double getLastTransferRate() {
+		return mLastTransferRate;
+	}
+
+	synchronized boolean hasSession() {
+		return mSession != null;
+	}
+
+	/**
+	 * Queues a GATT request behind any outstanding one on this device. Completes with
+	 * {@link GattOperation#STATUS_CANCELLED} when the device is not connected.
+	 */
+	public GattOperation enqueue(GattOperation operation) {
+		final GattOperationQueue queue = mQueue;
+		if (queue == null) {
+			operation.complete(GattOperation.STATUS_CANCELLED, null);
+			return operation;
+		}
+		return queue.enqueue(operation);
+	}
+
+	static final int CONNECT_STARTED = 0;
+	static final int CONNECT_ALREADY_ACTIVE = 1;
+	static final int CONNECT_FAILED = 2;
+
+	synchronized int connect(GattTransport transport, boolean autoConnect) {
+		if (mState != State.Disconnected) {
+			return CONNECT_ALREADY_ACTIVE;
+		}
+		mMetrics = mManager.getPipelineMetrics().sensor(mAddress);
+		if (mSession != null && !autoConnect) {
+			// Reconnecting an existing session is always an autoConnect, a direct connect needs a new one.
+			mSession.close();
+			mSession = null;
+		}
+		if (mSession != null) {
+			if (!mSession.connect()) {
+				return CONNECT_FAILED;
+			}
+		} else {
+			mSession = transport.connect(mAddress, autoConnect, this);
+			if (mSession == null) {
+				return CONNECT_FAILED;
+			}
+		}
+		mConnectStartMillis = mManager.getScheduler().nowMillis();
+		mFirstReadingPending = true;
+		mAppliedProfile = null;
+		mMtu = ConnectionProfile.DEFAULT_MTU;
+		mNotificationRate.reset();
+		mSampleRate.reset();
+		mTransferActive = false;
+		mQueue = new GattOperationQueue(mSession, mManager.getScheduler(), mManager.getOperationLatency());
+		setState(State.Connecting);
+		return CONNECT_STARTED;
+	}
+
+	synchronized void disconnect() {
+		if (mSession != null) {
+			mSession.disconnect();
+		}
+	}
+
+	synchronized void close() {
+		if (mSession == null) {
+			return;
+		}
+		if (mQueue != null) {
+			mQueue.close();
+			mQueue = null;
+		}
+		mSession.close();
+		mSession = null;
+		setState(State.Disconnected);
+	}
+
+	// The link dropped but a reconnect is wanted: keep the session for reuse.
+	private synchronized void linkLost() {
+		if (mSession == null) {
+			return;
+		}
+		if (mQueue != null) {
+			mQueue.close();
+			mQueue = null;
+		}
+		setState(State.Disconnected);
+	}
+
+	private void setState(int state) {
+		final int previous = mState;
+		if (previous == state) {
+			return;
+		}
+		mState = state;
+		mManager.onStateChanged(this, previous, state);
+	}
+
+	@Override
+	public void onConnectionStateChange(GattSession session, int status, int newState) {
+		if (newState == GattSession.STATE_CONNECTED) {
+			mName = session.getName();
+			setState(State.Connected);
+			final ConnectionProfile profile = mManager.getConnectionProfile(mAddress);
+			if (profile != null) {
+				// A shorter interval speeds up everything that follows.
+				enqueue(GattOperation.requestConnectionPriority(profile.priority));
+			}
+			final GattLayout layout = mManager.getLayoutCache().lookup(mAddress);
+			if (layout != null && session.restoreLayout(layout)) {
+				mDiscoveriesSkipped.incrementAndGet();
+				mLayoutFromCache = true;
+				mSubscribingWithoutDiscovery = true;
+				subscribe();
+				// Behind the subscription, the first reading fits the default MTU.
+				requestMtu(profile);
+			} else {
+				mLayoutFromCache = false;
+				// Exchanged while services are discovered.
+				requestMtu(profile);
+				if (!session.discoverServices()) {
+					session.disconnect();
+				}
+			}
+			mAppliedProfile = profile;
+		} else if (newState == GattSession.STATE_DISCONNECTED) {
+			if (mAutoReconnect) {
+				linkLost();
+			} else {
+				close();
+			}
+		}
+	}
+
+	@Override
+	public void onServicesDiscovered(GattSession session, int status) {
+		if (status != GattSession.GATT_SUCCESS) {
+			return;
+		}
+		mManager.onServicesDiscovered(this);
+
+		final GattLayout layout = session.getLayout();
+		if (!session.hasCharacteristic(TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID,
+				TemperatureGattAttributes.CHAR_TEMPERATURE_UUID)) {
+			mManager.getLayoutCache().invalidate(mAddress);
+			mAutoReconnect = false;
+			mManager.onTemperatureServiceNotSupported(this);
+			session.disconnect();
+			return;
+		}
+		if (layout != null) {
+			mManager.getLayoutCache().put(mAddress, layout);
+		}
+		subscribe();
+	}
+
+	private void requestMtu(ConnectionProfile profile) {
+		if (profile != null && profile.mtu > mMtu) {
+			enqueue(GattOperation.requestMtu(profile.mtu));
+		}
+	}
+
+	/**
+	 * Requests the manager's current profile for this device if it differs from the applied one.
+	 */
+	void applyConnectionProfile() {
+		final ConnectionProfile profile = mManager.getConnectionProfile(mAddress);
+		if (profile == null || profile == mAppliedProfile || mState < State.Connected) {
+			return;
+		}
+		mAppliedProfile = profile;
+		enqueue(GattOperation.requestConnectionPriority(profile.priority));
+		requestMtu(profile);
+	}
+
+	private void subscribe() {
+		final UUID service = TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID;
+		final UUID characteristic = TemperatureGattAttributes.CHAR_TEMPERATURE_UUID;
+		// Ahead of a queued MTU request, the first reading waits for the CCCD write only.
+		enqueue(GattOperation.setNotification(service, characteristic, true)
+				.setPriority(GattOperation.Priority.High));
+		enqueue(GattOperation.writeDescriptor(service, characteristic, TemperatureGattAttributes.CCCD,
+				TemperatureGattAttributes.ENABLE_NOTIFICATION_VALUE)
+				.setPriority(GattOperation.Priority.High)
+				.setListener(mSubscribed));
+
+		final GattSession session = mSession;
+		if (session != null && session.hasCharacteristic(TemperatureGattAttributes.SERVICE_TEMPERATURE_BATCH_UUID,
+				TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID)) {
+			subscribeBatches(session);
+		}
+
+		final UUID gattService = TemperatureGattAttributes.SERVICE_GENERIC_ATTRIBUTE_UUID;
+		final UUID serviceChanged = TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID;
+		if (session != null && session.hasCharacteristic(gattService, serviceChanged)) {
+			// Behind the temperature subscription, it does not delay the first reading.
+			enqueue(GattOperation.setNotification(gattService, serviceChanged, true));
+			enqueue(GattOperation.writeDescriptor(gattService, serviceChanged, TemperatureGattAttributes.CCCD,
+					TemperatureGattAttributes.ENABLE_INDICATION_VALUE));
+		}
+	}
+
+	private void subscribeBatches(GattSession session) {
+		final UUID service = TemperatureGattAttributes.SERVICE_TEMPERATURE_BATCH_UUID;
+		final UUID batch = TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID;
+		final UUID racp = TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID;
+		mExpectedSequence = mManager.getNextSequence(mAddress);
+		final boolean download = mManager.isBulkDownload() && session.hasCharacteristic(service, racp);
+		if (download) {
+			// Live batches are ignored until the transfer ends, the device replays them as stored records.
+			mTransferActive = true;
+			mTransferSamples = 0;
+			mTransferStartMillis = mManager.getScheduler().nowMillis();
+			enqueue(GattOperation.setNotification(service, racp, true));
+			enqueue(GattOperation.writeDescriptor(service, racp, TemperatureGattAttributes.CCCD,
+					TemperatureGattAttributes.ENABLE_INDICATION_VALUE));
+		}
+		enqueue(GattOperation.setNotification(service, batch, true));
+		enqueue(GattOperation.writeDescriptor(service, batch, TemperatureGattAttributes.CCCD,
+				TemperatureGattAttributes.ENABLE_NOTIFICATION_VALUE));
+		if (download) {
+			final int next = mExpectedSequence;
+			enqueue(GattOperation.write(service, racp, next >= 0
+					? RecordAccessControlPoint.reportRecordsFrom(next) : RecordAccessControlPoint.reportAllRecords())
+					.setListener(mTransferRequested));
+		}
+	}
+
+	private final GattOperation.Listener mTransferRequested = new GattOperation.Listener() {
+		@Override
+		public void onComplete(GattOperation operation) {
+			if (operation.isSuccess()) {
+				mTransferStartMillis = mManager.getScheduler().nowMillis();
+			} else {
+				mTransferActive = false;
+			}
+		}
+	};
+
+	private final GattOperation.Listener mSubscribed = new GattOperation.Listener() {
+		@Override
+		public void onComplete(GattOperation operation) {
+			final boolean withoutDiscovery = mSubscribingWithoutDiscovery;
+			mSubscribingWithoutDiscovery = false;
+			if (operation.isSuccess()) {
+				setState(State.ConnectedRunning);
+			} else if (withoutDiscovery && operation.getStatus() != GattOperation.STATUS_CANCELLED) {
+				// The cached layout is stale, look the services up again.
+				mManager.getLayoutCache().invalidate(mAddress);
+				mLayoutFromCache = false;
+				final GattSession session = mSession;
+				if (session == null || !session.discoverServices()) {
+					disconnect();
+				}
+			} else if (operation.getStatus() != GattOperation.STATUS_CANCELLED) {
+				// Failed or timed out after retries, don't sit in Connected forever.
+				disconnect();
+			}
+		}
+	};
+
+	@Override
+	public void onCharacteristicRead(GattSession session, UUID characteristic, byte[] value, int status) {
+		final GattOperationQueue queue = mQueue;
+		if (queue != null) {
+			queue.onCharacteristicRead(characteristic, value, status);
+		}
+		if (status == GattSession.GATT_SUCCESS) {
+			onValue(characteristic, value);
+		}
+	}
+
+	@Override
+	public void onCharacteristicChanged(GattSession session, UUID characteristic, byte[] value) {
+		if (TemperatureGattAttributes.CHAR_TEMPERATURE_UUID.equals(characteristic)
+				|| TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID.equals(characteristic)) {
+			final PipelineMetrics.Sensor metrics = mMetrics;
+			if (metrics != null) {
+				metrics.onNotification(System.nanoTime());
+			}
+			mNotificationRate.mark(mManager.getScheduler().nowMillis());
+		}
+		onValue(characteristic, value);
+	}
+
+	@Override
+	public void onCharacteristicWrite(GattSession session, UUID characteristic, int status) {
+		final GattOperationQueue queue = mQueue;
+		if (queue != null) {
+			queue.onCharacteristicWrite(characteristic, status);
+		}
+	}
+
+	@Override
+	public void onDescriptorWrite(GattSession session, UUID characteristic, UUID descriptor, int status) {
+		final GattOperationQueue queue = mQueue;
+		if (queue != null) {
+			queue.onDescriptorWrite(characteristic, descriptor, status);
+		}
+	}
+
+	@Override
+	public void onMtuChanged(GattSession session, int mtu, int status) {
+		if (status == GattSession.GATT_SUCCESS) {
+			mMtu = mtu;
+		}
+		final GattOperationQueue queue = mQueue;
+		if (queue != null) {
+			queue.onMtuChanged(mtu, status);
+		}
+	}
+
+	private void onValue(UUID characteristic, byte[] value) {
+		if (TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID.equals(characteristic)) {
+			onBatch(value);
+			return;
+		}
+		if (TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID.equals(characteristic)) {
+			onRecordAccessResponse(value);
+			return;
+		}
+		if (TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID.equals(characteristic)) {
+			onServiceChanged();
+			return;
+		}
+		if (!TemperatureGattAttributes.CHAR_TEMPERATURE_UUID.equals(characteristic)) {
+			mManager.onOtherCharacteristic(this, characteristic, value);
+			return;
+		}
+		final PipelineMetrics.Sensor metrics = mMetrics;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		final boolean decoded = TemperatureMeasurementCodec.decode(value, mMeasurement);
+		if (metrics != null) {
+			metrics.record(PipelineMetrics.Stage.Decode, start, System.nanoTime());
+			if (decoded) {
+				metrics.onSamples(1);
+			} else {
+				metrics.onDrop(1);
+			}
+		}
+		if (decoded) {
+			mSampleRate.mark(mManager.getScheduler().nowMillis());
+			if (mFirstReadingPending) {
+				mFirstReadingPending = false;
+				mManager.onFirstReading(this, mManager.getScheduler().nowMillis() - mConnectStartMillis,
+						mLayoutFromCache);
+			}
+			mManager.onMeasurement(this, mMeasurement, value);
+		} else {
+			mMalformedCount++;
+		}
+	}
+
+	private void onBatch(byte[] value) {
+		final TemperatureBatch batch = mBatch;
+		final PipelineMetrics.Sensor metrics = mMetrics;
+		final long start = metrics != null ? System.nanoTime() : 0;
+		final boolean decoded = TemperatureBatchCodec.decode(value, mManager.currentTimeMillis(), batch);
+		if (metrics != null) {
+			metrics.record(PipelineMetrics.Stage.Decode, start, System.nanoTime());
+		}
+		if (!decoded) {
+			mMalformedCount++;
+			if (metrics != null) {
+				metrics.onDrop(1);
+			}
+			return;
+		}
+		if (!batch.stored && mTransferActive) {
+			return;
+		}
+		if (mExpectedSequence >= 0) {
+			final int delta = (short) (batch.firstSequence - mExpectedSequence);
+			if (delta < 0) {
+				mDuplicateSamples += Math.min(-delta, batch.count);
+				batch.dropFirst(-delta);
+				if (batch.count == 0) {
+					return;
+				}
+			} else if (delta > 0) {
+				mMissedSamples += delta;
+				if (metrics != null) {
+					metrics.onDrop(delta);
+				}
+			}
+		}
+		mExpectedSequence = batch.nextSequence();
+		if (metrics != null) {
+			metrics.onSamples(batch.count);
+		}
+		if (batch.stored) {
+			mTransferSamples += batch.count;
+		} else {
+			final long now = mManager.getScheduler().nowMillis();
+			mSampleRate.mark(now, batch.count);
+			if (mFirstReadingPending) {
+				mFirstReadingPending = false;
+				mManager.onFirstReading(this, now - mConnectStartMillis, mLayoutFromCache);
+			}
+		}
+		mManager.onBatch(this, batch);
+	}
+
+	private void onRecordAccessResponse(byte[] value) {
+		final int responseCode = RecordAccessControlPoint.responseCodeFor(value,
+				RecordAccessControlPoint.OpCode.ReportStoredRecords);
+		if (responseCode < 0 || !mTransferActive) {
+			return;
+		}
+		mTransferActive = false;
+		final long elapsed = Math.max(1, mManager.getScheduler().nowMillis() - mTransferStartMillis);
+		mLastTransferSamples = mTransferSamples;
+		mLastTransferRate = mTransferSamples * 1000.0 / elapsed;
+		mManager.onTransferComplete(this, responseCode, mTransferSamples, elapsed);
+	}
+
+	// The device changed its database: drop the cached layout and subscribe again on the new one.
+	private void onServiceChanged() {
+		mManager.getLayoutCache().invalidate(mAddress);
+		mLayoutFromCache = false;
+		final GattSession session = mSession;
+		if (session != null && !session.discoverServices()) {
+			disconnect();
+		}
+	}
+}
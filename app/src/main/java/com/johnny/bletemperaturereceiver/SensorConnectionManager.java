@@ -0,0 +1,496 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps up to {@link #getMaxConnections()} concurrent thermometer connections keyed by address.
+ * Each device has its own {@link SensorConnection} state machine that receives its GATT events
+ * directly from the {@link GattTransport}; the manager only keeps the lock-free index and the
+ * active connection count.
+ * <p>
+ * With a {@link ReconnectPolicy} set, devices connected through {@link #connect(String)} are
+ * reconnected after a link loss until {@link #disconnect(String)} or {@link #close(String)}.
+ */
+public class SensorConnectionManager {
+	public static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+	public interface Listener {
+		void onConnectionStateChanged(SensorConnection connection, int previousState, int newState);
+
+		void onServicesDiscovered(SensorConnection connection);
+
+		void onTemperatureServiceNotSupported(SensorConnection connection);
+
+		/**
+		 * @param measurement reused for the next reading of the same device, copy what you keep.
+		 * @param rawValue    the undecoded payload.
+		 */
+		void onMeasurement(SensorConnection connection, TemperatureMeasurement measurement, byte[] rawValue);
+
+		void onCharacteristicValue(SensorConnection connection, UUID characteristic, byte[] value);
+
+		/**
+		 * Samples of a batched notification, live or replayed from the device's storage
+		 * ({@link TemperatureBatch#stored}). Samples received before are already removed.
+		 *
+		 * @param batch reused for the next notification of the same device, copy what you keep.
+		 */
+		void onBatch(SensorConnection connection, TemperatureBatch batch);
+
+		/**
+		 * A stored record transfer ended with a Record Access Control Point response code.
+		 */
+		void onTransferComplete(SensorConnection connection, int responseCode);
+	}
+
+	private final GattTransport mTransport;
+	private final Scheduler mScheduler;
+	private final LatencyHistogram[] mOperationLatency = GattOperationQueue.newLatencyHistograms();
+	private final Listener mListener;
+	private final ConcurrentHashMap<String, SensorConnection> mConnections = new ConcurrentHashMap<>();
+	private final AtomicInteger mActiveCount = new AtomicInteger();
+	private volatile int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+
+	private volatile ReconnectPolicy mReconnectPolicy;
+	// Milliseconds from link loss to ConnectedRunning.
+	private final LatencyHistogram mReconnectLatency = new LatencyHistogram();
+	private final AtomicInteger mPendingReconnects = new AtomicInteger();
+	private final AtomicLong mReconnectAttempts = new AtomicLong();
+	private final AtomicLong mReconnects = new AtomicLong();
+
+	private volatile GattLayoutCache mLayoutCache = new GattLayoutCache();
+	private volatile PipelineMetrics mPipelineMetrics = new PipelineMetrics();
+	// Milliseconds from connect to the first decoded reading, with a cached layout and with discovery.
+	private final LatencyHistogram mFirstReadingCached = new LatencyHistogram();
+	private final LatencyHistogram mFirstReadingDiscovered = new LatencyHistogram();
+
+	// Stored record replay: next batch sequence number wanted from each device.
+	private volatile boolean mBulkDownload;
+	private final ConcurrentHashMap<String, Integer> mNextSequence = new ConcurrentHashMap<>();
+	private final long mWallClockOffset;
+	private final AtomicLong mTransferredSamples = new AtomicLong();
+	private final AtomicLong mTransferMillis = new AtomicLong();
+	private final AtomicInteger mTransfers = new AtomicInteger();
+
+	private volatile ConnectionProfile mConnectionProfile;
+	private final ConcurrentHashMap<String, ConnectionProfile> mConnectionProfiles = new ConcurrentHashMap<>();
+
+	public SensorConnectionManager(GattTransport transport, Scheduler scheduler, Listener listener) {
+		mTransport = transport;
+		mScheduler = scheduler;
+		mListener = listener;
+		mWallClockOffset = System.currentTimeMillis() - scheduler.nowMillis();
+	}
+
+	public Scheduler getScheduler() {
+		return mScheduler;
+	}
+
+	/**
+	 * Wall clock time following the scheduler clock, used to timestamp batched samples. Anchored
+	 * once, so it keeps running on a virtual clock and does not jump when the user sets the time.
+	 */
+	public long currentTimeMillis() {
+		return mScheduler.nowMillis() + mWallClockOffset;
+	}
+
+	/**
+	 * GATT operation latency in microseconds, indexed by {@link GattOperation.Type}, for all devices.
+	 */
+	public LatencyHistogram[] getOperationLatency() {
+		return mOperationLatency;
+	}
+
+	/**
+	 * Replaces the in-memory layout cache, e.g. with a persistent one.
+	 */
+	public void setLayoutCache(GattLayoutCache cache) {
+		mLayoutCache = cache;
+	}
+
+	public GattLayoutCache getLayoutCache() {
+		return mLayoutCache;
+	}
+
+	/**
+	 * Shares stage timings with the rest of the pipeline, applied on the next connect of each device.
+	 */
+	public void setPipelineMetrics(PipelineMetrics metrics) {
+		mPipelineMetrics = metrics;
+	}
+
+	public PipelineMetrics getPipelineMetrics() {
+		return mPipelineMetrics;
+	}
+
+	/**
+	 * Time from connect to the first reading, in milliseconds, for connections that subscribed with
+	 * a cached service layout.
+	 */
+	public LatencyHistogram getTimeToFirstReadingCached() {
+		return mFirstReadingCached;
+	}
+
+	/**
+	 * Same as {@link #getTimeToFirstReadingCached()} for connections that discovered services.
+	 */
+	public LatencyHistogram getTimeToFirstReadingDiscovered() {
+		return mFirstReadingDiscovered;
+	}
+
+	/**
+	 * Link settings requested after each connect, null (the default) leaves the stack's choice.
+	 */
+	public void setConnectionProfile(ConnectionProfile profile) {
+		mConnectionProfile = profile;
+	}
+
+	/**
+	 * Overrides the default profile for one device, applied at once if it is connected.
+	 */
+	public void setConnectionProfile(String address, ConnectionProfile profile) {
+		if (profile != null) {
+			mConnectionProfiles.put(address, profile);
+		} else {
+			mConnectionProfiles.remove(address);
+		}
+		final SensorConnection connection = get(address);
+		if (connection != null) {
+			connection.applyConnectionProfile();
+		}
+	}
+
+	public ConnectionProfile getConnectionProfile(String address) {
+		final ConnectionProfile profile = mConnectionProfiles.get(address);
+		return profile != null ? profile : mConnectionProfile;
+	}
+
+	/**
+	 * Replays readings stored on the device while it was not connected, through the Record
+	 * Access Control Point of devices that have one, each time they connect.
+	 */
+	public void setBulkDownload(boolean enabled) {
+		mBulkDownload = enabled;
+	}
+
+	public boolean isBulkDownload() {
+		return mBulkDownload;
+	}
+
+	/**
+	 * Sequence number after the last batch sample received from {@code address}, -1 if none was.
+	 */
+	public int getNextSequence(String address) {
+		final Integer sequence = mNextSequence.get(address);
+		return sequence != null ? sequence : -1;
+	}
+
+	/**
+	 * Restores {@link #getNextSequence(String)}, e.g. from the newest stored record.
+	 */
+	public void setNextSequence(String address, int sequence) {
+		mNextSequence.put(address, sequence & 0xFFFF);
+	}
+
+	public int getTransferCount() {
+		return mTransfers.get();
+	}
+
+	public long getTransferredSamples() {
+		return mTransferredSamples.get();
+	}
+
+	/**
+	 * Stored samples per second over all completed transfers.
+	 */
+	public double getTransferThroughput() {
+		final long millis = mTransferMillis.get();
+		return millis > 0 ? mTransferredSamples.get() * 1000.0 / millis : 0;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections < 1");
+		}
+		mMaxConnections = maxConnections;
+	}
+
+	public int getMaxConnections() {
+		return mMaxConnections;
+	}
+
+	/**
+	 * Enables automatic reconnection for later {@link #connect(String)} calls, null disables it.
+	 */
+	public void setReconnectPolicy(ReconnectPolicy policy) {
+		mReconnectPolicy = policy;
+	}
+
+	public ReconnectPolicy getReconnectPolicy() {
+		return mReconnectPolicy;
+	}
+
+	/**
+	 * Time from link loss back to a subscribed connection, in milliseconds.
+	 */
+	public LatencyHistogram getReconnectLatency() {
+		return mReconnectLatency;
+	}
+
+	public long getReconnectAttemptCount() {
+		return mReconnectAttempts.get();
+	}
+
+	public long getReconnectCount() {
+		return mReconnects.get();
+	}
+
+	/**
+	 * Devices waiting for their next reconnect attempt.
+	 */
+	public int getPendingReconnectCount() {
+		return mPendingReconnects.get();
+	}
+
+	public boolean hasPendingReconnects() {
+		return mPendingReconnects.get() > 0;
+	}
+
+	public boolean isReconnectPending(String address) {
+		final SensorConnection connection = get(address);
+		if (connection == null) {
+			return false;
+		}
+		synchronized (connection) {
+			return connection.reconnectTask != null;
+		}
+	}
+
+	/**
+	 * Number of connections that are not {@link SensorConnection.State#Disconnected}.
+	 */
+	public int getActiveCount() {
+		return mActiveCount.get();
+	}
+
+	/**
+	 * Starts connecting to {@code address}, or does nothing if it is already connecting or connected.
+	 *
+	 * @return false if the connection could not be initiated or the connection limit is reached.
+	 */
+	public boolean connect(String address) {
+		if (address == null) {
+			return false;
+		}
+		SensorConnection connection = mConnections.get(address);
+		if (connection == null) {
+			final SensorConnection created = new SensorConnection(this, address);
+			connection = mConnections.putIfAbsent(address, created);
+			if (connection == null) {
+				connection = created;
+			}
+		}
+		connection.setAutoReconnect(mReconnectPolicy != null);
+		cancelReconnect(connection);
+		if (connection.getState() != SensorConnection.State.Disconnected) {
+			return true;
+		}
+		if (!reserveSlot()) {
+			return false;
+		}
+		final int result = connection.connect(mTransport, false);
+		if (result != SensorConnection.CONNECT_STARTED) {
+			mActiveCount.decrementAndGet();
+		}
+		return result != SensorConnection.CONNECT_FAILED;
+	}
+
+	/**
+	 * Disconnects {@code address} and stops reconnecting it.
+	 */
+	public void disconnect(String address) {
+		final SensorConnection connection = mConnections.get(address);
+		if (connection != null) {
+			disconnect(connection);
+		}
+	}
+
+	public void disconnectAll() {
+		for (SensorConnection connection : mConnections.values()) {
+			disconnect(connection);
+		}
+	}
+
+	private void disconnect(SensorConnection connection) {
+		connection.setAutoReconnect(false);
+		cancelReconnect(connection);
+		if (connection.getState() == SensorConnection.State.Disconnected) {
+			// Link already lost, only the kept session is left.
+			close(connection.getAddress());
+		} else {
+			connection.disconnect();
+		}
+	}
+
+	public void close(String address) {
+		final SensorConnection connection = mConnections.remove(address);
+		if (connection != null) {
+			connection.setAutoReconnect(false);
+			cancelReconnect(connection);
+			connection.close();
+		}
+	}
+
+	public void closeAll() {
+		for (String address : mConnections.keySet()) {
+			close(address);
+		}
+	}
+
+	public SensorConnection get(String address) {
+		return address != null ? mConnections.get(address) : null;
+	}
+
+	public int getState(String address) {
+		final SensorConnection connection = get(address);
+		return connection != null ? connection.getState() : SensorConnection.State.Disconnected;
+	}
+
+	public List<SensorConnection> getConnections() {
+		return new ArrayList<>(mConnections.values());
+	}
+
+	private boolean reserveSlot() {
+		while (true) {
+			final int active = mActiveCount.get();
+			if (active >= mMaxConnections) {
+				return false;
+			}
+			if (mActiveCount.compareAndSet(active, active + 1)) {
+				return true;
+			}
+		}
+	}
+
+	// === Called by SensorConnection ===
+
+	void onStateChanged(SensorConnection connection, int previousState, int newState) {
+		// The slot was reserved by connect(), it is released on the way back to Disconnected.
+		if (newState == SensorConnection.State.Disconnected) {
+			mActiveCount.decrementAndGet();
+			if (connection.isAutoReconnect() && mReconnectPolicy != null) {
+				synchronized (connection) {
+					if (connection.linkLostAtMillis < 0) {
+						connection.linkLostAtMillis = mScheduler.nowMillis();
+					}
+				}
+				scheduleReconnect(connection);
+			} else {
+				mConnections.remove(connection.getAddress(), connection);
+			}
+		} else if (newState == SensorConnection.State.ConnectedRunning) {
+			synchronized (connection) {
+				if (connection.linkLostAtMillis >= 0) {
+					mReconnectLatency.record(mScheduler.nowMillis() - connection.linkLostAtMillis);
+					mReconnects.incrementAndGet();
+					connection.linkLostAtMillis = -1;
+				}
+				connection.reconnectAttempt = 0;
+			}
+		}
+		mListener.onConnectionStateChanged(connection, previousState, newState);
+	}
+
+	// === Reconnect ===
+
+	private void scheduleReconnect(final SensorConnection connection) {
+		final ReconnectPolicy policy = mReconnectPolicy;
+		synchronized (connection) {
+			if (policy == null || connection.reconnectTask != null || !connection.isAutoReconnect()) {
+				return;
+			}
+			final int attempt = connection.reconnectAttempt++;
+			mPendingReconnects.incrementAndGet();
+			connection.reconnectTask = mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (connection) {
+						if (connection.reconnectTask == null) {
+							return;
+						}
+						connection.reconnectTask = null;
+						mPendingReconnects.decrementAndGet();
+					}
+					reconnect(connection, policy.useAutoConnect(attempt));
+				}
+			}, policy.nextDelayMillis(attempt));
+		}
+	}
+
+	private void reconnect(SensorConnection connection, boolean autoConnect) {
+		if (!connection.isAutoReconnect() || mConnections.get(connection.getAddress()) != connection) {
+			return;
+		}
+		mReconnectAttempts.incrementAndGet();
+		if (!reserveSlot()) {
+			scheduleReconnect(connection);
+			return;
+		}
+		final int result = connection.connect(mTransport, autoConnect);
+		if (result != SensorConnection.CONNECT_STARTED) {
+			mActiveCount.decrementAndGet();
+		}
+		if (result == SensorConnection.CONNECT_FAILED) {
+			scheduleReconnect(connection);
+		}
+	}
+
+	private void cancelReconnect(SensorConnection connection) {
+		synchronized (connection) {
+			if (connection.reconnectTask != null) {
+				connection.reconnectTask.cancel();
+				connection.reconnectTask = null;
+				mPendingReconnects.decrementAndGet();
+			}
+			connection.reconnectAttempt = 0;
+			connection.linkLostAtMillis = -1;
+		}
+	}
+
+	void onServicesDiscovered(SensorConnection connection) {
+		mListener.onServicesDiscovered(connection);
+	}
+
+	void onTemperatureServiceNotSupported(SensorConnection connection) {
+		mListener.onTemperatureServiceNotSupported(connection);
+	}
+
+	void onMeasurement(SensorConnection connection, TemperatureMeasurement measurement, byte[] rawValue) {
+		mListener.onMeasurement(connection, measurement, rawValue);
+	}
+
+	void onFirstReading(SensorConnection connection, long elapsedMillis, boolean cachedLayout) {
+		(cachedLayout ? mFirstReadingCached : mFirstReadingDiscovered).record(elapsedMillis);
+	}
+
+	void onBatch(SensorConnection connection, TemperatureBatch batch) {
+		mNextSequence.put(connection.getAddress(), batch.nextSequence());
+		mListener.onBatch(connection, batch);
+	}
+
+	void onTransferComplete(SensorConnection connection, int responseCode, long samples, long elapsedMillis) {
+		mTransfers.incrementAndGet();
+		mTransferredSamples.addAndGet(samples);
+		mTransferMillis.addAndGet(elapsedMillis);
+		mListener.onTransferComplete(connection, responseCode);
+	}
+
+	void onOtherCharacteristic(SensorConnection connection, UUID characteristic, byte[] value) {
+		mListener.onCharacteristicValue(connection, characteristic, value);
+	}
+}
@@ -0,0 +1,273 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PollScheduler.Poller} that takes one reading per poll: connect, read the Temperature
+ * Measurement (0x2A1C), disconnect. Every poll discovers services: its session is closed
+ * afterwards, and a new connection handle has no attributes a cached layout could restore.
+ * Thermometers that only indicate 0x2A1C refuse the read; for them indications are enabled and
+ * the first one is taken. Requests go through a {@link GattOperationQueue} per poll, like those
+ * of a {@link SensorConnection}.
+ * <p>
+ * A sensor the {@link #setConnectionManager connection manager} holds a session to is not
+ * connected again: the transport keeps one session per address, a poll's would take over the
+ * connection's callbacks. Its readings come from the connection.
+ */
+public class SensorPoller implements PollScheduler.Poller {
+
+	public interface Listener {
+		/**
+		 * GATT callback thread.
+		 */
+		void onReading(String address, String name, TemperatureMeasurement measurement, byte[] rawValue);
+	}
+
+	private static final UUID SERVICE = TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID;
+	private static final UUID CHARACTERISTIC = TemperatureGattAttributes.CHAR_TEMPERATURE_UUID;
+
+	private final GattTransport mTransport;
+	private final Scheduler mScheduler;
+	private final Listener mListener;
+	private final ConcurrentHashMap<String, Poll> mPolls = new ConcurrentHashMap<>();
+	private volatile SensorConnectionManager mConnectionManager;
+
+	private final AtomicLong mIndicationFallbacks = new AtomicLong();
+	private final AtomicLong mConnectedSkips = new AtomicLong();
+
+	public SensorPoller(GattTransport transport, Scheduler scheduler, Listener listener) {
+		mTransport = transport;
+		mScheduler = scheduler;
+		mListener = listener;
+	}
+
+	/**
+	 * Connections whose sensors are skipped, may be null.
+	 */
+	public SensorPoller setConnectionManager(SensorConnectionManager manager) {
+		mConnectionManager = manager;
+		return this;
+	}
+
+	@Override
+	public void poll(String address, PollScheduler.Completion completion) {
+		final SensorConnectionManager manager = mConnectionManager;
+		final SensorConnection connection = manager != null ? manager.get(address) : null;
+		if (connection != null && connection.hasSession()) {
+			mConnectedSkips.incrementAndGet();
+			completion.onPollComplete(address, connection.getState() >= SensorConnection.State.Connected);
+			return;
+		}
+		final Poll poll = new Poll(address, completion);
+		final Poll previous = mPolls.put(address, poll);
+		if (previous != null) {
+			previous.finish(false);
+		}
+		poll.start();
+	}
+
+	@Override
+	public void cancel(String address) {
+		final Poll poll = mPolls.get(address);
+		if (poll != null) {
+			poll.finish(false);
+		}
+	}
+
+	/**
+	 * Polls skipped because the connection manager holds a session to the sensor.
+	 */
+	public long getConnectedSkips() {
+		return mConnectedSkips.get();
+	}
+
+	/**
+	 * Polls that had to wait for an indication because the read was refused.
+	 */
+	public long getIndicationFallbacks() {
+		return mIndicationFallbacks.get();
+	}
+
+	private class Poll implements GattSession.Callback {
+		final String address;
+		final PollScheduler.Completion completion;
+		private GattSession mSession;
+		private GattOperationQueue mQueue;
+		private boolean mDone;
+
+		Poll(String address, PollScheduler.Completion completion) {
+			this.address = address;
+			this.completion = completion;
+		}
+
+		void start() {
+			final GattSession session = mTransport.connect(address, false, this);
+			synchronized (this) {
+				mSession = session;
+			}
+			if (session == null) {
+				finish(false);
+			}
+		}
+
+		void finish(boolean success) {
+			final GattSession session;
+			final GattOperationQueue queue;
+			synchronized (this) {
+				if (mDone) {
+					return;
+				}
+				mDone = true;
+				session = mSession;
+				queue = mQueue;
+			}
+			mPolls.remove(address, this);
+			if (queue != null) {
+				queue.close();
+			}
+			if (session != null) {
+				session.disconnect();
+				session.close();
+			}
+			completion.onPollComplete(address, success);
+		}
+
+		private synchronized boolean isDone() {
+			return mDone;
+		}
+
+		private synchronized GattOperationQueue queue(GattSession session) {
+			if (mQueue == null) {
+				mQueue = new GattOperationQueue(session, mScheduler, null);
+			}
+			return mQueue;
+		}
+
+		private synchronized GattOperationQueue currentQueue() {
+			return mQueue;
+		}
+
+		private void read(GattSession session) {
+			if (!session.hasCharacteristic(SERVICE, CHARACTERISTIC)) {
+				finish(false);
+				return;
+			}
+			queue(session).enqueue(GattOperation.read(SERVICE, CHARACTERISTIC).setListener(mRead));
+		}
+
+		private void waitForIndication(GattSession session) {
+			mIndicationFallbacks.incrementAndGet();
+			final GattOperationQueue queue = queue(session);
+			queue.enqueue(GattOperation.setNotification(SERVICE, CHARACTERISTIC, true).setListener(mSubscribed));
+			queue.enqueue(GattOperation.writeDescriptor(SERVICE, CHARACTERISTIC, TemperatureGattAttributes.CCCD,
+					TemperatureGattAttributes.ENABLE_INDICATION_VALUE).setListener(mSubscribed));
+		}
+
+		private final GattOperation.Listener mRead = new GattOperation.Listener() {
+			@Override
+			public void onComplete(GattOperation operation) {
+				final GattSession session;
+				synchronized (Poll.this) {
+					if (mDone) {
+						return;
+					}
+					session = mSession;
+				}
+				if (operation.isSuccess()) {
+					onValue(session, operation.getValue());
+				} else if (operation.getStatus() == GattOperation.STATUS_TIMEOUT) {
+					finish(false);
+				} else if (operation.getStatus() != GattOperation.STATUS_CANCELLED) {
+					// Read not permitted.
+					waitForIndication(session);
+				}
+			}
+		};
+
+		private final GattOperation.Listener mSubscribed = new GattOperation.Listener() {
+			@Override
+			public void onComplete(GattOperation operation) {
+				if (!operation.isSuccess() && operation.getStatus() != GattOperation.STATUS_CANCELLED) {
+					finish(false);
+				}
+			}
+		};
+
+		private void onValue(GattSession session, byte[] value) {
+			final TemperatureMeasurement measurement = new TemperatureMeasurement();
+			if (!TemperatureMeasurementCodec.decode(value, measurement)) {
+				finish(false);
+				return;
+			}
+			mListener.onReading(address, session.getName(), measurement, value);
+			finish(true);
+		}
+
+		@Override
+		public void onConnectionStateChange(GattSession session, int status, int newState) {
+			if (isDone()) {
+				return;
+			}
+			if (newState == GattSession.STATE_CONNECTED) {
+				if (!session.discoverServices()) {
+					finish(false);
+				}
+			} else if (newState == GattSession.STATE_DISCONNECTED) {
+				finish(false);
+			}
+		}
+
+		@Override
+		public void onServicesDiscovered(GattSession session, int status) {
+			if (isDone()) {
+				return;
+			}
+			if (status != GattSession.GATT_SUCCESS) {
+				finish(false);
+				return;
+			}
+			read(session);
+		}
+
+		@Override
+		public void onCharacteristicRead(GattSession session, UUID characteristic, byte[] value, int status) {
+			final GattOperationQueue queue = currentQueue();
+			if (queue != null) {
+				queue.onCharacteristicRead(characteristic, value, status);
+			}
+		}
+
+		@Override
+		public void onCharacteristicChanged(GattSession session, UUID characteristic, byte[] value) {
+			if (!isDone() && CHARACTERISTIC.equals(characteristic)) {
+				onValue(session, value);
+			}
+		}
+
+		@Override
+		public void onCharacteristicWrite(GattSession session, UUID characteristic, int status) {
+			final GattOperationQueue queue = currentQueue();
+			if (queue != null) {
+				queue.onCharacteristicWrite(characteristic, status);
+			}
+		}
+
+		@Override
+		public void onDescriptorWrite(GattSession session, UUID characteristic, UUID descriptor, int status) {
+			final GattOperationQueue queue = currentQueue();
+			if (queue != null) {
+				queue.onDescriptorWrite(characteristic, descriptor, status);
+			}
+		}
+
+		@Override
+		public void onMtuChanged(GattSession session, int mtu, int status) {
+			final GattOperationQueue queue = currentQueue();
+			if (queue != null) {
+				queue.onMtuChanged(mtu, status);
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the per-sensor {@link SignalProcessor}s: stages run in the order Hampel,
+ * median, EMA, each left out when its size is 0. The default removes spikes and smooths lightly:
+ * Hampel over 7 samples at 3 deviations, EMA with a 2 s time constant, rate of change over 30 s.
+ */
+public class SignalChain implements SignalProcessor.Factory {
+	private int mHampelWindow = 7;
+	private double mHampelK = 3;
+	private double mHampelMinDeviation = 0.2;
+	private int mMedianWindow;
+	private long mEmaTimeConstantMillis = 2000;
+	private long mRateWindowMillis = 30000;
+	private int mRateCapacity = 64;
+	private long mResetGapMillis = 60000;
+	private final List<TemperatureAlarm> mAlarms = new ArrayList<>();
+
+	/**
+	 * @param minDeviation smallest deviation treated as an outlier, in sensor units.
+	 */
+	public synchronized SignalChain setHampel(int window, double k, double minDeviation) {
+		mHampelWindow = window;
+		mHampelK = k;
+		mHampelMinDeviation = minDeviation;
+		return this;
+	}
+
+	public synchronized SignalChain setMedian(int window) {
+		mMedianWindow = window;
+		return this;
+	}
+
+	public synchronized SignalChain setEma(long timeConstantMillis) {
+		mEmaTimeConstantMillis = timeConstantMillis;
+		return this;
+	}
+
+	/**
+	 * @param capacity samples kept for the slope, at least window times the fastest sample rate.
+	 */
+	public synchronized SignalChain setRateOfChange(long windowMillis, int capacity) {
+		mRateWindowMillis = windowMillis;
+		mRateCapacity = capacity;
+		return this;
+	}
+
+	public synchronized SignalChain setResetGap(long gapMillis) {
+		mResetGapMillis = gapMillis;
+		return this;
+	}
+
+	public synchronized SignalChain addAlarm(TemperatureAlarm alarm) {
+		mAlarms.add(alarm);
+		return this;
+	}
+
+	public synchronized SignalChain clearAlarms() {
+		mAlarms.clear();
+		return this;
+	}
+
+	@Override
+	public synchronized SignalProcessor create(String address, SignalProcessor.Listener listener) {
+		final List<SampleFilter> filters = new ArrayList<>();
+		if (mHampelWindow > 0) {
+			filters.add(new HampelFilter(mHampelWindow, mHampelK, mHampelMinDeviation));
+		}
+		if (mMedianWindow > 0) {
+			filters.add(new MedianFilter(mMedianWindow));
+		}
+		if (mEmaTimeConstantMillis > 0) {
+			filters.add(new EmaFilter(mEmaTimeConstantMillis));
+		}
+		final RateOfChange rate = mRateWindowMillis > 0 ? new RateOfChange(mRateWindowMillis, mRateCapacity) : null;
+		return new SignalProcessor(address, filters.toArray(new SampleFilter[filters.size()]), rate,
+				mAlarms.toArray(new TemperatureAlarm[mAlarms.size()]), mResetGapMillis, listener);
+	}
+}
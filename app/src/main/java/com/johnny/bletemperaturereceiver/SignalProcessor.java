@@ -0,0 +1,147 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Per-sensor processing between decoding and fan-out: the samples go through a chain of
+ * {@link SampleFilter}s, the rate of change of the result is tracked and alarms are evaluated
+ * inline. Nothing is allocated per sample. Synchronized, samples of one sensor may arrive on
+ * different binder threads.
+ */
+public class SignalProcessor {
+
+	public interface Listener {
+		/**
+		 * An alarm went active or cleared. Called on the thread that processed the sample, with the
+		 * processor locked: hand off anything slow.
+		 */
+		void onAlarmChanged(SignalProcessor processor, TemperatureAlarm alarm, boolean active,
+		                    long timestampMillis, double value, double rate);
+	}
+
+	/**
+	 * Creates the processor of a newly seen sensor, see {@link SignalChain}.
+	 */
+	public interface Factory {
+		SignalProcessor create(String address, Listener listener);
+	}
+
+	private final String mAddress;
+	private final SampleFilter[] mFilters;
+	private final RateOfChange mRate;
+	private final TemperatureAlarm[] mAlarms;
+	private final boolean[] mActive;
+	private final Listener mListener;
+
+	private long mLastMillis = Long.MIN_VALUE;
+	private final long mResetGapMillis;
+	private double mValue = Double.NaN;
+	private long mSamples;
+
+	/**
+	 * @param resetGapMillis a longer gap between samples resets the filters, old samples should not
+	 *                       smooth the first ones after a reconnect. 0 never resets.
+	 */
+	public SignalProcessor(String address, SampleFilter[] filters, RateOfChange rate, TemperatureAlarm[] alarms,
+	                       long resetGapMillis, Listener listener) {
+		mAddress = address;
+		mFilters = filters.clone();
+		mRate = rate;
+		mAlarms = alarms.clone();
+		mActive = new boolean[alarms.length];
+		mResetGapMillis = resetGapMillis;
+		mListener = listener;
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	/**
+	 * @return the filtered value. Values that are not finite (SFLOAT NaN, NRes, infinity) bypass
+	 * the chain and are returned as they are.
+	 */
+	public synchronized double process(long timestampMillis, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return value;
+		}
+		if (mResetGapMillis > 0 && mLastMillis != Long.MIN_VALUE && timestampMillis - mLastMillis > mResetGapMillis) {
+			for (SampleFilter filter : mFilters) {
+				filter.reset();
+			}
+			if (mRate != null) {
+				mRate.reset();
+			}
+		}
+		if (timestampMillis < mLastMillis) {
+			timestampMillis = mLastMillis;
+		}
+		mLastMillis = timestampMillis;
+		for (SampleFilter filter : mFilters) {
+			value = filter.apply(timestampMillis, value);
+		}
+		mValue = value;
+		mSamples++;
+		final double rate = mRate != null ? mRate.add(timestampMillis, value) : 0;
+		for (int i = 0; i < mAlarms.length; i++) {
+			final boolean active = mAlarms[i].evaluate(mActive[i], value, rate);
+			if (active != mActive[i]) {
+				mActive[i] = active;
+				if (mListener != null) {
+					mListener.onAlarmChanged(this, mAlarms[i], active, timestampMillis, value, rate);
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Last filtered value, NaN before the first sample.
+	 */
+	public synchronized double getValue() {
+		return mValue;
+	}
+
+	/**
+	 * Rate of change in units per minute.
+	 */
+	public synchronized double getRate() {
+		return mRate != null ? mRate.getRate() : 0;
+	}
+
+	public synchronized long getSampleCount() {
+		return mSamples;
+	}
+
+	public int getAlarmCount() {
+		return mAlarms.length;
+	}
+
+	public TemperatureAlarm getAlarm(int index) {
+		return mAlarms[index];
+	}
+
+	public synchronized boolean isActive(int index) {
+		return mActive[index];
+	}
+
+	public synchronized boolean hasActiveAlarm() {
+		for (boolean active : mActive) {
+			if (active) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Samples replaced by Hampel stages.
+	 */
+	public synchronized long getOutlierCount() {
+		long outliers = 0;
+		for (SampleFilter filter : mFilters) {
+			if (filter instanceof HampelFilter) {
+				outliers += ((HampelFilter) filter).getOutlierCount();
+			}
+		}
+		return outliers;
+	}
+}
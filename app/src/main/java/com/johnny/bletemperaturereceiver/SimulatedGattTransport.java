@@ -0,0 +1,533 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GattTransport} backed by {@link SimulatedThermometer}s instead of a radio. Every event is
+ * delivered through the given {@link Scheduler}; with a {@link VirtualScheduler} a run is fully
+ * deterministic and as fast as the CPU allows, which makes it suitable for load tests of the
+ * receive pipeline on a plain JVM.
+ */
+public class SimulatedGattTransport implements GattTransport {
+
+	private final Scheduler mScheduler;
+	private final ConcurrentHashMap<String, SimulatedThermometer> mDevices = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, SimulatedSession> mSessions = new ConcurrentHashMap<>();
+
+	private volatile long mNotificationsSent;
+	private volatile long mNotificationsDropped;
+	private volatile long mDisconnects;
+
+	public SimulatedGattTransport(Scheduler scheduler) {
+		mScheduler = scheduler;
+	}
+
+	public SimulatedThermometer addDevice(SimulatedThermometer thermometer) {
+		mDevices.put(thermometer.getAddress(), thermometer);
+		return thermometer;
+	}
+
+	public long getNotificationsSent() {
+		return mNotificationsSent;
+	}
+
+	public long getNotificationsDropped() {
+		return mNotificationsDropped;
+	}
+
+	public long getDisconnects() {
+		return mDisconnects;
+	}
+
+	/**
+	 * Changes the GATT database of {@code address}; a connected client that enabled Service Changed
+	 * indications is told so.
+	 */
+	public void changeServices(String address) {
+		final SimulatedThermometer device = mDevices.get(address);
+		if (device == null) {
+			return;
+		}
+		device.changeServices();
+		final SimulatedSession session = mSessions.get(address);
+		if (session != null) {
+			session.indicateServiceChanged();
+		}
+	}
+
+	@Override
+	public GattSession connect(String address, boolean autoConnect, GattSession.Callback callback) {
+		final SimulatedThermometer device = mDevices.get(address);
+		if (device == null) {
+			return null;
+		}
+		final SimulatedSession session = new SimulatedSession(device, callback);
+		mSessions.put(address, session);
+		session.connect();
+		return session;
+	}
+
+	private class SimulatedSession implements GattSession {
+		private final SimulatedThermometer mDevice;
+		private final GattSession.Callback mCallback;
+
+		// Only touched on the scheduler thread, except the flags written by connect/disconnect/close.
+		private volatile boolean mConnected;
+		private volatile boolean mClosed;
+		private volatile boolean mConnecting;
+		private boolean mNotifying;
+		private boolean mNotificationEnabled;
+		private volatile boolean mServiceChangedEnabled;
+		// Handle of the temperature characteristic as this client knows it, from discovery or a cache.
+		private volatile int mKnownHandle = -1;
+		private volatile long mConnectionIntervalMillis;
+		private volatile int mMtu = ConnectionProfile.DEFAULT_MTU;
+
+		// Batched samples: index of the next sample to send, and a replay through the RACP.
+		private long mBatchCursor = -1;
+		private boolean mBatchNotifying;
+		private boolean mRacpIndicating;
+		private boolean mTransferring;
+		private Scheduler.Cancellable mBatchPump;
+		private final double[] mBatchValues = new double[TemperatureBatch.MAX_SAMPLES];
+		private final byte[] mBatchPayload = new byte[TemperatureBatchCodec.HEADER_SIZE
+				+ TemperatureBatchCodec.BASE_TIME_SIZE + TemperatureBatch.MAX_SAMPLES * 2];
+		private Scheduler.Cancellable mNextNotification;
+
+		SimulatedSession(SimulatedThermometer device, GattSession.Callback callback) {
+			mDevice = device;
+			mCallback = callback;
+			mConnectionIntervalMillis = device.getDefaultConnectionIntervalMillis();
+		}
+
+		@Override
+		public String getAddress() {
+			return mDevice.getAddress();
+		}
+
+		@Override
+		public String getName() {
+			return mDevice.getName();
+		}
+
+		@Override
+		public boolean connect() {
+			if (mClosed) {
+				return false;
+			}
+			mConnecting = true;
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (mClosed || mConnected || !mConnecting) {
+						return;
+					}
+					mConnecting = false;
+					mConnected = true;
+					mCallback.onConnectionStateChange(SimulatedSession.this, GATT_SUCCESS, STATE_CONNECTED);
+				}
+			}, mDevice.getConnectLatencyMillis());
+			return true;
+		}
+
+		@Override
+		public void disconnect() {
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (mConnecting && !mClosed) {
+						// Cancels a pending connection, reported like a disconnect.
+						mConnecting = false;
+						mCallback.onConnectionStateChange(SimulatedSession.this, GATT_SUCCESS, STATE_DISCONNECTED);
+					} else {
+						dropLink();
+					}
+				}
+			}, 0);
+		}
+
+		@Override
+		public void close() {
+			mSessions.remove(mDevice.getAddress(), this);
+			mClosed = true;
+			mConnected = false;
+			stopNotifications();
+			stopBatches();
+		}
+
+		@Override
+		public boolean discoverServices() {
+			if (!mConnected) {
+				return false;
+			}
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (mConnected) {
+						mKnownHandle = mDevice.getTemperatureHandle();
+						mCallback.onServicesDiscovered(SimulatedSession.this, GATT_SUCCESS);
+					}
+				}
+			}, mDevice.getDiscoveryLatencyMillis());
+			return true;
+		}
+
+		@Override
+		public GattLayout getLayout() {
+			if (mKnownHandle < 0) {
+				return null;
+			}
+			final GattLayout layout = new GattLayout().add(TemperatureGattAttributes.SERVICE_GENERIC_ATTRIBUTE_UUID, 1,
+					TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID, 3, 0x20, TemperatureGattAttributes.CCCD);
+			if (mDevice.hasTemperatureService()) {
+				layout.add(TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID, mKnownHandle - 2,
+						TemperatureGattAttributes.CHAR_TEMPERATURE_UUID, mKnownHandle, 0x20,
+						TemperatureGattAttributes.CCCD);
+			}
+			if (mDevice.isBatching()) {
+				layout.add(TemperatureGattAttributes.SERVICE_TEMPERATURE_BATCH_UUID, 0x100,
+						TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID, 0x102, 0x10,
+						TemperatureGattAttributes.CCCD);
+				layout.add(TemperatureGattAttributes.SERVICE_TEMPERATURE_BATCH_UUID, 0x100,
+						TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID, 0x105, 0x28,
+						TemperatureGattAttributes.CCCD);
+			}
+			return layout;
+		}
+
+		@Override
+		public boolean restoreLayout(GattLayout layout) {
+			// Requests go out by handle, a stale one only shows when the device rejects it.
+			final GattLayout.Characteristic c = layout.find(TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID,
+					TemperatureGattAttributes.CHAR_TEMPERATURE_UUID);
+			if (c == null) {
+				return false;
+			}
+			mKnownHandle = c.instanceId;
+			return true;
+		}
+
+		@Override
+		public boolean hasCharacteristic(UUID service, UUID characteristic) {
+			if (mKnownHandle < 0) {
+				return false;
+			}
+			if (TemperatureGattAttributes.SERVICE_GENERIC_ATTRIBUTE_UUID.equals(service)) {
+				return TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID.equals(characteristic);
+			}
+			if (TemperatureGattAttributes.SERVICE_TEMPERATURE_BATCH_UUID.equals(service)) {
+				return mDevice.isBatching()
+						&& (TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID.equals(characteristic)
+						|| TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID.equals(characteristic));
+			}
+			return mDevice.hasTemperatureService() && mKnownHandle == mDevice.getTemperatureHandle()
+					&& TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID.equals(service)
+					&& TemperatureGattAttributes.CHAR_TEMPERATURE_UUID.equals(characteristic);
+		}
+
+		@Override
+		public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+			if (!hasCharacteristic(service, characteristic)) {
+				return false;
+			}
+			if (TemperatureGattAttributes.CHAR_TEMPERATURE_UUID.equals(characteristic)) {
+				mNotificationEnabled = enable;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean readCharacteristic(UUID service, final UUID characteristic) {
+			if (!mConnected || !hasCharacteristic(service, characteristic)) {
+				return false;
+			}
+			respond(new Runnable() {
+				@Override
+				public void run() {
+					if (mDevice.isReadable()) {
+						mCallback.onCharacteristicRead(SimulatedSession.this, characteristic,
+								mDevice.payloadAt(mScheduler.nowMillis()), GATT_SUCCESS);
+					} else {
+						mCallback.onCharacteristicRead(SimulatedSession.this, characteristic, null,
+								GATT_READ_NOT_PERMITTED);
+					}
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean writeCharacteristic(UUID service, final UUID characteristic, byte[] value) {
+			if (!mConnected || !hasCharacteristic(service, characteristic)) {
+				return false;
+			}
+			final byte[] request = value != null ? value.clone() : null;
+			respond(new Runnable() {
+				@Override
+				public void run() {
+					mCallback.onCharacteristicWrite(SimulatedSession.this, characteristic, GATT_SUCCESS);
+					if (TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID.equals(characteristic)) {
+						onRecordAccessRequest(request);
+					}
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean writeDescriptor(UUID service, final UUID characteristic, final UUID descriptor, byte[] value) {
+			if (!mConnected || !hasCharacteristic(service, characteristic)) {
+				return false;
+			}
+			final boolean enable = TemperatureGattAttributes.CCCD.equals(descriptor)
+					&& value != null && value.length > 0 && value[0] != 0;
+			if (TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID.equals(characteristic)
+					|| TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID.equals(characteristic)
+					|| TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID.equals(characteristic)) {
+				respond(new Runnable() {
+					@Override
+					public void run() {
+						if (TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID.equals(characteristic)) {
+							mServiceChangedEnabled = enable;
+						} else if (TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID.equals(characteristic)) {
+							mRacpIndicating = enable;
+						} else if (enable) {
+							startBatches();
+						} else {
+							stopBatches();
+						}
+						mCallback.onDescriptorWrite(SimulatedSession.this, characteristic, descriptor, GATT_SUCCESS);
+					}
+				});
+				return true;
+			}
+			respond(new Runnable() {
+				@Override
+				public void run() {
+					mCallback.onDescriptorWrite(SimulatedSession.this, characteristic, descriptor, GATT_SUCCESS);
+					// A batching device only sends batches.
+					if (enable && mNotificationEnabled && !mDevice.isBatching()) {
+						startNotifications();
+					} else if (!enable) {
+						stopNotifications();
+					}
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean requestMtu(final int mtu) {
+			if (!mConnected) {
+				return false;
+			}
+			respond(new Runnable() {
+				@Override
+				public void run() {
+					mMtu = Math.min(mtu, mDevice.getMaxMtu());
+					mCallback.onMtuChanged(SimulatedSession.this, mMtu, GATT_SUCCESS);
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public boolean requestConnectionPriority(int priority) {
+			if (!mConnected) {
+				return false;
+			}
+			if (mDevice.getDefaultConnectionIntervalMillis() > 0) {
+				mConnectionIntervalMillis = (ConnectionProfile.minIntervalMicros(priority) + 999) / 1000;
+			}
+			return true;
+		}
+
+		// === Batches and stored record replay, on the scheduler thread ===
+
+		private void startBatches() {
+			if (mBatchNotifying) {
+				return;
+			}
+			mBatchNotifying = true;
+			if (mBatchCursor < 0) {
+				mBatchCursor = mDevice.sampleCount(mScheduler.nowMillis());
+			}
+			mBatchPump = mScheduler.schedule(mPumpBatches, packetInterval());
+		}
+
+		private void stopBatches() {
+			mBatchNotifying = false;
+			mTransferring = false;
+			mBatchCursor = -1;
+			if (mBatchPump != null) {
+				mBatchPump.cancel();
+				mBatchPump = null;
+			}
+		}
+
+		// One packet per connection event.
+		private long packetInterval() {
+			return Math.max(1, mConnectionIntervalMillis > 0 ? mConnectionIntervalMillis
+					: mDevice.getResponseLatencyMillis());
+		}
+
+		private void onRecordAccessRequest(byte[] request) {
+			final int start = RecordAccessControlPoint.requestedStart(request);
+			final int opCode = request != null && request.length > 0 ? request[0] & 0xFF : 0;
+			if (start < 0) {
+				indicateRecordAccess(opCode, RecordAccessControlPoint.ResponseCode.OpCodeNotSupported);
+				return;
+			}
+			final long now = mScheduler.nowMillis();
+			final long count = mDevice.sampleCount(now);
+			final long oldest = mDevice.oldestStored(now);
+			long first;
+			if ((request[1] & 0xFF) == RecordAccessControlPoint.Operator.AllRecords) {
+				first = oldest;
+			} else {
+				// Newest stored sample whose 16-bit sequence number is start, or none left.
+				final int ahead = (int) ((start - count) & 0xFFFF);
+				first = ahead == 0 ? count : count - (0x10000 - ahead);
+				first = Math.max(first, oldest);
+			}
+			if (first >= count || !mBatchNotifying) {
+				indicateRecordAccess(opCode, RecordAccessControlPoint.ResponseCode.NoRecordsFound);
+				return;
+			}
+			mBatchCursor = first;
+			mTransferring = true;
+		}
+
+		private void indicateRecordAccess(int opCode, int responseCode) {
+			if (mRacpIndicating) {
+				mCallback.onCharacteristicChanged(this, TemperatureGattAttributes.CHAR_RECORD_ACCESS_CONTROL_POINT_UUID,
+						RecordAccessControlPoint.responseCode(opCode, responseCode));
+			}
+		}
+
+		private final Runnable mPumpBatches = new Runnable() {
+			@Override
+			public void run() {
+				if (!mConnected || !mBatchNotifying) {
+					return;
+				}
+				final long now = mScheduler.nowMillis();
+				final long pending = mDevice.sampleCount(now) - mBatchCursor;
+				if (mTransferring) {
+					// Samples taken during the replay are replayed too, live batches resume once caught up.
+					final int count = (int) Math.min(pending, TemperatureBatchCodec.samplesPerPacket(mMtu, true));
+					if (pending >= mDevice.getBatchSize()) {
+						sendBatch(count, true);
+					} else {
+						mTransferring = false;
+						indicateRecordAccess(RecordAccessControlPoint.OpCode.ReportStoredRecords,
+								RecordAccessControlPoint.ResponseCode.Success);
+					}
+				} else if (pending >= mDevice.getBatchSize()) {
+					final int count = Math.min(mDevice.getBatchSize(), TemperatureBatchCodec.samplesPerPacket(mMtu, false));
+					if (mDevice.shouldDrop()) {
+						mNotificationsDropped++;
+						mBatchCursor += count;
+					} else {
+						sendBatch(count, false);
+					}
+				}
+				mBatchPump = mScheduler.schedule(this, packetInterval());
+			}
+		};
+
+		private void sendBatch(int count, boolean stored) {
+			final long interval = mDevice.getSampleIntervalMillis();
+			for (int i = 0; i < count; i++) {
+				mBatchValues[i] = mDevice.temperatureAt((mBatchCursor + i) * interval);
+			}
+			final int length = TemperatureBatchCodec.encode(mBatchValues, 0, count, mDevice.getUnit(),
+					(int) (mBatchCursor & 0xFFFF), (int) interval, stored, stored ? mDevice.getEpochMillis() + mBatchCursor * interval : -1, -1,
+					mBatchPayload, 0);
+			final byte[] value = new byte[length];
+			System.arraycopy(mBatchPayload, 0, value, 0, length);
+			mBatchCursor += count;
+			mNotificationsSent++;
+			mCallback.onCharacteristicChanged(this, TemperatureGattAttributes.CHAR_TEMPERATURE_BATCH_UUID, value);
+		}
+
+		void indicateServiceChanged() {
+			if (!mServiceChangedEnabled) {
+				return;
+			}
+			respond(new Runnable() {
+				@Override
+				public void run() {
+					// Affected handle range, the whole database.
+					mCallback.onCharacteristicChanged(SimulatedSession.this,
+							TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID,
+							new byte[]{0x01, 0x00, (byte) 0xFF, (byte) 0xFF});
+				}
+			});
+		}
+
+		private void respond(final Runnable response) {
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (mConnected) {
+						response.run();
+					}
+				}
+			}, mDevice.getResponseLatencyMillis());
+		}
+
+		private final Runnable mNotify = new Runnable() {
+			@Override
+			public void run() {
+				if (!mConnected || !mNotifying) {
+					return;
+				}
+				if (mDevice.shouldDisconnect()) {
+					mDisconnects++;
+					dropLink();
+					return;
+				}
+				if (mDevice.shouldDrop()) {
+					mNotificationsDropped++;
+				} else {
+					mNotificationsSent++;
+					mCallback.onCharacteristicChanged(SimulatedSession.this,
+							TemperatureGattAttributes.CHAR_TEMPERATURE_UUID, mDevice.payloadAt(mScheduler.nowMillis()));
+				}
+				mNextNotification = mScheduler.schedule(this, nextInterval());
+			}
+		};
+
+		private long nextInterval() {
+			return Math.max(mDevice.nextInterval(), mConnectionIntervalMillis);
+		}
+
+		private void startNotifications() {
+			if (mNotifying) {
+				return;
+			}
+			mNotifying = true;
+			mNextNotification = mScheduler.schedule(mNotify, nextInterval());
+		}
+
+		private void stopNotifications() {
+			mNotifying = false;
+			if (mNextNotification != null) {
+				mNextNotification.cancel();
+				mNextNotification = null;
+			}
+		}
+
+		private void dropLink() {
+			if (!mConnected) {
+				return;
+			}
+			mConnected = false;
+			stopNotifications();
+			stopBatches();
+			mCallback.onConnectionStateChange(this, GATT_SUCCESS, STATE_DISCONNECTED);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link LeScanner} over simulated advertisers, driven by a {@link Scheduler}. It models what the
+ * controller does for us: an advertising event is only heard inside the profile's scan window,
+ * advertisements not matching the service UUID filter are dropped before reaching the host, and
+ * with a report delay results are handed over in batches. The counters tell how many callbacks
+ * (app wakeups) a profile costs.
+ */
+public class SimulatedLeScanner implements LeScanner {
+	// Advertising events are delayed by a random 0..10 ms to avoid collisions.
+	private static final int ADV_DELAY_MAX_MS = 10;
+
+	private final Scheduler mScheduler;
+	private final int[] mServiceUuid16s;
+	private final List<Integer> mCompanyIds = new ArrayList<>();
+	private final Random mRandom;
+	private final List<Advertiser> mAdvertisers = new ArrayList<>();
+
+	// Scheduler thread, apart from start/stop.
+	private ScanProfile mProfile;
+	private Callback mCallback;
+	private long mScanStartMillis;
+	private List<LeScanResult> mBatch = new ArrayList<>();
+	private Scheduler.Cancellable mBatchFlush;
+	private long mStopFlushDelayMillis;
+
+	private volatile long mAdvertisementsSent;
+	private volatile long mAdvertisementsHeard;
+	private volatile long mAdvertisementsFiltered;
+	private volatile long mResultsDelivered;
+	private volatile long mCallbacks;
+
+	/**
+	 * One simulated advertiser; its record and RSSI can be changed while it advertises.
+	 */
+	public class Advertiser {
+		final String address;
+		final long intervalMillis;
+		volatile byte[] record;
+		volatile int rssi;
+		Scheduler.Cancellable next;
+
+		Advertiser(String address, int rssi, byte[] record, long intervalMillis) {
+			this.address = address;
+			this.rssi = rssi;
+			this.record = record;
+			this.intervalMillis = intervalMillis;
+		}
+
+		public String getAddress() {
+			return address;
+		}
+
+		public void setRecord(byte[] record) {
+			this.record = record;
+		}
+
+		public void setRssi(int rssi) {
+			this.rssi = rssi;
+		}
+
+		final Runnable advertise = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SimulatedLeScanner.this) {
+					if (mCallback == null) {
+						return;
+					}
+					onAdvertisingEvent(Advertiser.this);
+					next = mScheduler.schedule(this, intervalMillis + mRandom.nextInt(ADV_DELAY_MAX_MS + 1));
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param serviceUuid16s hardware filter, an advertisement must list or carry service data for
+	 *                       one of them. None means no filter.
+	 */
+	public SimulatedLeScanner(Scheduler scheduler, long seed, int... serviceUuid16s) {
+		mScheduler = scheduler;
+		mRandom = new Random(seed);
+		mServiceUuid16s = serviceUuid16s;
+	}
+
+	/**
+	 * Also passes advertisements with manufacturer specific data of {@code companyId}.
+	 */
+	public synchronized void addManufacturerFilter(int companyId) {
+		mCompanyIds.add(companyId);
+	}
+
+	public synchronized Advertiser addAdvertiser(String address, int rssi, byte[] record, long intervalMillis) {
+		final Advertiser advertiser = new Advertiser(address, rssi, record, intervalMillis);
+		mAdvertisers.add(advertiser);
+		if (mCallback != null) {
+			startAdvertising(advertiser);
+		}
+		return advertiser;
+	}
+
+	/**
+	 * Delivers the batch pending at {@link #stop()} this long after it returns, like the asynchronous
+	 * flushPendingScanResults() of Android. 0, the default, delivers it before.
+	 */
+	public synchronized SimulatedLeScanner setStopFlushDelay(long delayMillis) {
+		mStopFlushDelayMillis = delayMillis;
+		return this;
+	}
+
+	@Override
+	public synchronized boolean start(ScanProfile profile, Callback callback) {
+		if (mCallback != null) {
+			return false;
+		}
+		mProfile = profile;
+		mCallback = callback;
+		mScanStartMillis = mScheduler.nowMillis();
+		for (Advertiser advertiser : mAdvertisers) {
+			startAdvertising(advertiser);
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (mCallback == null) {
+			return;
+		}
+		for (Advertiser advertiser : mAdvertisers) {
+			if (advertiser.next != null) {
+				advertiser.next.cancel();
+				advertiser.next = null;
+			}
+		}
+		if (mStopFlushDelayMillis > 0 && !mBatch.isEmpty()) {
+			if (mBatchFlush != null) {
+				mBatchFlush.cancel();
+				mBatchFlush = null;
+			}
+			final Callback callback = mCallback;
+			final List<LeScanResult> batch = mBatch;
+			mBatch = new ArrayList<>();
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (SimulatedLeScanner.this) {
+						mResultsDelivered += batch.size();
+						mCallbacks++;
+					}
+					callback.onBatchScanResults(batch);
+				}
+			}, mStopFlushDelayMillis);
+		} else {
+			flushBatch();
+		}
+		mCallback = null;
+	}
+
+	@Override
+	public synchronized boolean isScanning() {
+		return mCallback != null;
+	}
+
+	public long getAdvertisementsSent() {
+		return mAdvertisementsSent;
+	}
+
+	/**
+	 * Advertisements that fell into a scan window.
+	 */
+	public long getAdvertisementsHeard() {
+		return mAdvertisementsHeard;
+	}
+
+	/**
+	 * Heard but dropped by the service UUID filter.
+	 */
+	public long getAdvertisementsFiltered() {
+		return mAdvertisementsFiltered;
+	}
+
+	public long getResultsDelivered() {
+		return mResultsDelivered;
+	}
+
+	/**
+	 * Callback invocations, i.e. app wakeups.
+	 */
+	public long getCallbacks() {
+		return mCallbacks;
+	}
+
+	// Caller holds the lock.
+	private void startAdvertising(Advertiser advertiser) {
+		// Advertisers are not synchronized with each other or with the scanner.
+		advertiser.next = mScheduler.schedule(advertiser.advertise, mRandom.nextInt((int) advertiser.intervalMillis + 1));
+	}
+
+	private void onAdvertisingEvent(Advertiser advertiser) {
+		mAdvertisementsSent++;
+		final long now = mScheduler.nowMillis();
+		if ((now - mScanStartMillis) % mProfile.scanIntervalMillis >= mProfile.scanWindowMillis) {
+			return;
+		}
+		mAdvertisementsHeard++;
+		final byte[] record = advertiser.record;
+		if (!matchesFilter(record)) {
+			mAdvertisementsFiltered++;
+			return;
+		}
+		final LeScanResult result = new LeScanResult(advertiser.address, AdvertisementParser.getLocalName(record),
+				advertiser.rssi, record, now * 1000000L);
+		if (mProfile.reportDelayMillis == 0) {
+			mResultsDelivered++;
+			mCallbacks++;
+			mCallback.onScanResult(result);
+			return;
+		}
+		mBatch.add(result);
+		if (mBatchFlush == null) {
+			mBatchFlush = mScheduler.schedule(mFlushBatch, mProfile.reportDelayMillis);
+		}
+	}
+
+	private final Runnable mFlushBatch = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (SimulatedLeScanner.this) {
+				mBatchFlush = null;
+				if (mCallback != null) {
+					flushBatch();
+				}
+			}
+		}
+	};
+
+	private void flushBatch() {
+		if (mBatchFlush != null) {
+			mBatchFlush.cancel();
+			mBatchFlush = null;
+		}
+		if (mBatch.isEmpty()) {
+			return;
+		}
+		final List<LeScanResult> batch = mBatch;
+		mBatch = new ArrayList<>();
+		mResultsDelivered += batch.size();
+		mCallbacks++;
+		mCallback.onBatchScanResults(batch);
+	}
+
+	boolean matchesFilter(byte[] record) {
+		if (mServiceUuid16s.length == 0 && mCompanyIds.isEmpty()) {
+			return true;
+		}
+		for (int uuid16 : mServiceUuid16s) {
+			if (AdvertisementParser.hasServiceUuid16(record, uuid16)) {
+				return true;
+			}
+		}
+		for (int companyId : mCompanyIds) {
+			if (AdvertisementParser.findManufacturerData(record, companyId) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
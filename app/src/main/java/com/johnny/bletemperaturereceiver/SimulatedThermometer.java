@@ -0,0 +1,296 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.Random;
+
+/**
+ * Behaviour of one simulated Health Thermometer for {@link SimulatedGattTransport}: notification
+ * rate and jitter, radio losses, spontaneous disconnects and a slowly drifting temperature.
+ * All randomness comes from a seeded {@link Random}, so runs are reproducible.
+ */
+public class SimulatedThermometer {
+	private final String mAddress;
+	private final Random mRandom;
+
+	private String mName;
+	private long mIntervalMillis = 1000;
+	private long mJitterMillis;
+	private double mDropProbability;
+	private double mDisconnectProbability;
+	private long mConnectLatencyMillis = 50;
+	private long mResponseLatencyMillis = 10;
+	private long mDiscoveryLatencyMillis = 300;
+	private boolean mHasTemperatureService = true;
+	private boolean mReadable = true;
+	private volatile int mServiceGeneration;
+	private long mDefaultConnectionIntervalMillis;
+	private int mMaxMtu = 247;
+	private int mBatchSize;
+	private int mStorageCapacity = 32768;
+	private long mEpochMillis;
+
+	private double mBaseTemperature = 22.0;
+	private double mAmplitude = 2.0;
+	private long mPeriodMillis = 10 * 60 * 1000;
+	private double mNoise = 0.05;
+	private int mExponent = -2;
+	private int mUnit = TemperatureMeasurement.Unit.Celsius;
+
+	private final TemperatureMeasurement mReading = new TemperatureMeasurement();
+	private final byte[] mPayload;
+
+	public SimulatedThermometer(String address, long seed) {
+		mAddress = address;
+		mName = "SimThermo " + address;
+		mRandom = new Random(seed);
+		mPayload = new byte[TemperatureMeasurementCodec.MIN_SIZE];
+	}
+
+	public String getAddress() {
+		return mAddress;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public SimulatedThermometer setName(String name) {
+		mName = name;
+		return this;
+	}
+
+	/**
+	 * Sets the mean notification rate.
+	 */
+	public SimulatedThermometer setRate(double notificationsPerSecond) {
+		mIntervalMillis = Math.max(1, Math.round(1000.0 / notificationsPerSecond));
+		return this;
+	}
+
+	public long getIntervalMillis() {
+		return mIntervalMillis;
+	}
+
+	/**
+	 * Each interval is randomly shortened or lengthened by up to {@code jitterMillis}.
+	 */
+	public SimulatedThermometer setJitter(long jitterMillis) {
+		mJitterMillis = jitterMillis;
+		return this;
+	}
+
+	/**
+	 * Probability that a notification is lost on air.
+	 */
+	public SimulatedThermometer setDropProbability(double dropProbability) {
+		mDropProbability = dropProbability;
+		return this;
+	}
+
+	/**
+	 * Probability, per notification interval, that the link drops.
+	 */
+	public SimulatedThermometer setDisconnectProbability(double disconnectProbability) {
+		mDisconnectProbability = disconnectProbability;
+		return this;
+	}
+
+	public SimulatedThermometer setLatency(long connectLatencyMillis, long responseLatencyMillis) {
+		mConnectLatencyMillis = connectLatencyMillis;
+		mResponseLatencyMillis = responseLatencyMillis;
+		return this;
+	}
+
+	/**
+	 * Time service discovery takes, several connection events on a real link.
+	 */
+	public SimulatedThermometer setDiscoveryLatency(long discoveryLatencyMillis) {
+		mDiscoveryLatencyMillis = discoveryLatencyMillis;
+		return this;
+	}
+
+	/**
+	 * Models one notification per connection event: notifications are spaced at least one
+	 * connection interval apart. The interval is {@code defaultIntervalMillis} until a connection
+	 * priority is requested; 0 (the default) leaves the rate unlimited.
+	 */
+	public SimulatedThermometer setDefaultConnectionInterval(long defaultIntervalMillis) {
+		mDefaultConnectionIntervalMillis = defaultIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * Largest ATT MTU the device accepts.
+	 */
+	public SimulatedThermometer setMaxMtu(int maxMtu) {
+		mMaxMtu = maxMtu;
+		return this;
+	}
+
+	/**
+	 * Wall clock time of the device at scheduler time 0, put into the base time of stored records.
+	 */
+	public SimulatedThermometer setEpochMillis(long epochMillis) {
+		mEpochMillis = epochMillis;
+		return this;
+	}
+
+	/**
+	 * Sends samples in batches of {@code samplesPerNotification} on the batched temperature
+	 * characteristic instead of one 0x2A1C notification each, and keeps them in storage for replay
+	 * through the Record Access Control Point. The device samples at {@link #setRate(double)} from
+	 * time 0 on, connected or not.
+	 */
+	public SimulatedThermometer setBatching(int samplesPerNotification) {
+		mBatchSize = samplesPerNotification;
+		return this;
+	}
+
+	/**
+	 * Newest samples kept for replay, at most 32768 so sequence numbers stay unambiguous.
+	 */
+	public SimulatedThermometer setStorageCapacity(int samples) {
+		mStorageCapacity = Math.min(samples, 32768);
+		return this;
+	}
+
+	public SimulatedThermometer setHasTemperatureService(boolean hasTemperatureService) {
+		mHasTemperatureService = hasTemperatureService;
+		return this;
+	}
+
+	/**
+	 * Whether 0x2A1C can be read; most thermometers only indicate it.
+	 */
+	public SimulatedThermometer setReadable(boolean readable) {
+		mReadable = readable;
+		return this;
+	}
+
+	/**
+	 * Temperature follows {@code base + amplitude * sin(2 pi t / period)} plus gaussian noise.
+	 */
+	public SimulatedThermometer setSignal(double base, double amplitude, long periodMillis, double noise) {
+		mBaseTemperature = base;
+		mAmplitude = amplitude;
+		mPeriodMillis = periodMillis;
+		mNoise = noise;
+		return this;
+	}
+
+	public SimulatedThermometer setUnit(int unit) {
+		mUnit = unit;
+		return this;
+	}
+
+	long getConnectLatencyMillis() {
+		return mConnectLatencyMillis;
+	}
+
+	long getResponseLatencyMillis() {
+		return mResponseLatencyMillis;
+	}
+
+	long getDefaultConnectionIntervalMillis() {
+		return mDefaultConnectionIntervalMillis;
+	}
+
+	int getMaxMtu() {
+		return mMaxMtu;
+	}
+
+	boolean isBatching() {
+		return mBatchSize > 0;
+	}
+
+	int getBatchSize() {
+		return mBatchSize;
+	}
+
+	/**
+	 * Samples taken up to {@code nowMillis}; sample {@code n} is taken at {@code n * interval}.
+	 */
+	long sampleCount(long nowMillis) {
+		return nowMillis / mIntervalMillis + 1;
+	}
+
+	/**
+	 * First sample still in storage.
+	 */
+	long oldestStored(long nowMillis) {
+		return Math.max(0, sampleCount(nowMillis) - mStorageCapacity);
+	}
+
+	long getEpochMillis() {
+		return mEpochMillis;
+	}
+
+	long getSampleIntervalMillis() {
+		return mIntervalMillis;
+	}
+
+	int getUnit() {
+		return mUnit;
+	}
+
+	long getDiscoveryLatencyMillis() {
+		return mDiscoveryLatencyMillis;
+	}
+
+	boolean hasTemperatureService() {
+		return mHasTemperatureService;
+	}
+
+	boolean isReadable() {
+		return mReadable;
+	}
+
+	/**
+	 * Moves the temperature characteristic to other handles, as a firmware update would.
+	 */
+	void changeServices() {
+		mServiceGeneration++;
+	}
+
+	int getTemperatureHandle() {
+		return 0x0010 + 0x10 * mServiceGeneration;
+	}
+
+	long nextInterval() {
+		if (mJitterMillis <= 0) {
+			return mIntervalMillis;
+		}
+		final long jitter = (long) ((mRandom.nextDouble() * 2 - 1) * mJitterMillis);
+		return Math.max(1, mIntervalMillis + jitter);
+	}
+
+	boolean shouldDrop() {
+		return mDropProbability > 0 && mRandom.nextDouble() < mDropProbability;
+	}
+
+	boolean shouldDisconnect() {
+		return mDisconnectProbability > 0 && mRandom.nextDouble() < mDisconnectProbability;
+	}
+
+	double temperatureAt(long nowMillis) {
+		double value = mBaseTemperature;
+		if (mPeriodMillis > 0) {
+			value += mAmplitude * Math.sin(2 * Math.PI * (nowMillis % mPeriodMillis) / mPeriodMillis);
+		}
+		if (mNoise > 0) {
+			value += mRandom.nextGaussian() * mNoise;
+		}
+		return value;
+	}
+
+	/**
+	 * Encodes the reading at {@code nowMillis} into a buffer owned by this thermometer; the array is
+	 * overwritten by the next call, like {@code BluetoothGattCharacteristic.getValue()}.
+	 */
+	byte[] payloadAt(long nowMillis) {
+		mReading.clear();
+		mReading.unit = mUnit;
+		mReading.value = temperatureAt(nowMillis);
+		TemperatureMeasurementCodec.encode(mReading, mExponent, mPayload, 0);
+		return mPayload;
+	}
+}
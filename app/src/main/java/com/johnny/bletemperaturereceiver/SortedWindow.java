@@ -0,0 +1,94 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * The last {@code size} values in arrival order and sorted, for running medians. Adding shifts at
+ * most {@code size} elements, constant per sample for the small windows filters use.
+ */
+class SortedWindow {
+	private final double[] mRing;
+	private final double[] mSorted;
+	private int mHead;
+	private int mCount;
+
+	SortedWindow(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size " + size);
+		}
+		mRing = new double[size];
+		mSorted = new double[size];
+	}
+
+	void add(double value) {
+		if (mCount == mRing.length) {
+			remove(mRing[mHead]);
+		}
+		mRing[mHead] = value;
+		mHead = (mHead + 1) % mRing.length;
+		int i = mCount++;
+		while (i > 0 && mSorted[i - 1] > value) {
+			mSorted[i] = mSorted[i - 1];
+			i--;
+		}
+		mSorted[i] = value;
+	}
+
+	private void remove(double value) {
+		int i = 0;
+		while (mSorted[i] != value) {
+			i++;
+		}
+		System.arraycopy(mSorted, i + 1, mSorted, i, mCount - i - 1);
+		mCount--;
+	}
+
+	int size() {
+		return mCount;
+	}
+
+	boolean isFull() {
+		return mCount == mRing.length;
+	}
+
+	double median() {
+		return median(mSorted, mCount);
+	}
+
+	/**
+	 * Median of the absolute deviations from {@code center}, computed in {@code scratch} (at least
+	 * {@link #size()} long).
+	 */
+	double medianAbsoluteDeviation(double center, double[] scratch) {
+		// mSorted is sorted, the deviations form two sorted runs around center: merge them.
+		int lo = 0;
+		while (lo < mCount && mSorted[lo] < center) {
+			lo++;
+		}
+		int left = lo - 1;
+		int right = lo;
+		for (int n = 0; n < mCount; n++) {
+			final double l = left >= 0 ? center - mSorted[left] : Double.POSITIVE_INFINITY;
+			final double r = right < mCount ? mSorted[right] - center : Double.POSITIVE_INFINITY;
+			if (l <= r) {
+				scratch[n] = l;
+				left--;
+			} else {
+				scratch[n] = r;
+				right++;
+			}
+		}
+		return median(scratch, mCount);
+	}
+
+	void clear() {
+		mHead = 0;
+		mCount = 0;
+	}
+
+	private static double median(double[] sorted, int count) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		final int mid = count >> 1;
+		return (count & 1) != 0 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+	}
+}
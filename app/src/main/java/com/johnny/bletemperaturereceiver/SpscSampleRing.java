@@ -0,0 +1,185 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free queue of (timestamp, value, flags) samples between one producer and one consumer
+ * thread (the history writer). Several producer threads must serialize their {@link #offer} calls,
+ * as {@link HistoryWriter} does. Samples live in primitive arrays, so offering and draining do not
+ * allocate.
+ * <p>
+ * When the ring is full the {@link Policy} decides: drop the new sample, drop the oldest queued one,
+ * or coalesce, i.e. keep only the latest sample in a side slot until the consumer catches up.
+ */
+public class SpscSampleRing {
+	public static class Policy {
+		public static final int DropNewest = 0;
+		public static final int DropOldest = 1;
+		public static final int Coalesce = 2;
+	}
+
+	public static final int OFFERED = 0;
+	public static final int DROPPED = 1;
+	public static final int COALESCED = 2;
+
+	private final int mMask;
+	private final int mPolicy;
+	private final long[] mTimestamps;
+	private final float[] mValues;
+	private final int[] mFlags;
+
+	// Next slot to read. Advanced by the consumer, and by the producer for DropOldest, always by CAS.
+	private final AtomicLong mHead = new AtomicLong();
+	// Next slot to write, producer only.
+	private final AtomicLong mTail = new AtomicLong();
+
+	// Coalesce side slot, a seqlock: odd while the producer writes it, pending while != mLatestConsumed.
+	// Its fields are volatile so they cannot be reordered around the version updates.
+	private final AtomicLong mLatestVersion = new AtomicLong();
+	private volatile long mLatestConsumed;
+	private volatile long mLatestTimestamp;
+	private volatile float mLatestValue;
+	private volatile int mLatestFlags;
+
+	private final AtomicLong mDropped = new AtomicLong();
+	private final AtomicLong mCoalesced = new AtomicLong();
+
+	/**
+	 * @param capacity rounded up to a power of two.
+	 */
+	public SpscSampleRing(int capacity, int policy) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity " + capacity);
+		}
+		final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		mMask = size - 1;
+		mPolicy = policy;
+		mTimestamps = new long[size];
+		mValues = new float[size];
+		mFlags = new int[size];
+	}
+
+	public int getCapacity() {
+		return mMask + 1;
+	}
+
+	public int getPolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Samples waiting for the consumer, including a coalesced one.
+	 */
+	public int size() {
+		final int size = (int) (mTail.get() - mHead.get());
+		return Math.max(0, size) + (mLatestVersion.get() != mLatestConsumed ? 1 : 0);
+	}
+
+	public long getDroppedCount() {
+		return mDropped.get();
+	}
+
+	public long getCoalescedCount() {
+		return mCoalesced.get();
+	}
+
+	// === Producer ===
+
+	/**
+	 * @return {@link #OFFERED}, {@link #DROPPED} (the new or the oldest sample, depending on the
+	 * policy) or {@link #COALESCED}.
+	 */
+	public int offer(long timestampMillis, float value, int flags) {
+		final long tail = mTail.get();
+		if (mPolicy == Policy.Coalesce) {
+			// Samples queued behind a pending coalesced one would be written before it.
+			if (mLatestVersion.get() != mLatestConsumed || tail - mHead.get() > mMask) {
+				final long version = mLatestVersion.get();
+				mLatestVersion.set(version + 1);
+				mLatestTimestamp = timestampMillis;
+				mLatestValue = value;
+				mLatestFlags = flags;
+				final boolean replaced = version != mLatestConsumed;
+				mLatestVersion.set(version + 2);
+				if (replaced) {
+					mCoalesced.incrementAndGet();
+				}
+				return COALESCED;
+			}
+		} else {
+			long head;
+			while (tail - (head = mHead.get()) > mMask) {
+				if (mPolicy == Policy.DropNewest) {
+					mDropped.incrementAndGet();
+					return DROPPED;
+				}
+				if (mHead.compareAndSet(head, head + 1)) {
+					mDropped.incrementAndGet();
+					write(tail, timestampMillis, value, flags);
+					return DROPPED;
+				}
+			}
+		}
+		write(tail, timestampMillis, value, flags);
+		return OFFERED;
+	}
+
+	private void write(long tail, long timestampMillis, float value, int flags) {
+		final int slot = (int) tail & mMask;
+		mTimestamps[slot] = timestampMillis;
+		mValues[slot] = value;
+		mFlags[slot] = flags;
+		mTail.lazySet(tail + 1);
+	}
+
+	// === Consumer ===
+
+	/**
+	 * Moves up to {@code maxCount} samples, oldest first, into the given arrays.
+	 *
+	 * @return number of samples moved.
+	 */
+	public int drain(long[] timestamps, float[] values, int[] flags, int offset, int maxCount) {
+		// The producer stops using the ring while a coalesced sample is pending, so it follows every
+		// queued sample only if it was pending before the ring was read.
+		final boolean latestPending = mPolicy == Policy.Coalesce && mLatestVersion.get() != mLatestConsumed;
+		int count = 0;
+		while (count < maxCount) {
+			final long head = mHead.get();
+			final int available = (int) Math.min(mTail.get() - head, maxCount - count);
+			if (available <= 0) {
+				break;
+			}
+			for (int i = 0; i < available; i++) {
+				final int slot = (int) (head + i) & mMask;
+				timestamps[offset + count + i] = mTimestamps[slot];
+				values[offset + count + i] = mValues[slot];
+				flags[offset + count + i] = mFlags[slot];
+			}
+			// Fails if the producer dropped the oldest meanwhile; what was read may be overwritten.
+			if (mHead.compareAndSet(head, head + available)) {
+				count += available;
+			}
+		}
+		if (count < maxCount && latestPending) {
+			long version;
+			while ((version = mLatestVersion.get()) != mLatestConsumed) {
+				if ((version & 1) != 0) {
+					continue;
+				}
+				final long timestamp = mLatestTimestamp;
+				final float value = mLatestValue;
+				final int flag = mLatestFlags;
+				if (mLatestVersion.get() == version) {
+					timestamps[offset + count] = timestamp;
+					values[offset + count] = value;
+					flags[offset + count] = flag;
+					count++;
+					mLatestConsumed = version;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,86 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Threshold or rate-of-change alarm with hysteresis: it goes active at {@link #threshold} and only
+ * clears once the value is back by more than {@link #hysteresis}, so a reading hovering around the
+ * threshold does not flap. Immutable; whether it is active is kept per sensor by
+ * {@link SignalProcessor}.
+ */
+public final class TemperatureAlarm {
+
+	public static class Kind {
+		/**
+		 * Filtered value at or above the threshold.
+		 */
+		public static final int Above = 0;
+		/**
+		 * Filtered value at or below the threshold.
+		 */
+		public static final int Below = 1;
+		/**
+		 * Rising at least threshold units per minute.
+		 */
+		public static final int RisingFaster = 2;
+		/**
+		 * Falling at least threshold units per minute.
+		 */
+		public static final int FallingFaster = 3;
+	}
+
+	public final String name;
+	public final int kind;
+	public final double threshold;
+	public final double hysteresis;
+
+	public TemperatureAlarm(String name, int kind, double threshold, double hysteresis) {
+		if (kind < Kind.Above || kind > Kind.FallingFaster || hysteresis < 0
+				|| (kind >= Kind.RisingFaster && threshold <= 0)) {
+			throw new IllegalArgumentException(name + ": kind " + kind + ", threshold " + threshold
+					+ ", hysteresis " + hysteresis);
+		}
+		this.name = name;
+		this.kind = kind;
+		this.threshold = threshold;
+		this.hysteresis = hysteresis;
+	}
+
+	public static TemperatureAlarm above(String name, double threshold, double hysteresis) {
+		return new TemperatureAlarm(name, Kind.Above, threshold, hysteresis);
+	}
+
+	public static TemperatureAlarm below(String name, double threshold, double hysteresis) {
+		return new TemperatureAlarm(name, Kind.Below, threshold, hysteresis);
+	}
+
+	public static TemperatureAlarm risingFaster(String name, double unitsPerMinute, double hysteresis) {
+		return new TemperatureAlarm(name, Kind.RisingFaster, unitsPerMinute, hysteresis);
+	}
+
+	public static TemperatureAlarm fallingFaster(String name, double unitsPerMinute, double hysteresis) {
+		return new TemperatureAlarm(name, Kind.FallingFaster, unitsPerMinute, hysteresis);
+	}
+
+	/**
+	 * @param active whether the alarm was active before this sample.
+	 * @param value  filtered value.
+	 * @param rate   rate of change in units per minute.
+	 * @return whether the alarm is active after this sample.
+	 */
+	public boolean evaluate(boolean active, double value, double rate) {
+		switch (kind) {
+			case Kind.Above:
+				return active ? value > threshold - hysteresis : value >= threshold;
+			case Kind.Below:
+				return active ? value < threshold + hysteresis : value <= threshold;
+			case Kind.RisingFaster:
+				return active ? rate > threshold - hysteresis : rate >= threshold;
+			default:
+				return active ? -rate > threshold - hysteresis : -rate >= threshold;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
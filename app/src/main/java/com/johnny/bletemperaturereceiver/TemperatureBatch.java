@@ -0,0 +1,76 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Mutable holder for the readings of one batched notification, see {@link TemperatureBatchCodec}.
+ * Reused across notifications; only the first {@link #count} entries are valid.
+ */
+public class TemperatureBatch {
+	/**
+	 * Enough for the largest ATT MTU (517).
+	 */
+	public static final int MAX_SAMPLES = 256;
+
+	public int count;
+	public int unit;
+	/**
+	 * Sequence number of the first sample (uint16, wraps), each following sample adds one.
+	 */
+	public int firstSequence;
+	public int intervalMillis;
+	/**
+	 * Replayed from the device's storage after a Record Access Control Point request, not live.
+	 */
+	public boolean stored;
+	/**
+	 * The device sent the time of the first sample; otherwise timestamps were reconstructed
+	 * backwards from the arrival time.
+	 */
+	public boolean hasBaseTime;
+
+	public final long[] timestamps = new long[MAX_SAMPLES];
+	public final double[] values = new double[MAX_SAMPLES];
+	public final int[] valueKinds = new int[MAX_SAMPLES];
+
+	// Scratch for the SFLOAT decoder.
+	final TemperatureMeasurement scratch = new TemperatureMeasurement();
+
+	/**
+	 * Sequence number of the sample after the last one.
+	 */
+	public int nextSequence() {
+		return (firstSequence + count) & 0xFFFF;
+	}
+
+	public long getLastTimestamp() {
+		return count > 0 ? timestamps[count - 1] : 0;
+	}
+
+	/**
+	 * Removes the first {@code n} samples, e.g. ones already received.
+	 */
+	public void dropFirst(int n) {
+		if (n <= 0) {
+			return;
+		}
+		if (n >= count) {
+			firstSequence = nextSequence();
+			count = 0;
+			return;
+		}
+		count -= n;
+		System.arraycopy(timestamps, n, timestamps, 0, count);
+		System.arraycopy(values, n, values, 0, count);
+		System.arraycopy(valueKinds, n, valueKinds, 0, count);
+		firstSequence = (firstSequence + n) & 0xFFFF;
+	}
+
+	/**
+	 * Copies sample {@code index} into {@code out}, for code that handles single measurements.
+	 */
+	public void get(int index, TemperatureMeasurement out) {
+		out.clear();
+		out.unit = unit;
+		out.value = values[index];
+		out.valueKind = valueKinds[index];
+	}
+}
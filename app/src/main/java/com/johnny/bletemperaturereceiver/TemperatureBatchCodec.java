@@ -0,0 +1,143 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Decoder (and encoder) for the batched temperature characteristic of our firmware
+ * ({@link TemperatureGattAttributes#CHAR_TEMPERATURE_BATCH_UUID}): many samples of a fast probe
+ * in one notification, as many as the negotiated MTU allows.
+ * <p>
+ * Layout: flags (uint8), sequence number of the first sample (uint16), sample interval in
+ * milliseconds (uint16), optional base time (uint32 seconds and uint16 milliseconds since the Unix
+ * epoch, time of the first sample), then IEEE 11073 16-bit SFLOAT samples up to the end. All
+ * multi-byte fields are little endian.
+ * <p>
+ * Live batches usually leave out the base time: the last sample is taken as measured when the
+ * notification arrived and the others are spaced by the interval before it. Stored records
+ * replayed through the Record Access Control Point carry it.
+ */
+public final class TemperatureBatchCodec {
+
+	public static final int FLAG_FAHRENHEIT = 0x01;
+	public static final int FLAG_STORED = 0x02;
+	public static final int FLAG_BASE_TIME_PRESENT = 0x04;
+
+	public static final int HEADER_SIZE = 5;
+	public static final int BASE_TIME_SIZE = 6;
+
+	/**
+	 * ATT notification header (opcode and handle), not part of the value.
+	 */
+	public static final int ATT_OVERHEAD = 3;
+
+	private TemperatureBatchCodec() {
+	}
+
+	/**
+	 * Samples one notification carries with the given MTU.
+	 */
+	public static int samplesPerPacket(int mtu, boolean withBaseTime) {
+		final int header = HEADER_SIZE + (withBaseTime ? BASE_TIME_SIZE : 0);
+		return Math.min(TemperatureBatch.MAX_SAMPLES,
+				Math.max(0, (mtu - ATT_OVERHEAD - header) / TemperatureMeasurementCodec.SFLOAT_SIZE));
+	}
+
+	public static boolean decode(byte[] data, long arrivalMillis, TemperatureBatch out) {
+		return data != null && decode(data, 0, data.length, arrivalMillis, out);
+	}
+
+	/**
+	 * @param arrivalMillis receive time, used for batches without a base time.
+	 * @return false if the payload is truncated, holds no sample or too many, or has an odd
+	 * trailing byte; {@code out} is then left in an unspecified state.
+	 */
+	public static boolean decode(byte[] data, int offset, int length, long arrivalMillis, TemperatureBatch out) {
+		if (length < HEADER_SIZE) {
+			return false;
+		}
+		int pos = offset;
+		final int flags = data[pos] & 0xFF;
+		out.unit = (flags & FLAG_FAHRENHEIT) != 0
+				? TemperatureMeasurement.Unit.Fahrenheit : TemperatureMeasurement.Unit.Celsius;
+		out.stored = (flags & FLAG_STORED) != 0;
+		out.hasBaseTime = (flags & FLAG_BASE_TIME_PRESENT) != 0;
+		out.firstSequence = uint16(data, pos + 1);
+		out.intervalMillis = uint16(data, pos + 3);
+		pos += HEADER_SIZE;
+
+		long baseTime = 0;
+		if (out.hasBaseTime) {
+			if (length < HEADER_SIZE + BASE_TIME_SIZE) {
+				return false;
+			}
+			final long seconds = (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8)
+					| ((data[pos + 2] & 0xFF) << 16) | ((long) (data[pos + 3] & 0xFF) << 24);
+			baseTime = seconds * 1000 + uint16(data, pos + 4);
+			pos += BASE_TIME_SIZE;
+		}
+
+		final int sampleBytes = offset + length - pos;
+		final int count = sampleBytes / TemperatureMeasurementCodec.SFLOAT_SIZE;
+		if (count == 0 || count > TemperatureBatch.MAX_SAMPLES
+				|| sampleBytes % TemperatureMeasurementCodec.SFLOAT_SIZE != 0) {
+			return false;
+		}
+		out.count = count;
+		if (!out.hasBaseTime) {
+			baseTime = arrivalMillis - (long) (count - 1) * out.intervalMillis;
+		}
+		final TemperatureMeasurement scratch = out.scratch;
+		for (int i = 0; i < count; i++, pos += TemperatureMeasurementCodec.SFLOAT_SIZE) {
+			TemperatureMeasurementCodec.decodeSFloat(uint16(data, pos), scratch);
+			out.values[i] = scratch.value;
+			out.valueKinds[i] = scratch.valueKind;
+			out.timestamps[i] = baseTime + (long) i * out.intervalMillis;
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes {@code count} samples from {@code values}.
+	 *
+	 * @param baseTimeMillis time of the first sample, or -1 to leave it out.
+	 * @return number of bytes written.
+	 */
+	public static int encode(double[] values, int valuesOffset, int count, int unit, int firstSequence,
+	                         int intervalMillis, boolean stored, long baseTimeMillis, int exponent,
+	                         byte[] out, int offset) {
+		int flags = 0;
+		if (unit == TemperatureMeasurement.Unit.Fahrenheit) {
+			flags |= FLAG_FAHRENHEIT;
+		}
+		if (stored) {
+			flags |= FLAG_STORED;
+		}
+		if (baseTimeMillis >= 0) {
+			flags |= FLAG_BASE_TIME_PRESENT;
+		}
+		int pos = offset;
+		out[pos++] = (byte) flags;
+		pos = writeUint16(out, pos, firstSequence);
+		pos = writeUint16(out, pos, intervalMillis);
+		if (baseTimeMillis >= 0) {
+			final long seconds = baseTimeMillis / 1000;
+			out[pos++] = (byte) seconds;
+			out[pos++] = (byte) (seconds >> 8);
+			out[pos++] = (byte) (seconds >> 16);
+			out[pos++] = (byte) (seconds >> 24);
+			pos = writeUint16(out, pos, (int) (baseTimeMillis % 1000));
+		}
+		for (int i = 0; i < count; i++) {
+			pos = writeUint16(out, pos, TemperatureMeasurementCodec.encodeSFloat(values[valuesOffset + i], exponent));
+		}
+		return pos - offset;
+	}
+
+	private static int uint16(byte[] data, int pos) {
+		return (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8);
+	}
+
+	private static int writeUint16(byte[] data, int pos, int value) {
+		data[pos] = (byte) value;
+		data[pos + 1] = (byte) (value >> 8);
+		return pos + 2;
+	}
+}
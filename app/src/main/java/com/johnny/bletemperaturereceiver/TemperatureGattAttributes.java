@@ -0,0 +1,29 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.UUID;
+
+/**
+ * GATT attributes of the Health Thermometer profile used by this app. Kept free of Android types
+ * so the connection logic can run on a plain JVM.
+ */
+public final class TemperatureGattAttributes {
+	public static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+	public static final UUID SERVICE_TEMPERATURE_UUID = UUID.fromString("00001809-0000-1000-8000-00805F9B34FB");
+	public static final UUID CHAR_TEMPERATURE_UUID = UUID.fromString("00002A1C-0000-1000-8000-00805F9B34FB");
+
+	public static final UUID SERVICE_GENERIC_ATTRIBUTE_UUID = UUID.fromString("00001801-0000-1000-8000-00805F9B34FB");
+	public static final UUID CHAR_SERVICE_CHANGED_UUID = UUID.fromString("00002A05-0000-1000-8000-00805F9B34FB");
+
+	// Batched samples and stored record replay of our firmware.
+	public static final UUID SERVICE_TEMPERATURE_BATCH_UUID = UUID.fromString("9A3E0001-6F1B-4C2D-8E5A-3B7C1D2E4F60");
+	public static final UUID CHAR_TEMPERATURE_BATCH_UUID = UUID.fromString("9A3E0002-6F1B-4C2D-8E5A-3B7C1D2E4F60");
+	public static final UUID CHAR_RECORD_ACCESS_CONTROL_POINT_UUID = UUID.fromString("00002A52-0000-1000-8000-00805F9B34FB");
+
+	public static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+	public static final byte[] ENABLE_INDICATION_VALUE = {0x02, 0x00};
+	public static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+
+	private TemperatureGattAttributes() {
+	}
+}
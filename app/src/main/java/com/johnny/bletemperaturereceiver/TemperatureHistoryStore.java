@@ -0,0 +1,214 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-sensor temperature history, one {@link TemperatureRingFile} per device address in a directory,
+ * with its {@link TemperatureRollups} stored next to it and maintained by {@link #append}. The
+ * rollups keep their own retention, longer than the ring file's.
+ * <p>
+ * A ring file and its rollups are mapped only when a sensor is first written or read.
+ * {@link #setMaxOpen(int)} bounds how many sensors a store holds, e.g. for broadcast mode where
+ * hundreds of sensors may advertise.
+ */
+public class TemperatureHistoryStore implements Closeable {
+	/**
+	 * One week at one sample per second.
+	 */
+	public static final int DEFAULT_CAPACITY = 7 * 24 * 60 * 60;
+
+	private static final String SUFFIX = ".ring";
+
+	private final File mDirectory;
+	private final int mCapacity;
+	private final ConcurrentHashMap<String, TemperatureRingFile> mFiles = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, TemperatureRollups> mRollups = new ConcurrentHashMap<>();
+	private volatile int mMaxOpen = Integer.MAX_VALUE;
+	private volatile long mRollupRetentionMillis = Long.MAX_VALUE;
+
+	/**
+	 * @param capacity records kept per sensor, see {@link TemperatureRingFile#capacityForBytes(long)}.
+	 */
+	public TemperatureHistoryStore(File directory, int capacity) {
+		mDirectory = directory;
+		mCapacity = capacity;
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Sensors whose ring file and rollups may be open at once, further sensors fail with an
+	 * {@link IOException}.
+	 */
+	public TemperatureHistoryStore setMaxOpen(int maxOpen) {
+		mMaxOpen = maxOpen;
+		return this;
+	}
+
+	public int getMaxOpen() {
+		return mMaxOpen;
+	}
+
+	/**
+	 * Time covered by the rollups of sensors opened from now on, see
+	 * {@link TemperatureRollups#open(TemperatureRingFile, long)}.
+	 */
+	public TemperatureHistoryStore setRollupRetention(long retentionMillis) {
+		mRollupRetentionMillis = retentionMillis;
+		return this;
+	}
+
+	public int getOpenCount() {
+		return mFiles.size();
+	}
+
+	public boolean isOpen(String address) {
+		return mFiles.containsKey(address);
+	}
+
+	/**
+	 * Whether {@code address} has a ring file, open or not.
+	 */
+	public boolean hasHistory(String address) {
+		return mFiles.containsKey(address) || new File(mDirectory, fileNameFor(address)).isFile();
+	}
+
+	/**
+	 * Whether {@link #get(String)} would succeed without exceeding {@link #setMaxOpen(int)}.
+	 */
+	public boolean canOpen(String address) {
+		return mFiles.containsKey(address) || mFiles.size() < mMaxOpen;
+	}
+
+	/**
+	 * Returns the ring file of {@code address}, creating it if needed.
+	 *
+	 * @throws IOException also if {@link #setMaxOpen(int)} sensors are open already.
+	 */
+	public TemperatureRingFile get(String address) throws IOException {
+		TemperatureRingFile file = mFiles.get(address);
+		if (file != null) {
+			return file;
+		}
+		synchronized (this) {
+			file = mFiles.get(address);
+			if (file == null) {
+				if (mFiles.size() >= mMaxOpen) {
+					throw new IOException("History of " + mMaxOpen + " sensors open, not opening " + address);
+				}
+				if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+					throw new IOException("Unable to create " + mDirectory);
+				}
+				file = new TemperatureRingFile(new File(mDirectory, fileNameFor(address)), mCapacity);
+				try {
+					mRollups.put(address, TemperatureRollups.open(file, mRollupRetentionMillis));
+				} catch (IOException e) {
+					file.close();
+					throw e;
+				}
+				mFiles.put(address, file);
+			}
+			return file;
+		}
+	}
+
+	/**
+	 * Addresses with stored history, including sensors not seen since the process started.
+	 */
+	public String[] getAddresses() {
+		final String[] names = mDirectory.list();
+		if (names == null) {
+			return new String[0];
+		}
+		int count = 0;
+		final String[] addresses = new String[names.length];
+		for (String name : names) {
+			if (name.endsWith(SUFFIX)) {
+				addresses[count++] = name.substring(0, name.length() - SUFFIX.length()).replace('_', ':');
+			}
+		}
+		final String[] result = new String[count];
+		System.arraycopy(addresses, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Rollups of {@code address}, opening its ring file if needed.
+	 */
+	public TemperatureRollups getRollups(String address) throws IOException {
+		get(address);
+		return mRollups.get(address);
+	}
+
+	/**
+	 * See {@link TemperatureRollups#query(long, long, int, RollupSeries)}.
+	 */
+	public void query(String address, long fromMillis, long toMillis, int maxPoints, RollupSeries out)
+			throws IOException {
+		getRollups(address).query(fromMillis, toMillis, maxPoints, out);
+	}
+
+	public void append(String address, long timestampMillis, float value, int flags) throws IOException {
+		final TemperatureRingFile file = get(address);
+		file.append(timestampMillis, value, flags);
+		mRollups.get(address).add(file.getNewestTimestamp(), value);
+	}
+
+	/**
+	 * Appends {@code count} samples of {@code address} in one ring file commit.
+	 */
+	public void append(String address, long[] timestamps, float[] values, int[] flags, int offset, int count)
+			throws IOException {
+		final TemperatureRingFile file = get(address);
+		// Clamped like the ring file stores them, see TemperatureRingFile#append.
+		long timestamp = file.getNewestTimestamp();
+		file.append(timestamps, values, flags, offset, count);
+		final TemperatureRollups rollups = mRollups.get(address);
+		for (int i = offset, end = offset + count; i < end; i++) {
+			timestamp = Math.max(timestamp, timestamps[i]);
+			rollups.add(timestamp, values[i]);
+		}
+	}
+
+	public void flush() {
+		for (TemperatureRingFile file : mFiles.values()) {
+			file.flush();
+		}
+		for (TemperatureRollups rollups : mRollups.values()) {
+			rollups.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		IOException failure = null;
+		for (TemperatureRingFile file : mFiles.values()) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		for (TemperatureRollups rollups : mRollups.values()) {
+			try {
+				rollups.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		mFiles.clear();
+		mRollups.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	static String fileNameFor(String address) {
+		return address.replace(':', '_') + SUFFIX;
+	}
+}
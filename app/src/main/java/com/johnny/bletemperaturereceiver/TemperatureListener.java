@@ -0,0 +1,15 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Receives temperature readings from {@link BLETemperatureService}, see
+ * {@link BLETemperatureService.LocalBinder#addTemperatureListener(TemperatureListener, java.util.concurrent.Executor)}.
+ */
+public interface TemperatureListener {
+	/**
+	 * @param address         device address the reading came from.
+	 * @param value           temperature, see {@code unit}.
+	 * @param unit            one of {@link TemperatureMeasurement.Unit}.
+	 * @param timestampMillis wall clock time the reading was received.
+	 */
+	void onTemperatureReading(String address, double value, int unit, long timestampMillis);
+}
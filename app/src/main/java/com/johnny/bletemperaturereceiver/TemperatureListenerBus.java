@@ -0,0 +1,160 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * In-process fan-out of temperature readings to {@link TemperatureListener}s.
+ * <p>
+ * Publishing does not allocate once a sensor has been seen. Each listener has at most one delivery
+ * queued on its executor at a time, so readings of a sensor arrive in order; a listener that falls
+ * behind only sees the latest reading of each sensor (intermediate ones are coalesced per address,
+ * a busy sensor never hides another one's reading).
+ */
+public class TemperatureListenerBus {
+
+	private final CopyOnWriteArrayList<Registration> mRegistrations = new CopyOnWriteArrayList<>();
+
+	public void addListener(TemperatureListener listener, Executor executor) {
+		if (listener == null || executor == null) {
+			throw new IllegalArgumentException("listener and executor must not be null");
+		}
+		for (Registration registration : mRegistrations) {
+			if (registration.listener == listener) {
+				return;
+			}
+		}
+		mRegistrations.add(new Registration(listener, executor));
+	}
+
+	public void removeListener(TemperatureListener listener) {
+		for (Registration registration : mRegistrations) {
+			if (registration.listener == listener) {
+				registration.cancel();
+				mRegistrations.remove(registration);
+			}
+		}
+	}
+
+	public boolean hasListeners() {
+		return !mRegistrations.isEmpty();
+	}
+
+	public void publish(String address, double value, int unit, long timestampMillis) {
+		for (Registration registration : mRegistrations) {
+			registration.offer(address, value, unit, timestampMillis);
+		}
+	}
+
+	/**
+	 * Number of readings that were replaced by a newer one before a listener saw them.
+	 */
+	public long getCoalescedCount() {
+		long count = 0;
+		for (Registration registration : mRegistrations) {
+			count += registration.getCoalescedCount();
+		}
+		return count;
+	}
+
+	private static class Registration implements Runnable {
+		final TemperatureListener listener;
+		final Executor executor;
+
+		private final HashMap<String, Slot> mSlots = new HashMap<>();
+		// Addresses with a reading not delivered yet, oldest first.
+		private final ArrayDeque<Slot> mPendingSlots = new ArrayDeque<>();
+
+		private boolean mScheduled;
+		private boolean mCancelled;
+		private long mCoalesced;
+
+		Registration(TemperatureListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		void offer(String address, double value, int unit, long timestampMillis) {
+			synchronized (this) {
+				if (mCancelled) {
+					return;
+				}
+				Slot slot = mSlots.get(address);
+				if (slot == null) {
+					slot = new Slot(address);
+					mSlots.put(address, slot);
+				}
+				if (slot.pending) {
+					mCoalesced++;
+				} else {
+					slot.pending = true;
+					mPendingSlots.add(slot);
+				}
+				slot.value = value;
+				slot.unit = unit;
+				slot.timestampMillis = timestampMillis;
+				if (mScheduled) {
+					return;
+				}
+				mScheduled = true;
+			}
+			executor.execute(this);
+		}
+
+		@Override
+		public void run() {
+			final String address;
+			final double value;
+			final int unit;
+			final long timestampMillis;
+			synchronized (this) {
+				final Slot slot = mPendingSlots.poll();
+				if (mCancelled || slot == null) {
+					mScheduled = false;
+					return;
+				}
+				address = slot.address;
+				value = slot.value;
+				unit = slot.unit;
+				timestampMillis = slot.timestampMillis;
+				slot.pending = false;
+			}
+
+			listener.onTemperatureReading(address, value, unit, timestampMillis);
+
+			synchronized (this) {
+				if (mPendingSlots.isEmpty() || mCancelled) {
+					mScheduled = false;
+					return;
+				}
+			}
+			// More readings are waiting. Re-queue instead of looping so a slow listener on a shared
+			// thread yields between readings.
+			executor.execute(this);
+		}
+
+		synchronized void cancel() {
+			mCancelled = true;
+			mPendingSlots.clear();
+		}
+
+		synchronized long getCoalescedCount() {
+			return mCoalesced;
+		}
+	}
+
+	// Latest undelivered reading of one address, guarded by its Registration.
+	private static class Slot {
+		final String address;
+		double value;
+		int unit;
+		long timestampMillis;
+		boolean pending;
+
+		Slot(String address) {
+			this.address = address;
+		}
+	}
+}
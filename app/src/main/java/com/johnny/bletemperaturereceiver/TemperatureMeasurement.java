@@ -0,0 +1,103 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Mutable holder for one decoded Temperature Measurement (0x2A1C) value.
+ * Instances are meant to be reused across notifications, see {@link TemperatureMeasurementCodec}.
+ */
+public class TemperatureMeasurement {
+
+	public static class Unit {
+		public static final int Celsius = 0;
+		public static final int Fahrenheit = 1;
+	}
+
+	/**
+	 * IEEE 11073-20601 special values. Anything other than {@link #Normal} carries a
+	 * non-finite {@link #value}.
+	 */
+	public static class ValueKind {
+		public static final int Normal = 0;
+		public static final int NaN = 1;
+		public static final int NRes = 2;
+		public static final int PositiveInfinity = 3;
+		public static final int NegativeInfinity = 4;
+		public static final int Reserved = 5;
+	}
+
+	/**
+	 * Temperature Type characteristic (0x2A1D) values.
+	 */
+	public static class Type {
+		public static final int Unknown = 0;
+		public static final int Armpit = 1;
+		public static final int Body = 2;
+		public static final int Ear = 3;
+		public static final int Finger = 4;
+		public static final int GastroIntestinalTract = 5;
+		public static final int Mouth = 6;
+		public static final int Rectum = 7;
+		public static final int Toe = 8;
+		public static final int Tympanum = 9;
+	}
+
+	public int flags;
+
+	public double value;
+	public int valueKind;
+	public int unit;
+
+	public boolean hasTimestamp;
+	public int year;
+	public int month;
+	public int day;
+	public int hours;
+	public int minutes;
+	public int seconds;
+
+	public boolean hasType;
+	public int type;
+
+	public boolean isFahrenheit() {
+		return unit == Unit.Fahrenheit;
+	}
+
+	public boolean isValid() {
+		return valueKind == ValueKind.Normal;
+	}
+
+	public double getCelsius() {
+		return unit == Unit.Fahrenheit ? (value - 32.0) * 5.0 / 9.0 : value;
+	}
+
+	public void clear() {
+		flags = 0;
+		value = 0;
+		valueKind = ValueKind.Normal;
+		unit = Unit.Celsius;
+		hasTimestamp = false;
+		year = 0;
+		month = 0;
+		day = 0;
+		hours = 0;
+		minutes = 0;
+		seconds = 0;
+		hasType = false;
+		type = Type.Unknown;
+	}
+
+	public void copyFrom(TemperatureMeasurement other) {
+		flags = other.flags;
+		value = other.value;
+		valueKind = other.valueKind;
+		unit = other.unit;
+		hasTimestamp = other.hasTimestamp;
+		year = other.year;
+		month = other.month;
+		day = other.day;
+		hours = other.hours;
+		minutes = other.minutes;
+		seconds = other.seconds;
+		hasType = other.hasType;
+		type = other.type;
+	}
+}
@@ -0,0 +1,270 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Decoder (and encoder) for the Health Thermometer Temperature Measurement characteristic (0x2A1C).
+ * <p>
+ * Layout: flags (uint8), temperature (IEEE 11073 32-bit FLOAT), optional Date Time (7 bytes),
+ * optional Temperature Type (uint8). All multi-byte fields are little endian.
+ * <p>
+ * Pure Java and allocation free: results are written into a caller supplied
+ * {@link TemperatureMeasurement}.
+ */
+public final class TemperatureMeasurementCodec {
+
+	public static final int FLAG_FAHRENHEIT = 0x01;
+	public static final int FLAG_TIMESTAMP_PRESENT = 0x02;
+	public static final int FLAG_TYPE_PRESENT = 0x04;
+
+	public static final int FLOAT_SIZE = 4;
+	public static final int SFLOAT_SIZE = 2;
+	public static final int TIMESTAMP_SIZE = 7;
+	public static final int MIN_SIZE = 1 + FLOAT_SIZE;
+	public static final int MAX_SIZE = MIN_SIZE + TIMESTAMP_SIZE + 1;
+
+	// IEEE 11073 32-bit FLOAT special mantissas
+	private static final int FLOAT_NAN = 0x007FFFFF;
+	private static final int FLOAT_NRES = 0x00800000;
+	private static final int FLOAT_POSITIVE_INFINITY = 0x007FFFFE;
+	private static final int FLOAT_NEGATIVE_INFINITY = 0x00800002;
+	private static final int FLOAT_RESERVED = 0x00800001;
+
+	// IEEE 11073 16-bit SFLOAT special mantissas
+	private static final int SFLOAT_NAN = 0x07FF;
+	private static final int SFLOAT_NRES = 0x0800;
+	private static final int SFLOAT_POSITIVE_INFINITY = 0x07FE;
+	private static final int SFLOAT_NEGATIVE_INFINITY = 0x0802;
+	private static final int SFLOAT_RESERVED = 0x0801;
+
+	// 10^0 .. 10^128, enough for every 8-bit exponent
+	private static final double[] POW10 = new double[129];
+
+	static {
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10.0;
+		}
+	}
+
+	private TemperatureMeasurementCodec() {
+	}
+
+	/**
+	 * Decodes a whole 0x2A1C payload.
+	 *
+	 * @return false if the payload is truncated, {@code out} is then left in an unspecified state.
+	 */
+	public static boolean decode(byte[] data, TemperatureMeasurement out) {
+		return data != null && decode(data, 0, data.length, out);
+	}
+
+	/**
+	 * Size of a payload with the given flags.
+	 */
+	public static int lengthOf(int flags) {
+		return MIN_SIZE + ((flags & FLAG_TIMESTAMP_PRESENT) != 0 ? TIMESTAMP_SIZE : 0)
+				+ ((flags & FLAG_TYPE_PRESENT) != 0 ? 1 : 0);
+	}
+
+	public static boolean decode(byte[] data, int offset, int length, TemperatureMeasurement out) {
+		if (length < MIN_SIZE) {
+			return false;
+		}
+		final int end = offset + length;
+		int pos = offset;
+
+		final int flags = data[pos++] & 0xFF;
+		out.flags = flags;
+		out.unit = (flags & FLAG_FAHRENHEIT) != 0
+				? TemperatureMeasurement.Unit.Fahrenheit : TemperatureMeasurement.Unit.Celsius;
+
+		decodeFloat(readInt32(data, pos), out);
+		pos += FLOAT_SIZE;
+
+		out.hasTimestamp = (flags & FLAG_TIMESTAMP_PRESENT) != 0;
+		if (out.hasTimestamp) {
+			if (pos + TIMESTAMP_SIZE > end) {
+				return false;
+			}
+			out.year = (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8);
+			out.month = data[pos + 2] & 0xFF;
+			out.day = data[pos + 3] & 0xFF;
+			out.hours = data[pos + 4] & 0xFF;
+			out.minutes = data[pos + 5] & 0xFF;
+			out.seconds = data[pos + 6] & 0xFF;
+			pos += TIMESTAMP_SIZE;
+		} else {
+			out.year = 0;
+			out.month = 0;
+			out.day = 0;
+			out.hours = 0;
+			out.minutes = 0;
+			out.seconds = 0;
+		}
+
+		out.hasType = (flags & FLAG_TYPE_PRESENT) != 0;
+		if (out.hasType) {
+			if (pos >= end) {
+				return false;
+			}
+			out.type = data[pos] & 0xFF;
+		} else {
+			out.type = TemperatureMeasurement.Type.Unknown;
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a raw IEEE 11073 32-bit FLOAT (8-bit signed exponent, 24-bit signed mantissa)
+	 * into {@code out.value} and {@code out.valueKind}.
+	 */
+	public static void decodeFloat(int raw, TemperatureMeasurement out) {
+		final int mantissa = raw & 0x00FFFFFF;
+		switch (mantissa) {
+			case FLOAT_NAN:
+				setSpecial(out, TemperatureMeasurement.ValueKind.NaN, Double.NaN);
+				return;
+			case FLOAT_NRES:
+				setSpecial(out, TemperatureMeasurement.ValueKind.NRes, Double.NaN);
+				return;
+			case FLOAT_POSITIVE_INFINITY:
+				setSpecial(out, TemperatureMeasurement.ValueKind.PositiveInfinity, Double.POSITIVE_INFINITY);
+				return;
+			case FLOAT_NEGATIVE_INFINITY:
+				setSpecial(out, TemperatureMeasurement.ValueKind.NegativeInfinity, Double.NEGATIVE_INFINITY);
+				return;
+			case FLOAT_RESERVED:
+				setSpecial(out, TemperatureMeasurement.ValueKind.Reserved, Double.NaN);
+				return;
+		}
+		out.valueKind = TemperatureMeasurement.ValueKind.Normal;
+		out.value = scale((mantissa << 8) >> 8, raw >> 24);
+	}
+
+	/**
+	 * Decodes a raw IEEE 11073 16-bit SFLOAT (4-bit signed exponent, 12-bit signed mantissa)
+	 * into {@code out.value} and {@code out.valueKind}.
+	 */
+	public static void decodeSFloat(int raw, TemperatureMeasurement out) {
+		final int mantissa = raw & 0x0FFF;
+		switch (mantissa) {
+			case SFLOAT_NAN:
+				setSpecial(out, TemperatureMeasurement.ValueKind.NaN, Double.NaN);
+				return;
+			case SFLOAT_NRES:
+				setSpecial(out, TemperatureMeasurement.ValueKind.NRes, Double.NaN);
+				return;
+			case SFLOAT_POSITIVE_INFINITY:
+				setSpecial(out, TemperatureMeasurement.ValueKind.PositiveInfinity, Double.POSITIVE_INFINITY);
+				return;
+			case SFLOAT_NEGATIVE_INFINITY:
+				setSpecial(out, TemperatureMeasurement.ValueKind.NegativeInfinity, Double.NEGATIVE_INFINITY);
+				return;
+			case SFLOAT_RESERVED:
+				setSpecial(out, TemperatureMeasurement.ValueKind.Reserved, Double.NaN);
+				return;
+		}
+		out.valueKind = TemperatureMeasurement.ValueKind.Normal;
+		out.value = scale((mantissa << 20) >> 20, (raw << 16) >> 28);
+	}
+
+	/**
+	 * Encodes {@code in} as a 0x2A1C payload. The temperature is written with the given
+	 * decimal exponent (e.g. -2 for two decimals).
+	 *
+	 * @return number of bytes written.
+	 */
+	public static int encode(TemperatureMeasurement in, int exponent, byte[] out, int offset) {
+		int flags = 0;
+		if (in.unit == TemperatureMeasurement.Unit.Fahrenheit) {
+			flags |= FLAG_FAHRENHEIT;
+		}
+		if (in.hasTimestamp) {
+			flags |= FLAG_TIMESTAMP_PRESENT;
+		}
+		if (in.hasType) {
+			flags |= FLAG_TYPE_PRESENT;
+		}
+		int pos = offset;
+		out[pos++] = (byte) flags;
+		writeInt32(out, pos, encodeFloat(in.value, exponent));
+		pos += FLOAT_SIZE;
+		if (in.hasTimestamp) {
+			out[pos++] = (byte) in.year;
+			out[pos++] = (byte) (in.year >> 8);
+			out[pos++] = (byte) in.month;
+			out[pos++] = (byte) in.day;
+			out[pos++] = (byte) in.hours;
+			out[pos++] = (byte) in.minutes;
+			out[pos++] = (byte) in.seconds;
+		}
+		if (in.hasType) {
+			out[pos++] = (byte) in.type;
+		}
+		return pos - offset;
+	}
+
+	/**
+	 * Encodes a value as a raw IEEE 11073 32-bit FLOAT using the given decimal exponent.
+	 * NaN and infinities map to their reserved special values.
+	 */
+	public static int encodeFloat(double value, int exponent) {
+		if (Double.isNaN(value)) {
+			return FLOAT_NAN;
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? FLOAT_POSITIVE_INFINITY : FLOAT_NEGATIVE_INFINITY;
+		}
+		final long mantissa = Math.round(exponent >= 0 ? value / POW10[exponent] : value * POW10[-exponent]);
+		if (mantissa > 0x007FFFFD) {
+			return FLOAT_POSITIVE_INFINITY;
+		}
+		if (mantissa < -0x007FFFFD) {
+			return FLOAT_NEGATIVE_INFINITY;
+		}
+		return (exponent << 24) | ((int) mantissa & 0x00FFFFFF);
+	}
+
+	/**
+	 * Encodes a value as a raw IEEE 11073 16-bit SFLOAT using the given decimal exponent (-8..7).
+	 */
+	public static int encodeSFloat(double value, int exponent) {
+		if (Double.isNaN(value)) {
+			return SFLOAT_NAN;
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? SFLOAT_POSITIVE_INFINITY : SFLOAT_NEGATIVE_INFINITY;
+		}
+		final long mantissa = Math.round(exponent >= 0 ? value / POW10[exponent] : value * POW10[-exponent]);
+		if (mantissa > 0x07FD) {
+			return SFLOAT_POSITIVE_INFINITY;
+		}
+		if (mantissa < -0x07FD) {
+			return SFLOAT_NEGATIVE_INFINITY;
+		}
+		return ((exponent & 0x0F) << 12) | ((int) mantissa & 0x0FFF);
+	}
+
+	private static double scale(int mantissa, int exponent) {
+		// Dividing by an exact power of ten keeps values like 36.5 exact, multiplying by 0.1 does not.
+		return exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+	}
+
+	private static void setSpecial(TemperatureMeasurement out, int kind, double value) {
+		out.valueKind = kind;
+		out.value = value;
+	}
+
+	private static int readInt32(byte[] data, int pos) {
+		return (data[pos] & 0xFF)
+				| ((data[pos + 1] & 0xFF) << 8)
+				| ((data[pos + 2] & 0xFF) << 16)
+				| (data[pos + 3] << 24);
+	}
+
+	private static void writeInt32(byte[] data, int pos, int value) {
+		data[pos] = (byte) value;
+		data[pos + 1] = (byte) (value >> 8);
+		data[pos + 2] = (byte) (value >> 16);
+		data[pos + 3] = (byte) (value >> 24);
+	}
+}
@@ -0,0 +1,319 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed capacity, append-only history of one sensor, stored in a memory-mapped ring file.
+ * <p>
+ * Each record is a timestamp (ms), a float value and int flags. Appends are O(1); once the ring is
+ * full the oldest record is overwritten, so the capacity is the retention. Timestamps are kept
+ * non-decreasing, which lets range queries binary search.
+ * <p>
+ * Crash safety: records are written before the head/count marker, and the marker alternates
+ * between two checksummed header slots, so a torn header write falls back to the previous state.
+ * Once the ring is full, the oldest records are dropped from the marker before their slots are
+ * overwritten, so a crash in between loses them but never exposes new records as the oldest.
+ * Data reaches the disk through the page cache; call {@link #flush()} to force it.
+ */
+public class TemperatureRingFile implements Closeable {
+	static final int MAGIC = 0x544D5052; // "TMPR"
+	static final int VERSION = 1;
+
+	public static final int RECORD_SIZE = 16;
+	static final int HEADER_SIZE = 64;
+	private static final int SLOT_A = 16;
+	private static final int SLOT_B = 40;
+
+	public static final int FLAG_UNIT_MASK = 0xFF;
+	public static final int FLAG_KIND_SHIFT = 8;
+
+	private final File mFile;
+	private final int mCapacity;
+	private final RandomAccessFile mRandomAccessFile;
+	private final MappedByteBuffer mBuffer;
+
+	private long mSequence;
+	private int mHead;
+	private int mCount;
+	private long mLastTimestamp = Long.MIN_VALUE;
+
+	/**
+	 * Opens or creates the ring file. A file with a different layout or capacity is reset.
+	 *
+	 * @param capacity number of records kept.
+	 */
+	public TemperatureRingFile(File file, int capacity) throws IOException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity < 1");
+		}
+		mFile = file;
+		mCapacity = capacity;
+		mRandomAccessFile = new RandomAccessFile(file, "rw");
+		final long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+		mRandomAccessFile.setLength(size);
+		mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (!loadHeader()) {
+			mBuffer.putInt(0, MAGIC);
+			mBuffer.putInt(4, VERSION);
+			mBuffer.putInt(8, RECORD_SIZE);
+			mBuffer.putInt(12, capacity);
+			mSequence = 0;
+			mHead = 0;
+			mCount = 0;
+			writeSlot(SLOT_A, 0, 0, 0);
+			writeSlot(SLOT_B, -1, 0, 0);
+		}
+		if (mCount > 0) {
+			mLastTimestamp = timestampAt(mCount - 1);
+		}
+	}
+
+	/**
+	 * Records needed to keep {@code retentionBytes} of history.
+	 */
+	public static int capacityForBytes(long retentionBytes) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (retentionBytes - HEADER_SIZE) / RECORD_SIZE));
+	}
+
+	public static int packFlags(int unit, int valueKind) {
+		return (unit & FLAG_UNIT_MASK) | (valueKind << FLAG_KIND_SHIFT);
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	public synchronized int getCount() {
+		return mCount;
+	}
+
+	public synchronized long getOldestTimestamp() {
+		return mCount > 0 ? timestampAt(0) : Long.MIN_VALUE;
+	}
+
+	public synchronized long getNewestTimestamp() {
+		return mLastTimestamp;
+	}
+
+	/**
+	 * Appends a record. A timestamp older than the newest stored one is clamped to it.
+	 */
+	public synchronized void append(long timestampMillis, float value, int flags) {
+		reserve(1);
+		put(timestampMillis, value, flags);
+		commit();
+	}
+
+	/**
+	 * Appends {@code count} records with a single head/count commit, plus one before overwriting
+	 * the oldest records of a full ring.
+	 */
+	public synchronized void append(long[] timestamps, float[] values, int[] flags, int offset, int count) {
+		if (count > 0) {
+			appendUncommitted(timestamps, values, flags, offset, count);
+			commit();
+		}
+	}
+
+	/**
+	 * Writes records without committing them, the state a crash in the middle of
+	 * {@link #append(long[], float[], int[], int, int)} leaves behind.
+	 */
+	synchronized void appendUncommitted(long[] timestamps, float[] values, int[] flags, int offset, int count) {
+		reserve(count);
+		for (int i = offset, end = offset + count; i < end; i++) {
+			put(timestamps[i], values[i], flags[i]);
+		}
+	}
+
+	/**
+	 * Logical index (0 = oldest) of the first record with a timestamp at or after {@code timestampMillis},
+	 * {@link #getCount()} if there is none.
+	 */
+	public synchronized int indexOf(long timestampMillis) {
+		int low = 0;
+		int high = mCount;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (timestampAt(mid) < timestampMillis) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Copies records with {@code fromMillis <= timestamp < toMillis} in chronological order into the
+	 * given arrays (any of them may be null).
+	 *
+	 * @return number of records copied, at most {@code maxCount}.
+	 */
+	public synchronized int read(long fromMillis, long toMillis, long[] timestamps, float[] values, int[] flags,
+	                             int offset, int maxCount) {
+		int index = indexOf(fromMillis);
+		int copied = 0;
+		while (index < mCount && copied < maxCount) {
+			final int position = positionOf(index);
+			final long timestamp = mBuffer.getLong(position);
+			if (timestamp >= toMillis) {
+				break;
+			}
+			if (timestamps != null) {
+				timestamps[offset + copied] = timestamp;
+			}
+			if (values != null) {
+				values[offset + copied] = mBuffer.getFloat(position + 8);
+			}
+			if (flags != null) {
+				flags[offset + copied] = mBuffer.getInt(position + 12);
+			}
+			copied++;
+			index++;
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies records by logical index, {@code 0} being the oldest.
+	 *
+	 * @return number of records copied.
+	 */
+	public synchronized int readByIndex(int fromIndex, long[] timestamps, float[] values, int[] flags,
+	                                    int offset, int maxCount) {
+		int copied = 0;
+		for (int index = Math.max(0, fromIndex); index < mCount && copied < maxCount; index++, copied++) {
+			final int position = positionOf(index);
+			if (timestamps != null) {
+				timestamps[offset + copied] = mBuffer.getLong(position);
+			}
+			if (values != null) {
+				values[offset + copied] = mBuffer.getFloat(position + 8);
+			}
+			if (flags != null) {
+				flags[offset + copied] = mBuffer.getInt(position + 12);
+			}
+		}
+		return copied;
+	}
+
+	public synchronized void clear() {
+		mHead = 0;
+		mCount = 0;
+		mLastTimestamp = Long.MIN_VALUE;
+		commit();
+	}
+
+	public synchronized void flush() {
+		mBuffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		mBuffer.force();
+		mRandomAccessFile.close();
+	}
+
+	// === Internals ===
+
+	/**
+	 * Commits the ring without the oldest records that writing {@code records} more will overwrite.
+	 */
+	private void reserve(int records) {
+		final int overwritten = Math.min(mCount, mCount + records - mCapacity);
+		if (overwritten > 0) {
+			mCount -= overwritten;
+			commit();
+		}
+	}
+
+	private void put(long timestampMillis, float value, int flags) {
+		if (timestampMillis < mLastTimestamp) {
+			timestampMillis = mLastTimestamp;
+		}
+		final int position = HEADER_SIZE + mHead * RECORD_SIZE;
+		mBuffer.putLong(position, timestampMillis);
+		mBuffer.putFloat(position + 8, value);
+		mBuffer.putInt(position + 12, flags);
+
+		mHead = mHead + 1 == mCapacity ? 0 : mHead + 1;
+		if (mCount < mCapacity) {
+			mCount++;
+		}
+		mLastTimestamp = timestampMillis;
+	}
+
+	private int positionOf(int logicalIndex) {
+		int physical = mHead - mCount + logicalIndex;
+		if (physical < 0) {
+			physical += mCapacity;
+		} else if (physical >= mCapacity) {
+			physical -= mCapacity;
+		}
+		return HEADER_SIZE + physical * RECORD_SIZE;
+	}
+
+	private long timestampAt(int logicalIndex) {
+		return mBuffer.getLong(positionOf(logicalIndex));
+	}
+
+	private void commit() {
+		mSequence++;
+		writeSlot((mSequence & 1) == 0 ? SLOT_A : SLOT_B, mSequence, mHead, mCount);
+	}
+
+	private void writeSlot(int slot, long sequence, int head, int count) {
+		// Checksum first would let a reader accept a half written slot, so it goes last.
+		mBuffer.putLong(slot, sequence);
+		mBuffer.putInt(slot + 8, head);
+		mBuffer.putInt(slot + 12, count);
+		mBuffer.putLong(slot + 16, checksum(sequence, head, count));
+	}
+
+	private boolean loadHeader() {
+		if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION
+				|| mBuffer.getInt(8) != RECORD_SIZE || mBuffer.getInt(12) != mCapacity) {
+			return false;
+		}
+		boolean found = false;
+		for (int slot : new int[]{SLOT_A, SLOT_B}) {
+			final long sequence = mBuffer.getLong(slot);
+			final int head = mBuffer.getInt(slot + 8);
+			final int count = mBuffer.getInt(slot + 12);
+			if (mBuffer.getLong(slot + 16) != checksum(sequence, head, count)
+					|| head < 0 || head >= mCapacity || count < 0 || count > mCapacity) {
+				continue;
+			}
+			if (!found || sequence > mSequence) {
+				found = true;
+				mSequence = sequence;
+				mHead = head;
+				mCount = count;
+			}
+		}
+		return found;
+	}
+
+	static long checksum(long sequence, int head, int count) {
+		long h = sequence * 0x9E3779B97F4A7C15L ^ (((long) head << 32) | (count & 0xFFFFFFFFL)) ^ MAGIC;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
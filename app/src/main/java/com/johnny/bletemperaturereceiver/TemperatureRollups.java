@@ -0,0 +1,174 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rollups of one sensor at 1 min, 15 min and 1 h resolution, fed sample by sample alongside its
+ * {@link TemperatureRingFile}. Queries return raw samples when they fit the point budget and the
+ * finest rollup that does otherwise, so a week long chart reads a few hundred buckets instead of
+ * every sample. Stored rollups ({@link #open}) outlive the raw samples, up to a year.
+ */
+public class TemperatureRollups implements Closeable {
+	public static final long MINUTE = 60 * 1000L;
+	public static final long HOUR = 60 * MINUTE;
+	public static final long DAY = 24 * HOUR;
+
+	private static final long[] BUCKETS = {MINUTE, 15 * MINUTE, HOUR};
+	private static final long[] SPANS = {7 * DAY, 90 * DAY, 365 * DAY};
+
+	private final TemperatureRingFile mRaw;
+	private final RollupTier[] mTiers;
+
+	/**
+	 * @param raw samples used for queries fine enough to show them unaggregated, may be null.
+	 */
+	public TemperatureRollups(TemperatureRingFile raw) {
+		this(raw, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Tiers of 1 min over a week, 15 min over 90 days and 1 h over a year, each one cut to
+	 * {@code retentionMillis} if shorter: a day takes about 1500 buckets instead of about 27000.
+	 *
+	 * @param raw samples used for queries fine enough to show them unaggregated, may be null.
+	 */
+	public TemperatureRollups(TemperatureRingFile raw, long retentionMillis) {
+		this(raw, new RollupTier[BUCKETS.length]);
+		for (int i = 0; i < BUCKETS.length; i++) {
+			mTiers[i] = new RollupTier(BUCKETS[i], capacity(i, retentionMillis));
+		}
+	}
+
+	/**
+	 * @param tiers ordered from finest to coarsest.
+	 */
+	public TemperatureRollups(TemperatureRingFile raw, RollupTier[] tiers) {
+		mRaw = raw;
+		mTiers = tiers;
+	}
+
+	/**
+	 * The tiers of {@link #TemperatureRollups(TemperatureRingFile, long)} stored in files next to
+	 * {@code raw}'s, opened or created.
+	 */
+	public static TemperatureRollups open(TemperatureRingFile raw, long retentionMillis) throws IOException {
+		final RollupTier[] tiers = new RollupTier[BUCKETS.length];
+		try {
+			for (int i = 0; i < BUCKETS.length; i++) {
+				tiers[i] = RollupTier.open(fileFor(raw.getFile(), BUCKETS[i]), BUCKETS[i], capacity(i, retentionMillis));
+			}
+		} catch (IOException e) {
+			for (RollupTier tier : tiers) {
+				if (tier != null) {
+					tier.close();
+				}
+			}
+			throw e;
+		}
+		return new TemperatureRollups(raw, tiers);
+	}
+
+	/**
+	 * File of the tier of {@code bucketMillis} next to {@code raw}, e.g. {@code AA_BB.ring.15m}.
+	 */
+	static File fileFor(File raw, long bucketMillis) {
+		return new File(raw.getPath() + "." + bucketMillis / MINUTE + "m");
+	}
+
+	private static int capacity(int tier, long retentionMillis) {
+		return (int) Math.max(1, Math.min(SPANS[tier], retentionMillis) / BUCKETS[tier]);
+	}
+
+	public RollupTier[] getTiers() {
+		return mTiers;
+	}
+
+	/**
+	 * Adds a sample to every tier. Values that are not finite (NaN, NRes, infinities) are skipped.
+	 */
+	public synchronized void add(long timestampMillis, float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			return;
+		}
+		for (RollupTier tier : mTiers) {
+			tier.add(timestampMillis, value);
+		}
+	}
+
+	/**
+	 * Fills {@code out} with at most {@code maxPoints} points covering {@code [fromMillis, toMillis)},
+	 * e.g. the chart width in pixels. Uses raw samples if they fit, else the finest tier that fits;
+	 * if even the coarsest tier does not, its buckets are merged.
+	 */
+	public synchronized void query(long fromMillis, long toMillis, int maxPoints, RollupSeries out) {
+		out.clear();
+		if (maxPoints < 1 || toMillis <= fromMillis) {
+			return;
+		}
+		out.ensureCapacity(maxPoints);
+
+		if (mRaw != null) {
+			final int rawCount = mRaw.indexOf(toMillis) - mRaw.indexOf(fromMillis);
+			if (rawCount <= maxPoints && rawCount > 0) {
+				readRaw(fromMillis, toMillis, maxPoints, out);
+				return;
+			}
+		}
+
+		RollupTier tier = mTiers[mTiers.length - 1];
+		int count = tier.count(fromMillis, toMillis);
+		for (RollupTier candidate : mTiers) {
+			final int candidateCount = candidate.count(fromMillis, toMillis);
+			if (candidateCount <= maxPoints) {
+				tier = candidate;
+				count = candidateCount;
+				break;
+			}
+		}
+		final int mergeFactor = (count + maxPoints - 1) / maxPoints;
+		out.resolutionMillis = tier.getBucketMillis() * Math.max(1, mergeFactor);
+		tier.read(fromMillis, toMillis, Math.max(1, mergeFactor), out);
+	}
+
+	public synchronized void clear() {
+		for (RollupTier tier : mTiers) {
+			tier.clear();
+		}
+	}
+
+	public synchronized void flush() {
+		for (RollupTier tier : mTiers) {
+			tier.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		IOException failure = null;
+		for (RollupTier tier : mTiers) {
+			try {
+				tier.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void readRaw(long fromMillis, long toMillis, int maxPoints, RollupSeries out) {
+		out.resolutionMillis = 0;
+		final int size = mRaw.read(fromMillis, toMillis, out.startMillis, out.avg, null, 0, maxPoints);
+		for (int i = 0; i < size; i++) {
+			final float value = out.avg[i];
+			final boolean valid = !Float.isNaN(value) && !Float.isInfinite(value);
+			out.min[i] = value;
+			out.max[i] = value;
+			out.count[i] = valid ? 1 : 0;
+		}
+		out.size = size;
+	}
+}
@@ -0,0 +1,79 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.PriorityQueue;
+
+/**
+ * {@link Scheduler} on a virtual clock. Time only moves in {@link #advance(long)}, which makes
+ * simulations (see {@link SimulatedGattTransport}) deterministic and lets them run faster than
+ * real time. Single threaded.
+ */
+public class VirtualScheduler implements Scheduler {
+
+	private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+	private long mNow;
+	private long mSequence;
+
+	@Override
+	public long nowMillis() {
+		return mNow;
+	}
+
+	@Override
+	public Cancellable schedule(Runnable task, long delayMillis) {
+		Task t = new Task(mNow + Math.max(0, delayMillis), mSequence++, task);
+		mTasks.add(t);
+		return t;
+	}
+
+	/**
+	 * Moves the clock forward, running every task that becomes due in order.
+	 */
+	public void advance(long millis) {
+		final long target = mNow + millis;
+		Task task;
+		while ((task = mTasks.peek()) != null && task.at <= target) {
+			mTasks.poll();
+			mNow = task.at;
+			if (!task.cancelled) {
+				task.runnable.run();
+			}
+		}
+		mNow = target;
+	}
+
+	public int pendingCount() {
+		int count = 0;
+		for (Task task : mTasks) {
+			if (!task.cancelled) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static class Task implements Comparable<Task>, Cancellable {
+		final long at;
+		final long sequence;
+		final Runnable runnable;
+		boolean cancelled;
+
+		Task(long at, long sequence, Runnable runnable) {
+			this.at = at;
+			this.sequence = sequence;
+			this.runnable = runnable;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			if (at != other.at) {
+				return at < other.at ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AdvertisementIngestorTest {
+
+	private final List<String> addresses = new ArrayList<>();
+	private final List<Double> values = new ArrayList<>();
+	private AdvertisementIngestor ingestor;
+
+	@Before
+	public void setUp() throws Exception {
+		ingestor = new AdvertisementIngestor(new AdvertisementIngestor.Listener() {
+			@Override
+			public void onBroadcastMeasurement(String address, String name, int rssi, TemperatureMeasurement measurement) {
+				addresses.add(address);
+				values.add(measurement.value);
+			}
+		});
+	}
+
+	// Service data 0x1809: flags 0, FLOAT 3650 * 10^-2, optional counter
+	static byte[] serviceData(int mantissa, int sequence) {
+		final int length = sequence >= 0 ? 9 : 8;
+		byte[] record = {0x02, 0x01, 0x06,
+				(byte) length, 0x16, 0x09, 0x18, 0x00,
+				(byte) mantissa, (byte) (mantissa >> 8), (byte) (mantissa >> 16), (byte) 0xFE, (byte) sequence};
+		if (sequence < 0) {
+			byte[] shorter = new byte[record.length - 1];
+			System.arraycopy(record, 0, shorter, 0, shorter.length);
+			return shorter;
+		}
+		return record;
+	}
+
+	private static LeScanResult result(String address, byte[] record, long millis) {
+		return new LeScanResult(address, null, -60, record, millis * 1000000L);
+	}
+
+	@Test
+	public void serviceData_decodesMeasurement() throws Exception {
+		assertTrue(ingestor.ingest(result("A", serviceData(3650, -1), 0)));
+		assertEquals(36.5, values.get(0), 1e-9);
+		assertEquals("A", addresses.get(0));
+	}
+
+	@Test
+	public void sequence_dropsRepeatsOfSamePacket() throws Exception {
+		assertTrue(ingestor.ingest(result("A", serviceData(3650, 7), 0)));
+		assertFalse(ingestor.ingest(result("A", serviceData(3650, 7), 100)));
+		// Same temperature, new packet.
+		assertTrue(ingestor.ingest(result("A", serviceData(3650, 8), 200)));
+		// Other device with the same counter.
+		assertTrue(ingestor.ingest(result("B", serviceData(3650, 8), 200)));
+		assertEquals(1, ingestor.getDuplicateCount());
+		assertEquals(2, ingestor.getSourceCount());
+	}
+
+	@Test
+	public void hash_dropsUnchangedPayloadUntilRepeatInterval() throws Exception {
+		ingestor.setRepeatIntervalMillis(1000);
+		assertTrue(ingestor.ingest(result("A", serviceData(3650, -1), 0)));
+		assertFalse(ingestor.ingest(result("A", serviceData(3650, -1), 500)));
+		assertTrue(ingestor.ingest(result("A", serviceData(3651, -1), 600)));
+		assertFalse(ingestor.ingest(result("A", serviceData(3651, -1), 1500)));
+		assertTrue(ingestor.ingest(result("A", serviceData(3651, -1), 1600)));
+		assertEquals(3, values.size());
+	}
+
+	@Test
+	public void manufacturerLayout() throws Exception {
+		ingestor.addManufacturerLayout(new ManufacturerDataLayout(0x0499)
+				.setValue(1, ManufacturerDataLayout.Format.SInt16, 0.005)
+				.setBigEndian(true)
+				.setSequence(0, 1));
+		// company 0x0499, counter 5, -1000 * 0.005
+		byte[] record = {0x06, (byte) 0xFF, (byte) 0x99, 0x04, 0x05, (byte) 0xFC, 0x18};
+		assertTrue(ingestor.ingest(result("A", record, 0)));
+		assertEquals(-5.0, values.get(0), 1e-9);
+		assertFalse(ingestor.ingest(result("A", record, 10)));
+	}
+
+	@Test
+	public void unknownPayloadIsCounted() throws Exception {
+		assertFalse(ingestor.ingest(result("A", AdvertisementParserTest.THERMOMETER, 0)));
+		// Truncated measurement.
+		assertFalse(ingestor.ingest(result("A", new byte[]{0x05, 0x16, 0x09, 0x18, 0x00, 0x01}, 0)));
+		assertEquals(2, ingestor.getUnparsedCount());
+		assertTrue(values.isEmpty());
+	}
+
+	@Test
+	public void hundredsOfSensorsThroughScanner() throws Exception {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		SimulatedLeScanner scanner = new SimulatedLeScanner(scheduler, 3, AdvertisementIngestor.SERVICE_TEMPERATURE_UUID16);
+		for (int i = 0; i < 300; i++) {
+			scanner.addAdvertiser(String.format("00:00:00:00:%02X:%02X", i >> 8, i & 0xFF), -70,
+					serviceData(2000 + i, i & 0xFF), 1000);
+		}
+		assertTrue(scanner.start(ScanProfile.BALANCED, ingestor));
+		scheduler.advance(60000);
+		scanner.stop();
+
+		Set<String> seen = new HashSet<>(addresses);
+		assertEquals(300, seen.size());
+		// Counters never change, every further advertisement is a repeat.
+		assertEquals(300, ingestor.getAcceptedCount());
+		assertEquals(scanner.getResultsDelivered() - 300, ingestor.getDuplicateCount());
+	}
+}
@@ -0,0 +1,59 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdvertisementParserTest {
+
+	// Flags, complete 16-bit UUIDs 0x180F 0x1809, name "Thermo", zero padding
+	static final byte[] THERMOMETER = {
+			0x02, 0x01, 0x06,
+			0x05, 0x03, 0x0F, 0x18, 0x09, 0x18,
+			0x07, 0x09, 'T', 'h', 'e', 'r', 'm', 'o',
+			0x00, 0x00, 0x00};
+
+	// Service data 0x1809 with payload AA BB, manufacturer 0x0059 with payload 01 02 03
+	static final byte[] SERVICE_DATA = {
+			0x02, 0x01, 0x06,
+			0x05, 0x16, 0x09, 0x18, (byte) 0xAA, (byte) 0xBB,
+			0x06, (byte) 0xFF, 0x59, 0x00, 0x01, 0x02, 0x03};
+
+	@Test
+	public void findsServiceUuidInList() throws Exception {
+		assertTrue(AdvertisementParser.hasServiceUuid16(THERMOMETER, 0x1809));
+		assertTrue(AdvertisementParser.hasServiceUuid16(THERMOMETER, 0x180F));
+		assertFalse(AdvertisementParser.hasServiceUuid16(THERMOMETER, 0x180D));
+	}
+
+	@Test
+	public void findsServiceUuidOfServiceData() throws Exception {
+		assertTrue(AdvertisementParser.hasServiceUuid16(SERVICE_DATA, 0x1809));
+		int field = AdvertisementParser.findServiceData16(SERVICE_DATA, 0x1809);
+		assertEquals(3, field);
+		assertEquals(4, AdvertisementParser.valueLength(SERVICE_DATA, field));
+		assertEquals((byte) 0xAA, SERVICE_DATA[AdvertisementParser.valueOffset(field) + 2]);
+	}
+
+	@Test
+	public void findsManufacturerData() throws Exception {
+		int field = AdvertisementParser.findManufacturerData(SERVICE_DATA, 0x0059);
+		assertEquals(9, field);
+		assertEquals(0x01, SERVICE_DATA[AdvertisementParser.valueOffset(field) + 2]);
+		assertEquals(-1, AdvertisementParser.findManufacturerData(SERVICE_DATA, 0x004C));
+	}
+
+	@Test
+	public void localName() throws Exception {
+		assertEquals("Thermo", AdvertisementParser.getLocalName(THERMOMETER));
+		assertNull(AdvertisementParser.getLocalName(SERVICE_DATA));
+	}
+
+	@Test
+	public void malformedRecords() throws Exception {
+		assertEquals(-1, AdvertisementParser.findField(null, AdvertisementParser.TYPE_FLAGS));
+		// Length runs past the end.
+		assertFalse(AdvertisementParser.hasServiceUuid16(new byte[]{0x05, 0x03, 0x09, 0x18}, 0x1809));
+		assertFalse(AdvertisementParser.hasServiceUuid16(new byte[0], 0x1809));
+	}
+}
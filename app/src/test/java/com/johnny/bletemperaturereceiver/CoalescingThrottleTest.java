@@ -0,0 +1,35 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CoalescingThrottleTest {
+
+	@Test
+	public void firstRequestPostsImmediately() throws Exception {
+		CoalescingThrottle throttle = new CoalescingThrottle(1000);
+		assertEquals(CoalescingThrottle.POST_NOW, throttle.onRequest(5));
+	}
+
+	@Test
+	public void requestsWithinIntervalAreCoalesced() throws Exception {
+		CoalescingThrottle throttle = new CoalescingThrottle(1000);
+		throttle.onPosted(100);
+		assertEquals(700, throttle.onRequest(400));
+		assertEquals(CoalescingThrottle.ALREADY_SCHEDULED, throttle.onRequest(500));
+		assertEquals(CoalescingThrottle.ALREADY_SCHEDULED, throttle.onRequest(1000));
+
+		throttle.onPosted(1100);
+		assertEquals(CoalescingThrottle.POST_NOW, throttle.onRequest(2100));
+	}
+
+	@Test
+	public void resetAllowsImmediatePost() throws Exception {
+		CoalescingThrottle throttle = new CoalescingThrottle(1000);
+		throttle.onPosted(100);
+		assertTrue(throttle.onRequest(200) > 0);
+		throttle.reset();
+		assertEquals(CoalescingThrottle.POST_NOW, throttle.onRequest(300));
+	}
+}
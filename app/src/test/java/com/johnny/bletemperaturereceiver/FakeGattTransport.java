@@ -0,0 +1,169 @@
+package com.johnny.bletemperaturereceiver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory {@link GattTransport} for JVM tests. Nothing happens on its own: tests drive the
+ * callbacks through the returned {@link FakeSession}s.
+ */
+public class FakeGattTransport implements GattTransport {
+
+	public final Map<String, FakeSession> sessions = new HashMap<>();
+	public boolean failConnect;
+	public int connectCount;
+	public boolean lastAutoConnect;
+
+	@Override
+	public GattSession connect(String address, boolean autoConnect, GattSession.Callback callback) {
+		connectCount++;
+		lastAutoConnect = autoConnect;
+		if (failConnect) {
+			return null;
+		}
+		FakeSession session = new FakeSession(address, callback);
+		sessions.put(address, session);
+		return session;
+	}
+
+	public static class FakeSession implements GattSession {
+		public final String address;
+		public final GattSession.Callback callback;
+		public final List<String> operations = new ArrayList<>();
+		public boolean hasTemperatureService = true;
+		public boolean closed;
+		public boolean acceptRequests = true;
+		public boolean acceptLayout = true;
+
+		FakeSession(String address, GattSession.Callback callback) {
+			this.address = address;
+			this.callback = callback;
+		}
+
+		public void connected() {
+			callback.onConnectionStateChange(this, GATT_SUCCESS, STATE_CONNECTED);
+		}
+
+		public void disconnected() {
+			callback.onConnectionStateChange(this, GATT_SUCCESS, STATE_DISCONNECTED);
+		}
+
+		public void servicesDiscovered() {
+			callback.onServicesDiscovered(this, GATT_SUCCESS);
+		}
+
+		public void descriptorWritten(int status) {
+			callback.onDescriptorWrite(this, TemperatureGattAttributes.CHAR_TEMPERATURE_UUID,
+					TemperatureGattAttributes.CCCD, status);
+		}
+
+		public void characteristicRead(UUID characteristic, byte[] value, int status) {
+			callback.onCharacteristicRead(this, characteristic, value, status);
+		}
+
+		public void characteristicWritten(UUID characteristic, int status) {
+			callback.onCharacteristicWrite(this, characteristic, status);
+		}
+
+		public void mtuChanged(int mtu, int status) {
+			callback.onMtuChanged(this, mtu, status);
+		}
+
+		public void notify(byte[] value) {
+			callback.onCharacteristicChanged(this, TemperatureGattAttributes.CHAR_TEMPERATURE_UUID, value);
+		}
+
+		@Override
+		public String getAddress() {
+			return address;
+		}
+
+		@Override
+		public String getName() {
+			return "Fake " + address;
+		}
+
+		@Override
+		public boolean connect() {
+			operations.add("connect");
+			return true;
+		}
+
+		@Override
+		public void disconnect() {
+			operations.add("disconnect");
+		}
+
+		@Override
+		public void close() {
+			operations.add("close");
+			closed = true;
+		}
+
+		@Override
+		public boolean discoverServices() {
+			operations.add("discoverServices");
+			return true;
+		}
+
+		@Override
+		public boolean requestMtu(int mtu) {
+			operations.add("requestMtu " + mtu);
+			return acceptRequests;
+		}
+
+		@Override
+		public boolean requestConnectionPriority(int priority) {
+			operations.add("requestConnectionPriority " + priority);
+			return true;
+		}
+
+		@Override
+		public GattLayout getLayout() {
+			final GattLayout layout = new GattLayout();
+			if (hasTemperatureService) {
+				layout.add(TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID, 1,
+						TemperatureGattAttributes.CHAR_TEMPERATURE_UUID, 3, 0x10, TemperatureGattAttributes.CCCD);
+			}
+			return layout;
+		}
+
+		@Override
+		public boolean restoreLayout(GattLayout layout) {
+			operations.add("restoreLayout");
+			return acceptLayout;
+		}
+
+		@Override
+		public boolean hasCharacteristic(UUID service, UUID characteristic) {
+			return hasTemperatureService && TemperatureGattAttributes.CHAR_TEMPERATURE_UUID.equals(characteristic);
+		}
+
+		@Override
+		public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+			operations.add("setCharacteristicNotification");
+			return true;
+		}
+
+		@Override
+		public boolean readCharacteristic(UUID service, UUID characteristic) {
+			operations.add("readCharacteristic");
+			return acceptRequests;
+		}
+
+		@Override
+		public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+			operations.add("writeCharacteristic");
+			return acceptRequests;
+		}
+
+		@Override
+		public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+			operations.add("writeDescriptor");
+			return acceptRequests;
+		}
+	}
+}
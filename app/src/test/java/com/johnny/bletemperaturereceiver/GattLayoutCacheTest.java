@@ -0,0 +1,100 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattLayoutCacheTest {
+
+	private static final UUID SERVICE = TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID;
+	private static final UUID CHARACTERISTIC = TemperatureGattAttributes.CHAR_TEMPERATURE_UUID;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("gatt", "");
+		assertTrue(directory.delete());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static GattLayout layout(int handle) {
+		return new GattLayout()
+				.add(TemperatureGattAttributes.SERVICE_GENERIC_ATTRIBUTE_UUID, 1,
+						TemperatureGattAttributes.CHAR_SERVICE_CHANGED_UUID, 3, 0x20, TemperatureGattAttributes.CCCD)
+				.add(SERVICE, handle - 2, CHARACTERISTIC, handle, 0x20, TemperatureGattAttributes.CCCD)
+				.add(SERVICE, handle - 2, UUID.fromString("00002A1D-0000-1000-8000-00805F9B34FB"), handle + 3, 0x02);
+	}
+
+	@Test
+	public void encodeDecodeRoundTrip() throws Exception {
+		GattLayout decoded = GattLayout.decode(layout(0x20).encode());
+		assertNotNull(decoded);
+		assertEquals(3, decoded.size());
+		GattLayout.Characteristic c = decoded.find(SERVICE, CHARACTERISTIC);
+		assertEquals(0x20, c.instanceId);
+		assertEquals(0x1E, c.serviceInstanceId);
+		assertEquals(0x20, c.properties);
+		assertTrue(c.hasDescriptor(TemperatureGattAttributes.CCCD));
+		assertEquals(0, decoded.get(2).descriptors.length);
+	}
+
+	@Test
+	public void decodeRejectsMalformed() throws Exception {
+		assertNull(GattLayout.decode(null));
+		assertNull(GattLayout.decode(""));
+		assertNull(GattLayout.decode("not\ta\tlayout\n"));
+		String encoded = layout(0x20).encode();
+		assertNull(GattLayout.decode(encoded.replace("00002a1c", "zzzz2a1c")));
+	}
+
+	@Test
+	public void survivesRestartAndInvalidates() throws Exception {
+		GattLayoutCache cache = new GattLayoutCache(directory);
+		assertNull(cache.lookup("AA:BB"));
+		cache.put("AA:BB", layout(0x20));
+		assertNotNull(cache.lookup("AA:BB"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0.5, cache.getHitRate(), 0);
+
+		GattLayoutCache restarted = new GattLayoutCache(directory);
+		GattLayout layout = restarted.lookup("AA:BB");
+		assertNotNull(layout);
+		assertEquals(0x20, layout.find(SERVICE, CHARACTERISTIC).instanceId);
+
+		restarted.invalidate("AA:BB");
+		assertEquals(1, restarted.getInvalidationCount());
+		assertNull(restarted.lookup("AA:BB"));
+		assertNull(new GattLayoutCache(directory).lookup("AA:BB"));
+		restarted.invalidate("AA:BB");
+		assertEquals(1, restarted.getInvalidationCount());
+	}
+
+	@Test
+	public void corruptFileIsAMiss() throws Exception {
+		assertTrue(directory.mkdirs());
+		FileOutputStream out = new FileOutputStream(new File(directory, GattLayoutCache.fileNameFor("AA:BB")));
+		out.write("garbage".getBytes("UTF-8"));
+		out.close();
+		GattLayoutCache cache = new GattLayoutCache(directory);
+		assertNull(cache.lookup("AA:BB"));
+		assertEquals(1, cache.getMissCount());
+	}
+}
@@ -0,0 +1,125 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+
+	private static final UUID SERVICE = TemperatureGattAttributes.SERVICE_TEMPERATURE_UUID;
+	private static final UUID CHAR = TemperatureGattAttributes.CHAR_TEMPERATURE_UUID;
+	private static final UUID OTHER = UUID.fromString("00002A1D-0000-1000-8000-00805F9B34FB");
+	private static final UUID CCCD = TemperatureGattAttributes.CCCD;
+
+	private VirtualScheduler scheduler;
+	private FakeGattTransport.FakeSession session;
+	private LatencyHistogram[] latency;
+	private GattOperationQueue queue;
+
+	@Before
+	public void setUp() {
+		scheduler = new VirtualScheduler();
+		session = (FakeGattTransport.FakeSession) new FakeGattTransport().connect("AA", false, null);
+		latency = GattOperationQueue.newLatencyHistograms();
+		queue = new GattOperationQueue(session, scheduler, latency);
+	}
+
+	@Test
+	public void onlyOneOperationInFlight() throws Exception {
+		GattOperation first = queue.enqueue(GattOperation.writeDescriptor(SERVICE, CHAR, CCCD, new byte[]{1, 0}));
+		GattOperation second = queue.enqueue(GattOperation.read(SERVICE, OTHER));
+		assertEquals(1, session.operations.size());
+		assertEquals("writeDescriptor", session.operations.get(0));
+
+		assertTrue(queue.onDescriptorWrite(CHAR, CCCD, GattSession.GATT_SUCCESS));
+		assertTrue(first.isDone());
+		assertTrue(first.isSuccess());
+		assertEquals("readCharacteristic", session.operations.get(1));
+
+		assertTrue(queue.onCharacteristicRead(OTHER, new byte[]{7}, GattSession.GATT_SUCCESS));
+		assertArrayEquals(new byte[]{7}, second.getValue());
+		assertEquals(0, queue.size());
+		assertEquals(1, latency[GattOperation.Type.WriteDescriptor].getCount());
+		assertEquals(1, latency[GattOperation.Type.ReadCharacteristic].getCount());
+	}
+
+	@Test
+	public void localOperationsCompleteImmediately() throws Exception {
+		GattOperation notification = queue.enqueue(GattOperation.setNotification(SERVICE, CHAR, true));
+		GattOperation write = queue.enqueue(GattOperation.writeDescriptor(SERVICE, CHAR, CCCD, new byte[]{1, 0}));
+		assertTrue(notification.isSuccess());
+		assertFalse(write.isDone());
+		assertEquals("writeDescriptor", session.operations.get(1));
+	}
+
+	@Test
+	public void highPriorityGoesFirst() throws Exception {
+		queue.enqueue(GattOperation.read(SERVICE, CHAR));
+		queue.enqueue(GattOperation.read(SERVICE, OTHER));
+		GattOperation urgent = queue.enqueue(GattOperation.write(SERVICE, OTHER, new byte[]{1})
+				.setPriority(GattOperation.Priority.High));
+
+		queue.onCharacteristicRead(CHAR, null, GattSession.GATT_SUCCESS);
+		assertEquals("writeCharacteristic", session.operations.get(1));
+		queue.onCharacteristicWrite(OTHER, GattSession.GATT_SUCCESS);
+		assertTrue(urgent.isSuccess());
+		assertEquals("readCharacteristic", session.operations.get(2));
+	}
+
+	@Test
+	public void timeoutRetriesThenFails() throws Exception {
+		GattOperation write = queue.enqueue(GattOperation.writeDescriptor(SERVICE, CHAR, CCCD, new byte[]{1, 0})
+				.setTimeout(1000).setMaxRetries(1));
+		GattOperation next = queue.enqueue(GattOperation.read(SERVICE, OTHER));
+
+		scheduler.advance(1000);
+		assertEquals(2, session.operations.size());
+		assertEquals("writeDescriptor", session.operations.get(1));
+		assertFalse(write.isDone());
+
+		scheduler.advance(1000);
+		assertEquals(GattOperation.STATUS_TIMEOUT, write.getStatus());
+		assertEquals(2, write.getAttempts());
+		assertEquals("readCharacteristic", session.operations.get(2));
+		assertFalse(next.isDone());
+		assertEquals(2, queue.getTimeoutCount());
+	}
+
+	@Test
+	public void refusedRequestIsRetried() throws Exception {
+		session.acceptRequests = false;
+		GattOperation read = queue.enqueue(GattOperation.read(SERVICE, CHAR).setMaxRetries(2));
+		scheduler.advance(GattOperationQueue.BUSY_RETRY_DELAY_MS);
+		session.acceptRequests = true;
+		scheduler.advance(GattOperationQueue.BUSY_RETRY_DELAY_MS);
+		assertEquals(3, session.operations.size());
+		assertFalse(read.isDone());
+
+		queue.onCharacteristicRead(CHAR, new byte[0], GattSession.GATT_SUCCESS);
+		assertTrue(read.isSuccess());
+	}
+
+	@Test
+	public void closeCancelsEverything() throws Exception {
+		GattOperation first = queue.enqueue(GattOperation.read(SERVICE, CHAR));
+		GattOperation second = queue.enqueue(GattOperation.read(SERVICE, OTHER));
+		queue.close();
+		assertTrue(first.isCancelled());
+		assertTrue(second.isCancelled());
+		assertEquals(0, scheduler.pendingCount());
+
+		GattOperation late = queue.enqueue(GattOperation.read(SERVICE, CHAR));
+		assertTrue(late.isCancelled());
+	}
+
+	@Test
+	public void unrelatedCallbackIsIgnored() throws Exception {
+		queue.enqueue(GattOperation.read(SERVICE, CHAR));
+		assertFalse(queue.onCharacteristicRead(OTHER, null, GattSession.GATT_SUCCESS));
+		assertFalse(queue.onDescriptorWrite(CHAR, CCCD, GattSession.GATT_SUCCESS));
+		assertEquals(1, queue.size());
+	}
+}
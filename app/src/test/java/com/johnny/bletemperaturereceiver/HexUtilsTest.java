@@ -0,0 +1,35 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HexUtilsTest {
+
+	@Test
+	public void displayHex_matchesFormatOutput() throws Exception {
+		byte[] data = new byte[256];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		StringBuilder expected = new StringBuilder();
+		for (byte b : data) {
+			expected.append(String.format("%02X ", b));
+		}
+		assertEquals(expected.toString(), HexUtils.displayHex(data));
+	}
+
+	@Test
+	public void displayHex_intoBuffer() throws Exception {
+		char[] buffer = new char[16];
+		int written = HexUtils.displayHex(new byte[]{0x00, (byte) 0xAB, 0x7F, 0x10}, 1, 2, buffer, 3);
+		assertEquals(6, written);
+		assertEquals("AB 7F ", new String(buffer, 3, written));
+	}
+
+	@Test
+	public void displayHex_empty() throws Exception {
+		assertEquals("", HexUtils.displayHex(new byte[0]));
+		assertEquals("", HexUtils.displayHex(null));
+	}
+}
@@ -0,0 +1,184 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+public class HistoryBlockCodecTest {
+
+	private static final int CELSIUS = TemperatureRingFile.packFlags(TemperatureMeasurement.Unit.Celsius, 0);
+
+	private final HistoryBlockCodec.Encoder encoder = new HistoryBlockCodec.Encoder();
+	private final HistoryBlockCodec.Decoder decoder = new HistoryBlockCodec.Decoder();
+
+	@Test
+	public void roundTrip_edgeCases() throws Exception {
+		final long[] timestamps = {1000, 2000, 3000, 3000, 2500, 4000, 4001, 4000 + 300000,
+				4000 + 40L * 24 * 3600 * 1000, Long.MAX_VALUE / 2, Long.MIN_VALUE / 2, 0, 1, 2, 3, 4};
+		// On and off the 0.01 grid, the largest steps apart.
+		final float[] values = {21.5f, 21.5f, 21.52f, -0.0f, 0.0f, Float.NaN, Float.POSITIVE_INFINITY,
+				-40.25f, Float.MIN_VALUE, Float.MAX_VALUE, 98.6f, 98.6f, -9999999f, 9999999f, 21.537f, 21.53f};
+		final int[] flags = {CELSIUS, CELSIUS, CELSIUS, 0x201, CELSIUS, CELSIUS, -1, -1, 0, 0, 7, 7, 0, 0, 0, 0};
+		final ByteBuffer buffer = ByteBuffer.allocate(1024);
+		assertTrue(encoder.begin(buffer));
+		for (int i = 0; i < timestamps.length; i++) {
+			assertTrue(encoder.append(timestamps[i], values[i], flags[i]));
+		}
+		final int size = encoder.finish();
+		assertEquals(size, buffer.position());
+
+		buffer.flip();
+		assertTrue(decoder.open(buffer));
+		assertEquals(timestamps.length, decoder.getCount());
+		assertEquals(size, buffer.position());
+		for (int i = 0; i < timestamps.length; i++) {
+			assertTrue(decoder.next());
+			assertEquals(timestamps[i], decoder.getTimestamp());
+			assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decoder.getValue()));
+			assertEquals(flags[i], decoder.getFlags());
+		}
+		assertFalse(decoder.next());
+	}
+
+	@Test
+	public void fullBuffer_startsNextBlock() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(HistoryBlockCodec.HEADER_SIZE + 100);
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final int samples = 10000;
+		int blocks = 0;
+		assertTrue(encoder.begin(buffer));
+		for (int i = 0; i < samples; i++) {
+			// Changes every sample, worst case timestamps.
+			final long timestamp = i * 1000L + (i % 2) * 5000000000L;
+			if (!encoder.append(timestamp, i, i)) {
+				encoder.finish();
+				stream.write(buffer.array(), 0, buffer.position());
+				buffer.clear();
+				blocks++;
+				assertTrue(encoder.begin(buffer));
+				assertTrue(encoder.append(timestamp, i, i));
+			}
+		}
+		encoder.finish();
+		stream.write(buffer.array(), 0, buffer.position());
+		blocks++;
+		assertTrue(blocks > samples / 10);
+
+		final ByteBuffer in = ByteBuffer.wrap(stream.toByteArray());
+		int decoded = 0;
+		while (decoder.open(in)) {
+			while (decoder.next()) {
+				assertEquals(decoded * 1000L + (decoded % 2) * 5000000000L, decoder.getTimestamp());
+				assertEquals(decoded, decoder.getValue(), 0);
+				assertEquals(decoded, decoder.getFlags());
+				decoded++;
+			}
+		}
+		assertEquals(samples, decoded);
+		assertFalse(in.hasRemaining());
+	}
+
+	@Test
+	public void maxSamples_perBlock() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(HistoryBlockCodec.MAX_BLOCK_SIZE);
+		encoder.begin(buffer);
+		for (int i = 0; i < HistoryBlockCodec.MAX_BLOCK_SAMPLES; i++) {
+			assertTrue(encoder.append(i * 1000L, 20, CELSIUS));
+		}
+		assertFalse(encoder.append(0, 20, CELSIUS));
+		// Steady series: one bit of timestamp, value and flags each.
+		assertEquals(HistoryBlockCodec.HEADER_SIZE + 2 + (HistoryBlockCodec.MAX_BLOCK_SAMPLES - 2) * 3 / 8 + 1,
+				encoder.finish());
+		assertEquals(0, encoder.finish());
+	}
+
+	@Test
+	public void partialBlock_waitsForMore() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocate(1024);
+		encoder.begin(buffer);
+		for (int i = 0; i < 100; i++) {
+			encoder.append(i * 1000L + i % 3, 20 + i * 0.01f, CELSIUS);
+		}
+		final int size = encoder.finish();
+		final ByteBuffer partial = ByteBuffer.wrap(buffer.array(), 0, size - 1);
+		assertFalse(decoder.open(partial));
+		assertEquals(0, partial.position());
+
+		buffer.put(4, (byte) 0);
+		buffer.put(5, (byte) 0);
+		buffer.flip();
+		try {
+			decoder.open(buffer);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	// Readings on time: the timestamps cost a bit, the 0.01 degree steps of the noise most of the rest.
+	@Test
+	public void onTimeReadings_compressMoreThanTenfold() throws Exception {
+		final SimulatedThermometer device = new SimulatedThermometer("00:00:00:00:00:01", 1);
+		final TemperatureMeasurement measurement = new TemperatureMeasurement();
+		final ByteBuffer buffer = ByteBuffer.allocate(HistoryBlockCodec.MAX_BLOCK_SIZE);
+		encoder.begin(buffer);
+		long time = 1700000000000L;
+		for (int i = 0; i < HistoryBlockCodec.MAX_BLOCK_SAMPLES; i++) {
+			time += device.nextInterval();
+			assertTrue(TemperatureMeasurementCodec.decode(device.payloadAt(time), measurement));
+			assertTrue(encoder.append(time, (float) measurement.value, CELSIUS));
+		}
+		final double rawRatio = (double) HistoryBlockCodec.MAX_BLOCK_SAMPLES * TemperatureRingFile.RECORD_SIZE
+				/ encoder.finish();
+		assertTrue("ring record ratio " + rawRatio, rawRatio > 12);
+	}
+
+	// A day of one-per-second readings of a simulated thermometer (0.01 degree resolution, noise),
+	// received with some jitter.
+	@Test
+	public void simulatedDay_compresses() throws Exception {
+		final File file = File.createTempFile("history", ".ring");
+		final int samples = 24 * 3600;
+		final TemperatureRingFile ring = new TemperatureRingFile(file, samples);
+		try {
+			final SimulatedThermometer device = new SimulatedThermometer("00:00:00:00:00:01", 1).setJitter(5);
+			final TemperatureMeasurement measurement = new TemperatureMeasurement();
+			long time = 1700000000000L;
+			for (int i = 0; i < samples; i++) {
+				time += device.nextInterval();
+				assertTrue(TemperatureMeasurementCodec.decode(device.payloadAt(time), measurement));
+				ring.append(time, (float) measurement.value, CELSIUS);
+			}
+
+			final ByteArrayOutputStream export = new ByteArrayOutputStream();
+			assertEquals(samples, HistoryExport.write(ring, device.getAddress(), Long.MIN_VALUE, Long.MAX_VALUE,
+					Channels.newChannel(export)));
+			final StringWriter csv = new StringWriter();
+			assertEquals(samples, HistoryExport.toCsv(Channels.newChannel(new ByteArrayInputStream(export.toByteArray())),
+					csv));
+
+			final String[] lines = csv.toString().split("\n");
+			assertEquals(samples + 1, lines.length);
+			assertEquals(HistoryExport.CSV_HEADER, lines[0] + "\n");
+			final long[] timestamps = new long[1];
+			final float[] values = new float[1];
+			ring.readByIndex(samples - 1, timestamps, values, null, 0, 1);
+			assertEquals("00:00:00:00:00:01," + timestamps[0] + "," + values[0] + ",0,0", lines[samples]);
+
+			// About 15 bits per sample, the CSV repeats the address on every line.
+			final double csvRatio = (double) csv.toString().length() / export.size();
+			final double rawRatio = (double) samples * TemperatureRingFile.RECORD_SIZE / export.size();
+			assertTrue("ring record ratio " + rawRatio, rawRatio > 8);
+			assertTrue("csv ratio " + csvRatio, csvRatio > 20);
+		} finally {
+			ring.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class HistoryWriterTest {
+
+	private File directory;
+	private TemperatureHistoryStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("history", "");
+		directory.delete();
+		store = new TemperatureHistoryStore(directory, 10000);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void close_writesQueuedSamples() throws Exception {
+		HistoryWriter writer = new HistoryWriter(store, 1024, SpscSampleRing.Policy.DropNewest, 64, 60000);
+		for (int i = 0; i < 300; i++) {
+			writer.offer("AA", i, i, 0);
+			writer.offer("BB", i, -i, 0);
+		}
+		writer.close();
+
+		assertEquals(600, writer.getWrittenCount());
+		assertEquals(300, store.get("AA").getCount());
+		assertEquals(299, store.get("BB").getNewestTimestamp());
+		assertEquals(0, writer.getQueueDepth());
+	}
+
+	@Test
+	public void flush_writesQueuedSamplesWithoutWaitingForDelay() throws Exception {
+		HistoryWriter writer = new HistoryWriter(store, 1024, SpscSampleRing.Policy.DropNewest, 256, 60000);
+		for (int i = 0; i < 10; i++) {
+			writer.offer("AA", i, i, 0);
+		}
+		writer.offer("BB", 1, 1, 0);
+		writer.flush();
+		assertEquals(11, writer.getWrittenCount());
+		assertEquals(10, store.get("AA").getCount());
+		assertEquals(1, store.get("BB").getCount());
+		assertEquals(0, writer.getQueueDepth());
+
+		writer.flush();
+		writer.offer("AA", 10, 10, 0);
+		writer.flush();
+		assertEquals(11, store.get("AA").getCount());
+		writer.close();
+		writer.flush();
+	}
+
+	@Test
+	public void flushesFullBatchesWithoutWaitingForDelay() throws Exception {
+		HistoryWriter writer = new HistoryWriter(store, 1024, SpscSampleRing.Policy.DropNewest, 16, 60000);
+		for (int i = 0; i < 64; i++) {
+			writer.offer("AA", i, i, 0);
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (store.get("AA").getCount() < 64 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(64, store.get("AA").getCount());
+		assertEquals(16, writer.getBatchSizes().getMax());
+		assertTrue(writer.getFlushLatency().getCount() >= 4);
+		writer.close();
+	}
+
+	@Test
+	public void flushesPartialBatchAfterDelay() throws Exception {
+		HistoryWriter writer = new HistoryWriter(store, 1024, SpscSampleRing.Policy.DropNewest, 256, 20);
+		writer.offer("AA", 1, 1, 0);
+		writer.offer("AA", 2, 2, 0);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (store.get("AA").getCount() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		// The batch size is recorded after the append, stop the writer before reading it.
+		writer.close();
+		assertEquals(2, store.get("AA").getCount());
+		assertEquals(1, writer.getBatchSizes().getCount());
+	}
+
+	@Test
+	public void fullRingAppliesPolicy() throws Exception {
+		// Batches only on close, so the ring fills up.
+		HistoryWriter writer = new HistoryWriter(store, 8, SpscSampleRing.Policy.DropOldest, 64, 60000);
+		for (int i = 0; i < 20; i++) {
+			writer.offer("AA", i, i, 0);
+		}
+		writer.close();
+		assertEquals(12, writer.getDroppedCount());
+		assertEquals(8, store.get("AA").getCount());
+		assertEquals(12, store.get("AA").getOldestTimestamp());
+	}
+
+	// GATT callbacks, the advertisement scan and the poller may all offer samples of one device.
+	@Test
+	public void concurrentProducersOfOneDevice() throws Exception {
+		final HistoryWriter writer = new HistoryWriter(store, 64, SpscSampleRing.Policy.DropNewest, 16, 1);
+		final int producers = 4;
+		final int samples = 50000;
+		final Thread[] threads = new Thread[producers];
+		for (int t = 0; t < producers; t++) {
+			final int producer = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < samples; i++) {
+						while (writer.offer("AA", producer * samples + i, producer, 0) == SpscSampleRing.DROPPED) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		writer.close();
+
+		assertEquals(producers * samples, writer.getWrittenCount());
+	}
+}
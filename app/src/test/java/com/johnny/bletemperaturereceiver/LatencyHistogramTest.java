@@ -0,0 +1,46 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentilesWithinBucketPrecision() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 1e-9);
+
+		long p50 = histogram.getValueAtPercentile(50);
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue("p50 " + p50, p50 >= 500 && p50 <= 500 * 1.07);
+		assertTrue("p99 " + p99, p99 >= 990 && p99 <= 1000);
+		assertEquals(1000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void bucketBoundsCoverIndex() throws Exception {
+		long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE};
+		for (long value : values) {
+			int index = LatencyHistogram.indexFor(value);
+			assertTrue("value " + value, LatencyHistogram.upperBoundOf(index) >= value);
+			if (index > 0) {
+				assertTrue("value " + value, LatencyHistogram.upperBoundOf(index - 1) < value);
+			}
+		}
+	}
+
+	@Test
+	public void reset() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(42);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+}
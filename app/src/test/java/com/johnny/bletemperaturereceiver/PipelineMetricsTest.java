@@ -0,0 +1,82 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+	@Test
+	public void stagesAndCountersPerDevice() throws Exception {
+		PipelineMetrics metrics = new PipelineMetrics();
+		PipelineMetrics.Sensor sensor = metrics.sensor("AA");
+		assertSame(sensor, metrics.sensor("AA"));
+		for (int i = 0; i < 100; i++) {
+			sensor.onNotification(System.nanoTime());
+			sensor.onSamples(4);
+			sensor.record(PipelineMetrics.Stage.Decode, 0, (i + 1) * 1000L);
+		}
+		sensor.onDrop(3);
+		long start = System.nanoTime();
+		metrics.onPublished(sensor, start);
+		metrics.onRendered("AA", System.nanoTime());
+		metrics.onRendered("BB", System.nanoTime());
+
+		List<PipelineMetrics.SensorSnapshot> snapshots = metrics.snapshot();
+		assertEquals(1, snapshots.size());
+		PipelineMetrics.SensorSnapshot snapshot = snapshots.get(0);
+		assertEquals("AA", snapshot.address);
+		assertEquals(100, snapshot.notifications);
+		assertEquals(400, snapshot.samples);
+		assertEquals(3, snapshot.drops);
+		assertTrue(snapshot.notificationsPerSecond > 0);
+		PipelineMetrics.StageSnapshot decode = snapshot.stages[PipelineMetrics.Stage.Decode];
+		assertEquals(100, decode.count);
+		assertEquals(50, decode.p50Micros, 50 * 0.07);
+		assertEquals(99, decode.p99Micros, 99 * 0.07);
+		assertEquals(100, decode.maxMicros);
+		assertEquals(1, snapshot.stages[PipelineMetrics.Stage.FanOut].count);
+		assertEquals(1, snapshot.stages[PipelineMetrics.Stage.Delivery].count);
+		assertEquals(1, snapshot.stages[PipelineMetrics.Stage.EndToEnd].count);
+		assertTrue(snapshot.toString().contains("decode p50 "));
+		assertFalse(snapshot.toString().contains("filter"));
+
+		// Rates only cover the time since the previous snapshot.
+		assertEquals(0, metrics.snapshot().get(0).notificationsPerSecond, 0);
+	}
+
+	@Test
+	public void disabledRecordsNothing() throws Exception {
+		PipelineMetrics metrics = new PipelineMetrics();
+		metrics.setEnabled(false);
+		assertNull(metrics.sensor("AA"));
+		metrics.onRendered("AA", System.nanoTime());
+		assertTrue(metrics.snapshot().isEmpty());
+	}
+
+	@Test
+	public void reporterWritesPeriodically() throws Exception {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		PipelineMetrics metrics = new PipelineMetrics();
+		metrics.sensor("AA").onNotification(System.nanoTime());
+		metrics.sensor("BB").onNotification(System.nanoTime());
+		final List<String> lines = new ArrayList<>();
+		PipelineMetricsReporter reporter = new PipelineMetricsReporter(metrics, scheduler,
+				new PipelineMetricsReporter.Sink() {
+					@Override
+					public void write(String line) {
+						lines.add(line);
+					}
+				});
+		reporter.start(10000);
+		scheduler.advance(35000);
+		assertEquals(6, lines.size());
+		reporter.stop();
+		assertFalse(reporter.isRunning());
+		scheduler.advance(35000);
+		assertEquals(6, lines.size());
+	}
+}
@@ -0,0 +1,318 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PollSchedulerTest {
+
+	private static final long MINUTE = 60 * 1000;
+
+	private VirtualScheduler scheduler;
+	private FakePoller poller;
+	private PollScheduler polls;
+
+	// Completes every poll after a fixed latency unless told to hang.
+	private class FakePoller implements PollScheduler.Poller {
+		long latencyMillis = 500;
+		boolean hang;
+		int active;
+		int maxActive;
+		final List<String> started = new ArrayList<>();
+		final List<String> cancelled = new ArrayList<>();
+		final HashMap<String, PollScheduler.Completion> pending = new HashMap<>();
+
+		@Override
+		public void poll(final String address, final PollScheduler.Completion completion) {
+			started.add(address);
+			pending.put(address, completion);
+			maxActive = Math.max(maxActive, ++active);
+			if (hang) {
+				return;
+			}
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (pending.remove(address) == completion) {
+						active--;
+						completion.onPollComplete(address, true);
+					}
+				}
+			}, latencyMillis);
+		}
+
+		@Override
+		public void cancel(String address) {
+			cancelled.add(address);
+			if (pending.remove(address) != null) {
+				active--;
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		scheduler = new VirtualScheduler();
+		poller = new FakePoller();
+		polls = new PollScheduler(scheduler, poller);
+	}
+
+	@Test
+	public void overlappingWindows_shareWakeups() throws Exception {
+		polls.addSensor("A", MINUTE, 15000);
+		polls.start();
+		scheduler.advance(5000);
+		polls.addSensor("B", MINUTE, 15000);
+		scheduler.advance(1000);
+		assertEquals(2, polls.getWakeupCount());
+
+		// B is due at 65 s, inside A's window (60..75 s): both read at 65 s, then always together.
+		scheduler.advance(10 * MINUTE);
+		assertEquals(12, polls.getWakeupCount());
+		assertEquals(11, polls.getPollCount("A"));
+		assertEquals(11, polls.getPollCount("B"));
+		assertEquals(22, polls.getPollCount());
+		// One 500 ms poll window per wakeup, not per sensor.
+		assertEquals(12 * 500, polls.getRadioOnMillis());
+		assertEquals(2, poller.maxActive);
+	}
+
+	@Test
+	public void separateWindows_separateWakeups() throws Exception {
+		polls.addSensor("A", MINUTE, 0);
+		polls.start();
+		scheduler.advance(5000);
+		polls.addSensor("B", MINUTE, 0);
+
+		scheduler.advance(10 * MINUTE);
+		assertEquals(poller.started.size(), polls.getWakeupCount());
+		assertEquals(1, poller.maxActive);
+	}
+
+	@Test
+	public void wakeup_atLatestDueOfGroup() throws Exception {
+		final List<Long> wakeups = new ArrayList<>();
+		polls.setListener(new PollScheduler.Listener() {
+			@Override
+			public void onWakeupScheduled(long atMillis) {
+				wakeups.add(atMillis);
+			}
+
+			@Override
+			public void onPollingChanged(boolean polling) {
+			}
+		});
+		polls.addSensor("A", MINUTE, 20000);
+		polls.addSensor("B", 2 * MINUTE, 20000);
+		polls.start();
+		scheduler.advance(1000);
+		// A due at 60 s, B at 120 s: no overlap, A alone.
+		assertEquals(MINUTE, polls.getNextWakeupMillis());
+		scheduler.advance(MINUTE);
+		// A again at 120 s together with B.
+		assertEquals(2 * MINUTE, polls.getNextWakeupMillis());
+		assertEquals(Long.valueOf(2 * MINUTE), wakeups.get(wakeups.size() - 1));
+
+		polls.stop();
+		assertEquals(-1, polls.getNextWakeupMillis());
+		assertEquals(Long.valueOf(-1), wakeups.get(wakeups.size() - 1));
+	}
+
+	// The CPU sleeps through the wakeup: the scheduler's clock moves on (elapsedRealtime) but its
+	// timer does not, the alarm runs the wakeup and a wake lock is held until its polls are done.
+	@Test
+	public void alarmAfterDeepSleep_runsWakeup() throws Exception {
+		final long[] slept = new long[1];
+		final Scheduler sleepingScheduler = new Scheduler() {
+			@Override
+			public long nowMillis() {
+				return scheduler.nowMillis() + slept[0];
+			}
+
+			@Override
+			public Cancellable schedule(Runnable task, long delayMillis) {
+				return scheduler.schedule(task, delayMillis);
+			}
+		};
+		final List<Long> wakeups = new ArrayList<>();
+		final List<Boolean> polling = new ArrayList<>();
+		polls = new PollScheduler(sleepingScheduler, poller).setListener(new PollScheduler.Listener() {
+			@Override
+			public void onWakeupScheduled(long atMillis) {
+				wakeups.add(atMillis);
+			}
+
+			@Override
+			public void onPollingChanged(boolean changed) {
+				polling.add(changed);
+			}
+		});
+		polls.addSensor("A", MINUTE, 0);
+		polls.start();
+		scheduler.advance(1000);
+		assertEquals(1, poller.started.size());
+		assertFalse(polls.isPolling());
+		assertEquals(2, polling.size());
+
+		// An early alarm re-arms the wakeup instead of dropping it.
+		final int armed = wakeups.size();
+		polls.runDue();
+		assertEquals(armed + 1, wakeups.size());
+		assertEquals(Long.valueOf(MINUTE), wakeups.get(wakeups.size() - 1));
+
+		slept[0] = 10 * MINUTE;
+		polls.runDue();
+		assertEquals(2, poller.started.size());
+		assertTrue(polls.isPolling());
+		assertEquals(Boolean.TRUE, polling.get(polling.size() - 1));
+		scheduler.advance(500);
+		assertFalse(polls.isPolling());
+		assertEquals(Boolean.FALSE, polling.get(polling.size() - 1));
+		// Next one counted from the wakeup after the sleep.
+		assertEquals(1000 + 10 * MINUTE + MINUTE, polls.getNextWakeupMillis());
+	}
+
+	@Test
+	public void concurrentPolls_limited() throws Exception {
+		polls.setMaxConcurrent(2);
+		for (int i = 0; i < 6; i++) {
+			polls.addSensor("S" + i, MINUTE, 10000);
+		}
+		polls.start();
+		scheduler.advance(900);
+		assertEquals(4, poller.started.size());
+		scheduler.advance(200);
+		assertEquals(6, poller.started.size());
+		scheduler.advance(900);
+		assertEquals(2, poller.maxActive);
+		assertEquals(1, polls.getWakeupCount());
+		assertEquals(1500, polls.getRadioOnMillis());
+	}
+
+	@Test
+	public void hangingPoll_timesOutAndIsCancelled() throws Exception {
+		poller.hang = true;
+		polls.setPollTimeout(10000);
+		polls.addSensor("A", MINUTE, 0);
+		polls.start();
+		scheduler.advance(10000);
+		assertEquals(1, polls.getTimeoutCount());
+		assertEquals(1, polls.getFailureCount("A"));
+		assertEquals(1, poller.cancelled.size());
+		assertEquals(-1, polls.getLastSuccessMillis("A"));
+
+		// Next regular slot, a late completion of the old poll does not count.
+		final PollScheduler.Completion stale = poller.pending.get("A");
+		poller.hang = false;
+		scheduler.advance(MINUTE);
+		assertEquals(2, poller.started.size());
+		if (stale != null) {
+			stale.onPollComplete("A", true);
+		}
+		scheduler.advance(1000);
+		assertEquals(1, polls.getFailureCount());
+		assertEquals(MINUTE + 500, polls.getLastSuccessMillis("A"));
+	}
+
+	@Test
+	public void stop_cancelsPollsAndWakeup() throws Exception {
+		poller.hang = true;
+		polls.addSensor("A", MINUTE, 0);
+		polls.addSensor("B", MINUTE, 0);
+		polls.start();
+		scheduler.advance(100);
+		polls.stop();
+		assertEquals(2, poller.cancelled.size());
+		assertEquals(0, scheduler.pendingCount());
+		assertEquals(100, polls.getRadioOnMillis());
+
+		scheduler.advance(10 * MINUTE);
+		assertEquals(2, poller.started.size());
+	}
+
+	@Test
+	public void removeSensor_whilePolling() throws Exception {
+		poller.hang = true;
+		polls.setMaxConcurrent(1);
+		polls.addSensor("A", MINUTE, 0);
+		polls.addSensor("B", MINUTE, 0);
+		polls.start();
+		scheduler.advance(0);
+		assertEquals(1, poller.started.size());
+		polls.removeSensor("A");
+		// B gets the connection A had.
+		assertEquals(2, poller.started.size());
+		assertEquals("B", poller.started.get(1));
+	}
+
+	// On Android the poll's session would replace the connection's in the transport.
+	@Test
+	public void connectedSensor_notConnectedAgain() throws Exception {
+		final FakeGattTransport transport = new FakeGattTransport();
+		final SensorConnectionManager manager = new SensorConnectionManager(transport, scheduler,
+				new SensorConnectionManagerTest.RecordingListener());
+		manager.connect("AA");
+		final FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.servicesDiscovered();
+		session.descriptorWritten(GattSession.GATT_SUCCESS);
+
+		final SensorPoller sensorPoller = new SensorPoller(transport, scheduler, new SensorPoller.Listener() {
+			@Override
+			public void onReading(String address, String name, TemperatureMeasurement measurement, byte[] rawValue) {
+				fail();
+			}
+		}).setConnectionManager(manager);
+		polls = new PollScheduler(scheduler, sensorPoller);
+		polls.addSensor("AA", MINUTE, 0);
+		polls.start();
+		scheduler.advance(3 * MINUTE);
+		assertEquals(1, transport.connectCount);
+		assertSame(session, transport.sessions.get("AA"));
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+		assertEquals(polls.getPollCount(), sensorPoller.getConnectedSkips());
+		assertEquals(0, polls.getFailureCount());
+
+		// Closed, the poller connects itself.
+		manager.close("AA");
+		scheduler.advance(MINUTE);
+		assertEquals(2, transport.connectCount);
+	}
+
+	@Test
+	public void simulatedSensors_readAndDisconnected() throws Exception {
+		final SimulatedGattTransport transport = new SimulatedGattTransport(scheduler);
+		transport.addDevice(new SimulatedThermometer("T1", 1));
+		transport.addDevice(new SimulatedThermometer("T2", 2));
+		transport.addDevice(new SimulatedThermometer("T3", 3).setReadable(false));
+		final List<String> readings = new ArrayList<>();
+		final SensorPoller sensorPoller = new SensorPoller(transport, scheduler, new SensorPoller.Listener() {
+			@Override
+			public void onReading(String address, String name, TemperatureMeasurement measurement, byte[] rawValue) {
+				assertEquals(22.0, measurement.value, 3.0);
+				readings.add(address);
+			}
+		});
+		polls = new PollScheduler(scheduler, sensorPoller);
+		polls.addSensor("T1", MINUTE, 20000);
+		scheduler.advance(10000);
+		polls.addSensor("T2", MINUTE, 20000);
+		polls.addSensor("T3", MINUTE, 20000);
+		polls.start();
+		scheduler.advance(10 * MINUTE + 5000);
+
+		assertEquals(0, polls.getFailureCount());
+		assertEquals(polls.getPollCount(), readings.size());
+		assertEquals(polls.getWakeupCount(), polls.getPollCount("T1"));
+		assertTrue(polls.getPollCount("T3") >= 10);
+		assertEquals(polls.getPollCount("T3"), sensorPoller.getIndicationFallbacks());
+		assertEquals(polls.getPollCount("T3"), transport.getNotificationsSent());
+		// Radio on for a fraction of a second per minute.
+		assertTrue(polls.getRadioOnMillis() < 10 * 2000);
+	}
+}
@@ -0,0 +1,42 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateMeterTest {
+
+	@Test
+	public void countsCompleteBucketsOnly() throws Exception {
+		RateMeter meter = new RateMeter(1000, 5);
+		assertEquals(0, meter.getRate(0), 0);
+		for (long t = 0; t < 1000; t += 10) {
+			meter.mark(t);
+		}
+		// First bucket still filling.
+		assertEquals(0, meter.getRate(999), 0);
+		assertEquals(100, meter.getRate(1000), 1e-9);
+		for (long t = 1000; t < 1500; t += 10) {
+			meter.mark(t);
+		}
+		assertEquals(100, meter.getRate(1500), 1e-9);
+		assertEquals(75, meter.getRate(2000), 1e-9);
+		assertEquals(150, meter.getTotal());
+	}
+
+	@Test
+	public void oldBucketsLeaveTheWindow() throws Exception {
+		RateMeter meter = new RateMeter(1000, 3);
+		for (long t = 0; t < 10000; t += 50) {
+			meter.mark(t);
+		}
+		assertEquals(20, meter.getRate(10000), 1e-9);
+		// Silent for a while: the window only holds empty buckets.
+		assertEquals(10, meter.getRate(11000), 1e-9);
+		assertEquals(0, meter.getRate(20000), 0);
+
+		meter.reset();
+		assertEquals(0, meter.getRate(20000), 0);
+		assertEquals(0, meter.getTotal());
+	}
+}
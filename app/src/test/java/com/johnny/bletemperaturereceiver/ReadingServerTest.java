@@ -0,0 +1,274 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReadingServerTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private ReadingServer server;
+	private int port;
+
+	private final ReadingServer.History history = new ReadingServer.History() {
+		@Override
+		public String[] getAddresses() {
+			return new String[]{"AA"};
+		}
+
+		@Override
+		public void query(String address, long fromMillis, long toMillis, int maxPoints, RollupSeries out) {
+			out.clear();
+			out.resolutionMillis = TemperatureRollups.MINUTE;
+			out.ensureCapacity(maxPoints);
+			for (long start = fromMillis; start < toMillis && out.size < maxPoints; start += out.resolutionMillis) {
+				out.add(start, 20, 22, 21, 60);
+			}
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ReadingServer(history);
+		port = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	private String request(String line) throws Exception {
+		final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setSoTimeout(5000);
+			final OutputStream out = socket.getOutputStream();
+			out.write((line + "\r\nHost: localhost\r\n\r\n").getBytes(UTF_8));
+			out.flush();
+			final InputStream in = socket.getInputStream();
+			final ByteArrayOutputStream response = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				response.write(buffer, 0, read);
+			}
+			return new String(response.toByteArray(), UTF_8);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private String get(String path) throws Exception {
+		return request("GET " + path + " HTTP/1.1");
+	}
+
+	@Test
+	public void readings() throws Exception {
+		assertEquals("[]\n", body(get("/readings")));
+		server.publish("AA", 21.5, TemperatureMeasurement.Unit.Celsius, 1000);
+		server.publish("BB", 70.25, TemperatureMeasurement.Unit.Fahrenheit, 2000);
+		server.publish("AA", 21.75, TemperatureMeasurement.Unit.Celsius, 3000);
+
+		final String all = get("/readings");
+		assertTrue(all, all.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(all, all.contains("Content-Type: application/json"));
+		assertEquals("[{\"address\":\"AA\",\"value\":21.75,\"unit\":0,\"time\":3000},"
+				+ "{\"address\":\"BB\",\"value\":70.25,\"unit\":1,\"time\":2000}]\n", body(all));
+		assertEquals("{\"address\":\"BB\",\"value\":70.25,\"unit\":1,\"time\":2000}\n", body(get("/readings/BB")));
+		assertTrue(get("/readings/CC").startsWith("HTTP/1.1 404 "));
+		assertTrue(get("/nothing").startsWith("HTTP/1.1 404 "));
+		assertTrue(request("POST /readings HTTP/1.1").startsWith("HTTP/1.1 405 "));
+		assertEquals(0, server.getClientCount());
+	}
+
+	@Test
+	public void history() throws Exception {
+		final String response = get("/history/AA?from=0&to=180000&points=10");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertEquals("{\"address\":\"AA\",\"resolution\":60000,\"points\":["
+				+ "{\"start\":0,\"min\":20.0,\"max\":22.0,\"avg\":21.0,\"count\":60},"
+				+ "{\"start\":60000,\"min\":20.0,\"max\":22.0,\"avg\":21.0,\"count\":60},"
+				+ "{\"start\":120000,\"min\":20.0,\"max\":22.0,\"avg\":21.0,\"count\":60}]}\n", body(response));
+		assertTrue(get("/history/BB").startsWith("HTTP/1.1 404 "));
+		assertTrue(get("/history/AA?points=lots").startsWith("HTTP/1.1 400 "));
+		assertTrue(get("/history/AA?from=2&to=1").startsWith("HTTP/1.1 400 "));
+	}
+
+	@Test
+	public void stream_sendsLatestThenEachReading() throws Exception {
+		server.publish("AA", 20.0, TemperatureMeasurement.Unit.Celsius, 1000);
+		final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write("GET /stream?address=AA HTTP/1.1\r\n\r\n".getBytes(UTF_8));
+			waitFor(1);
+			server.publish("BB", 30.0, TemperatureMeasurement.Unit.Celsius, 2000);
+			server.publish("AA", 20.5, TemperatureMeasurement.Unit.Celsius, 3000);
+
+			final String expected = "HTTP/1.1 200 OK\r\n"
+					+ "Content-Type: text/event-stream\r\n"
+					+ "Cache-Control: no-cache\r\n"
+					+ "Access-Control-Allow-Origin: *\r\n"
+					+ "\r\n"
+					+ "event: reading\ndata: {\"address\":\"AA\",\"value\":20.0,\"unit\":0,\"time\":1000}\n\n"
+					+ "id: 2\nevent: reading\ndata: {\"address\":\"AA\",\"value\":20.5,\"unit\":0,\"time\":3000}\n\n";
+			final byte[] received = new byte[expected.length()];
+			int offset = 0;
+			while (offset < received.length) {
+				final int read = socket.getInputStream().read(received, offset, received.length - offset);
+				assertTrue(read > 0);
+				offset += read;
+			}
+			assertEquals(expected, new String(received, UTF_8));
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void maxClients_rejected() throws Exception {
+		server.close();
+		server = new ReadingServer(history).setMaxClients(1);
+		port = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		final Socket first = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			first.getOutputStream().write("GET /stream HTTP/1.1\r\n\r\n".getBytes(UTF_8));
+			waitFor(1);
+			final Socket second = new Socket(InetAddress.getLoopbackAddress(), port);
+			second.setSoTimeout(5000);
+			assertEquals(-1, second.getInputStream().read());
+			second.close();
+			assertEquals(1, server.getRejectedCount());
+		} finally {
+			first.close();
+		}
+	}
+
+	// Hundreds of local dashboards, some of which stop reading: every publish returns right away,
+	// the clients that read get every reading and the stalled ones only cost dropped events.
+	@Test
+	public void loadTest() throws Exception {
+		final int readers = 200;
+		final int stalled = 50;
+		final int readings = 2000;
+		server.setSocketSendBuffer(8 * 1024);
+
+		final Selector selector = Selector.open();
+		final List<SocketChannel> channels = new ArrayList<>();
+		final ByteBuffer request = ByteBuffer.wrap("GET /stream HTTP/1.1\r\n\r\n".getBytes(UTF_8));
+		for (int i = 0; i < readers + stalled; i++) {
+			final SocketChannel channel = SocketChannel.open();
+			if (i >= readers) {
+				channel.socket().setReceiveBufferSize(1024);
+			}
+			channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			request.rewind();
+			channel.write(request);
+			channels.add(channel);
+			if (i < readers) {
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, new int[2]);
+			}
+		}
+		waitFor(readers + stalled);
+
+		final long[] publishNanos = new long[2];
+		final Thread publisher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 1; i <= readings; i++) {
+					final long start = System.nanoTime();
+					server.publish("S" + (i % 20), 20 + i * 0.001, TemperatureMeasurement.Unit.Celsius, i);
+					final long elapsed = System.nanoTime() - start;
+					publishNanos[0] += elapsed;
+					publishNanos[1] = Math.max(publishNanos[1], elapsed);
+					if (i % 10 == 0) {
+						// About 1000 readings/s, 20 sensors at 50 Hz.
+						sleep(1);
+					}
+				}
+			}
+		});
+		final long start = System.nanoTime();
+		publisher.start();
+
+		// Events end with a blank line, counted per reader: {events, last byte was '\n'}.
+		final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long events = 0;
+		final long deadline = System.currentTimeMillis() + 30000;
+		while (events < (long) readers * readings && System.currentTimeMillis() < deadline) {
+			selector.select(100);
+			for (SelectionKey key : selector.selectedKeys()) {
+				final int[] state = (int[]) key.attachment();
+				buffer.clear();
+				final int read = ((SocketChannel) key.channel()).read(buffer);
+				for (int i = 0; i < read; i++) {
+					final boolean newline = buffer.get(i) == '\n';
+					if (newline && state[1] == 1) {
+						state[0]++;
+						events++;
+					}
+					state[1] = newline ? 1 : 0;
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+		final long elapsedNanos = System.nanoTime() - start;
+		publisher.join();
+
+		final long dropped = server.getDroppedCount();
+		assertEquals((long) readers * readings, events);
+		for (SelectionKey key : selector.keys()) {
+			assertEquals(readings, ((int[]) key.attachment())[0]);
+		}
+		// Stalled clients cannot hold 2000 events in 64 KB plus small socket buffers.
+		assertTrue("dropped " + dropped, dropped > 0);
+		// The readers keep up with the publisher (a fraction of a second of readings), stalled clients do not
+		// hold them back and no publish waits on a socket.
+		assertTrue("elapsed ms " + elapsedNanos / 1000000, elapsedNanos < 10000000000L);
+		assertTrue("mean publish us " + publishNanos[0] / 1000 / readings, publishNanos[0] / readings < 1000000);
+		assertTrue("max publish ms " + publishNanos[1] / 1000000, publishNanos[1] < 200000000);
+
+		selector.close();
+		for (SocketChannel channel : channels) {
+			channel.close();
+		}
+	}
+
+	private void waitFor(int streamClients) throws Exception {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (server.getStreamClientCount() < streamClients && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(streamClients, server.getStreamClientCount());
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String body(String response) {
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+}
@@ -0,0 +1,49 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecentDevicesTest {
+
+	@Test
+	public void leastRecentlyConnectedIsEvicted() throws Exception {
+		RecentDevices devices = new RecentDevices(2);
+		devices.touch("AA", "a", 1);
+		devices.touch("BB", "b", 2);
+		devices.touch("AA", "a", 3);
+		devices.touch("CC", "c", 4);
+
+		List<RecentDevices.Entry> entries = devices.getEntries();
+		assertEquals(2, entries.size());
+		assertEquals("CC", entries.get(0).address);
+		assertEquals("AA", entries.get(1).address);
+		assertEquals(3, entries.get(1).lastConnectedMillis);
+	}
+
+	@Test
+	public void encodeDecodeRoundTrip() throws Exception {
+		RecentDevices devices = new RecentDevices(RecentDevices.DEFAULT_CAPACITY);
+		devices.touch("AA:BB", "Thermo\tmeter", 10);
+		devices.touch("CC:DD", null, 20);
+		assertTrue(devices.setAutoReconnect("AA:BB", false));
+		assertFalse(devices.setAutoReconnect("EE:FF", false));
+
+		RecentDevices decoded = RecentDevices.decode(devices.encode(), RecentDevices.DEFAULT_CAPACITY);
+		assertEquals(2, decoded.getEntries().size());
+		assertEquals(Arrays.asList("CC:DD"), decoded.getAutoReconnectAddresses());
+		RecentDevices.Entry entry = decoded.getEntries().get(1);
+		assertEquals("AA:BB", entry.address);
+		assertEquals(10, entry.lastConnectedMillis);
+		assertFalse(entry.autoReconnect);
+	}
+
+	@Test
+	public void decodeIgnoresGarbage() throws Exception {
+		assertTrue(RecentDevices.decode(null, 4).getEntries().isEmpty());
+		assertTrue(RecentDevices.decode("nonsense\nAA\tx\n", 4).getEntries().isEmpty());
+	}
+}
@@ -0,0 +1,38 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+
+	@Test
+	public void delayDoublesWithinJitterAndIsCapped() throws Exception {
+		ReconnectPolicy policy = new ReconnectPolicy(new Random(7)).setBackoff(1000, 60000);
+		for (int i = 0; i < 1000; i++) {
+			long first = policy.nextDelayMillis(0);
+			assertTrue(first >= 500 && first <= 1000);
+			long third = policy.nextDelayMillis(2);
+			assertTrue(third >= 2000 && third <= 4000);
+			long capped = policy.nextDelayMillis(10);
+			assertTrue(capped >= 30000 && capped <= 60000);
+			long huge = policy.nextDelayMillis(Integer.MAX_VALUE);
+			assertTrue(huge >= 30000 && huge <= 60000);
+		}
+	}
+
+	@Test
+	public void directThenAutoConnect() throws Exception {
+		ReconnectPolicy policy = new ReconnectPolicy().setDirectAttempts(2);
+		assertFalse(policy.useAutoConnect(0));
+		assertFalse(policy.useAutoConnect(1));
+		assertTrue(policy.useAutoConnect(2));
+
+		policy.setStrategy(ReconnectPolicy.Strategy.Direct);
+		assertFalse(policy.useAutoConnect(5));
+		policy.setStrategy(ReconnectPolicy.Strategy.AutoConnect);
+		assertTrue(policy.useAutoConnect(0));
+	}
+}
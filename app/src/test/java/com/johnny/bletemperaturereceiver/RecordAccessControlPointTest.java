@@ -0,0 +1,28 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordAccessControlPointTest {
+
+	@Test
+	public void requestedStart() throws Exception {
+		assertEquals(0, RecordAccessControlPoint.requestedStart(RecordAccessControlPoint.reportAllRecords()));
+		assertEquals(0xABCD, RecordAccessControlPoint.requestedStart(RecordAccessControlPoint.reportRecordsFrom(0xABCD)));
+		assertEquals(-1, RecordAccessControlPoint.requestedStart(RecordAccessControlPoint.abort()));
+		assertEquals(-1, RecordAccessControlPoint.requestedStart(new byte[]{0x01, 0x03, 0x02, 0x00, 0x00}));
+		assertEquals(-1, RecordAccessControlPoint.requestedStart(new byte[]{0x01}));
+	}
+
+	@Test
+	public void responseCodeFor() throws Exception {
+		byte[] response = RecordAccessControlPoint.responseCode(RecordAccessControlPoint.OpCode.ReportStoredRecords,
+				RecordAccessControlPoint.ResponseCode.NoRecordsFound);
+		assertEquals(RecordAccessControlPoint.ResponseCode.NoRecordsFound, RecordAccessControlPoint.responseCodeFor(
+				response, RecordAccessControlPoint.OpCode.ReportStoredRecords));
+		assertEquals(-1, RecordAccessControlPoint.responseCodeFor(response, RecordAccessControlPoint.OpCode.Abort));
+		assertEquals(-1, RecordAccessControlPoint.responseCodeFor(new byte[]{0x05, 0x00, 0x01, 0x00},
+				RecordAccessControlPoint.OpCode.ReportStoredRecords));
+	}
+}
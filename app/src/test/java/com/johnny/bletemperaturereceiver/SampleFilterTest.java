@@ -0,0 +1,99 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleFilterTest {
+
+	@Test
+	public void ema_followsStepWithTimeConstant() throws Exception {
+		EmaFilter ema = new EmaFilter(1000);
+		assertEquals(20, ema.apply(0, 20), 0);
+		assertEquals(20 + 10 * (1 - Math.exp(-1)), ema.apply(1000, 30), 1e-9);
+		// One sample after a long gap weighs as much as many close ones.
+		EmaFilter dense = new EmaFilter(1000);
+		dense.apply(0, 20);
+		double value = 0;
+		for (int t = 100; t <= 5000; t += 100) {
+			value = dense.apply(t, 30);
+		}
+		assertEquals(new EmaFilter(1000).apply(0, 20) + 10 * (1 - Math.exp(-5)), value, 1e-9);
+
+		ema.reset();
+		assertEquals(5, ema.apply(2000, 5), 0);
+	}
+
+	@Test
+	public void median_removesSpikes() throws Exception {
+		MedianFilter median = new MedianFilter(3);
+		assertEquals(20, median.apply(0, 20), 0);
+		assertEquals(20.5, median.apply(1, 21), 0);
+		assertEquals(21, median.apply(2, 85), 0);
+		assertEquals(22, median.apply(3, 22), 0);
+		assertEquals(23, median.apply(4, 23), 0);
+		assertEquals(23, median.apply(5, 23), 0);
+	}
+
+	@Test
+	public void hampel_replacesOutliersOnly() throws Exception {
+		HampelFilter hampel = new HampelFilter(5, 3, 0.1);
+		double[] input = {20.0, 20.1, 19.9, 20.0, 20.1, 35.0, 20.0, 19.9, 20.1, 20.0};
+		double[] output = new double[input.length];
+		for (int i = 0; i < input.length; i++) {
+			output[i] = hampel.apply(i, input[i]);
+		}
+		assertEquals(1, hampel.getOutlierCount());
+		assertEquals(20.1, output[5], 1e-9);
+		for (int i = 0; i < input.length; i++) {
+			if (i != 5) {
+				assertEquals(input[i], output[i], 0);
+			}
+		}
+	}
+
+	@Test
+	public void hampel_passesStepOnceHalfTheWindowSeesIt() throws Exception {
+		HampelFilter hampel = new HampelFilter(5, 3, 0.1);
+		for (int i = 0; i < 5; i++) {
+			hampel.apply(i, 20);
+		}
+		assertEquals(20, hampel.apply(5, 30), 0);
+		assertEquals(20, hampel.apply(6, 30), 0);
+		assertEquals(30, hampel.apply(7, 30), 0);
+		assertEquals(2, hampel.getOutlierCount());
+	}
+
+	@Test
+	public void sortedWindow_medianAbsoluteDeviation() throws Exception {
+		SortedWindow window = new SortedWindow(7);
+		double[] values = {1, 1, 2, 2, 4, 6, 9};
+		for (double v : values) {
+			window.add(v);
+		}
+		assertEquals(2, window.median(), 0);
+		assertEquals(1, window.medianAbsoluteDeviation(2, new double[7]), 0);
+		// Oldest values leave the window.
+		window.add(10);
+		window.add(10);
+		assertEquals(6, window.median(), 0);
+		assertEquals(4, window.medianAbsoluteDeviation(6, new double[7]), 0);
+	}
+
+	@Test
+	public void rateOfChange_slopePerMinuteOverWindow() throws Exception {
+		RateOfChange rate = new RateOfChange(10000, 32);
+		assertEquals(0, rate.add(0, 20), 0);
+		for (int t = 1000; t <= 60000; t += 1000) {
+			// 0.5 per second, then flat after 30 s.
+			rate.add(t, t <= 30000 ? 20 + t / 2000.0 : 35);
+			if (t == 20000) {
+				assertEquals(30, rate.getRate(), 1e-9);
+			}
+		}
+		assertEquals(0, rate.getRate(), 1e-9);
+		rate.reset();
+		assertEquals(0, rate.add(0, 5), 0);
+		assertEquals(-60, rate.add(1000, 4), 1e-9);
+	}
+}
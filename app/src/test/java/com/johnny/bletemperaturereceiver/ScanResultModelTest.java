@@ -0,0 +1,198 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ScanResultModelTest {
+
+	// Sorted by the last advertisement, smoothing is covered separately.
+	private final ScanResultModel<String> model = new ScanResultModel<>(1f);
+	private final ScanResultModel.Update update = new ScanResultModel.Update();
+
+	@Test
+	public void newDevices_publishedOnDrain() throws Exception {
+		assertTrue(model.onScanResult("A", "device A", -50, 1));
+		assertTrue(model.onScanResult("B", "device B", -60, 2));
+		assertFalse(model.onScanResult("A", "device A", -51, 3));
+		assertEquals(0, model.size());
+		assertEquals(-1, model.indexOf("A"));
+
+		assertTrue(model.drainUpdate(update));
+		assertEquals(2, update.insertedCount);
+		// Changes of not yet published entries are part of the insert.
+		assertEquals(0, update.changedCount);
+		assertEquals(2, model.size());
+		assertEquals(-51, model.getRssi(model.indexOf("A")));
+		assertEquals("device B", model.getDevice(1));
+		assertEquals(3, model.getLastSeen(0));
+		assertEquals(3, model.getResultCount());
+	}
+
+	@Test
+	public void newDevices_insertedAtTheirRank() throws Exception {
+		model.onScanResult("A", "a", -70, 1);
+		model.drainUpdate(update);
+		model.onScanResult("B", "b", -50, 2);
+		model.onScanResult("C", "c", -70, 2);
+		model.onScanResult("D", "d", -90, 2);
+
+		assertTrue(model.drainUpdate(update));
+		assertEquals(3, update.count);
+		assertOp(ScanResultModel.Update.Op.Insert, 0, 0);
+		// Same strength as A, goes after it.
+		assertOp(ScanResultModel.Update.Op.Insert, 2, 1);
+		assertOp(ScanResultModel.Update.Op.Insert, 3, 2);
+		assertOrder("B", "A", "C", "D");
+	}
+
+	@Test
+	public void rssiChanges_reportedOncePerDrain() throws Exception {
+		model.onScanResult("A", "a", -50, 1);
+		model.onScanResult("B", "b", -60, 1);
+		model.drainUpdate(update);
+
+		model.onScanResult("B", "b", -61, 2);
+		model.onScanResult("B", "b", -62, 3);
+		model.onScanResult("A", "a", -50, 3);
+		model.onScanResult("C", "c", -70, 3);
+
+		assertTrue(model.drainUpdate(update));
+		assertEquals(1, update.insertedCount);
+		assertEquals(0, update.movedCount);
+		assertEquals(1, update.changedCount);
+		assertOp(ScanResultModel.Update.Op.Change, 1, 0);
+		assertEquals(-62, model.getSmoothedRssi(1));
+
+		assertFalse(model.drainUpdate(update));
+		assertFalse(model.hasPendingUpdate());
+	}
+
+	@Test
+	public void strongerDevice_movedPastItsNeighbours() throws Exception {
+		model.onScanResult("A", "a", -50, 1);
+		model.onScanResult("B", "b", -60, 1);
+		model.onScanResult("C", "c", -70, 1);
+		model.onScanResult("D", "d", -80, 1);
+		model.drainUpdate(update);
+
+		model.onScanResult("D", "d", -55, 2);
+		model.onScanResult("A", "a", -75, 2);
+
+		assertTrue(model.drainUpdate(update));
+		assertEquals(4, update.count);
+		assertOp(ScanResultModel.Update.Op.Move, 3, 1, 0);
+		assertOp(ScanResultModel.Update.Op.Change, 1, 1);
+		assertOp(ScanResultModel.Update.Op.Move, 0, 3, 2);
+		assertOp(ScanResultModel.Update.Op.Change, 3, 3);
+		assertOrder("D", "B", "C", "A");
+		assertEquals(3, model.indexOf("A"));
+	}
+
+	@Test
+	public void smoothing_ignoresSingleWeakAdvertisement() throws Exception {
+		final ScanResultModel<String> smoothed = new ScanResultModel<>(0.25f);
+		smoothed.onScanResult("A", "a", -50, 1);
+		smoothed.onScanResult("B", "b", -56, 1);
+		smoothed.drainUpdate(update);
+
+		// -50 + (-70 + 50) / 4 = -55 is still ahead of B.
+		smoothed.onScanResult("A", "a", -70, 2);
+		assertTrue(smoothed.drainUpdate(update));
+		assertEquals(0, update.movedCount);
+		assertEquals(-55, smoothed.getSmoothedRssi(0));
+		assertEquals(-70, smoothed.getRssi(0));
+
+		smoothed.onScanResult("A", "a", -70, 3);
+		assertTrue(smoothed.drainUpdate(update));
+		assertEquals(1, update.movedCount);
+		assertEquals("b", smoothed.getDevice(0));
+
+		// Rounds to the same dBm: nothing to rebind.
+		smoothed.onScanResult("B", "b", -56, 4);
+		assertFalse(smoothed.hasPendingUpdate());
+	}
+
+	@Test
+	public void replayedOperations_matchOrder() throws Exception {
+		final Random random = new Random(7);
+		final List<String> replay = new ArrayList<>();
+		for (int round = 0; round < 200; round++) {
+			for (int i = 0; i < 5; i++) {
+				final String address = "D" + random.nextInt(40);
+				model.onScanResult(address, address, -40 - random.nextInt(60), round);
+			}
+			model.drainUpdate(update);
+			for (int i = 0; i < update.count; i++) {
+				final int position = update.positions[i];
+				switch (update.ops[i]) {
+					case ScanResultModel.Update.Op.Insert:
+						replay.add(position, null);
+						break;
+					case ScanResultModel.Update.Op.Move:
+						replay.add(update.targets[i], replay.remove(position));
+						break;
+				}
+			}
+			// Inserted rows are bound from the model, like an adapter would.
+			for (int position = 0; position < replay.size(); position++) {
+				if (replay.get(position) == null) {
+					replay.set(position, model.getAddress(position));
+				}
+			}
+			assertEquals(model.size(), replay.size());
+			for (int position = 0; position < replay.size(); position++) {
+				assertEquals(model.getAddress(position), replay.get(position));
+				assertEquals(position, model.indexOf(replay.get(position)));
+				if (position > 0) {
+					assertTrue(model.getSmoothedRssi(position - 1) >= model.getSmoothedRssi(position));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void manyDevices_growStorage() throws Exception {
+		for (int i = 0; i < 500; i++) {
+			model.onScanResult("D" + i, "d", -i % 100, i);
+		}
+		model.drainUpdate(update);
+		for (int i = 0; i < 500; i++) {
+			model.onScanResult("D" + i, "d", -1 - i % 100, i);
+		}
+		assertTrue(model.drainUpdate(update));
+		// Everyone got 1 dB weaker: one rebind each, moves only within runs of equal strength.
+		assertEquals(500, update.changedCount);
+		assertEquals(-100, model.getSmoothedRssi(model.indexOf("D499")));
+	}
+
+	@Test
+	public void clear_forgetsDevices() throws Exception {
+		model.onScanResult("A", "a", -50, 1);
+		model.drainUpdate(update);
+		model.clear();
+		assertEquals(0, model.size());
+		assertTrue(model.onScanResult("A", "a", -50, 2));
+	}
+
+	private void assertOp(int op, int position, int index) {
+		assertOp(op, position, position, index);
+	}
+
+	private void assertOp(int op, int position, int target, int index) {
+		assertEquals(op, update.ops[index]);
+		assertEquals(position, update.positions[index]);
+		assertEquals(target, update.targets[index]);
+	}
+
+	private void assertOrder(String... addresses) {
+		assertEquals(addresses.length, model.size());
+		for (int i = 0; i < addresses.length; i++) {
+			assertEquals(addresses[i], model.getAddress(i));
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+
+	private VirtualScheduler scheduler;
+	private SimulatedLeScanner scanner;
+	private ScanScheduler scanScheduler;
+	private final List<String> found = new ArrayList<>();
+	private final List<Integer> finished = new ArrayList<>();
+
+	private final LeScanner.Callback callback = new LeScanner.Callback() {
+		@Override
+		public void onScanResult(LeScanResult result) {
+			found.add(result.address);
+		}
+
+		@Override
+		public void onBatchScanResults(List<LeScanResult> results) {
+			for (LeScanResult result : results) {
+				found.add(result.address);
+			}
+		}
+
+		@Override
+		public void onScanFailed(int errorCode) {
+		}
+	};
+
+	private final ScanScheduler.Listener listener = new ScanScheduler.Listener() {
+		@Override
+		public void onScanFinished(int reason) {
+			finished.add(reason);
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		scheduler = new VirtualScheduler();
+		scanner = new SimulatedLeScanner(scheduler, 1, 0x1809);
+		scanner.addAdvertiser("T1", -60, AdvertisementParserTest.THERMOMETER, 100);
+		scanner.addAdvertiser("T2", -70, AdvertisementParserTest.THERMOMETER, 1000);
+		scanScheduler = new ScanScheduler(scanner, scheduler).setProfile(ScanProfile.LOW_LATENCY);
+	}
+
+	@Test
+	public void quietNeighbourhood_backsOffToMaxIdle() throws Exception {
+		scanScheduler.setTimeout(0);
+		scanScheduler.start(callback, listener);
+		assertTrue(scanner.isScanning());
+		scheduler.advance(ScanScheduler.DEFAULT_WINDOW_MS);
+		assertFalse(scanner.isScanning());
+		assertEquals(2, scanScheduler.getDiscoveredCount());
+		// Found something: shortest gap.
+		assertEquals(ScanScheduler.DEFAULT_MIN_IDLE_MS, scanScheduler.getIdleMillis());
+
+		scheduler.advance(120000);
+		assertEquals(ScanScheduler.DEFAULT_MAX_IDLE_MS, scanScheduler.getIdleMillis());
+		assertTrue(scanScheduler.isActive());
+		assertTrue(finished.isEmpty());
+		final long radioOn = scanScheduler.getRadioOnMillis();
+		final int windows = scanScheduler.getWindowCount();
+		assertTrue(radioOn > (windows - 1) * ScanScheduler.DEFAULT_WINDOW_MS);
+		assertTrue(radioOn <= windows * ScanScheduler.DEFAULT_WINDOW_MS);
+		// Windows of 3 s every 15 s once backed off, against 100% for a plain scan.
+		assertTrue(scanScheduler.getDutyCycle() < 0.3);
+	}
+
+	@Test
+	public void newDevice_resetsIdleGap() throws Exception {
+		scanScheduler.setTimeout(0);
+		scanScheduler.start(callback, listener);
+		// Windows at 0, 6, 15, 30, 45 and 60 s.
+		scheduler.advance(50000);
+		assertFalse(scanner.isScanning());
+		assertEquals(ScanScheduler.DEFAULT_MAX_IDLE_MS, scanScheduler.getIdleMillis());
+
+		scanner.addAdvertiser("T3", -50, AdvertisementParserTest.THERMOMETER, 100);
+		scheduler.advance(10000 + ScanScheduler.DEFAULT_WINDOW_MS);
+		assertTrue(found.contains("T3"));
+		// The gap is decided once the shortest one has passed.
+		scheduler.advance(ScanScheduler.DEFAULT_MIN_IDLE_MS);
+		assertEquals(ScanScheduler.DEFAULT_MIN_IDLE_MS, scanScheduler.getIdleMillis());
+		final long timeToDiscover = scanScheduler.getTimeToDiscover("T3");
+		assertTrue(timeToDiscover >= 60000);
+		assertTrue(timeToDiscover < 60000 + ScanScheduler.DEFAULT_WINDOW_MS);
+	}
+
+	// Android flushes the pending batch asynchronously on stop, its results still count to the window.
+	@Test
+	public void resultsFlushedAfterStop_countToWindow() throws Exception {
+		scanner.setStopFlushDelay(50);
+		scanScheduler.setProfile(new ScanProfile("batched", 0, 10000, 4096, 4096)).setTimeout(0);
+		scanScheduler.start(callback, listener);
+		scheduler.advance(ScanScheduler.DEFAULT_WINDOW_MS);
+		assertFalse(scanner.isScanning());
+		assertTrue(found.isEmpty());
+
+		scheduler.advance(ScanScheduler.DEFAULT_MIN_IDLE_MS);
+		assertTrue(found.contains("T1"));
+		assertTrue(found.contains("T2"));
+		assertEquals(ScanScheduler.DEFAULT_MIN_IDLE_MS, scanScheduler.getIdleMillis());
+		assertTrue(scanner.isScanning());
+		assertEquals(2, scanScheduler.getWindowCount());
+	}
+
+	@Test
+	public void targetsFound_stopsEarly() throws Exception {
+		scanScheduler.setTargets(Arrays.asList("T1", "T2"));
+		scanScheduler.start(callback, listener);
+		scheduler.advance(ScanScheduler.DEFAULT_TIMEOUT_MS);
+
+		assertEquals(Collections.singletonList(ScanScheduler.Reason.TargetsFound), finished);
+		assertFalse(scanScheduler.isActive());
+		assertFalse(scanner.isScanning());
+		final long timeToTargets = scanScheduler.getTimeToTargets();
+		// T2 advertises every second.
+		assertTrue(timeToTargets >= 0 && timeToTargets <= 1100);
+		assertEquals(timeToTargets, Math.max(scanScheduler.getTimeToDiscover("T1"),
+				scanScheduler.getTimeToDiscover("T2")));
+		assertEquals(timeToTargets, scanScheduler.getRadioOnMillis());
+		assertEquals(timeToTargets, scanScheduler.getElapsedMillis());
+		// Nothing left behind: no window end, no timeout, no advertising.
+		assertEquals(0, scheduler.pendingCount());
+	}
+
+	@Test
+	public void missingTarget_timesOut() throws Exception {
+		scanScheduler.setTargets(Arrays.asList("T1", "gone"));
+		scanScheduler.start(callback, listener);
+		scheduler.advance(ScanScheduler.DEFAULT_TIMEOUT_MS + 1000);
+
+		assertEquals(Collections.singletonList(ScanScheduler.Reason.TimedOut), finished);
+		assertEquals(-1, scanScheduler.getTimeToTargets());
+		assertEquals(-1, scanScheduler.getTimeToDiscover("gone"));
+		assertEquals(ScanScheduler.DEFAULT_TIMEOUT_MS, scanScheduler.getElapsedMillis());
+		assertEquals(0, scheduler.pendingCount());
+	}
+
+	@Test
+	public void restart_cancelsPreviousSchedule() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			scanScheduler.start(callback, listener);
+			scheduler.advance(ScanScheduler.DEFAULT_WINDOW_MS + 500);
+		}
+		// One window end or idle end and one timeout of the last start, plus advertising.
+		assertTrue(scheduler.pendingCount() <= 2 + 2);
+		scheduler.advance(ScanScheduler.DEFAULT_TIMEOUT_MS);
+		assertEquals(Collections.singletonList(ScanScheduler.Reason.TimedOut), finished);
+		assertEquals(0, scheduler.pendingCount());
+	}
+
+	@Test
+	public void stop_doesNotNotify() throws Exception {
+		scanScheduler.start(callback, listener);
+		scheduler.advance(1000);
+		scanScheduler.stop();
+		scanScheduler.stop();
+		scheduler.advance(ScanScheduler.DEFAULT_TIMEOUT_MS);
+		assertTrue(finished.isEmpty());
+		assertEquals(1000, scanScheduler.getRadioOnMillis());
+		assertEquals(0, scheduler.pendingCount());
+
+		final int results = found.size();
+		scanner.start(ScanProfile.LOW_LATENCY, scanScheduler);
+		scheduler.advance(1000);
+		// Late results of a stopped scan are not forwarded.
+		assertEquals(results, found.size());
+	}
+
+	@Test
+	public void scannerRefusing_fails() throws Exception {
+		scanner.start(ScanProfile.LOW_LATENCY, callback);
+		scanScheduler.start(callback, listener);
+		assertEquals(Collections.singletonList(ScanScheduler.Reason.Failed), finished);
+		assertFalse(scanScheduler.isActive());
+		assertEquals(0, scanScheduler.getWindowCount());
+	}
+
+	@Test
+	public void invalidCycle_rejected() throws Exception {
+		try {
+			// 10 scan starts in 30 s would be throttled by the platform.
+			scanScheduler.setCycle(1000, 2000, 4000);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SensorConnectionManagerTest {
+
+	private static final byte[] READING = {0x00, 0x6D, 0x01, 0x00, (byte) 0xFF};
+
+	private FakeGattTransport transport;
+	private RecordingListener listener;
+	private SensorConnectionManager manager;
+	private VirtualScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		transport = new FakeGattTransport();
+		listener = new RecordingListener();
+		scheduler = new VirtualScheduler();
+		manager = new SensorConnectionManager(transport, scheduler, listener);
+	}
+
+	@Test
+	public void connectRunsStateMachineToRunning() throws Exception {
+		assertTrue(manager.connect("AA"));
+		assertEquals(SensorConnection.State.Connecting, manager.getState("AA"));
+
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		assertEquals(SensorConnection.State.Connected, manager.getState("AA"));
+		assertTrue(session.operations.contains("discoverServices"));
+
+		session.servicesDiscovered();
+		assertTrue(session.operations.contains("writeDescriptor"));
+
+		session.descriptorWritten(GattSession.GATT_SUCCESS);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+
+		session.notify(READING);
+		assertEquals(1, listener.readings.size());
+		assertEquals(36.5, listener.readings.get(0), 0);
+		assertEquals("AA", listener.lastAddress);
+	}
+
+	@Test
+	public void subscriptionBehindMtuEnablesNotificationFirst() throws Exception {
+		manager.setConnectionProfile(ConnectionProfile.HIGH_THROUGHPUT);
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.servicesDiscovered();
+		assertFalse(session.operations.contains("writeDescriptor"));
+
+		session.mtuChanged(ConnectionProfile.HIGH_THROUGHPUT.mtu, GattSession.GATT_SUCCESS);
+		final int notification = session.operations.indexOf("setCharacteristicNotification");
+		assertTrue(notification > session.operations.indexOf("requestMtu " + ConnectionProfile.HIGH_THROUGHPUT.mtu));
+		assertEquals(notification + 1, session.operations.indexOf("writeDescriptor"));
+	}
+
+	@Test
+	public void devicesAreIndependent() throws Exception {
+		manager.connect("AA");
+		manager.connect("BB");
+		transport.sessions.get("AA").connected();
+		assertEquals(SensorConnection.State.Connected, manager.getState("AA"));
+		assertEquals(SensorConnection.State.Connecting, manager.getState("BB"));
+
+		transport.sessions.get("BB").disconnected();
+		assertEquals(SensorConnection.State.Disconnected, manager.getState("BB"));
+		assertEquals(SensorConnection.State.Connected, manager.getState("AA"));
+		assertTrue(transport.sessions.get("BB").closed);
+		assertEquals(1, manager.getActiveCount());
+	}
+
+	@Test
+	public void maxConnectionsIsEnforced() throws Exception {
+		manager.setMaxConnections(2);
+		assertTrue(manager.connect("AA"));
+		assertTrue(manager.connect("BB"));
+		assertFalse(manager.connect("CC"));
+		// Connecting again to an active device does not take a slot.
+		assertTrue(manager.connect("AA"));
+		assertEquals(2, manager.getActiveCount());
+
+		transport.sessions.get("AA").disconnected();
+		assertTrue(manager.connect("CC"));
+	}
+
+	@Test
+	public void failedConnectReleasesSlot() throws Exception {
+		manager.setMaxConnections(1);
+		transport.failConnect = true;
+		assertFalse(manager.connect("AA"));
+		assertEquals(0, manager.getActiveCount());
+
+		transport.failConnect = false;
+		assertTrue(manager.connect("AA"));
+	}
+
+	@Test
+	public void missingServiceDisconnects() throws Exception {
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.hasTemperatureService = false;
+		session.connected();
+		session.servicesDiscovered();
+		assertEquals(1, listener.notSupported);
+		assertTrue(session.operations.contains("disconnect"));
+	}
+
+	@Test
+	public void descriptorWriteFailureDisconnects() throws Exception {
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.servicesDiscovered();
+		session.descriptorWritten(GattSession.GATT_FAILURE);
+		assertTrue(session.operations.contains("disconnect"));
+		assertEquals(SensorConnection.State.Connected, manager.getState("AA"));
+	}
+
+	@Test
+	public void subscriptionTimeoutDisconnects() throws Exception {
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.servicesDiscovered();
+		scheduler.advance(GattOperation.DEFAULT_TIMEOUT_MS * (GattOperation.DEFAULT_MAX_RETRIES + 1));
+		assertTrue(session.operations.contains("disconnect"));
+	}
+
+	@Test
+	public void closeAllClosesSessions() throws Exception {
+		manager.connect("AA");
+		manager.connect("BB");
+		manager.closeAll();
+		assertEquals(0, manager.getActiveCount());
+		assertTrue(transport.sessions.get("AA").closed);
+		assertTrue(transport.sessions.get("BB").closed);
+		assertTrue(manager.getConnections().isEmpty());
+	}
+
+	@Test
+	public void noReconnectWithoutPolicy() throws Exception {
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.disconnected();
+		assertTrue(session.closed);
+		assertNull(manager.get("AA"));
+		assertEquals(0, scheduler.pendingCount());
+	}
+
+	@Test
+	public void lostLinkReconnectsWithoutDiscovery() throws Exception {
+		manager.setReconnectPolicy(new ReconnectPolicy(new Random(1))
+				.setStrategy(ReconnectPolicy.Strategy.AutoConnect));
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.servicesDiscovered();
+		session.descriptorWritten(GattSession.GATT_SUCCESS);
+
+		session.disconnected();
+		assertFalse(session.closed);
+		assertEquals(0, manager.getActiveCount());
+		assertTrue(manager.isReconnectPending("AA"));
+		assertTrue(manager.hasPendingReconnects());
+
+		scheduler.advance(ReconnectPolicy.DEFAULT_BASE_DELAY_MS);
+		assertFalse(manager.isReconnectPending("AA"));
+		assertEquals(SensorConnection.State.Connecting, manager.getState("AA"));
+		assertEquals(1, transport.connectCount);
+		assertTrue(session.operations.contains("connect"));
+
+		session.operations.clear();
+		session.connected();
+		assertFalse(session.operations.contains("discoverServices"));
+		assertTrue(session.operations.contains("writeDescriptor"));
+		session.descriptorWritten(GattSession.GATT_SUCCESS);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+		assertEquals(1, manager.get("AA").getDiscoveriesSkipped());
+		assertEquals(1, manager.getReconnectCount());
+		assertEquals(1, manager.getReconnectLatency().getCount());
+		assertTrue(manager.getReconnectLatency().getMax() <= ReconnectPolicy.DEFAULT_BASE_DELAY_MS);
+
+		session.notify(READING);
+		assertEquals(1, listener.readings.size());
+	}
+
+	@Test
+	public void failedSubscriptionWithoutDiscoveryFallsBackToDiscovery() throws Exception {
+		manager.setReconnectPolicy(new ReconnectPolicy(new Random(1))
+				.setStrategy(ReconnectPolicy.Strategy.AutoConnect));
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.servicesDiscovered();
+		session.descriptorWritten(GattSession.GATT_SUCCESS);
+		session.disconnected();
+		scheduler.advance(ReconnectPolicy.DEFAULT_BASE_DELAY_MS);
+
+		session.operations.clear();
+		session.connected();
+		session.descriptorWritten(GattSession.GATT_FAILURE);
+		assertTrue(session.operations.contains("discoverServices"));
+		assertFalse(session.operations.contains("disconnect"));
+		session.servicesDiscovered();
+		session.descriptorWritten(GattSession.GATT_SUCCESS);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+	}
+
+	@Test
+	public void directAttemptsUseNewSessionsAndBackOff() throws Exception {
+		manager.setReconnectPolicy(new ReconnectPolicy(new Random(1)).setDirectAttempts(1));
+		manager.connect("AA");
+		transport.sessions.get("AA").connected();
+		transport.sessions.get("AA").disconnected();
+
+		scheduler.advance(ReconnectPolicy.DEFAULT_BASE_DELAY_MS);
+		assertEquals(2, transport.connectCount);
+		assertFalse(transport.lastAutoConnect);
+		FakeGattTransport.FakeSession second = transport.sessions.get("AA");
+		second.disconnected();
+
+		// Second attempt waits between 1 and 2 s, and keeps the session for an autoConnect.
+		scheduler.advance(ReconnectPolicy.DEFAULT_BASE_DELAY_MS - 1);
+		assertTrue(manager.isReconnectPending("AA"));
+		scheduler.advance(ReconnectPolicy.DEFAULT_BASE_DELAY_MS + 1);
+		assertEquals(2, transport.connectCount);
+		assertTrue(second.operations.contains("connect"));
+		assertEquals(2, manager.getReconnectAttemptCount());
+	}
+
+	@Test
+	public void userDisconnectCancelsReconnect() throws Exception {
+		manager.setReconnectPolicy(new ReconnectPolicy(new Random(1)));
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		session.disconnected();
+		assertTrue(manager.isReconnectPending("AA"));
+
+		manager.disconnect("AA");
+		assertFalse(manager.hasPendingReconnects());
+		assertTrue(session.closed);
+		assertNull(manager.get("AA"));
+		scheduler.advance(ReconnectPolicy.DEFAULT_MAX_DELAY_MS);
+		assertEquals(1, transport.connectCount);
+	}
+
+	@Test
+	public void userDisconnectWhileConnectedDoesNotReconnect() throws Exception {
+		manager.setReconnectPolicy(new ReconnectPolicy(new Random(1)));
+		manager.connect("AA");
+		FakeGattTransport.FakeSession session = transport.sessions.get("AA");
+		session.connected();
+		manager.disconnect("AA");
+		session.disconnected();
+		assertTrue(session.closed);
+		assertFalse(manager.hasPendingReconnects());
+	}
+
+	static class RecordingListener implements SensorConnectionManager.Listener {
+		final List<Double> readings = new ArrayList<>();
+		String lastAddress;
+		int notSupported;
+
+		@Override
+		public void onConnectionStateChanged(SensorConnection connection, int previousState, int newState) {
+		}
+
+		@Override
+		public void onServicesDiscovered(SensorConnection connection) {
+		}
+
+		@Override
+		public void onTemperatureServiceNotSupported(SensorConnection connection) {
+			notSupported++;
+		}
+
+		@Override
+		public void onMeasurement(SensorConnection connection, TemperatureMeasurement measurement, byte[] rawValue) {
+			readings.add(measurement.value);
+			lastAddress = connection.getAddress();
+		}
+
+		@Override
+		public void onBatch(SensorConnection connection, TemperatureBatch batch) {
+		}
+
+		@Override
+		public void onTransferComplete(SensorConnection connection, int responseCode) {
+		}
+
+		@Override
+		public void onCharacteristicValue(SensorConnection connection, UUID characteristic, byte[] value) {
+		}
+	}
+}
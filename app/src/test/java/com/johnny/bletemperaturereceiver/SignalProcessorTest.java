@@ -0,0 +1,83 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SignalProcessorTest {
+
+	private final List<String> events = new ArrayList<>();
+	private final SignalProcessor.Listener listener = new SignalProcessor.Listener() {
+		@Override
+		public void onAlarmChanged(SignalProcessor processor, TemperatureAlarm alarm, boolean active,
+		                           long timestampMillis, double value, double rate) {
+			events.add(alarm.name + (active ? " on " : " off ") + timestampMillis);
+		}
+	};
+
+	@Test
+	public void thresholdAlarmHasHysteresis() throws Exception {
+		SignalProcessor processor = new SignalProcessor("AA", new SampleFilter[0], null,
+				new TemperatureAlarm[]{TemperatureAlarm.above("hot", 30, 1)}, 0, listener);
+		double[] values = {29, 30, 29.5, 30.2, 29.1, 30.5, 28.9, 29.5, 30};
+		for (int i = 0; i < values.length; i++) {
+			processor.process(i, values[i]);
+		}
+		assertEquals(3, events.size());
+		assertEquals("hot on 1", events.get(0));
+		assertEquals("hot off 6", events.get(1));
+		assertEquals("hot on 8", events.get(2));
+		assertTrue(processor.isActive(0));
+		assertTrue(processor.hasActiveAlarm());
+	}
+
+	@Test
+	public void noisySignalAroundThresholdDoesNotFlap() throws Exception {
+		SignalProcessor processor = new SignalChain().setHampel(0, 0, 0).setEma(5000).setRateOfChange(0, 0)
+				.addAlarm(TemperatureAlarm.below("cold", 4, 0.5)).create("AA", listener);
+		java.util.Random random = new java.util.Random(1);
+		for (int t = 0; t < 600000; t += 1000) {
+			processor.process(t, 4 + (random.nextDouble() - 0.5) * 0.6);
+		}
+		assertTrue("events " + events, events.size() <= 1);
+	}
+
+	@Test
+	public void rateAlarmAndSpikeRejection() throws Exception {
+		SignalProcessor processor = new SignalChain().setEma(0).setRateOfChange(60000, 128)
+				.addAlarm(TemperatureAlarm.risingFaster("rising", 2, 0.5))
+				.addAlarm(TemperatureAlarm.above("spike", 40, 1)).create("AA", listener);
+		long t = 0;
+		for (; t < 120000; t += 1000) {
+			// A single 85 degree spike is removed before it reaches the alarms.
+			processor.process(t, t == 60000 ? 85 : 20);
+		}
+		assertEquals(1, processor.getOutlierCount());
+		assertTrue(events.isEmpty());
+		for (; t < 300000; t += 1000) {
+			processor.process(t, 20 + (t - 120000) / 20000.0);
+		}
+		assertEquals(3, processor.getRate(), 0.01);
+		assertEquals("rising on " + 160000, events.get(0));
+		for (; t < 600000; t += 1000) {
+			processor.process(t, 29);
+		}
+		assertEquals(2, events.size());
+		assertTrue(events.get(1).startsWith("rising off"));
+		assertEquals(0, processor.getRate(), 0);
+	}
+
+	@Test
+	public void gapResetsFiltersAndSpecialValuesBypass() throws Exception {
+		SignalProcessor processor = new SignalChain().setHampel(0, 0, 0).setEma(10000).setResetGap(60000)
+				.create("AA", null);
+		processor.process(0, 20);
+		assertEquals(20 + (30 - 20) * (1 - Math.exp(-0.1)), processor.process(1000, 30), 1e-9);
+		assertTrue(Double.isNaN(processor.process(2000, Double.NaN)));
+		assertEquals(5, processor.process(200000, 5), 0);
+		assertEquals(3, processor.getSampleCount());
+	}
+}
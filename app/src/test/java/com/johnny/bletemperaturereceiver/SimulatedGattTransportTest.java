@@ -0,0 +1,320 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the receive pipeline (transport, connection state machine, operation queue, decoder)
+ * against simulated thermometers on a virtual clock.
+ */
+public class SimulatedGattTransportTest {
+
+	private VirtualScheduler scheduler;
+	private SimulatedGattTransport transport;
+	private CountingListener listener;
+	private SensorConnectionManager manager;
+
+	@Before
+	public void setUp() {
+		scheduler = new VirtualScheduler();
+		transport = new SimulatedGattTransport(scheduler);
+		listener = new CountingListener();
+		manager = new SensorConnectionManager(transport, scheduler, listener);
+	}
+
+	@Test
+	public void deliversNotificationsAtConfiguredRate() throws Exception {
+		transport.addDevice(new SimulatedThermometer("00:00:00:00:00:01", 1).setRate(10));
+		assertTrue(manager.connect("00:00:00:00:00:01"));
+
+		scheduler.advance(1000);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("00:00:00:00:00:01"));
+
+		long before = listener.readings;
+		scheduler.advance(10000);
+		assertEquals(100, listener.readings - before);
+		assertEquals(22.0, listener.lastValue, 5.0);
+	}
+
+	@Test
+	public void dropsAndDisconnects() throws Exception {
+		transport.addDevice(new SimulatedThermometer("AA", 7)
+				.setRate(100).setJitter(3).setDropProbability(0.1).setDisconnectProbability(0.001));
+		manager.connect("AA");
+		scheduler.advance(60000);
+
+		assertTrue(transport.getNotificationsDropped() > 0);
+		assertTrue(transport.getDisconnects() > 0);
+		assertEquals(transport.getNotificationsSent(), listener.readings);
+		assertEquals(SensorConnection.State.Disconnected, manager.getState("AA"));
+		assertEquals(0, manager.getActiveCount());
+	}
+
+	@Test
+	public void sameSeedIsDeterministic() throws Exception {
+		long[] runs = new long[2];
+		for (int i = 0; i < runs.length; i++) {
+			setUp();
+			transport.addDevice(new SimulatedThermometer("AA", 99)
+					.setRate(50).setJitter(10).setDropProbability(0.2).setDisconnectProbability(0.0005));
+			manager.connect("AA");
+			scheduler.advance(30000);
+			runs[i] = listener.readings * 31 + Double.doubleToLongBits(listener.lastValue);
+		}
+		assertEquals(runs[0], runs[1]);
+	}
+
+	@Test
+	public void missingServiceIsReported() throws Exception {
+		transport.addDevice(new SimulatedThermometer("AA", 1).setHasTemperatureService(false));
+		manager.connect("AA");
+		scheduler.advance(1000);
+		assertEquals(1, listener.notSupported);
+		assertEquals(SensorConnection.State.Disconnected, manager.getState("AA"));
+	}
+
+	@Test
+	public void cachedLayoutSkipsDiscovery() throws Exception {
+		transport.addDevice(new SimulatedThermometer("AA", 1).setRate(10).setDiscoveryLatency(300));
+		manager.connect("AA");
+		scheduler.advance(2000);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+		assertEquals(1, manager.getLayoutCache().getMissCount());
+		assertEquals(1, manager.getTimeToFirstReadingDiscovered().getCount());
+
+		manager.close("AA");
+		manager.connect("AA");
+		scheduler.advance(2000);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+		assertEquals(1, manager.getLayoutCache().getHitCount());
+		assertEquals(1, manager.get("AA").getDiscoveriesSkipped());
+		assertEquals(1, manager.getTimeToFirstReadingCached().getCount());
+		// 300 ms discovery saved.
+		assertTrue(manager.getTimeToFirstReadingCached().getMax() + 250
+				< manager.getTimeToFirstReadingDiscovered().getMax());
+	}
+
+	@Test
+	public void serviceChangedInvalidatesLayout() throws Exception {
+		transport.addDevice(new SimulatedThermometer("AA", 1).setRate(10));
+		manager.connect("AA");
+		scheduler.advance(2000);
+
+		transport.changeServices("AA");
+		scheduler.advance(2000);
+		assertEquals(1, manager.getLayoutCache().getInvalidationCount());
+		long before = listener.readings;
+		scheduler.advance(1000);
+		assertEquals(10, listener.readings - before);
+
+		// Changed again while disconnected: the cached handle is stale and the subscription fails.
+		manager.close("AA");
+		transport.changeServices("AA");
+		manager.connect("AA");
+		scheduler.advance(2000);
+		assertEquals(SensorConnection.State.ConnectedRunning, manager.getState("AA"));
+		assertEquals(2, manager.getLayoutCache().getInvalidationCount());
+		before = listener.readings;
+		scheduler.advance(1000);
+		assertEquals(10, listener.readings - before);
+	}
+
+	@Test
+	public void connectionProfileSetsRateAndMtu() throws Exception {
+		final ConnectionProfile[] profiles = {null, ConnectionProfile.LOW_POWER, ConnectionProfile.BALANCED,
+				ConnectionProfile.HIGH_THROUGHPUT};
+		final double[] rates = {20, 10, 100.0 / 3, 100};
+		final int[] mtus = {23, 23, 185, 247};
+		for (int i = 0; i < profiles.length; i++) {
+			setUp();
+			manager.setConnectionProfile(profiles[i]);
+			// 100 Hz probe, one notification per connection event, 50 ms until a priority is requested.
+			transport.addDevice(new SimulatedThermometer("AA", 1).setRate(100).setDefaultConnectionInterval(50));
+			manager.connect("AA");
+			scheduler.advance(12000);
+			SensorConnection connection = manager.get("AA");
+			assertEquals(profiles[i], connection.getConnectionProfile());
+			assertEquals(mtus[i], connection.getMtu());
+			assertEquals(rates[i], connection.getNotificationRate(), rates[i] * 0.05);
+		}
+	}
+
+	@Test
+	public void profileChangeAppliesToConnectedDevice() throws Exception {
+		manager.setConnectionProfile(ConnectionProfile.LOW_POWER);
+		transport.addDevice(new SimulatedThermometer("AA", 1).setRate(100).setDefaultConnectionInterval(50));
+		manager.connect("AA");
+		scheduler.advance(12000);
+		assertEquals(10, manager.get("AA").getNotificationRate(), 0.5);
+
+		manager.setConnectionProfile("AA", ConnectionProfile.HIGH_THROUGHPUT);
+		scheduler.advance(12000);
+		assertEquals(ConnectionProfile.HIGH_THROUGHPUT, manager.get("AA").getConnectionProfile());
+		assertEquals(247, manager.get("AA").getMtu());
+		assertEquals(100, manager.get("AA").getNotificationRate(), 5);
+	}
+
+	@Test
+	public void batchesCarryManySamplesPerNotification() throws Exception {
+		manager.setConnectionProfile(ConnectionProfile.BALANCED);
+		transport.addDevice(new SimulatedThermometer("AA", 1).setRate(100).setBatching(10));
+		manager.connect("AA");
+		scheduler.advance(12000);
+
+		SensorConnection connection = manager.get("AA");
+		assertEquals(100, connection.getSampleRate(), 5);
+		assertEquals(10, connection.getNotificationRate(), 0.5);
+		assertEquals(0, listener.readings);
+		assertTrue(listener.liveSamples > 1000);
+		assertEquals(0, connection.getMissedSamples());
+	}
+
+	@Test
+	public void droppedBatchesCountAsMissedSamples() throws Exception {
+		transport.addDevice(new SimulatedThermometer("AA", 3).setRate(50).setBatching(5).setDropProbability(0.1));
+		manager.connect("AA");
+		scheduler.advance(60000);
+
+		SensorConnection connection = manager.get("AA");
+		assertTrue(transport.getNotificationsDropped() > 0);
+		assertEquals(transport.getNotificationsDropped() * 5, connection.getMissedSamples(), 5);
+		assertEquals(0, connection.getDuplicateSamples());
+	}
+
+	@Test
+	public void bulkDownloadFetchesSamplesStoredWhileDisconnected() throws Exception {
+		final ConnectionProfile[] profiles = {ConnectionProfile.LOW_POWER, ConnectionProfile.HIGH_THROUGHPUT};
+		final double[] throughput = new double[profiles.length];
+		for (int i = 0; i < profiles.length; i++) {
+			setUp();
+			manager.setBulkDownload(true);
+			manager.setConnectionProfile(profiles[i]);
+			transport.addDevice(new SimulatedThermometer("AA", 1).setRate(10).setBatching(5).setDefaultConnectionInterval(50)
+					.setEpochMillis(manager.currentTimeMillis()));
+			manager.connect("AA");
+			scheduler.advance(5000);
+			manager.disconnect("AA");
+			scheduler.advance(1000);
+			final long sequence = manager.getNextSequence("AA");
+			assertTrue(sequence > 0);
+			// The first connection already fetched what the device stored before it.
+			assertEquals(1, listener.transfers);
+
+			// Ten minutes offline, 6000 samples stored on the device.
+			scheduler.advance(600000);
+			final long liveBefore = listener.liveSamples;
+			manager.connect("AA");
+			scheduler.advance(300000);
+
+			SensorConnection connection = manager.get("AA");
+			assertEquals(2, listener.transfers);
+			assertEquals(RecordAccessControlPoint.ResponseCode.Success, listener.lastResponseCode);
+			assertFalse(connection.isTransferActive());
+			assertTrue(connection.getLastTransferSamples() >= 6000);
+			assertEquals(0, connection.getMissedSamples());
+			assertEquals(0, connection.getDuplicateSamples());
+			assertTrue(listener.liveSamples > liveBefore);
+			assertEquals(10, connection.getSampleRate(), 1);
+			throughput[i] = connection.getLastTransferRate();
+		}
+		// 4 samples per 100 ms connection event against 116 per 7.5 ms.
+		assertEquals(40, throughput[0], 4);
+		assertTrue("throughput " + throughput[1], throughput[1] > 5000);
+	}
+
+	@Test
+	public void pipelineMetricsCountDecodesAndDrops() throws Exception {
+		transport.addDevice(new SimulatedThermometer("AA", 5).setRate(50).setBatching(5).setDropProbability(0.05));
+		manager.connect("AA");
+		scheduler.advance(20000);
+
+		PipelineMetrics.SensorSnapshot snapshot = manager.getPipelineMetrics().snapshot().get(0);
+		assertEquals(transport.getNotificationsSent(), snapshot.notifications);
+		assertEquals(snapshot.notifications, snapshot.stages[PipelineMetrics.Stage.Decode].count);
+		assertEquals(listener.liveSamples, snapshot.samples);
+		assertEquals(manager.get("AA").getMissedSamples(), snapshot.drops);
+		assertTrue(snapshot.drops > 0);
+	}
+
+	@Test
+	public void loadTest() throws Exception {
+		final int sensors = 20;
+		manager.setMaxConnections(sensors);
+		for (int i = 0; i < sensors; i++) {
+			String address = String.format("00:00:00:00:00:%02X", i);
+			transport.addDevice(new SimulatedThermometer(address, i).setRate(250).setJitter(1));
+			assertTrue(manager.connect(address));
+		}
+		scheduler.advance(1000);
+
+		final long virtualMillis = 60000;
+		final long start = System.nanoTime();
+		long before = listener.readings;
+		scheduler.advance(virtualMillis);
+		final long elapsedNanos = System.nanoTime() - start;
+		final long delivered = listener.readings - before;
+
+		// 20 sensors x 250 Hz x 60 s
+		assertTrue("delivered " + delivered, delivered >= 290000);
+		// The whole pipeline keeps up with at least ten times the real notification rate.
+		final double notificationsPerSecond = delivered * 1e9 / elapsedNanos;
+		assertTrue("notifications/s " + notificationsPerSecond,
+				notificationsPerSecond > 10.0 * delivered * 1000 / virtualMillis);
+	}
+
+	private static class CountingListener implements SensorConnectionManager.Listener {
+		long readings;
+		double lastValue;
+		int notSupported;
+		long liveSamples;
+		long storedSamples;
+		long lastTimestamp;
+		int transfers;
+		int lastResponseCode = -1;
+
+		@Override
+		public void onConnectionStateChanged(SensorConnection connection, int previousState, int newState) {
+		}
+
+		@Override
+		public void onServicesDiscovered(SensorConnection connection) {
+		}
+
+		@Override
+		public void onTemperatureServiceNotSupported(SensorConnection connection) {
+			notSupported++;
+		}
+
+		@Override
+		public void onMeasurement(SensorConnection connection, TemperatureMeasurement measurement, byte[] rawValue) {
+			readings++;
+			lastValue = measurement.value;
+		}
+
+		@Override
+		public void onBatch(SensorConnection connection, TemperatureBatch batch) {
+			if (batch.stored) {
+				storedSamples += batch.count;
+			} else {
+				liveSamples += batch.count;
+			}
+			// Live batches are stamped on arrival, up to a connection event after the device time of stored ones.
+			assertTrue(batch.timestamps[0] > lastTimestamp - 200);
+			lastTimestamp = batch.getLastTimestamp();
+		}
+
+		@Override
+		public void onTransferComplete(SensorConnection connection, int responseCode) {
+			transfers++;
+			lastResponseCode = responseCode;
+		}
+
+		@Override
+		public void onCharacteristicValue(SensorConnection connection, UUID characteristic, byte[] value) {
+		}
+	}
+}
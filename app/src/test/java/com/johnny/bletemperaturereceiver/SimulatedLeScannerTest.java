@@ -0,0 +1,112 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SimulatedLeScannerTest {
+
+	private static final byte[] OTHER_DEVICE = {0x02, 0x01, 0x06, 0x03, 0x03, 0x0D, 0x18};
+
+	private VirtualScheduler scheduler;
+	private SimulatedLeScanner scanner;
+	private final List<LeScanResult> results = new ArrayList<>();
+	private int batches;
+
+	private final LeScanner.Callback callback = new LeScanner.Callback() {
+		@Override
+		public void onScanResult(LeScanResult result) {
+			results.add(result);
+		}
+
+		@Override
+		public void onBatchScanResults(List<LeScanResult> batch) {
+			batches++;
+			results.addAll(batch);
+		}
+
+		@Override
+		public void onScanFailed(int errorCode) {
+			fail("scan failed " + errorCode);
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		scheduler = new VirtualScheduler();
+		scanner = new SimulatedLeScanner(scheduler, 1, 0x1809);
+		scanner.addAdvertiser("T1", -60, AdvertisementParserTest.THERMOMETER, 100);
+		scanner.addAdvertiser("T2", -70, AdvertisementParserTest.SERVICE_DATA, 100);
+		for (int i = 0; i < 20; i++) {
+			scanner.addAdvertiser("X" + i, -80, OTHER_DEVICE, 100);
+		}
+	}
+
+	@Test
+	public void filter_dropsOtherServices() throws Exception {
+		assertTrue(scanner.start(ScanProfile.LOW_LATENCY, callback));
+		scheduler.advance(10000);
+		scanner.stop();
+
+		assertFalse(results.isEmpty());
+		for (LeScanResult result : results) {
+			assertTrue(result.address, result.address.startsWith("T"));
+			assertEquals(result.address.equals("T1") ? "Thermo" : null, result.name);
+		}
+		assertEquals(scanner.getAdvertisementsHeard() - scanner.getAdvertisementsFiltered(), results.size());
+		// 20 of 22 advertisers are filtered out.
+		assertTrue(scanner.getAdvertisementsFiltered() > 8 * results.size());
+	}
+
+	@Test
+	public void lowLatency_deliversEachResult() throws Exception {
+		scanner.start(ScanProfile.LOW_LATENCY, callback);
+		scheduler.advance(10000);
+		assertEquals(0, batches);
+		assertEquals(results.size(), scanner.getCallbacks());
+		// Continuous scan: about 2 devices * 10 s / ~105 ms.
+		assertTrue(results.size() > 180);
+	}
+
+	@Test
+	public void reportDelay_batchesResults() throws Exception {
+		scanner.start(ScanProfile.BALANCED, callback);
+		scheduler.advance(10000);
+		assertTrue(batches > 0);
+		assertTrue(batches <= 10);
+		assertEquals(batches, scanner.getCallbacks());
+		assertTrue(results.size() > 5 * batches);
+	}
+
+	@Test
+	public void lowPower_hearsFractionOfAdvertisements() throws Exception {
+		scanner.start(ScanProfile.LOW_POWER, callback);
+		scheduler.advance(51200);
+		double heard = (double) scanner.getAdvertisementsHeard() / scanner.getAdvertisementsSent();
+		assertEquals(0.1, heard, 0.03);
+	}
+
+	@Test
+	public void stop_flushesPendingBatch() throws Exception {
+		scanner.start(ScanProfile.LOW_POWER, callback);
+		scheduler.advance(1000);
+		assertEquals(0, batches);
+		scanner.stop();
+		assertEquals(1, batches);
+		assertFalse(scanner.isScanning());
+
+		int delivered = results.size();
+		scheduler.advance(10000);
+		assertEquals(delivered, results.size());
+	}
+
+	@Test
+	public void start_twiceFails() throws Exception {
+		assertTrue(scanner.start(ScanProfile.BALANCED, callback));
+		assertFalse(scanner.start(ScanProfile.BALANCED, callback));
+	}
+}
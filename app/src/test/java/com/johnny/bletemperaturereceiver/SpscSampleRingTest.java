@@ -0,0 +1,114 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpscSampleRingTest {
+
+	private final long[] timestamps = new long[16];
+	private final float[] values = new float[16];
+	private final int[] flags = new int[16];
+
+	@Test
+	public void capacity_roundedUpToPowerOfTwo() throws Exception {
+		assertEquals(8, new SpscSampleRing(5, SpscSampleRing.Policy.DropNewest).getCapacity());
+		assertEquals(4, new SpscSampleRing(4, SpscSampleRing.Policy.DropNewest).getCapacity());
+	}
+
+	@Test
+	public void drain_returnsSamplesInOrder() throws Exception {
+		SpscSampleRing ring = new SpscSampleRing(4, SpscSampleRing.Policy.DropNewest);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(SpscSampleRing.OFFERED, ring.offer(i, i * 10, i + 100));
+		}
+		assertEquals(3, ring.size());
+		assertEquals(2, ring.drain(timestamps, values, flags, 0, 2));
+		assertEquals(0, timestamps[0]);
+		assertEquals(10f, values[1], 0);
+		assertEquals(101, flags[1]);
+		assertEquals(1, ring.drain(timestamps, values, flags, 0, 16));
+		assertEquals(2, timestamps[0]);
+		assertEquals(0, ring.size());
+	}
+
+	@Test
+	public void dropNewest_keepsQueuedSamples() throws Exception {
+		SpscSampleRing ring = new SpscSampleRing(4, SpscSampleRing.Policy.DropNewest);
+		for (int i = 0; i < 6; i++) {
+			ring.offer(i, i, 0);
+		}
+		assertEquals(2, ring.getDroppedCount());
+		assertEquals(4, ring.drain(timestamps, values, flags, 0, 16));
+		assertEquals(0, timestamps[0]);
+		assertEquals(3, timestamps[3]);
+	}
+
+	@Test
+	public void dropOldest_keepsLatestSamples() throws Exception {
+		SpscSampleRing ring = new SpscSampleRing(4, SpscSampleRing.Policy.DropOldest);
+		for (int i = 0; i < 6; i++) {
+			ring.offer(i, i, 0);
+		}
+		assertEquals(2, ring.getDroppedCount());
+		assertEquals(4, ring.drain(timestamps, values, flags, 0, 16));
+		assertEquals(2, timestamps[0]);
+		assertEquals(5, timestamps[3]);
+	}
+
+	@Test
+	public void coalesce_keepsOnlyLatestOverflowSample() throws Exception {
+		SpscSampleRing ring = new SpscSampleRing(4, SpscSampleRing.Policy.Coalesce);
+		for (int i = 0; i < 7; i++) {
+			ring.offer(i, i, 0);
+		}
+		assertEquals(2, ring.getCoalescedCount());
+		assertEquals(5, ring.size());
+
+		// While the coalesced sample is pending new ones replace it rather than queue behind it.
+		assertEquals(2, ring.drain(timestamps, values, flags, 0, 2));
+		assertEquals(SpscSampleRing.COALESCED, ring.offer(7, 7, 0));
+
+		assertEquals(3, ring.drain(timestamps, values, flags, 0, 16));
+		assertEquals(2, timestamps[0]);
+		assertEquals(3, timestamps[1]);
+		assertEquals(7, timestamps[2]);
+		assertEquals(0, ring.size());
+		assertEquals(SpscSampleRing.OFFERED, ring.offer(8, 8, 0));
+	}
+
+	@Test
+	public void concurrent_producerAndConsumerKeepOrder() throws Exception {
+		for (final int policy : new int[]{SpscSampleRing.Policy.DropNewest, SpscSampleRing.Policy.DropOldest,
+				SpscSampleRing.Policy.Coalesce}) {
+			final SpscSampleRing ring = new SpscSampleRing(64, policy);
+			final int total = 500000;
+			Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 1; i <= total; i++) {
+						ring.offer(i, i, i);
+					}
+				}
+			});
+			producer.start();
+
+			long last = 0;
+			long received = 0;
+			while (producer.isAlive() || ring.size() > 0) {
+				int n = ring.drain(timestamps, values, flags, 0, 16);
+				for (int i = 0; i < n; i++) {
+					assertTrue("policy " + policy + ": " + timestamps[i] + " after " + last, timestamps[i] > last);
+					assertEquals(timestamps[i], (long) flags[i]);
+					last = timestamps[i];
+				}
+				received += n;
+			}
+			producer.join();
+			assertEquals(total, received + ring.getDroppedCount() + ring.getCoalescedCount());
+			if (policy != SpscSampleRing.Policy.DropNewest) {
+				assertEquals(total, last);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TemperatureBatchCodecTest {
+
+	private TemperatureBatch batch;
+	private byte[] buffer;
+
+	@Before
+	public void setUp() {
+		batch = new TemperatureBatch();
+		buffer = new byte[TemperatureBatchCodec.HEADER_SIZE + TemperatureBatchCodec.BASE_TIME_SIZE
+				+ TemperatureBatch.MAX_SAMPLES * 2];
+	}
+
+	@Test
+	public void decode_liveBatchEndsAtArrival() throws Exception {
+		// Celsius, sequence 0x1234, 100 ms, 21.5 22.0 22.5 (exponent -1)
+		byte[] data = {0x00, 0x34, 0x12, 0x64, 0x00, (byte) 0xD7, (byte) 0xF0, (byte) 0xDC, (byte) 0xF0,
+				(byte) 0xE1, (byte) 0xF0};
+		assertTrue(TemperatureBatchCodec.decode(data, 10000, batch));
+		assertEquals(3, batch.count);
+		assertEquals(0x1234, batch.firstSequence);
+		assertEquals(0x1237, batch.nextSequence());
+		assertFalse(batch.stored);
+		assertFalse(batch.hasBaseTime);
+		assertEquals(21.5, batch.values[0], 1e-9);
+		assertEquals(22.5, batch.values[2], 1e-9);
+		assertEquals(9800, batch.timestamps[0]);
+		assertEquals(9900, batch.timestamps[1]);
+		assertEquals(10000, batch.getLastTimestamp());
+	}
+
+	@Test
+	public void roundTrip_storedWithBaseTime() throws Exception {
+		double[] values = {-4.5, 0, 36.6, 98.6};
+		int length = TemperatureBatchCodec.encode(values, 0, values.length, TemperatureMeasurement.Unit.Fahrenheit,
+				0xFFFE, 250, true, 1457354096789L, -1, buffer, 0);
+		assertEquals(TemperatureBatchCodec.HEADER_SIZE + TemperatureBatchCodec.BASE_TIME_SIZE + 8, length);
+
+		assertTrue(TemperatureBatchCodec.decode(buffer, 0, length, 0, batch));
+		assertEquals(4, batch.count);
+		assertEquals(TemperatureMeasurement.Unit.Fahrenheit, batch.unit);
+		assertTrue(batch.stored);
+		assertTrue(batch.hasBaseTime);
+		assertEquals(2, batch.nextSequence());
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], batch.values[i], 1e-9);
+			assertEquals(1457354096789L + i * 250, batch.timestamps[i]);
+		}
+	}
+
+	@Test
+	public void decode_malformed() throws Exception {
+		byte[] data = {0x04, 0x00, 0x00, 0x64, 0x00, 0x01, 0x02, 0x03};
+		assertFalse(TemperatureBatchCodec.decode(data, 0, batch));
+		// Header only, no sample.
+		assertFalse(TemperatureBatchCodec.decode(new byte[]{0x00, 0x00, 0x00, 0x64, 0x00}, 0, batch));
+		// Odd trailing byte.
+		assertFalse(TemperatureBatchCodec.decode(new byte[]{0x00, 0x00, 0x00, 0x64, 0x00, 0x01, 0x00, 0x01}, 0, batch));
+		assertFalse(TemperatureBatchCodec.decode(null, 0, batch));
+	}
+
+	@Test
+	public void dropFirst_keepsTimestampsAndSequence() throws Exception {
+		double[] values = {1, 2, 3, 4, 5};
+		int length = TemperatureBatchCodec.encode(values, 0, values.length, TemperatureMeasurement.Unit.Celsius,
+				0xFFFF, 10, false, -1, -1, buffer, 0);
+		assertTrue(TemperatureBatchCodec.decode(buffer, 0, length, 1000, batch));
+		batch.dropFirst(2);
+		assertEquals(3, batch.count);
+		assertEquals(1, batch.firstSequence);
+		assertEquals(3, batch.values[0], 1e-9);
+		assertEquals(980, batch.timestamps[0]);
+		assertEquals(1000, batch.getLastTimestamp());
+
+		batch.dropFirst(5);
+		assertEquals(0, batch.count);
+		assertEquals(4, batch.firstSequence);
+	}
+
+	@Test
+	public void samplesPerPacket() throws Exception {
+		assertEquals(7, TemperatureBatchCodec.samplesPerPacket(23, false));
+		assertEquals(4, TemperatureBatchCodec.samplesPerPacket(23, true));
+		assertEquals(116, TemperatureBatchCodec.samplesPerPacket(247, true));
+		assertEquals(254, TemperatureBatchCodec.samplesPerPacket(517, false));
+	}
+}
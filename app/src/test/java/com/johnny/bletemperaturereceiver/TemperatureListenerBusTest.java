@@ -0,0 +1,135 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class TemperatureListenerBusTest {
+
+	private TemperatureListenerBus bus;
+	private QueueExecutor executor;
+	private RecordingListener listener;
+
+	@Before
+	public void setUp() {
+		bus = new TemperatureListenerBus();
+		executor = new QueueExecutor();
+		listener = new RecordingListener();
+	}
+
+	@Test
+	public void deliversOnExecutor() throws Exception {
+		bus.addListener(listener, executor);
+		bus.publish("AA", 21.5, TemperatureMeasurement.Unit.Celsius, 1000);
+		assertTrue(listener.values.isEmpty());
+
+		executor.runAll();
+		assertEquals(1, listener.values.size());
+		assertEquals(21.5, listener.values.get(0), 0);
+		assertEquals("AA", listener.lastAddress);
+	}
+
+	@Test
+	public void slowListenerOnlySeesLatest() throws Exception {
+		bus.addListener(listener, executor);
+		bus.publish("AA", 1, TemperatureMeasurement.Unit.Celsius, 1);
+		bus.publish("AA", 2, TemperatureMeasurement.Unit.Celsius, 2);
+		bus.publish("AA", 3, TemperatureMeasurement.Unit.Celsius, 3);
+		assertEquals(1, executor.tasks.size());
+
+		executor.runAll();
+		assertEquals(1, listener.values.size());
+		assertEquals(3.0, listener.values.get(0), 0);
+		assertEquals(2, bus.getCoalescedCount());
+	}
+
+	@Test
+	public void coalescesPerAddress() throws Exception {
+		bus.addListener(listener, executor);
+		bus.publish("AA", 1, TemperatureMeasurement.Unit.Celsius, 1);
+		bus.publish("BB", 2, TemperatureMeasurement.Unit.Celsius, 2);
+		bus.publish("AA", 3, TemperatureMeasurement.Unit.Celsius, 3);
+		bus.publish("BB", 4, TemperatureMeasurement.Unit.Celsius, 4);
+		assertEquals(1, executor.tasks.size());
+
+		executor.runAll();
+		assertEquals(2, listener.values.size());
+		assertEquals("AA", listener.addresses.get(0));
+		assertEquals(3.0, listener.values.get(0), 0);
+		assertEquals("BB", listener.addresses.get(1));
+		assertEquals(4.0, listener.values.get(1), 0);
+		assertEquals(2, bus.getCoalescedCount());
+
+		// Delivered slots take new readings again.
+		bus.publish("BB", 5, TemperatureMeasurement.Unit.Celsius, 5);
+		executor.runAll();
+		assertEquals(5.0, listener.values.get(2), 0);
+		assertEquals(2, bus.getCoalescedCount());
+	}
+
+	@Test
+	public void readingPublishedDuringDeliveryIsRequeued() throws Exception {
+		TemperatureListener reentrant = new TemperatureListener() {
+			@Override
+			public void onTemperatureReading(String address, double value, int unit, long timestampMillis) {
+				listener.onTemperatureReading(address, value, unit, timestampMillis);
+				if (value < 3) {
+					bus.publish(address, value + 1, unit, timestampMillis + 1);
+				}
+			}
+		};
+		bus.addListener(reentrant, executor);
+		bus.publish("AA", 1, TemperatureMeasurement.Unit.Celsius, 1);
+		executor.runAll();
+
+		assertEquals(3, listener.values.size());
+		assertEquals(1.0, listener.values.get(0), 0);
+		assertEquals(2.0, listener.values.get(1), 0);
+		assertEquals(3.0, listener.values.get(2), 0);
+	}
+
+	@Test
+	public void removedListenerGetsNothing() throws Exception {
+		bus.addListener(listener, executor);
+		bus.publish("AA", 1, TemperatureMeasurement.Unit.Celsius, 1);
+		bus.removeListener(listener);
+		executor.runAll();
+		assertTrue(listener.values.isEmpty());
+		assertFalse(bus.hasListeners());
+	}
+
+	private static class QueueExecutor implements Executor {
+		final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+	}
+
+	private static class RecordingListener implements TemperatureListener {
+		final List<Double> values = new ArrayList<>();
+		final List<String> addresses = new ArrayList<>();
+		String lastAddress;
+
+		@Override
+		public void onTemperatureReading(String address, double value, int unit, long timestampMillis) {
+			values.add(value);
+			addresses.add(address);
+			lastAddress = address;
+		}
+	}
+}
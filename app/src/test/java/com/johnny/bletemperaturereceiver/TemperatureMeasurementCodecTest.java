@@ -0,0 +1,143 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TemperatureMeasurementCodecTest {
+
+	private TemperatureMeasurement measurement;
+
+	@Before
+	public void setUp() {
+		measurement = new TemperatureMeasurement();
+	}
+
+	@Test
+	public void decode_celsiusOnly() throws Exception {
+		// 365 * 10^-1
+		byte[] data = {0x00, 0x6D, 0x01, 0x00, (byte) 0xFF};
+		assertTrue(TemperatureMeasurementCodec.decode(data, measurement));
+		assertEquals(36.5, measurement.value, 0);
+		assertEquals(TemperatureMeasurement.Unit.Celsius, measurement.unit);
+		assertEquals(TemperatureMeasurement.ValueKind.Normal, measurement.valueKind);
+		assertFalse(measurement.hasTimestamp);
+		assertFalse(measurement.hasType);
+	}
+
+	@Test
+	public void decode_fahrenheitWithTimestampAndType() throws Exception {
+		// -1234 * 10^-2, 2016-03-07 12:34:56, type Ear
+		byte[] data = {0x07, 0x2E, (byte) 0xFB, (byte) 0xFF, (byte) 0xFE,
+				(byte) 0xE0, 0x07, 0x03, 0x07, 0x0C, 0x22, 0x38,
+				0x03};
+		assertTrue(TemperatureMeasurementCodec.decode(data, measurement));
+		assertEquals(-12.34, measurement.value, 1e-9);
+		assertTrue(measurement.isFahrenheit());
+		assertTrue(measurement.hasTimestamp);
+		assertEquals(2016, measurement.year);
+		assertEquals(3, measurement.month);
+		assertEquals(7, measurement.day);
+		assertEquals(12, measurement.hours);
+		assertEquals(34, measurement.minutes);
+		assertEquals(56, measurement.seconds);
+		assertTrue(measurement.hasType);
+		assertEquals(TemperatureMeasurement.Type.Ear, measurement.type);
+	}
+
+	@Test
+	public void decode_truncated() throws Exception {
+		assertFalse(TemperatureMeasurementCodec.decode(new byte[]{0x00, 0x6D, 0x01, 0x00}, measurement));
+		assertFalse(TemperatureMeasurementCodec.decode(new byte[]{0x02, 0x6D, 0x01, 0x00, (byte) 0xFF, 0x01}, measurement));
+		assertFalse(TemperatureMeasurementCodec.decode(new byte[]{0x04, 0x6D, 0x01, 0x00, (byte) 0xFF}, measurement));
+		assertFalse(TemperatureMeasurementCodec.decode(null, measurement));
+	}
+
+	@Test
+	public void decode_withOffset() throws Exception {
+		byte[] data = {0x55, 0x55, 0x00, 0x6D, 0x01, 0x00, (byte) 0xFF, 0x55};
+		assertTrue(TemperatureMeasurementCodec.decode(data, 2, 5, measurement));
+		assertEquals(36.5, measurement.value, 0);
+		assertFalse(measurement.hasType);
+	}
+
+	@Test
+	public void decodeFloat_specialValues() throws Exception {
+		TemperatureMeasurementCodec.decodeFloat(0x007FFFFF, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.NaN, measurement.valueKind);
+		assertTrue(Double.isNaN(measurement.value));
+
+		TemperatureMeasurementCodec.decodeFloat(0x00800000, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.NRes, measurement.valueKind);
+
+		TemperatureMeasurementCodec.decodeFloat(0x007FFFFE, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.PositiveInfinity, measurement.valueKind);
+		assertEquals(Double.POSITIVE_INFINITY, measurement.value, 0);
+
+		TemperatureMeasurementCodec.decodeFloat(0x00800002, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.NegativeInfinity, measurement.valueKind);
+		assertEquals(Double.NEGATIVE_INFINITY, measurement.value, 0);
+
+		TemperatureMeasurementCodec.decodeFloat(0x00800001, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.Reserved, measurement.valueKind);
+		assertFalse(measurement.isValid());
+	}
+
+	@Test
+	public void decodeFloat_positiveExponent() throws Exception {
+		TemperatureMeasurementCodec.decodeFloat(0x02000007, measurement);
+		assertEquals(700.0, measurement.value, 0);
+	}
+
+	@Test
+	public void decodeSFloat() throws Exception {
+		// 0xF16D: exponent -1, mantissa 365
+		TemperatureMeasurementCodec.decodeSFloat(0xF16D, measurement);
+		assertEquals(36.5, measurement.value, 0);
+
+		// 0xFF9C: exponent -1, mantissa -100
+		TemperatureMeasurementCodec.decodeSFloat(0xFF9C, measurement);
+		assertEquals(-10.0, measurement.value, 0);
+
+		TemperatureMeasurementCodec.decodeSFloat(0x07FF, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.NaN, measurement.valueKind);
+
+		TemperatureMeasurementCodec.decodeSFloat(0x0802, measurement);
+		assertEquals(TemperatureMeasurement.ValueKind.NegativeInfinity, measurement.valueKind);
+	}
+
+	@Test
+	public void encode_roundTrip() throws Exception {
+		TemperatureMeasurement in = new TemperatureMeasurement();
+		in.value = 98.62;
+		in.unit = TemperatureMeasurement.Unit.Fahrenheit;
+		in.hasTimestamp = true;
+		in.year = 2015;
+		in.month = 12;
+		in.day = 31;
+		in.hours = 23;
+		in.minutes = 59;
+		in.seconds = 58;
+		in.hasType = true;
+		in.type = TemperatureMeasurement.Type.Mouth;
+
+		byte[] buffer = new byte[TemperatureMeasurementCodec.MAX_SIZE];
+		int length = TemperatureMeasurementCodec.encode(in, -2, buffer, 0);
+		assertEquals(TemperatureMeasurementCodec.MAX_SIZE, length);
+
+		assertTrue(TemperatureMeasurementCodec.decode(buffer, 0, length, measurement));
+		assertEquals(98.62, measurement.value, 1e-9);
+		assertEquals(in.unit, measurement.unit);
+		assertEquals(in.year, measurement.year);
+		assertEquals(in.seconds, measurement.seconds);
+		assertEquals(in.type, measurement.type);
+	}
+
+	@Test
+	public void getCelsius_convertsFahrenheit() throws Exception {
+		measurement.value = 212;
+		measurement.unit = TemperatureMeasurement.Unit.Fahrenheit;
+		assertEquals(100.0, measurement.getCelsius(), 1e-9);
+	}
+}
@@ -0,0 +1,144 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class TemperatureRingFileTest {
+
+	private File file;
+	private TemperatureRingFile ring;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("ring", ".ring");
+		ring = new TemperatureRingFile(file, 8);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ring.close();
+		file.delete();
+	}
+
+	@Test
+	public void append_andReadRange() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			ring.append(1000 + i * 100, 20 + i, TemperatureRingFile.packFlags(TemperatureMeasurement.Unit.Celsius, 0));
+		}
+		assertEquals(5, ring.getCount());
+		assertEquals(1000, ring.getOldestTimestamp());
+		assertEquals(1400, ring.getNewestTimestamp());
+
+		long[] timestamps = new long[8];
+		float[] values = new float[8];
+		int count = ring.read(1150, 1400, timestamps, values, null, 0, 8);
+		assertEquals(2, count);
+		assertEquals(1200, timestamps[0]);
+		assertEquals(22f, values[0], 0);
+		assertEquals(1300, timestamps[1]);
+	}
+
+	@Test
+	public void append_wrapsAroundAndDropsOldest() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			ring.append(i, i, 0);
+		}
+		assertEquals(8, ring.getCount());
+		assertEquals(12, ring.getOldestTimestamp());
+		assertEquals(ring.getCount(), ring.indexOf(100));
+		assertEquals(3, ring.indexOf(15));
+
+		float[] values = new float[8];
+		assertEquals(8, ring.readByIndex(0, null, values, null, 0, 8));
+		for (int i = 0; i < 8; i++) {
+			assertEquals(12 + i, values[i], 0);
+		}
+	}
+
+	@Test
+	public void append_clampsTimestampGoingBackwards() throws Exception {
+		ring.append(500, 1, 0);
+		ring.append(400, 2, 0);
+		assertEquals(500, ring.getNewestTimestamp());
+		assertEquals(0, ring.indexOf(500));
+	}
+
+	@Test
+	public void reopen_keepsRecords() throws Exception {
+		for (int i = 0; i < 11; i++) {
+			ring.append(i * 10, i, TemperatureRingFile.packFlags(TemperatureMeasurement.Unit.Fahrenheit, 0));
+		}
+		ring.close();
+
+		ring = new TemperatureRingFile(file, 8);
+		assertEquals(8, ring.getCount());
+		assertEquals(30, ring.getOldestTimestamp());
+		assertEquals(100, ring.getNewestTimestamp());
+		int[] flags = new int[1];
+		ring.readByIndex(0, null, null, flags, 0, 1);
+		assertEquals(TemperatureMeasurement.Unit.Fahrenheit, flags[0] & TemperatureRingFile.FLAG_UNIT_MASK);
+	}
+
+	@Test
+	public void reopen_tornHeaderSlotFallsBackToPreviousCommit() throws Exception {
+		ring.append(10, 1, 0);
+		ring.append(20, 2, 0);
+		ring.close();
+
+		// Sequence 2 went to slot A (offset 16), corrupt its checksum.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(16 + 16);
+		raf.writeLong(0x1234L);
+		raf.close();
+
+		ring = new TemperatureRingFile(file, 8);
+		assertEquals(1, ring.getCount());
+		assertEquals(10, ring.getNewestTimestamp());
+	}
+
+	@Test
+	public void reopen_crashBeforeCommitOfWrappedRecords() throws Exception {
+		for (int i = 0; i < 8; i++) {
+			ring.append(i * 10, i, 0);
+		}
+		// Overwrites the slots of the three oldest records, then the process dies.
+		ring.appendUncommitted(new long[]{80, 90, 100}, new float[]{8, 9, 10}, new int[3], 0, 3);
+		ring.close();
+
+		ring = new TemperatureRingFile(file, 8);
+		assertEquals(5, ring.getCount());
+		assertEquals(30, ring.getOldestTimestamp());
+		assertEquals(70, ring.getNewestTimestamp());
+		assertEquals(2, ring.indexOf(50));
+		long[] timestamps = new long[5];
+		assertEquals(5, ring.readByIndex(0, timestamps, null, null, 0, 5));
+		assertArrayEquals(new long[]{30, 40, 50, 60, 70}, timestamps);
+
+		ring.append(80, 8, 0);
+		assertEquals(6, ring.getCount());
+		assertEquals(80, ring.getNewestTimestamp());
+	}
+
+	@Test
+	public void reopen_withOtherCapacityResets() throws Exception {
+		ring.append(10, 1, 0);
+		ring.close();
+
+		ring = new TemperatureRingFile(file, 4);
+		assertEquals(0, ring.getCount());
+		assertEquals(4, ring.getCapacity());
+	}
+
+	@Test
+	public void capacityForBytes() throws Exception {
+		assertEquals(1, TemperatureRingFile.capacityForBytes(0));
+		assertEquals(100, TemperatureRingFile.capacityForBytes(TemperatureRingFile.HEADER_SIZE
+				+ 100 * TemperatureRingFile.RECORD_SIZE));
+	}
+}
@@ -0,0 +1,209 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TemperatureRollupsTest {
+
+	private File directory;
+	private TemperatureHistoryStore store;
+	private final RollupSeries series = new RollupSeries();
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("history", "");
+		directory.delete();
+		store = new TemperatureHistoryStore(directory, 4 * 3600);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void tier_aggregatesPerBucket() throws Exception {
+		RollupTier tier = new RollupTier(60000, 10);
+		tier.add(0, 10);
+		tier.add(30000, 20);
+		tier.add(60000, 30);
+		tier.add(179999, 40);
+
+		assertEquals(3, tier.size());
+		series.ensureCapacity(10);
+		tier.read(0, 180000, 1, series);
+		assertEquals(3, series.size);
+		assertEquals(0, series.startMillis[0]);
+		assertEquals(10f, series.min[0], 0);
+		assertEquals(20f, series.max[0], 0);
+		assertEquals(15f, series.avg[0], 0);
+		assertEquals(2, series.count[0]);
+		assertEquals(120000, series.startMillis[2]);
+	}
+
+	@Test
+	public void tier_dropsOldestBuckets() throws Exception {
+		RollupTier tier = new RollupTier(1000, 3);
+		for (int i = 0; i < 5; i++) {
+			tier.add(i * 1000, i);
+		}
+		assertEquals(3, tier.size());
+		assertEquals(3, tier.count(0, 10000));
+		series.ensureCapacity(3);
+		tier.read(0, 10000, 1, series);
+		assertEquals(2000, series.startMillis[0]);
+	}
+
+	@Test
+	public void tier_storedInFile() throws Exception {
+		directory.mkdirs();
+		final File file = new File(directory, "tier");
+		RollupTier tier = RollupTier.open(file, 1000, 3);
+		for (int i = 0; i < 5; i++) {
+			tier.add(i * 1000, i);
+			tier.add(i * 1000 + 500, i + 1);
+		}
+		tier.close();
+
+		tier = RollupTier.open(file, 1000, 3);
+		assertEquals(3, tier.size());
+		series.ensureCapacity(3);
+		tier.read(0, 10000, 1, series);
+		assertEquals(2000, series.startMillis[0]);
+		assertEquals(4000, series.startMillis[2]);
+		assertEquals(4.5f, series.avg[2], 0);
+		assertEquals(2, series.count[2]);
+		tier.add(5000, 7);
+		assertEquals(3, tier.size());
+		tier.close();
+
+		// Another bucket width or capacity starts over.
+		tier = RollupTier.open(file, 1000, 4);
+		assertEquals(0, tier.size());
+		tier.close();
+	}
+
+	@Test
+	public void tier_rangeIncludesPartiallyCoveredBucket() throws Exception {
+		RollupTier tier = new RollupTier(1000, 10);
+		tier.add(500, 1);
+		tier.add(1500, 2);
+		assertEquals(2, tier.count(900, 1100));
+		assertEquals(1, tier.count(1000, 1100));
+	}
+
+	@Test
+	public void query_returnsRawSamplesWhenTheyFit() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			store.append("AA:BB", i * 1000, i, 0);
+		}
+		store.query("AA:BB", 0, 10000, 300, series);
+		assertEquals(0, series.resolutionMillis);
+		assertEquals(10, series.size);
+		assertEquals(9f, series.max[9], 0);
+	}
+
+	@Test
+	public void query_picksFinestTierWithinBudget() throws Exception {
+		// Three hours at 1 Hz
+		for (int i = 0; i < 3 * 3600; i++) {
+			store.append("AA:BB", i * 1000L, i % 60, 0);
+		}
+		store.query("AA:BB", 0, 3 * TemperatureRollups.HOUR, 100, series);
+		assertEquals(15 * TemperatureRollups.MINUTE, series.resolutionMillis);
+		assertEquals(12, series.size);
+		assertEquals(0f, series.min[0], 0);
+		assertEquals(59f, series.max[0], 0);
+		assertEquals(29.5f, series.avg[0], 1e-3);
+		assertEquals(900, series.count[0]);
+
+		store.query("AA:BB", 0, 3 * TemperatureRollups.HOUR, 300, series);
+		assertEquals(TemperatureRollups.MINUTE, series.resolutionMillis);
+		assertEquals(180, series.size);
+	}
+
+	@Test
+	public void query_mergesCoarsestTierWhenNeeded() throws Exception {
+		for (int i = 0; i < 3 * 3600; i++) {
+			store.append("AA:BB", i * 1000L, 1, 0);
+		}
+		store.query("AA:BB", 0, 3 * TemperatureRollups.HOUR, 2, series);
+		assertEquals(2, series.size);
+		assertEquals(2 * TemperatureRollups.HOUR, series.resolutionMillis);
+		assertEquals(7200, series.count[0]);
+		assertEquals(3600, series.count[1]);
+	}
+
+	@Test
+	public void rollups_skipInvalidValues() throws Exception {
+		store.append("AA:BB", 0, Float.NaN, 0);
+		store.append("AA:BB", 1000, 5, 0);
+		RollupTier minute = store.getRollups("AA:BB").getTiers()[0];
+		series.ensureCapacity(1);
+		minute.read(0, 60000, 1, series);
+		assertEquals(1, series.count[0]);
+		assertEquals(5f, series.avg[0], 0);
+	}
+
+	// The ring file keeps a minute, the rollups the whole three hours, also after reopening.
+	@Test
+	public void rollups_storedBeyondRawRetention() throws Exception {
+		store.close();
+		store = new TemperatureHistoryStore(directory, 60);
+		for (int i = 0; i < 3 * 3600; i++) {
+			store.append("AA:BB", i * 1000L, i % 60, 0);
+		}
+		store.close();
+
+		store = new TemperatureHistoryStore(directory, 60);
+		final RollupTier[] tiers = store.getRollups("AA:BB").getTiers();
+		assertEquals(180, tiers[0].size());
+		assertEquals(12, tiers[1].size());
+		assertEquals(3, tiers[2].size());
+		assertEquals(60, store.get("AA:BB").getCount());
+		assertArrayEquals(new String[]{"AA:BB"}, store.getAddresses());
+
+		store.query("AA:BB", 0, 3 * TemperatureRollups.HOUR, 3, series);
+		assertEquals(TemperatureRollups.HOUR, series.resolutionMillis);
+		assertEquals(3, series.size);
+		assertEquals(3600, series.count[0]);
+		assertEquals(29.5f, series.avg[0], 0);
+		assertEquals(59f, series.max[2], 0);
+	}
+
+	@Test
+	public void store_retentionAndMaxOpen() throws Exception {
+		store.close();
+		store = new TemperatureHistoryStore(directory, 60).setMaxOpen(2).setRollupRetention(TemperatureRollups.DAY);
+		store.append("AA", 1000, 20, 0);
+		store.append("BB", 1000, 21, 0);
+		final RollupTier[] tiers = store.getRollups("AA").getTiers();
+		assertEquals(24 * 60, tiers[0].getCapacity());
+		assertEquals(24 * 4, tiers[1].getCapacity());
+		assertEquals(24, tiers[2].getCapacity());
+
+		assertFalse(store.canOpen("CC"));
+		assertTrue(store.canOpen("AA"));
+		try {
+			store.append("CC", 1000, 22, 0);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals(2, store.getOpenCount());
+		assertFalse(store.hasHistory("CC"));
+		assertTrue(store.hasHistory("BB"));
+	}
+}
@@ -0,0 +1,141 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The path of a reading after decoding: the signal processor, the listener bus, and the whole
+ * receive path from a simulated notification to the listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+	private static final int NOTIFICATIONS_PER_INVOCATION = 100;
+
+	@Param({"1", "4"})
+	public int listeners;
+
+	private final TemperatureListenerBus mBus = new TemperatureListenerBus();
+	private SignalProcessor mProcessor;
+	private double[] mValues;
+	private int mNext;
+	private long mTime;
+
+	private VirtualScheduler mScheduler;
+	// Everything listeners see ends up here, returned so the JIT cannot drop the work.
+	private double mSink;
+
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < listeners; i++) {
+			mBus.addListener(new TemperatureListener() {
+				@Override
+				public void onTemperatureReading(String address, double value, int unit, long timestampMillis) {
+					mSink += value;
+				}
+			}, DIRECT);
+		}
+		mProcessor = new SignalChain()
+				.addAlarm(TemperatureAlarm.above("hot", 30, 0.5))
+				.addAlarm(TemperatureAlarm.risingFaster("rising", 2, 0.5))
+				.create("00:00:00:00:00:01", null);
+		final SimulatedThermometer device = new SimulatedThermometer("00:00:00:00:00:01", 1).setSignal(22, 3, 600000, 0.3);
+		mValues = new double[SyntheticPayloads.COUNT];
+		for (int i = 0; i < mValues.length; i++) {
+			mValues[i] = device.temperatureAt(i * 100L);
+		}
+
+		// Simulated device notifying every millisecond into a connection manager on a virtual clock.
+		mScheduler = new VirtualScheduler();
+		final SimulatedGattTransport transport = new SimulatedGattTransport(mScheduler);
+		transport.addDevice(new SimulatedThermometer("00:00:00:00:00:02", 2).setRate(1000));
+		final SensorConnectionManager manager = new SensorConnectionManager(transport, mScheduler, mConnectionListener);
+		manager.connect("00:00:00:00:00:02");
+		mScheduler.advance(1000);
+		if (manager.getState("00:00:00:00:00:02") != SensorConnection.State.ConnectedRunning) {
+			throw new IllegalStateException("simulated device did not connect");
+		}
+	}
+
+	@Benchmark
+	public double signalProcessor() {
+		mTime += 100;
+		return mProcessor.process(mTime, mValues[mNext++ & (SyntheticPayloads.COUNT - 1)]);
+	}
+
+	@Benchmark
+	public double listenerBus() {
+		mBus.publish("00:00:00:00:00:01", mValues[mNext++ & (SyntheticPayloads.COUNT - 1)],
+				TemperatureMeasurement.Unit.Celsius, mTime++);
+		return mSink;
+	}
+
+	/**
+	 * Notification callback, decode, connection bookkeeping, signal processor and bus, per notification.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(NOTIFICATIONS_PER_INVOCATION)
+	public double receivePath() {
+		mScheduler.advance(NOTIFICATIONS_PER_INVOCATION);
+		return mSink;
+	}
+
+	private final SensorConnectionManager.Listener mConnectionListener = new SensorConnectionManager.Listener() {
+		private SignalProcessor mReceiveProcessor = new SignalChain().create("00:00:00:00:00:02", null);
+
+		@Override
+		public void onMeasurement(SensorConnection connection, TemperatureMeasurement measurement, byte[] rawValue) {
+			final long now = mScheduler.nowMillis();
+			mBus.publish(connection.getAddress(), mReceiveProcessor.process(now, measurement.value), measurement.unit, now);
+		}
+
+		@Override
+		public void onConnectionStateChanged(SensorConnection connection, int previousState, int newState) {
+		}
+
+		@Override
+		public void onServicesDiscovered(SensorConnection connection) {
+		}
+
+		@Override
+		public void onTemperatureServiceNotSupported(SensorConnection connection) {
+		}
+
+		@Override
+		public void onBatch(SensorConnection connection, TemperatureBatch batch) {
+		}
+
+		@Override
+		public void onTransferComplete(SensorConnection connection, int responseCode) {
+		}
+
+		@Override
+		public void onCharacteristicValue(SensorConnection connection, UUID characteristic, byte[] value) {
+		}
+	};
+}
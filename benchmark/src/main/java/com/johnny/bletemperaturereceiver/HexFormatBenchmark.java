@@ -0,0 +1,55 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex dump of a notification for verbose logging: the String.format loop HexUtils replaced, the
+ * String variant and the reused buffer the service uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HexFormatBenchmark {
+
+	private byte[] mPayload;
+	private char[] mBuffer;
+
+	@Setup
+	public void setUp() {
+		mPayload = SyntheticPayloads.temperatureMeasurements()[0];
+		mBuffer = new char[HexUtils.displayHexLength(TemperatureMeasurementCodec.MAX_SIZE)];
+	}
+
+	@Benchmark
+	public String legacyFormat() {
+		final StringBuilder stringBuilder = new StringBuilder(mPayload.length);
+		for (byte byteChar : mPayload) {
+			stringBuilder.append(String.format("%02X ", byteChar));
+		}
+		return stringBuilder.toString();
+	}
+
+	@Benchmark
+	public String displayHex() {
+		return HexUtils.displayHex(mPayload);
+	}
+
+	@Benchmark
+	public int displayHexReusedBuffer() {
+		return HexUtils.displayHex(mPayload, 0, mPayload.length, mBuffer, 0);
+	}
+}
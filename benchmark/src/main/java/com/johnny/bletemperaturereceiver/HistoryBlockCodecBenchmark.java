@@ -0,0 +1,91 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History export per sample: encoding a block, decoding it, and formatting the same samples as CSV
+ * lines for comparison. The compressed size of each series against CSV and raw ring records is
+ * printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HistoryBlockCodecBenchmark {
+	private static final int SAMPLES = HistoryBlockCodec.MAX_BLOCK_SAMPLES;
+	private static final String ADDRESS = "00:00:00:00:00:01";
+
+	/**
+	 * Receive jitter of the one-per-second timestamps in ms.
+	 */
+	@Param({"0", "5", "20"})
+	public int jitter;
+
+	private final long[] mTimestamps = new long[SAMPLES];
+	private final float[] mValues = new float[SAMPLES];
+	private final ByteBuffer mBuffer = ByteBuffer.allocate(HistoryBlockCodec.MAX_BLOCK_SIZE);
+	private final HistoryBlockCodec.Encoder mEncoder = new HistoryBlockCodec.Encoder();
+	private final HistoryBlockCodec.Decoder mDecoder = new HistoryBlockCodec.Decoder();
+	private final StringBuilder mCsv = new StringBuilder(SAMPLES * 48);
+
+	@Setup
+	public void setUp() {
+		SyntheticPayloads.historySeries(jitter, mTimestamps, mValues);
+		final int blockSize = encodeBlock();
+		final int csvSize = formatCsv();
+		System.out.println(String.format("%n%d samples, jitter %d ms: %d bytes, %.1f bits/sample, %.1fx smaller"
+						+ " than CSV, %.1fx smaller than ring records", SAMPLES, jitter, blockSize,
+				blockSize * 8.0 / SAMPLES, (double) csvSize / blockSize,
+				(double) SAMPLES * TemperatureRingFile.RECORD_SIZE / blockSize));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int encodeBlock() {
+		mBuffer.clear();
+		mEncoder.begin(mBuffer);
+		for (int i = 0; i < SAMPLES; i++) {
+			mEncoder.append(mTimestamps[i], mValues[i], 0);
+		}
+		return mEncoder.finish();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float decodeBlock() {
+		mBuffer.rewind();
+		mDecoder.open(mBuffer);
+		float sum = 0;
+		while (mDecoder.next()) {
+			sum += mDecoder.getValue();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public int formatCsv() {
+		final StringBuilder csv = mCsv;
+		csv.setLength(0);
+		for (int i = 0; i < SAMPLES; i++) {
+			csv.append(ADDRESS).append(',').append(mTimestamps[i]).append(',').append(mValues[i]).append(",0,0\n");
+		}
+		return csv.length();
+	}
+}
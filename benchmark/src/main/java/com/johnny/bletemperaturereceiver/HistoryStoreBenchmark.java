@@ -0,0 +1,100 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History store append (single and batched, as the history writer commits) and rollup queries
+ * over a filled ring file in a temporary directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HistoryStoreBenchmark {
+	private static final String ADDRESS = "00:00:00:00:00:01";
+	private static final int CAPACITY = 1 << 16;
+	private static final int BATCH = 64;
+
+	private File mDirectory;
+	private TemperatureHistoryStore mStore;
+	private final RollupSeries mSeries = new RollupSeries();
+	private final long[] mTimestamps = new long[BATCH];
+	private final float[] mValues = new float[BATCH];
+	private final int[] mFlags = new int[BATCH];
+	private long mTime;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mDirectory = File.createTempFile("history", "");
+		if (!mDirectory.delete() || !mDirectory.mkdir()) {
+			throw new IOException("Unable to create " + mDirectory);
+		}
+		mStore = new TemperatureHistoryStore(mDirectory, CAPACITY);
+		final SimulatedThermometer device = new SimulatedThermometer(ADDRESS, 1).setSignal(22, 3, 600000, 0.2);
+		for (int i = 0; i < BATCH; i++) {
+			mValues[i] = (float) device.temperatureAt(i * 1000L);
+		}
+		// A full ring, one sample per second.
+		for (int i = 0; i < CAPACITY; i++) {
+			mStore.append(ADDRESS, nextTime(), mValues[i % BATCH], 0);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		mStore.close();
+		final File[] files = mDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDirectory.delete();
+	}
+
+	private long nextTime() {
+		mTime += 1000;
+		return mTime;
+	}
+
+	@Benchmark
+	public void append() throws IOException {
+		mStore.append(ADDRESS, nextTime(), mValues[(int) (mTime / 1000) % BATCH], 0);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void appendBatch() throws IOException {
+		for (int i = 0; i < BATCH; i++) {
+			mTimestamps[i] = nextTime();
+		}
+		mStore.append(ADDRESS, mTimestamps, mValues, mFlags, 0, BATCH);
+	}
+
+	/**
+	 * The last day at 300 points, what a chart asks for.
+	 */
+	@Benchmark
+	public int queryDay() throws IOException {
+		mStore.query(ADDRESS, mTime - 24 * 3600 * 1000L, mTime, 300, mSeries);
+		return mSeries.size;
+	}
+}
@@ -0,0 +1,54 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload decoding: one 0x2A1C measurement, and batched notifications per notification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MeasurementCodecBenchmark {
+
+	@Param({"5", "116"})
+	public int batchSize;
+
+	private byte[][] mMeasurements;
+	private byte[][] mBatches;
+	private final TemperatureMeasurement mMeasurement = new TemperatureMeasurement();
+	private final TemperatureBatch mBatch = new TemperatureBatch();
+	private int mNext;
+
+	@Setup
+	public void setUp() {
+		mMeasurements = SyntheticPayloads.temperatureMeasurements();
+		mBatches = SyntheticPayloads.batches(batchSize);
+	}
+
+	@Benchmark
+	public double decodeMeasurement() {
+		final byte[] payload = mMeasurements[mNext++ & (SyntheticPayloads.COUNT - 1)];
+		return TemperatureMeasurementCodec.decode(payload, mMeasurement) ? mMeasurement.value : 0;
+	}
+
+	@Benchmark
+	public double decodeBatch() {
+		final byte[] payload = mBatches[mNext++ & (SyntheticPayloads.COUNT - 1)];
+		return TemperatureBatchCodec.decode(payload, 1000000L, mBatch) ? mBatch.values[mBatch.count - 1] : 0;
+	}
+}
@@ -0,0 +1,62 @@
+package com.johnny.bletemperaturereceiver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan results folded into the device list model, with a UI drain every 32 results as the
+ * activity does on its refresh tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ScanAggregationBenchmark {
+
+	@Param({"10", "200"})
+	public int devices;
+
+	private final ScanResultModel<String> mModel = new ScanResultModel<>();
+	private final ScanResultModel.Update mUpdate = new ScanResultModel.Update();
+	private String[] mAddresses;
+	private int[] mRssi;
+	private int mNext;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(42);
+		mAddresses = new String[devices];
+		for (int i = 0; i < devices; i++) {
+			mAddresses[i] = String.format("C0:FF:EE:%02X:%02X:%02X", i >> 16 & 0xFF, i >> 8 & 0xFF, i & 0xFF);
+		}
+		mRssi = new int[SyntheticPayloads.COUNT];
+		for (int i = 0; i < mRssi.length; i++) {
+			mRssi[i] = -50 - random.nextInt(40);
+		}
+	}
+
+	@Benchmark
+	public boolean onScanResult() {
+		final int i = mNext++;
+		final String address = mAddresses[i % devices];
+		final boolean inserted = mModel.onScanResult(address, address, mRssi[i & (SyntheticPayloads.COUNT - 1)], i);
+		if ((i & 31) == 31) {
+			mModel.drainUpdate(mUpdate);
+		}
+		return inserted;
+	}
+}
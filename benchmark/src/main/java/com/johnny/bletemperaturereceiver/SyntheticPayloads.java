@@ -0,0 +1,65 @@
+package com.johnny.bletemperaturereceiver;
+
+/**
+ * Notification payloads as simulated thermometers send them, generated once per benchmark so
+ * decoding sees realistic, varying values rather than one constant array.
+ */
+final class SyntheticPayloads {
+	static final int COUNT = 1 << 12;
+
+	private SyntheticPayloads() {
+	}
+
+	/**
+	 * 0x2A1C payloads from a few devices, Celsius and Fahrenheit, one every 100 ms.
+	 */
+	static byte[][] temperatureMeasurements() {
+		final SimulatedThermometer[] devices = {
+				new SimulatedThermometer("00:00:00:00:00:01", 1).setSignal(22, 3, 600000, 0.2),
+				new SimulatedThermometer("00:00:00:00:00:02", 2).setSignal(-18, 1, 60000, 0.5),
+				new SimulatedThermometer("00:00:00:00:00:03", 3).setSignal(98.6, 2, 3600000, 0.1)
+						.setUnit(TemperatureMeasurement.Unit.Fahrenheit),
+		};
+		final byte[][] payloads = new byte[COUNT][];
+		for (int i = 0; i < COUNT; i++) {
+			payloads[i] = devices[i % devices.length].payloadAt(i * 100L).clone();
+		}
+		return payloads;
+	}
+
+	/**
+	 * Batched notifications of {@code samples} readings each, without base time like live batches.
+	 */
+	static byte[][] batches(int samples) {
+		final SimulatedThermometer device = new SimulatedThermometer("00:00:00:00:00:01", 1).setSignal(22, 3, 600000, 0.2);
+		final double[] values = new double[samples];
+		final byte[] buffer = new byte[TemperatureBatchCodec.HEADER_SIZE + samples * 2];
+		final byte[][] payloads = new byte[COUNT][];
+		for (int i = 0; i < COUNT; i++) {
+			for (int j = 0; j < samples; j++) {
+				values[j] = device.temperatureAt((long) (i * samples + j) * 10);
+			}
+			final int length = TemperatureBatchCodec.encode(values, 0, samples, TemperatureMeasurement.Unit.Celsius,
+					(i * samples) & 0xFFFF, 10, false, -1, -1, buffer, 0);
+			payloads[i] = new byte[length];
+			System.arraycopy(buffer, 0, payloads[i], 0, length);
+		}
+		return payloads;
+	}
+
+	/**
+	 * One reading per second as the history stores it: decoded from 0x2A1C payloads (0.01 degree
+	 * resolution, noise), timestamps taken on arrival with up to {@code jitterMillis} of jitter.
+	 */
+	static void historySeries(int jitterMillis, long[] timestamps, float[] values) {
+		final SimulatedThermometer device = new SimulatedThermometer("00:00:00:00:00:01", 1).setJitter(jitterMillis);
+		final TemperatureMeasurement measurement = new TemperatureMeasurement();
+		long time = 1700000000000L;
+		for (int i = 0; i < timestamps.length; i++) {
+			time += device.nextInterval();
+			TemperatureMeasurementCodec.decode(device.payloadAt(time), measurement);
+			timestamps[i] = time;
+			values[i] = (float) measurement.value;
+		}
+	}
+}